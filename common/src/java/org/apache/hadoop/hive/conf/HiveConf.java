@@ -255,6 +255,9 @@ public static enum ConfVars {
         "Maximum number of dynamic partitions allowed to be created in total."),
     DYNAMICPARTITIONMAXPARTSPERNODE("hive.exec.max.dynamic.partitions.pernode", 100,
         "Maximum number of dynamic partitions allowed to be created in each mapper/reducer node."),
+    HIVE_LOAD_DYNAMIC_PARTITIONS_THREAD_COUNT("hive.load.dynamic.partitions.thread", 15,
+        "Number of threads used to move the files of dynamic partitions into the table when\n" +
+        "they are loaded. The metastore is updated in batches after the files are moved."),
     MAXCREATEDFILES("hive.exec.max.created.files", 100000L,
         "Maximum number of HDFS files created by all mappers/reducers in a MapReduce job."),
     DOWNLOADED_RESOURCES_DIR("hive.downloaded.resources.dir",
@@ -342,6 +345,22 @@ public static enum ConfVars {
         "Number of seconds for the client to wait between consecutive connection attempts"),
     METASTORE_CLIENT_SOCKET_TIMEOUT("hive.metastore.client.socket.timeout", 600,
         "MetaStore Client socket timeout in seconds"),
+    METASTORE_CLIENT_POOL_SIZE("hive.metastore.client.pool.size", 10,
+        "The largest number of connections of a pooled metastore client, which is shared by the\n" +
+        "threads of a process. Each connection is used by one call at a time."),
+    METASTORE_CLIENT_CACHE_ENABLED("hive.metastore.client.cache.enabled", false,
+        "Whether the metastore client of a session caches the tables, partitions and column\n" +
+        "statistics it reads. The writes of the session drop the entries of the table they change."),
+    METASTORE_CLIENT_CACHE_MAX_OBJECTS("hive.metastore.client.cache.max.objects", 100000,
+        "The largest number of tables, partitions and column statistics the metastore client cache\n" +
+        "of a session keeps."),
+    METASTORE_CLIENT_CACHE_TTL("hive.metastore.client.cache.ttl", 60,
+        "Number of seconds an entry is kept in the metastore client cache. This bounds how long\n" +
+        "the changes of other clients are not seen, unless the metastore runs in the same process\n" +
+        "and org.apache.hadoop.hive.metastore.MetaStoreChangeLog is one of its event listeners."),
+    METASTORE_CLIENT_CACHE_CHANGE_LOG_SIZE("hive.metastore.client.cache.change.log.size", 10000,
+        "The number of changes kept by org.apache.hadoop.hive.metastore.MetaStoreChangeLog. The\n" +
+        "metastore client caches that fell further behind are dropped."),
     METASTOREPWD("javax.jdo.option.ConnectionPassword", "mine",
         "password to use against metastore database"),
     METASTORECONNECTURLHOOK("hive.metastore.ds.connection.url.hook", "",
@@ -633,6 +652,23 @@ public static enum ConfVars {
         "Optimized hashtable (see hive.mapjoin.optimized.hashtable) uses a chain of buffers to\n" +
         "store data. This is one buffer size. HT may be slightly faster if this is larger, but for small\n" +
         "joins unnecessary memory will be allocated and then trimmed."),
+    HIVEUSEHYBRIDGRACEHASHJOIN("hive.mapjoin.hybridgrace.hashtable", true,
+        "Whether to use hybrid grace hash join for MapJoin with a single small table. The small table\n" +
+        "is hash partitioned; partitions that do not fit in hive.auto.convert.join.noconditionaltask.size\n" +
+        "are spilled to local disk together with the matching big table rows, and joined after the main\n" +
+        "pass. Only works on Tez, with the memory-optimized hash table."),
+    HIVEHYBRIDGRACEHASHJOINNUMPARTITIONS("hive.mapjoin.hybridgrace.numpartitions", 16,
+        "Number of partitions of the hybrid grace hash join small table; rounded up to a power of two."),
+    HIVEHYBRIDGRACEHASHJOINSIZEFACTOR("hive.mapjoin.hybridgrace.size.factor", (float) 4,
+        "When hybrid grace hash join is used, a join with a single small table is converted to MapJoin\n" +
+        "if the small table is smaller than hive.auto.convert.join.noconditionaltask.size times this factor."),
+    HIVEMAPJOINBLOOMFILTER("hive.mapjoin.optimized.hashtable.bloomfilter", true,
+        "Whether the optimized hashtable (see hive.mapjoin.optimized.hashtable) builds a bloom filter over\n" +
+        "the small table keys, to rule out big table keys without a match before probing the hashtable.\n" +
+        "The filter is turned off at runtime if most big table keys have a match."),
+    HIVEMAPJOINBLOOMFILTERMINKEYS("hive.mapjoin.optimized.hashtable.bloomfilter.min.keys", 100000,
+        "Minimum number of small table keys for the bloom filter to be built. Smaller hashtables are\n" +
+        "likely to be in the CPU cache anyway, and then the filter does not save much."),
 
     HIVESMBJOINCACHEROWS("hive.smbjoin.cache.rows", 10000,
         "How many rows with the same key value should be cached in memory per smb joined table."),
@@ -648,6 +684,14 @@ public static enum ConfVars {
     HIVEMAPAGGRHASHMINREDUCTION("hive.map.aggr.hash.min.reduction", (float) 0.5,
         "Hash aggregation will be turned off if the ratio between hash  table size and input rows is bigger than this number. \n" +
         "Set to 1 to make sure hash aggregation is never turned off."),
+    HIVE_GROUPBY_SPILL_ENABLED("hive.groupby.spill.enabled", false,
+        "Whether hash aggregation spills its hash table to local disk as a sorted run when it runs out\n" +
+        "of memory, instead of forwarding partial aggregates. The runs are merged when the group by\n" +
+        "closes, so every key is forwarded once. This also covers group bys that compute final\n" +
+        "results in a hash table, where forwarding partial aggregates is not possible."),
+    HIVE_GROUPBY_SPILL_MAX_RUNS("hive.groupby.spill.max.runs", 64,
+        "The maximum number of spilled runs of a hash aggregation. When it is reached, the runs are\n" +
+        "merged into one before the next spill."),
     HIVEMULTIGROUPBYSINGLEREDUCER("hive.multigroupby.singlereducer", true,
         "Whether to optimize multi group by query to generate single M/R  job plan. If the multi group by query has \n" +
         "common group by keys, it will be optimized to generate single M/R job."),
@@ -810,6 +854,14 @@ public static enum ConfVars {
     HIVE_ORC_DICTIONARY_KEY_SIZE_THRESHOLD("hive.exec.orc.dictionary.key.size.threshold", 0.8f,
         "If the number of keys in a dictionary is greater than this fraction of the total number of\n" +
         "non-null rows, turn off dictionary encoding.  Use 1 to always use dictionary encoding."),
+    HIVE_ORC_DICTIONARY_SAMPLE_ROWS("hive.exec.orc.dictionary.sample.rows", 10000,
+        "The number of non-null values of a string column in each stripe after which the ORC writer\n" +
+        "decides whether to keep dictionary encoding for the rest of the stripe, based on\n" +
+        "hive.exec.orc.dictionary.key.size.threshold. Use 0 to decide when the stripe is written."),
+    HIVE_ORC_DICTIONARY_IMPL("hive.exec.orc.dictionary.impl", "hash", new StringSet("hash", "rbtree"),
+        "The data structure the ORC writer uses to collect the distinct values of string columns.\n" +
+        "'hash' uses a hash table and sorts the keys once when the stripe is written; 'rbtree'\n" +
+        "keeps the keys in a red-black tree. Both write the same dictionary."),
     HIVE_ORC_DEFAULT_ROW_INDEX_STRIDE("hive.exec.orc.default.row.index.stride", 10000, "Define the default ORC index stride"),
     HIVE_ORC_DEFAULT_BUFFER_SIZE("hive.exec.orc.default.buffer.size", 256 * 1024, "Define the default ORC buffer size"),
     HIVE_ORC_DEFAULT_BLOCK_PADDING("hive.exec.orc.default.block.padding", true, "Define the default block padding"),
@@ -819,6 +871,9 @@ public static enum ConfVars {
         "In that case, if the available size within the block is more than 3.2Mb, a new smaller stripe will be inserted to fit within that space. \n" +
         "This will make sure that no stripe written will cross block boundaries and cause remote reads within a node local task."),
     HIVE_ORC_DEFAULT_COMPRESS("hive.exec.orc.default.compress", "ZLIB", "Define the default compression codec for ORC file"),
+    HIVE_ORC_DEFAULT_BLOOM_FILTER_FPP("hive.exec.orc.default.bloom.filter.fpp", 0.05f,
+        "Define the default false positive probability of the bloom filters of ORC columns.\n" +
+        "Bloom filters are only written for the columns listed in the orc.bloom.filter.columns table property."),
 
     HIVE_ORC_ENCODING_STRATEGY("hive.exec.orc.encoding.strategy", "SPEED", new StringSet("SPEED", "COMPRESSION"),
         "Define the encoding strategy to use while writing data. Changing this will\n" +
@@ -830,7 +885,11 @@ public static enum ConfVars {
         "If turned on splits generated by orc will include metadata about the stripes in the file. This\n" +
         "data is read remotely (from the client or HS2 machine) and sent to all the tasks."),
     HIVE_ORC_CACHE_STRIPE_DETAILS_SIZE("hive.orc.cache.stripe.details.size", 10000,
-        "Cache size for keeping meta info about orc splits cached in the client."),
+        "Deprecated and no longer used; see hive.orc.cache.metadata.size."),
+    HIVE_ORC_CACHE_METADATA_SIZE("hive.orc.cache.metadata.size", 64L * 1024 * 1024,
+        "Maximum size in bytes of the ORC file footers and metadata cached in each process.\n" +
+        "The cache is shared by split generation and the ORC readers, and the least recently\n" +
+        "used files are evicted first. Set to 0 to disable the cache."),
     HIVE_ORC_COMPUTE_SPLITS_NUM_THREADS("hive.orc.compute.splits.num.threads", 10,
         "How many threads orc should use to create splits in parallel."),
     HIVE_ORC_SKIP_CORRUPT_DATA("hive.exec.orc.skip.corrupt.data", false,
@@ -838,6 +897,15 @@ public static enum ConfVars {
         "whether to skip the corrupt data or throw exception. The default behavior is to throw exception."),
 
     HIVE_ORC_ZEROCOPY("hive.exec.orc.zerocopy", false, "Use zerocopy reads with ORC."),
+    HIVE_ORC_READ_AHEAD("hive.exec.orc.read.ahead", false,
+        "Whether the ORC reader reads the next stripe in the background while the current one is\n" +
+        "decoded, and reads the ranges of a stripe in parallel. It holds up to two stripes in memory.\n" +
+        "Not used with zerocopy reads."),
+    HIVE_ORC_READ_AHEAD_THREADS("hive.exec.orc.read.ahead.threads", 4,
+        "The number of threads of the process that read ORC files ahead."),
+    HIVE_ORC_READ_COALESCE_GAP("hive.exec.orc.read.coalesce.gap", 256L * 1024,
+        "When reading ahead, ranges of a stripe that are at most this many bytes apart are read\n" +
+        "with a single read."),
 
     HIVE_LAZYSIMPLE_EXTENDED_BOOLEAN_LITERAL("hive.lazysimple.extended_boolean_literal", false,
         "LazySimpleSerde uses this property to determine if it treats 'T', 't', 'F', 'f',\n" +
@@ -1419,6 +1487,10 @@ public static enum ConfVars {
     HIVE_DRIVER_RUN_HOOKS("hive.exec.driver.run.hooks", "",
         "A comma separated list of hooks which implement HiveDriverRunHook. Will be run at the beginning " +
         "and end of Driver.run, these will be run in the order specified."),
+    HIVE_DRIVER_PARALLEL_COMPILATION("hive.driver.parallel.compilation", true,
+        "Whether queries of different sessions can be compiled at the same time. The queries of\n" +
+        "one session are always compiled one at a time. If false, all the queries of the process\n" +
+        "are compiled one at a time."),
     HIVE_DDL_OUTPUT_FORMAT("hive.ddl.output.format", null,
         "The data format to use for DDL output.  One of \"text\" (for human\n" +
         "readable text) or \"json\" (for a json object)."),
@@ -1483,6 +1555,8 @@ public static enum ConfVars {
     HIVE_SERVER2_LONG_POLLING_TIMEOUT("hive.server2.long.polling.timeout", 5000L,
         "Time in milliseconds that HiveServer2 will wait,\n" +
         "before responding to asynchronous calls that use long polling"),
+    HIVE_SERVER2_METRICS_ENABLED("hive.server2.metrics.enabled", false,
+        "Whether HiveServer2 publishes metrics, such as the query compilation time, through JMX."),
 
     // HiveServer2 auth configuration
     HIVE_SERVER2_AUTHENTICATION("hive.server2.authentication", "NONE",
@@ -1626,8 +1700,28 @@ public static enum ConfVars {
     HIVE_VECTORIZATION_ENABLED("hive.vectorized.execution.enabled", false,
         "This flag should be set to true to enable vectorized mode of query execution.\n" +
         "The default value is false."),
+    HIVE_VECTORIZATION_REDUCE_ENABLED("hive.vectorized.execution.reduce.enabled", true,
+        "This flag should be set to true to enable vectorized mode of the reduce-side of query execution.\n" +
+        "It only takes effect on Tez and when hive.vectorized.execution.enabled is also true."),
+    HIVE_VECTORIZATION_MAPJOIN_NATIVE_ENABLED("hive.vectorized.execution.mapjoin.native.enabled", true,
+        "This flag should be set to true to enable the native vectorized map join operators, which\n" +
+        "probe the memory-optimized hash table directly from the column vectors instead of\n" +
+        "converting each row. It only takes effect on Tez with hive.mapjoin.optimized.hashtable."),
+    HIVE_VECTORIZATION_FILESINK_BATCH_ENABLED("hive.vectorized.filesink.batch.enabled", true,
+        "This flag should be set to true to let the vectorized file sink hand whole row batches to\n" +
+        "output formats whose record writers consume column vectors directly, such as ORC, instead\n" +
+        "of serializing each row. Dynamic partitions and list bucketing always write rows."),
+    HIVE_VECTORIZATION_PARQUET_COLUMNAR_ENABLED("hive.vectorized.parquet.columnar.enabled", false,
+        "This flag should be set to true to let vectorized queries read Parquet files column by column\n" +
+        "into row batches, eliminating row groups with the pushed down predicate. Files with nested or\n" +
+        "unsupported column types are still read row by row."),
+    HIVE_VECTORIZATION_TEXT_ENABLED("hive.vectorized.text.enabled", false,
+        "This flag should be set to true to vectorize queries over delimited text tables read with\n" +
+        "LazySimpleSerDe. The lines are split into fields in bulk and only the projected columns are\n" +
+        "parsed into row batches. Tables that skip header or footer lines are not vectorized."),
     HIVE_VECTORIZATION_GROUPBY_CHECKINTERVAL("hive.vectorized.groupby.checkinterval", 100000,
-        "Number of entries added to the group by aggregation hash before a recomputation of average entry size is performed."),
+        "Deprecated and ignored: the group by aggregation hash accounts the size of each entry as it\n" +
+        "is added and updated, instead of recomputing an average entry size."),
     HIVE_VECTORIZATION_GROUPBY_MAXENTRIES("hive.vectorized.groupby.maxentries", 1000000,
         "Max number of entries in the vector group by aggregation hashtables. \n" +
         "Exceeding this will trigger a flush irrelevant of memory pressure condition."),
@@ -1695,7 +1789,11 @@ public static enum ConfVars {
         "When auto reducer parallelism is enabled this factor will be used to over-partition data in shuffle edges."),
     TEZ_MIN_PARTITION_FACTOR("hive.tez.min.partition.factor", 0.25f,
         "When auto reducer parallelism is enabled this factor will be used to put a lower limit to the number\n" +
-        "of reducers that tez specifies.")
+        "of reducers that tez specifies."),
+    TEZ_DYNAMIC_PARTITION_PRUNING("hive.tez.dynamic.partition.pruning", true,
+        "When a map join on Tez is an inner or left semi join on a single key that is a partition column of\n" +
+        "the big table, a big table split whose first row has no match in the small table is not read any\n" +
+        "further, since no other row of the partition can match either.")
     ;
 
     public final String varname;
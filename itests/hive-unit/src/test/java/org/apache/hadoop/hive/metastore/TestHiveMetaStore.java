@@ -29,6 +29,7 @@
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import junit.framework.TestCase;
 
@@ -794,6 +795,51 @@ public void testAlterPartition() throws Throwable {
       assertEquals("couldn't alter partition", part3.getSd().getNumBuckets(),
           12);
 
+      // add and alter several partitions at once, which is done with direct SQL
+      long sqlWrites = ObjectStore.getDirectSqlPartitionWrites();
+      List<Partition> parts = new ArrayList<Partition>();
+      for (String hr : Arrays.asList("15", "16")) {
+        Partition newPart = part3.deepCopy();
+        newPart.setValues(makeVals("2008-07-01", hr));
+        newPart.getSd().setLocation(tbl.getSd().getLocation() + "/part" + hr);
+        parts.add(newPart);
+      }
+      client.add_partitions(parts);
+      assertEquals(sqlWrites + 1, ObjectStore.getDirectSqlPartitionWrites());
+      for (Partition tmpPart : parts) {
+        tmpPart.getParameters().put("retention", "20");
+        tmpPart.getSd().getBucketCols().clear();
+        tmpPart.getSd().setNumBuckets(-1);
+      }
+      client.alter_partitions(dbName, tblName, parts);
+      assertEquals(sqlWrites + 2, ObjectStore.getDirectSqlPartitionWrites());
+      List<Partition> altered = client.getPartitionsByNames(dbName, tblName,
+          Arrays.asList("ds=2008-07-01/hr=15", "ds=2008-07-01/hr=16"));
+      assertEquals(2, altered.size());
+      for (Partition tmpPart : altered) {
+        assertEquals("20", tmpPart.getParameters().get("retention"));
+        assertEquals("1", tmpPart.getSd().getSerdeInfo().getParameters().get("abc"));
+        assertTrue(tmpPart.getSd().getBucketCols().isEmpty());
+        assertEquals(-1, tmpPart.getSd().getNumBuckets());
+      }
+
+      // a partition with other columns than the table is added through JDO
+      Partition otherCols = part3.deepCopy();
+      otherCols.setValues(makeVals("2008-07-01", "17"));
+      otherCols.getSd().setLocation(tbl.getSd().getLocation() + "/part17");
+      otherCols.getSd().addToCols(
+          new FieldSchema("extra", serdeConstants.STRING_TYPE_NAME, ""));
+      client.add_partitions(Arrays.asList(otherCols));
+      assertEquals(sqlWrites + 2, ObjectStore.getDirectSqlPartitionWrites());
+      assertEquals(3, client.getPartition(dbName, tblName, otherCols.getValues())
+          .getSd().getColsSize());
+
+      client.dropTable(dbName, tblName);
+      assertEquals(sqlWrites + 3, ObjectStore.getDirectSqlPartitionWrites());
+
+      // the partitions are dropped with the table
+      client.createTable(tbl);
+      assertTrue(client.listPartitionNames(dbName, tblName, (short) -1).isEmpty());
       client.dropTable(dbName, tblName);
 
       client.dropDatabase(dbName);
@@ -2299,6 +2345,155 @@ public void testSynchronized() throws Exception {
     assertEquals(currentNumberOfDbs, databases.size());
   }
 
+  /**
+   * Tests {@link PooledMetaStoreClient} with concurrent calls.
+   */
+  public void testPooledClient() throws Exception {
+    final int currentNumberOfDbs = client.getAllDatabases().size();
+    final IMetaStoreClient pooledClient = PooledMetaStoreClient.getProxy(hiveConf,
+        null, HiveMetaStoreClient.class.getName(), 2);
+    PooledMetaStoreClient pool = PooledMetaStoreClient.getHandler(pooledClient);
+    try {
+      final AtomicInteger failures = new AtomicInteger();
+      Thread[] threads = new Thread[4];
+      for (int i = 0; i < threads.length; ++i) {
+        threads[i] = new Thread() {
+          @Override
+          public void run() {
+            try {
+              for (int call = 0; call < 10; ++call) {
+                if (pooledClient.getAllDatabases().size() != currentNumberOfDbs) {
+                  failures.incrementAndGet();
+                }
+              }
+            } catch (Exception e) {
+              failures.incrementAndGet();
+            }
+          }
+        };
+        threads[i].start();
+      }
+      for (Thread thread : threads) {
+        thread.join();
+      }
+      assertEquals(0, failures.get());
+      assertEquals(0, pool.getInFlightCalls());
+      // the pool doesn't open more connections than its size
+      assertTrue(pool.getIdleConnections() <= 2);
+      assertTrue(pool.getIdleConnections() > 0);
+    } finally {
+      pooledClient.close();
+    }
+    assertEquals(0, pool.getIdleConnections());
+    try {
+      pooledClient.getAllDatabases();
+      fail("The closed client should fail");
+    } catch (MetaException e) {
+      // expected
+    }
+  }
+
+  /**
+   * A client with the metastore conf calls, which are bound to a connection.
+   */
+  private interface MetaConfClient {
+    void setMetaConf(String key, String value) throws MetaException, TException;
+  }
+
+  public void testPooledClientRejectsSetMetaConf() throws Throwable {
+    IMetaStoreClient pooledClient = PooledMetaStoreClient.getProxy(hiveConf,
+        null, HiveMetaStoreClient.class.getName(), 2);
+    PooledMetaStoreClient pool = PooledMetaStoreClient.getHandler(pooledClient);
+    try {
+      pool.invoke(pooledClient,
+          MetaConfClient.class.getMethod("setMetaConf", String.class, String.class),
+          new Object[] {"hive.metastore.try.direct.sql", "false"});
+      fail("setMetaConf should be rejected by the pooled client");
+    } catch (MetaException e) {
+      // expected
+    } finally {
+      pooledClient.close();
+    }
+    // the call was rejected before a connection was borrowed
+    assertEquals(0, pool.getIdleConnections());
+  }
+
+  public void testCachingClient() throws Exception {
+    String dbName = "testCachingClient";
+    String tblName = "cached_table";
+    IMetaStoreClient cachingClient = CachingMetaStoreClient.getProxy(hiveConf, client);
+    CachingMetaStoreClient cache = CachingMetaStoreClient.getHandler(cachingClient);
+    try {
+      silentDropDatabase(dbName);
+      Database db = new Database();
+      db.setName(dbName);
+      client.createDatabase(db);
+      createTableForTestFilter(dbName, tblName, "owner1", 0, false);
+
+      Table tbl = cachingClient.getTable(dbName, tblName);
+      assertEquals("owner1", tbl.getOwner());
+      assertEquals(1, cache.getStats().missCount());
+      // the callers get copies of the cached table
+      tbl.setOwner("changed");
+      assertEquals("owner1", cachingClient.getTable(dbName, tblName).getOwner());
+      assertEquals(1, cache.getStats().hitCount());
+
+      // the changes made through the caching client drop the table
+      tbl.setOwner("owner2");
+      cachingClient.alter_table(dbName, tblName, tbl);
+      assertEquals(0, cache.getEntryCount());
+      assertEquals("owner2", cachingClient.getTable(dbName, tblName).getOwner());
+      assertEquals(0, cachingClient.listPartitionNames(dbName, tblName, (short) -1).size());
+      assertEquals(0, cachingClient.listPartitionNames(dbName, tblName, (short) -1).size());
+      assertEquals(2, cache.getStats().hitCount());
+
+      cachingClient.dropTable(dbName, tblName);
+      assertEquals(0, cache.getEntryCount());
+      try {
+        cachingClient.getTable(dbName, tblName);
+        fail("The dropped table should not be found");
+      } catch (NoSuchObjectException e) {
+        // expected
+      }
+    } finally {
+      silentDropDatabase(dbName);
+    }
+  }
+
+  public void testCachingClientPartition() throws Exception {
+    String dbName = "testCachingClientPartition";
+    String tblName = "cached_table";
+    IMetaStoreClient cachingClient = CachingMetaStoreClient.getProxy(hiveConf, client);
+    CachingMetaStoreClient cache = CachingMetaStoreClient.getHandler(cachingClient);
+    try {
+      silentDropDatabase(dbName);
+      Database db = new Database();
+      db.setName(dbName);
+      client.createDatabase(db);
+      Table tbl = createTableForTestFilter(dbName, tblName, "owner1", 0, false);
+      List<String> vals = new ArrayList<String>();
+      for (FieldSchema key : tbl.getPartitionKeys()) {
+        vals.add(key.getName().equals("ds") ? "2014-01-01" : "1");
+      }
+      client.add_partition(makePartitionObject(dbName, tblName, vals, tbl, "/part1"));
+
+      Partition part = cachingClient.getPartition(dbName, tblName, vals);
+      assertNull(part.getParameters().get("cached"));
+      cachingClient.getPartition(dbName, tblName, vals);
+      assertEquals(1, cache.getStats().hitCount());
+
+      // the partition is cached under its table, so changing it drops the entry
+      part.getParameters().put("cached", "no");
+      cachingClient.alter_partition(dbName, tblName, part);
+      assertEquals(0, cache.getEntryCount());
+      part = cachingClient.getPartition(dbName, tblName, vals);
+      assertEquals("no", part.getParameters().get("cached"));
+      assertEquals(2, cache.getStats().missCount());
+    } finally {
+      silentDropDatabase(dbName);
+    }
+  }
+
   public void testTableFilter() throws Exception {
     try {
       String dbName = "testTableFilter";
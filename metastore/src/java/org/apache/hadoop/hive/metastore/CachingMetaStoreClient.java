@@ -0,0 +1,364 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.hive.metastore;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.hive.conf.HiveConf;
+import org.apache.hadoop.hive.metastore.api.ColumnStatistics;
+import org.apache.hadoop.hive.metastore.api.Partition;
+import org.apache.hadoop.hive.metastore.api.Table;
+import org.apache.thrift.TBase;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.Weigher;
+
+/**
+ * CachingMetaStoreClient. Creates a proxy for IMetaStoreClient that caches
+ * the tables, partitions and column statistics it reads. The callers get
+ * their own copies of the cached objects, so they can change them.
+ *
+ * The entries of a table are dropped when the client changes the table or
+ * its partitions, and when the table shows up in the
+ * {@link MetaStoreChangeLog} of the process. The changes that are not seen
+ * either way, such as the ones of other processes through a remote
+ * metastore, are seen once the entries expire after
+ * hive.metastore.client.cache.ttl seconds.
+ */
+public class CachingMetaStoreClient implements InvocationHandler {
+
+  private static final Log LOG = LogFactory.getLog(CachingMetaStoreClient.class.getName());
+
+  // the reads that are cached, all of them take the database and the table
+  // name as the first two arguments
+  private static final Set<String> CACHED_READS = new HashSet<String>(Arrays.asList(
+      "getTable", "getPartition", "getPartitionsByNames", "listPartitions",
+      "listPartitionNames", "listPartitionsByFilter", "listPartitionsByExpr",
+      "getTableColumnStatistics", "getPartitionColumnStatistics"));
+
+  // the calls that change tables, partitions or column statistics
+  private static final Set<String> WRITES = new HashSet<String>(Arrays.asList(
+      "add_partition", "add_partitions", "alter_partition", "alter_partitions",
+      "alter_table", "appendPartition", "append_partition", "createTable",
+      "deletePartitionColumnStatistics", "deleteTableColumnStatistics", "dropDatabase",
+      "dropPartition", "dropPartitions", "drop_partition", "dropTable", "exchange_partition",
+      "renamePartition", "updatePartitionColumnStatistics", "updateTableColumnStatistics"));
+
+  private final IMetaStoreClient base;
+  private final Cache<Key, Object> cache;
+  private long lastChange;
+
+  protected CachingMetaStoreClient(IMetaStoreClient base, int maxObjects, long ttlSeconds) {
+    this.base = base;
+    this.cache = CacheBuilder.newBuilder()
+        .maximumWeight(maxObjects)
+        .weigher(new Weigher<Key, Object>() {
+          @Override
+          public int weigh(Key key, Object value) {
+            return countObjects(value);
+          }
+        })
+        .expireAfterWrite(ttlSeconds, TimeUnit.SECONDS)
+        .build();
+    this.lastChange = MetaStoreChangeLog.getLastSequence();
+  }
+
+  /**
+   * Wrap a client into a caching one.
+   * @param hiveConf the configuration with the size and the ttl of the cache
+   * @param base the client that reads from the metastore
+   * @return the caching client
+   */
+  public static IMetaStoreClient getProxy(HiveConf hiveConf, IMetaStoreClient base) {
+    CachingMetaStoreClient handler = new CachingMetaStoreClient(base,
+        hiveConf.getIntVar(HiveConf.ConfVars.METASTORE_CLIENT_CACHE_MAX_OBJECTS),
+        hiveConf.getIntVar(HiveConf.ConfVars.METASTORE_CLIENT_CACHE_TTL));
+    return (IMetaStoreClient) Proxy.newProxyInstance(
+        CachingMetaStoreClient.class.getClassLoader(),
+        new Class [] { IMetaStoreClient.class }, handler);
+  }
+
+  /**
+   * Get the handler of a caching client.
+   * @param client a client created by {@link #getProxy}
+   * @return the handler, which has the statistics of the cache
+   */
+  public static CachingMetaStoreClient getHandler(IMetaStoreClient client) {
+    return (CachingMetaStoreClient) Proxy.getInvocationHandler(client);
+  }
+
+  /**
+   * The result of listPartitionsByExpr, which fills the list it is given.
+   */
+  private static final class ExprResult {
+    private final boolean hasUnknownPartitions;
+    private final List<Partition> partitions;
+
+    ExprResult(boolean hasUnknownPartitions, List<Partition> partitions) {
+      this.hasUnknownPartitions = hasUnknownPartitions;
+      this.partitions = partitions;
+    }
+  }
+
+  /**
+   * A call with its arguments and the table it reads.
+   */
+  static final class Key {
+    private final String dbName;
+    private final String tableName;
+    private final String method;
+    private final List<Object> args;
+
+    Key(String dbName, String tableName, String method, List<Object> args) {
+      this.dbName = dbName.toLowerCase();
+      this.tableName = tableName.toLowerCase();
+      this.method = method;
+      this.args = args;
+    }
+
+    boolean isOf(String dbName, String tableName) {
+      return this.dbName.equals(dbName)
+          && (tableName == null || this.tableName.equals(tableName));
+    }
+
+    @Override
+    public boolean equals(Object other) {
+      if (!(other instanceof Key)) {
+        return false;
+      }
+      Key key = (Key) other;
+      return method.equals(key.method) && dbName.equals(key.dbName)
+          && tableName.equals(key.tableName) && args.equals(key.args);
+    }
+
+    @Override
+    public int hashCode() {
+      return (method.hashCode() * 31 + tableName.hashCode()) * 31 + args.hashCode();
+    }
+  }
+
+  @Override
+  public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+    if (method.getDeclaringClass() == Object.class) {
+      try {
+        return method.invoke(this, args);
+      } catch (InvocationTargetException e) {
+        throw e.getCause();
+      }
+    }
+    String name = method.getName();
+    if (name.equals("close") || name.equals("reconnect")) {
+      cache.invalidateAll();
+    } else if (CACHED_READS.contains(name) && args != null && args.length >= 2
+        && args[0] instanceof String && args[1] instanceof String
+        && !(name.equals("getTable") && args.length != 2)) {
+      return cachedRead(method, args);
+    } else if (WRITES.contains(name)) {
+      try {
+        return call(method, args);
+      } finally {
+        invalidate(name, args);
+      }
+    }
+    return call(method, args);
+  }
+
+  private Object call(Method method, Object[] args) throws Throwable {
+    try {
+      return method.invoke(base, args);
+    } catch (InvocationTargetException e) {
+      throw e.getCause();
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  private Object cachedRead(Method method, Object[] args) throws Throwable {
+    String name = method.getName();
+    boolean isExpr = name.equals("listPartitionsByExpr");
+    Key key = makeKey(name, args, isExpr);
+    pollChangeLog();
+
+    Object value = cache.getIfPresent(key);
+    if (value == null) {
+      Object result = call(method, args);
+      if (isExpr) {
+        List<Partition> parts = (List<Partition>) args[args.length - 1];
+        value = new ExprResult((Boolean) result, (List<Partition>) copy(parts));
+      } else if (result == null) {
+        return null;
+      } else {
+        value = copy(result);
+      }
+      cache.put(key, value);
+      return result;
+    }
+    if (isExpr) {
+      ExprResult exprResult = (ExprResult) value;
+      ((List<Partition>) args[args.length - 1]).addAll(
+          (List<Partition>) copy(exprResult.partitions));
+      return exprResult.hasUnknownPartitions;
+    }
+    return copy(value);
+  }
+
+  private static Key makeKey(String name, Object[] args, boolean isExpr) {
+    // listPartitionsByExpr returns the partitions in its last argument
+    int numArgs = isExpr ? args.length - 1 : args.length;
+    List<Object> keyArgs = new ArrayList<Object>(numArgs);
+    for (int i = 0; i < numArgs; i++) {
+      Object arg = args[i];
+      if (arg instanceof byte[]) {
+        arg = ByteBuffer.wrap(((byte[]) arg).clone());
+      } else if (arg instanceof List) {
+        arg = new ArrayList<Object>((List<?>) arg);
+      }
+      keyArgs.add(arg);
+    }
+    return new Key((String) args[0], (String) args[1], name, keyArgs);
+  }
+
+  /**
+   * Drop the entries of the tables that changed since the last call.
+   */
+  private synchronized void pollChangeLog() {
+    if (!MetaStoreChangeLog.isActive()) {
+      return;
+    }
+    long last = MetaStoreChangeLog.getLastSequence();
+    if (last == lastChange) {
+      return;
+    }
+    List<MetaStoreChangeLog.Change> changes = MetaStoreChangeLog.getChangesSince(lastChange);
+    if (changes == null) {
+      LOG.debug("Missed some of the metastore changes, dropping the cache");
+      cache.invalidateAll();
+      lastChange = last;
+      return;
+    }
+    for (MetaStoreChangeLog.Change change : changes) {
+      invalidate(change.getDbName(), change.getTableName());
+      lastChange = change.getSequence();
+    }
+  }
+
+  private void invalidate(String name, Object[] args) {
+    if (name.equals("dropDatabase")) {
+      invalidate((String) args[0], null);
+    } else if (name.equals("exchange_partition")) {
+      invalidate((String) args[1], (String) args[2]);
+      invalidate((String) args[3], (String) args[4]);
+    } else if (args.length >= 2 && args[0] instanceof String && args[1] instanceof String) {
+      invalidate((String) args[0], (String) args[1]);
+    } else if (args[0] instanceof Table) {
+      invalidate(((Table) args[0]).getDbName(), ((Table) args[0]).getTableName());
+    } else if (args[0] instanceof Partition) {
+      invalidate(((Partition) args[0]).getDbName(), ((Partition) args[0]).getTableName());
+    } else if (args[0] instanceof ColumnStatistics) {
+      ColumnStatistics stats = (ColumnStatistics) args[0];
+      invalidate(stats.getStatsDesc().getDbName(), stats.getStatsDesc().getTableName());
+    } else {
+      cache.invalidateAll();
+    }
+  }
+
+  /**
+   * Drop the entries of a table, or of all the tables of a database.
+   */
+  void invalidate(String dbName, String tableName) {
+    if (dbName == null) {
+      cache.invalidateAll();
+      return;
+    }
+    dbName = dbName.toLowerCase();
+    tableName = tableName == null ? null : tableName.toLowerCase();
+    Iterator<Key> keys = cache.asMap().keySet().iterator();
+    while (keys.hasNext()) {
+      if (keys.next().isOf(dbName, tableName)) {
+        keys.remove();
+      }
+    }
+  }
+
+  /**
+   * Copy the thrift objects in a result, so that the callers don't change
+   * the cached ones.
+   */
+  @SuppressWarnings("unchecked")
+  private static Object copy(Object value) {
+    if (value instanceof TBase) {
+      return ((TBase<?, ?>) value).deepCopy();
+    } else if (value instanceof List) {
+      List<Object> result = new ArrayList<Object>(((List<?>) value).size());
+      for (Object item : (List<?>) value) {
+        result.add(copy(item));
+      }
+      return result;
+    } else if (value instanceof Map) {
+      Map<Object, Object> result = new HashMap<Object, Object>();
+      for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+        result.put(entry.getKey(), copy(entry.getValue()));
+      }
+      return result;
+    }
+    return value;
+  }
+
+  private static int countObjects(Object value) {
+    if (value instanceof ExprResult) {
+      return 1 + ((ExprResult) value).partitions.size();
+    } else if (value instanceof List) {
+      return 1 + ((List<?>) value).size();
+    } else if (value instanceof Map) {
+      int result = 1;
+      for (Object item : ((Map<?, ?>) value).values()) {
+        result += countObjects(item);
+      }
+      return result;
+    }
+    return 1;
+  }
+
+  /**
+   * Get the hit, miss and eviction counts of the cache.
+   */
+  public CacheStats getStats() {
+    return cache.stats();
+  }
+
+  public long getEntryCount() {
+    return cache.size();
+  }
+}
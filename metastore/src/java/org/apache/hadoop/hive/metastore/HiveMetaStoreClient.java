@@ -1687,7 +1687,9 @@ public ShowCompactResponse showCompactions() throws TException {
   /**
    * Creates a synchronized wrapper for any {@link IMetaStoreClient}.
    * This may be used by multi-threaded applications until we have
-   * fixed all reentrancy bugs.
+   * fixed all reentrancy bugs. The calls through the wrapper are serialized
+   * on the wrapped client only; applications that make many concurrent calls
+   * should use a {@link PooledMetaStoreClient} instead.
    *
    * @param client unsynchronized client
    *
@@ -1703,7 +1705,6 @@ public static IMetaStoreClient newSynchronizedClient(
 
   private static class SynchronizedHandler implements InvocationHandler {
     private final IMetaStoreClient client;
-    private static final Object lock = SynchronizedHandler.class;
 
     SynchronizedHandler(IMetaStoreClient client) {
       this.client = client;
@@ -1713,7 +1714,7 @@ private static class SynchronizedHandler implements InvocationHandler {
     public Object invoke(Object proxy, Method method, Object [] args)
         throws Throwable {
       try {
-        synchronized (lock) {
+        synchronized (client) {
           return method.invoke(client, args);
         }
       } catch (InvocationTargetException e) {
@@ -0,0 +1,190 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.hive.metastore;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hive.conf.HiveConf;
+import org.apache.hadoop.hive.metastore.api.MetaException;
+import org.apache.hadoop.hive.metastore.api.Table;
+import org.apache.hadoop.hive.metastore.events.AddPartitionEvent;
+import org.apache.hadoop.hive.metastore.events.AlterPartitionEvent;
+import org.apache.hadoop.hive.metastore.events.AlterTableEvent;
+import org.apache.hadoop.hive.metastore.events.CreateTableEvent;
+import org.apache.hadoop.hive.metastore.events.DropDatabaseEvent;
+import org.apache.hadoop.hive.metastore.events.DropPartitionEvent;
+import org.apache.hadoop.hive.metastore.events.DropTableEvent;
+
+/**
+ * MetaStoreChangeLog. A listener that keeps a sequenced log of the tables
+ * that were changed, so that {@link CachingMetaStoreClient}s in the same
+ * process can drop their stale entries without asking the metastore.
+ *
+ * The log keeps the last hive.metastore.client.cache.change.log.size
+ * changes. A client that fell further behind drops its whole cache.
+ * The log only covers the metastore that runs in this process, for
+ * example an embedded metastore in HiveServer2.
+ */
+public class MetaStoreChangeLog extends MetaStoreEventListener {
+
+  /**
+   * A change of a table, or of a whole database if the table name is null.
+   */
+  public static final class Change {
+    private final long sequence;
+    private final String dbName;
+    private final String tableName;
+
+    Change(long sequence, String dbName, String tableName) {
+      this.sequence = sequence;
+      this.dbName = dbName;
+      this.tableName = tableName;
+    }
+
+    public long getSequence() {
+      return sequence;
+    }
+
+    public String getDbName() {
+      return dbName;
+    }
+
+    public String getTableName() {
+      return tableName;
+    }
+  }
+
+  private static final Object lock = new Object();
+  private static final ArrayDeque<Change> changes = new ArrayDeque<Change>();
+  private static int maxSize = 0;
+  private static long lastSequence = 0;
+
+  public MetaStoreChangeLog(Configuration config) {
+    super(config);
+    int size = config.getInt(
+        HiveConf.ConfVars.METASTORE_CLIENT_CACHE_CHANGE_LOG_SIZE.varname,
+        HiveConf.ConfVars.METASTORE_CLIENT_CACHE_CHANGE_LOG_SIZE.defaultIntVal);
+    synchronized (lock) {
+      maxSize = Math.max(maxSize, size);
+    }
+  }
+
+  /**
+   * Is there a log in this process?
+   */
+  public static boolean isActive() {
+    synchronized (lock) {
+      return maxSize > 0;
+    }
+  }
+
+  /**
+   * Get the sequence number of the last change.
+   */
+  public static long getLastSequence() {
+    synchronized (lock) {
+      return lastSequence;
+    }
+  }
+
+  /**
+   * Get the changes after the given one.
+   * @param sequence the sequence number of the last change the caller saw
+   * @return the changes in order, or null if some of them were dropped from
+   *   the log
+   */
+  public static List<Change> getChangesSince(long sequence) {
+    synchronized (lock) {
+      List<Change> result = new ArrayList<Change>();
+      if (sequence >= lastSequence) {
+        return result;
+      }
+      if (changes.isEmpty() || changes.peekFirst().getSequence() > sequence + 1) {
+        return null;
+      }
+      Iterator<Change> itr = changes.descendingIterator();
+      while (itr.hasNext()) {
+        Change change = itr.next();
+        if (change.getSequence() <= sequence) {
+          break;
+        }
+        result.add(0, change);
+      }
+      return result;
+    }
+  }
+
+  static void record(String dbName, String tableName) {
+    synchronized (lock) {
+      if (maxSize <= 0) {
+        return;
+      }
+      changes.addLast(new Change(++lastSequence, dbName.toLowerCase(),
+          tableName == null ? null : tableName.toLowerCase()));
+      while (changes.size() > maxSize) {
+        changes.removeFirst();
+      }
+    }
+  }
+
+  private static void record(Table table) {
+    record(table.getDbName(), table.getTableName());
+  }
+
+  @Override
+  public void onCreateTable(CreateTableEvent tableEvent) throws MetaException {
+    record(tableEvent.getTable());
+  }
+
+  @Override
+  public void onDropTable(DropTableEvent tableEvent) throws MetaException {
+    record(tableEvent.getTable());
+  }
+
+  @Override
+  public void onAlterTable(AlterTableEvent tableEvent) throws MetaException {
+    record(tableEvent.getOldTable());
+    record(tableEvent.getNewTable());
+  }
+
+  @Override
+  public void onAddPartition(AddPartitionEvent partitionEvent) throws MetaException {
+    record(partitionEvent.getTable());
+  }
+
+  @Override
+  public void onDropPartition(DropPartitionEvent partitionEvent) throws MetaException {
+    record(partitionEvent.getTable());
+  }
+
+  @Override
+  public void onAlterPartition(AlterPartitionEvent partitionEvent) throws MetaException {
+    record(partitionEvent.getNewPartition().getDbName(),
+        partitionEvent.getNewPartition().getTableName());
+  }
+
+  @Override
+  public void onDropDatabase(DropDatabaseEvent dbEvent) throws MetaException {
+    record(dbEvent.getDatabase().getName(), null);
+  }
+}
@@ -22,16 +22,22 @@
 import static org.apache.commons.lang.StringUtils.repeat;
 
 import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Savepoint;
 import java.sql.Statement;
+import java.sql.Types;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.TreeMap;
 import java.util.concurrent.atomic.AtomicLong;
 
@@ -56,7 +62,10 @@
 import org.apache.hadoop.hive.metastore.api.StorageDescriptor;
 import org.apache.hadoop.hive.metastore.api.Table;
 import org.apache.hadoop.hive.metastore.model.MDatabase;
+import org.apache.hadoop.hive.metastore.model.MPartition;
 import org.apache.hadoop.hive.metastore.model.MPartitionColumnStatistics;
+import org.apache.hadoop.hive.metastore.model.MSerDeInfo;
+import org.apache.hadoop.hive.metastore.model.MStorageDescriptor;
 import org.apache.hadoop.hive.metastore.model.MTableColumnStatistics;
 import org.apache.hadoop.hive.metastore.parser.ExpressionTree;
 import org.apache.hadoop.hive.metastore.parser.ExpressionTree.FilterBuilder;
@@ -76,9 +85,10 @@
  * the underlying database. It should use ANSI SQL and be compatible with common databases
  * such as MySQL (note that MySQL doesn't use full ANSI mode by default), Postgres, etc.
  *
- * As of now, only the partition retrieval is done this way to improve job startup time;
- * JDOQL partition retrieval is still present so as not to limit the ORM solution we have
- * to SQL stores only. There's always a way to do without direct SQL.
+ * As of now, the partition retrieval is done this way to improve job startup time, and the
+ * partition writes to speed up adding and dropping many partitions; JDO partition retrieval
+ * and writes are still present so as not to limit the ORM solution we have to SQL stores
+ * only. There's always a way to do without direct SQL.
  */
 class MetaStoreDirectSql {
   private static final Log LOG = LogFactory.getLog(MetaStoreDirectSql.class);
@@ -978,6 +988,647 @@ private ColumnStatistics makeColumnStats(
     return result;
   }
 
+  /**
+   * The largest number of partitions written by one JDBC batch, and of ids in one
+   * "in (...)" list; Oracle doesn't allow more than 1000 of them.
+   */
+  private static final int WRITE_BATCH_SIZE = 1000;
+
+  /**
+   * Adds partitions of a table using batched JDBC inserts, instead of persisting them
+   * through DN one object at a time. The partitions must have a storage descriptor with a
+   * serde and the columns of the table, and no skewed values. The ids are allocated from the
+   * SEQUENCE_TABLE rows DN uses, so they don't clash with the ones DN allocates; like DN, this
+   * is done in a transaction of its own (see {@link #allocateIdBlocks}). If the SQL fails, the
+   * writes are rolled back to a savepoint, so the caller can fall back to JDO in the same
+   * transaction.
+   * @param dbName Metastore db name.
+   * @param tblName Metastore table name.
+   * @param parts The partitions to add.
+   * @param partNames The names of the partitions, in the same order.
+   * @return Whether the partitions were added; false if the table or the id sequences were
+   *         not found, in which case nothing is written.
+   */
+  public boolean addPartitions(String dbName, String tblName, List<Partition> parts,
+      List<String> partNames) throws MetaException {
+    if (parts.isEmpty()) {
+      return true;
+    }
+    boolean doTrace = LOG.isDebugEnabled();
+    long start = doTrace ? System.nanoTime() : 0;
+    if (isMySql) {
+      assert pm.currentTransaction().isActive();
+      setAnsiQuotesForMysql(); // must be inside tx together with queries
+    }
+    int count = parts.size();
+    JDOConnection jdoConn = pm.getDataStoreConnection();
+    try {
+      Connection conn = (Connection)jdoConn.getNativeConnection();
+      long[] tblIds = getTableIds(conn, dbName, tblName);
+      if (tblIds == null) {
+        return false;
+      }
+      long[] firstIds = allocateIdBlocks(count,
+          MPartition.class, MStorageDescriptor.class, MSerDeInfo.class);
+      if (firstIds == null) {
+        return false;
+      }
+      Savepoint savepoint = conn.setSavepoint();
+      try {
+        PartitionWriter writer = new PartitionWriter(conn, true);
+        try {
+          for (int i = 0; i < count; ++i) {
+            writer.add(parts.get(i), partNames.get(i), firstIds[0] + i, firstIds[1] + i,
+                firstIds[2] + i, tblIds[0], tblIds[1]);
+            if ((i + 1) % WRITE_BATCH_SIZE == 0) {
+              writer.execute();
+            }
+          }
+          writer.execute();
+        } finally {
+          writer.close();
+        }
+      } catch (SQLException ex) {
+        conn.rollback(savepoint);
+        throw ex;
+      }
+    } catch (SQLException ex) {
+      throw new MetaException("Failed to add partitions: " + ex.getMessage());
+    } finally {
+      jdoConn.close(); // We must release the connection before we call other pm methods.
+    }
+    if (doTrace) {
+      LOG.debug("Added " + parts.size() + " partitions in "
+          + (System.nanoTime() - start) / 1000000.0 + "ms");
+    }
+    return true;
+  }
+
+  /**
+   * Alters partitions of a table using batched JDBC updates. The partitions keep their
+   * names; the same restrictions as for {@link #addPartitions} apply to the new ones.
+   * @param dbName Metastore db name.
+   * @param tblName Metastore table name.
+   * @param partNames The names of the partitions to alter.
+   * @param newParts The new partitions, in the same order.
+   * @return Whether the partitions were altered; false if some of them, or their storage
+   *         descriptors, were not found, in which case nothing is written.
+   */
+  public boolean alterPartitions(String dbName, String tblName, List<String> partNames,
+      List<Partition> newParts) throws MetaException {
+    if (newParts.isEmpty()) {
+      return true;
+    }
+    boolean doTrace = LOG.isDebugEnabled();
+    long start = doTrace ? System.nanoTime() : 0;
+    if (isMySql) {
+      assert pm.currentTransaction().isActive();
+      setAnsiQuotesForMysql(); // must be inside tx together with queries
+    }
+    JDOConnection jdoConn = pm.getDataStoreConnection();
+    try {
+      Connection conn = (Connection)jdoConn.getNativeConnection();
+      Savepoint savepoint = conn.setSavepoint();
+      try {
+        long[] tblIds = getTableIds(conn, dbName, tblName);
+        if (tblIds == null) {
+          return false;
+        }
+        Map<String, PartitionIds> ids = getPartitionIds(conn, dbName, tblName, partNames);
+        List<Long> partIds = new ArrayList<Long>(), sdIds = new ArrayList<Long>(),
+            serdeIds = new ArrayList<Long>();
+        Set<Long> cdIds = new HashSet<Long>();
+        for (String partName : partNames) {
+          PartitionIds partition = ids.get(partName);
+          if (partition == null || partition.sdId == null || partition.serdeId == null) {
+            return false; // nothing is written yet
+          }
+          partIds.add(partition.partId);
+          sdIds.add(partition.sdId);
+          serdeIds.add(partition.serdeId);
+          if (partition.cdId != null) {
+            cdIds.add(partition.cdId);
+          }
+        }
+        // The collections are written again as a whole, like DN does when they are replaced.
+        deleteByIds(conn, "PARTITION_PARAMS", "PART_ID", partIds);
+        deleteByIds(conn, "SERDE_PARAMS", "SERDE_ID", serdeIds);
+        deleteStorageDescriptorChildren(conn, sdIds);
+        PartitionWriter writer = new PartitionWriter(conn, false);
+        try {
+          for (int i = 0; i < newParts.size(); ++i) {
+            writer.add(newParts.get(i), partNames.get(i), partIds.get(i), sdIds.get(i),
+                serdeIds.get(i), tblIds[0], tblIds[1]);
+            if ((i + 1) % WRITE_BATCH_SIZE == 0) {
+              writer.execute();
+            }
+          }
+          writer.execute();
+        } finally {
+          writer.close();
+        }
+        // The partitions now use the columns of the table; drop the ones they don't use.
+        cdIds.remove(tblIds[1]);
+        deleteUnusedColumnDescriptors(conn, cdIds);
+      } catch (SQLException ex) {
+        conn.rollback(savepoint);
+        throw ex;
+      }
+    } catch (SQLException ex) {
+      throw new MetaException("Failed to alter partitions: " + ex.getMessage());
+    } finally {
+      jdoConn.close(); // We must release the connection before we call other pm methods.
+    }
+    if (doTrace) {
+      LOG.debug("Altered " + newParts.size() + " partitions in "
+          + (System.nanoTime() - start) / 1000000.0 + "ms");
+    }
+    return true;
+  }
+
+  /**
+   * Drops partitions of a table, together with their storage descriptors, grants and column
+   * statistics, using direct SQL deletes. The column descriptors that are no longer used are
+   * dropped too. If the SQL fails, the deletes are rolled back to a savepoint, so the caller
+   * can fall back to JDO in the same transaction.
+   * @param dbName Metastore db name.
+   * @param tblName Metastore table name.
+   * @param partNames The names of the partitions to drop.
+   * @return The number of partitions dropped.
+   */
+  public int dropPartitions(String dbName, String tblName, List<String> partNames)
+      throws MetaException {
+    boolean doTrace = LOG.isDebugEnabled();
+    long start = doTrace ? System.nanoTime() : 0;
+    if (isMySql) {
+      assert pm.currentTransaction().isActive();
+      setAnsiQuotesForMysql(); // must be inside tx together with queries
+    }
+    int dropped;
+    JDOConnection jdoConn = pm.getDataStoreConnection();
+    try {
+      Connection conn = (Connection)jdoConn.getNativeConnection();
+      Savepoint savepoint = conn.setSavepoint();
+      try {
+        List<Long> partIds = new ArrayList<Long>(), sdIds = new ArrayList<Long>(),
+            serdeIds = new ArrayList<Long>();
+        Set<Long> cdIds = new HashSet<Long>();
+        for (PartitionIds ids : getPartitionIds(conn, dbName, tblName, partNames).values()) {
+          partIds.add(ids.partId);
+          if (ids.sdId != null) {
+            sdIds.add(ids.sdId);
+          }
+          if (ids.serdeId != null) {
+            serdeIds.add(ids.serdeId);
+          }
+          if (ids.cdId != null) {
+            cdIds.add(ids.cdId);
+          }
+        }
+        deleteByIds(conn, "PART_PRIVS", "PART_ID", partIds);
+        deleteByIds(conn, "PART_COL_PRIVS", "PART_ID", partIds);
+        deleteByIds(conn, "PART_COL_STATS", "PART_ID", partIds);
+        deleteByIds(conn, "PARTITION_PARAMS", "PART_ID", partIds);
+        deleteByIds(conn, "PARTITION_KEY_VALS", "PART_ID", partIds);
+        dropped = deleteByIds(conn, "PARTITIONS", "PART_ID", partIds);
+        deleteStorageDescriptorChildren(conn, sdIds);
+        deleteByIds(conn, "SDS", "SD_ID", sdIds);
+        deleteByIds(conn, "SERDE_PARAMS", "SERDE_ID", serdeIds);
+        deleteByIds(conn, "SERDES", "SERDE_ID", serdeIds);
+        deleteUnusedColumnDescriptors(conn, cdIds);
+      } catch (SQLException ex) {
+        conn.rollback(savepoint);
+        throw ex;
+      }
+    } catch (SQLException ex) {
+      throw new MetaException("Failed to drop partitions: " + ex.getMessage());
+    } finally {
+      jdoConn.close(); // We must release the connection before we call other pm methods.
+    }
+    if (doTrace) {
+      LOG.debug("Dropped " + dropped + " partitions in "
+          + (System.nanoTime() - start) / 1000000.0 + "ms");
+    }
+    return dropped;
+  }
+
+  /** The ids of a partition and of its storage descriptor, serde and column descriptor. */
+  private static final class PartitionIds {
+    private final long partId;
+    private final Long sdId, serdeId, cdId;
+
+    private PartitionIds(long partId, Long sdId, Long serdeId, Long cdId) {
+      this.partId = partId;
+      this.sdId = sdId;
+      this.serdeId = serdeId;
+      this.cdId = cdId;
+    }
+  }
+
+  /**
+   * The statements that write the rows of partitions and of their storage descriptors and
+   * serdes, either as new rows or as updates of the existing ones. The rows are batched, and
+   * the batches are executed in an order that satisfies the foreign keys.
+   */
+  private static final class PartitionWriter {
+    private final boolean isInsert;
+    private final int booleanType;
+    private final List<PreparedStatement> statements = new ArrayList<PreparedStatement>();
+    private final PreparedStatement serdes, serdeParams, sds, sdParams, bucketCols, sortCols,
+        partitions, partParams, partKeyVals;
+
+    private PartitionWriter(Connection conn, boolean isInsert) throws SQLException {
+      this.isInsert = isInsert;
+      this.booleanType = getColumnType(conn, "SDS", "IS_COMPRESSED");
+      // The id comes last in both inserts and updates, so the parameters are set the same way.
+      serdes = prepare(conn, "SERDES", "SERDE_ID", "NAME", "SLIB");
+      serdeParams = prepareInsert(conn, "SERDE_PARAMS", "SERDE_ID", "PARAM_KEY", "PARAM_VALUE");
+      sds = prepare(conn, "SDS", "SD_ID", "INPUT_FORMAT", "IS_COMPRESSED", "LOCATION",
+          "NUM_BUCKETS", "OUTPUT_FORMAT", "SERDE_ID", "CD_ID", "IS_STOREDASSUBDIRECTORIES");
+      sdParams = prepareInsert(conn, "SD_PARAMS", "SD_ID", "PARAM_KEY", "PARAM_VALUE");
+      bucketCols = prepareInsert(conn, "BUCKETING_COLS",
+          "SD_ID", "BUCKET_COL_NAME", "INTEGER_IDX");
+      sortCols = prepareInsert(conn, "SORT_COLS", "SD_ID", "COLUMN_NAME", "ORDER", "INTEGER_IDX");
+      partitions = prepare(conn, "PARTITIONS", "PART_ID", "CREATE_TIME", "LAST_ACCESS_TIME",
+          "PART_NAME", "SD_ID", "TBL_ID");
+      partParams = prepareInsert(conn, "PARTITION_PARAMS", "PART_ID", "PARAM_KEY", "PARAM_VALUE");
+      // Altered partitions keep their values.
+      partKeyVals = isInsert ? prepareInsert(conn, "PARTITION_KEY_VALS",
+          "PART_ID", "PART_KEY_VAL", "INTEGER_IDX") : null;
+    }
+
+    private PreparedStatement prepare(Connection conn, String table, String idColumn,
+        String... columns) throws SQLException {
+      if (isInsert) {
+        String[] allColumns = new String[columns.length + 1];
+        System.arraycopy(columns, 0, allColumns, 0, columns.length);
+        allColumns[columns.length] = idColumn;
+        return prepareInsert(conn, table, allColumns);
+      }
+      String sql = "update \"" + table + "\" set \"" + join(columns, "\" = ?, \"")
+          + "\" = ? where \"" + idColumn + "\" = ?";
+      return addStatement(conn.prepareStatement(sql));
+    }
+
+    private PreparedStatement prepareInsert(Connection conn, String table, String... columns)
+        throws SQLException {
+      String sql = "insert into \"" + table + "\" (\"" + join(columns, "\", \"")
+          + "\") values (" + repeat(",?", columns.length).substring(1) + ")";
+      return addStatement(conn.prepareStatement(sql));
+    }
+
+    private PreparedStatement addStatement(PreparedStatement statement) {
+      statements.add(statement);
+      return statement;
+    }
+
+    private void add(Partition part, String partName, long partId, long sdId, long serdeId,
+        long tblId, long cdId) throws SQLException {
+      StorageDescriptor sd = part.getSd();
+      SerDeInfo serde = sd.getSerdeInfo();
+      serdes.setString(1, serde.getName());
+      serdes.setString(2, serde.getSerializationLib());
+      serdes.setLong(3, serdeId);
+      serdes.addBatch();
+      addParams(serdeParams, serdeId, serde.getParameters());
+
+      sds.setString(1, sd.getInputFormat());
+      setBoolean(sds, 2, sd.isCompressed());
+      sds.setString(3, sd.getLocation());
+      sds.setInt(4, sd.getNumBuckets());
+      sds.setString(5, sd.getOutputFormat());
+      sds.setLong(6, serdeId);
+      sds.setLong(7, cdId);
+      setBoolean(sds, 8, sd.isStoredAsSubDirectories());
+      sds.setLong(9, sdId);
+      sds.addBatch();
+      addParams(sdParams, sdId, sd.getParameters());
+      if (sd.getBucketCols() != null) {
+        int index = 0;
+        for (String col : sd.getBucketCols()) {
+          bucketCols.setLong(1, sdId);
+          bucketCols.setString(2, col);
+          bucketCols.setInt(3, index++);
+          bucketCols.addBatch();
+        }
+      }
+      if (sd.getSortCols() != null) {
+        int index = 0;
+        for (Order order : sd.getSortCols()) {
+          sortCols.setLong(1, sdId);
+          sortCols.setString(2, order.getCol());
+          sortCols.setInt(3, order.getOrder());
+          sortCols.setInt(4, index++);
+          sortCols.addBatch();
+        }
+      }
+
+      partitions.setInt(1, part.getCreateTime());
+      partitions.setInt(2, part.getLastAccessTime());
+      partitions.setString(3, partName);
+      partitions.setLong(4, sdId);
+      partitions.setLong(5, tblId);
+      partitions.setLong(6, partId);
+      partitions.addBatch();
+      addParams(partParams, partId, part.getParameters());
+      if (isInsert) {
+        int index = 0;
+        for (String value : part.getValues()) {
+          partKeyVals.setLong(1, partId);
+          partKeyVals.setString(2, value);
+          partKeyVals.setInt(3, index++);
+          partKeyVals.addBatch();
+        }
+      }
+    }
+
+    private static void addParams(PreparedStatement statement, long id,
+        Map<String, String> params) throws SQLException {
+      if (params == null) {
+        return;
+      }
+      for (Map.Entry<String, String> param : params.entrySet()) {
+        statement.setLong(1, id);
+        statement.setString(2, param.getKey());
+        statement.setString(3, param.getValue());
+        statement.addBatch();
+      }
+    }
+
+    /**
+     * Sets a boolean the way DN stores it in the column: as a boolean or a bit, as a
+     * number (e.g. Oracle), or as 'Y'/'N' (e.g. Derby).
+     */
+    private void setBoolean(PreparedStatement statement, int index, boolean value)
+        throws SQLException {
+      switch (booleanType) {
+      case Types.BOOLEAN:
+      case Types.BIT:
+        statement.setBoolean(index, value);
+        break;
+      case Types.CHAR:
+      case Types.VARCHAR:
+        statement.setString(index, value ? "Y" : "N");
+        break;
+      default:
+        statement.setInt(index, value ? 1 : 0);
+      }
+    }
+
+    private void execute() throws SQLException {
+      for (PreparedStatement statement : statements) {
+        statement.executeBatch();
+      }
+    }
+
+    private void close() throws SQLException {
+      for (PreparedStatement statement : statements) {
+        statement.close();
+      }
+    }
+  }
+
+  /**
+   * @return The TBL_ID of the table and the CD_ID of its storage descriptor, or null if the
+   *         table has no columns.
+   */
+  private static long[] getTableIds(Connection conn, String dbName, String tblName)
+      throws SQLException {
+    String queryText = "select \"TBLS\".\"TBL_ID\", \"SDS\".\"CD_ID\" from \"TBLS\""
+        + "  inner join \"DBS\" on \"TBLS\".\"DB_ID\" = \"DBS\".\"DB_ID\" "
+        + "  left outer join \"SDS\" on \"TBLS\".\"SD_ID\" = \"SDS\".\"SD_ID\" "
+        + "where \"TBLS\".\"TBL_NAME\" = ? and \"DBS\".\"NAME\" = ?";
+    PreparedStatement statement = conn.prepareStatement(queryText);
+    try {
+      statement.setString(1, tblName.toLowerCase());
+      statement.setString(2, dbName.toLowerCase());
+      ResultSet rs = statement.executeQuery();
+      if (!rs.next()) {
+        return null;
+      }
+      long tblId = rs.getLong(1);
+      long cdId = rs.getLong(2);
+      return rs.wasNull() ? null : new long[] { tblId, cdId };
+    } finally {
+      statement.close();
+    }
+  }
+
+  /**
+   * @return The ids of the partitions of a table with the given names, by name.
+   */
+  private static Map<String, PartitionIds> getPartitionIds(Connection conn, String dbName,
+      String tblName, List<String> partNames) throws SQLException {
+    Map<String, PartitionIds> result = new HashMap<String, PartitionIds>();
+    for (int from = 0; from < partNames.size(); from += WRITE_BATCH_SIZE) {
+      List<String> batch = partNames.subList(
+          from, Math.min(partNames.size(), from + WRITE_BATCH_SIZE));
+      String queryText = "select \"PARTITIONS\".\"PART_ID\", \"PARTITIONS\".\"PART_NAME\","
+          + " \"SDS\".\"SD_ID\", \"SDS\".\"SERDE_ID\", \"SDS\".\"CD_ID\" from \"PARTITIONS\""
+          + "  inner join \"TBLS\" on \"PARTITIONS\".\"TBL_ID\" = \"TBLS\".\"TBL_ID\" "
+          + "    and \"TBLS\".\"TBL_NAME\" = ? "
+          + "  inner join \"DBS\" on \"TBLS\".\"DB_ID\" = \"DBS\".\"DB_ID\" "
+          + "     and \"DBS\".\"NAME\" = ? "
+          + "  left outer join \"SDS\" on \"PARTITIONS\".\"SD_ID\" = \"SDS\".\"SD_ID\" "
+          + "where \"PARTITIONS\".\"PART_NAME\" in (" + repeat(",?", batch.size()).substring(1)
+          + ")";
+      PreparedStatement statement = conn.prepareStatement(queryText);
+      try {
+        statement.setString(1, tblName.toLowerCase());
+        statement.setString(2, dbName.toLowerCase());
+        for (int i = 0; i < batch.size(); ++i) {
+          statement.setString(i + 3, batch.get(i));
+        }
+        ResultSet rs = statement.executeQuery();
+        while (rs.next()) {
+          result.put(rs.getString(2), new PartitionIds(rs.getLong(1),
+              getLong(rs, 3), getLong(rs, 4), getLong(rs, 5)));
+        }
+      } finally {
+        statement.close();
+      }
+    }
+    return result;
+  }
+
+  private static Long getLong(ResultSet rs, int index) throws SQLException {
+    long value = rs.getLong(index);
+    return rs.wasNull() ? null : value;
+  }
+
+  /**
+   * Allocates blocks of ids for new objects of model classes. Like DN's value generator, this
+   * runs in a short transaction on a connection of its own, which is committed right away;
+   * moving NEXT_VAL in the caller's transaction would keep the SEQUENCE_TABLE rows locked,
+   * and every other writer waiting, until that transaction ends, even after a rollback to a
+   * savepoint on MySQL. The ids are lost if the caller's transaction fails, as DN's are.
+   * @param count The number of ids for each class.
+   * @param modelClasses The classes.
+   * @return The first id of the block of each class, or null if DN has not made the row of
+   *         one of them yet.
+   */
+  private long[] allocateIdBlocks(int count, Class<?>... modelClasses) throws SQLException {
+    PersistenceManager idPm = pm.getPersistenceManagerFactory().getPersistenceManager();
+    try {
+      Transaction tx = idPm.currentTransaction();
+      tx.begin();
+      try {
+        long[] result = new long[modelClasses.length];
+        JDOConnection jdoConn = idPm.getDataStoreConnection();
+        try {
+          Connection conn = (Connection)jdoConn.getNativeConnection();
+          if (isMySql) {
+            Statement statement = conn.createStatement();
+            try {
+              statement.execute("SET @@session.sql_mode=ANSI_QUOTES");
+            } finally {
+              statement.close();
+            }
+          }
+          for (int i = 0; i < modelClasses.length; ++i) {
+            result[i] = allocateIds(conn, modelClasses[i], count);
+            if (result[i] < 0) {
+              return null;
+            }
+          }
+        } finally {
+          jdoConn.close();
+        }
+        tx.commit();
+        return result;
+      } finally {
+        if (tx.isActive()) {
+          tx.rollback();
+        }
+      }
+    } finally {
+      idPm.close();
+    }
+  }
+
+  /**
+   * Allocates ids for new objects of a model class the way DN does, by moving NEXT_VAL of
+   * the SEQUENCE_TABLE row of the class. DN only uses ids below NEXT_VAL it has seen, so the
+   * ids can't clash with the ones DN has allocated.
+   * @return The first of the ids, or -1 if DN has not made the row yet.
+   */
+  private static long allocateIds(Connection conn, Class<?> modelClass, int count)
+      throws SQLException {
+    PreparedStatement statement = conn.prepareStatement("update \"SEQUENCE_TABLE\""
+        + " set \"NEXT_VAL\" = \"NEXT_VAL\" + ? where \"SEQUENCE_NAME\" = ?");
+    try {
+      statement.setLong(1, count);
+      statement.setString(2, modelClass.getName());
+      if (statement.executeUpdate() != 1) {
+        return -1;
+      }
+    } finally {
+      statement.close();
+    }
+    statement = conn.prepareStatement(
+        "select \"NEXT_VAL\" from \"SEQUENCE_TABLE\" where \"SEQUENCE_NAME\" = ?");
+    try {
+      statement.setString(1, modelClass.getName());
+      ResultSet rs = statement.executeQuery();
+      return rs.next() ? rs.getLong(1) - count : -1;
+    } finally {
+      statement.close();
+    }
+  }
+
+  private static int getColumnType(Connection conn, String table, String column)
+      throws SQLException {
+    Statement statement = conn.createStatement();
+    try {
+      ResultSet rs = statement.executeQuery(
+          "select \"" + column + "\" from \"" + table + "\" where 1 = 0");
+      return rs.getMetaData().getColumnType(1);
+    } finally {
+      statement.close();
+    }
+  }
+
+  /**
+   * Deletes the rows of the collections of storage descriptors, including their skewed
+   * values, but not the storage descriptors themselves.
+   */
+  private static void deleteStorageDescriptorChildren(Connection conn, List<Long> sdIds)
+      throws SQLException {
+    List<Long> stringListIds = selectIds(conn, "SKEWED_VALUES", "STRING_LIST_ID_EID",
+        "SD_ID_OID", sdIds);
+    stringListIds.addAll(selectIds(conn, "SKEWED_COL_VALUE_LOC_MAP", "STRING_LIST_ID_KID",
+        "SD_ID", sdIds));
+    deleteByIds(conn, "SD_PARAMS", "SD_ID", sdIds);
+    deleteByIds(conn, "BUCKETING_COLS", "SD_ID", sdIds);
+    deleteByIds(conn, "SORT_COLS", "SD_ID", sdIds);
+    deleteByIds(conn, "SKEWED_COL_NAMES", "SD_ID", sdIds);
+    deleteByIds(conn, "SKEWED_VALUES", "SD_ID_OID", sdIds);
+    deleteByIds(conn, "SKEWED_COL_VALUE_LOC_MAP", "SD_ID", sdIds);
+    deleteByIds(conn, "SKEWED_STRING_LIST_VALUES", "STRING_LIST_ID", stringListIds);
+    deleteByIds(conn, "SKEWED_STRING_LIST", "STRING_LIST_ID", stringListIds);
+  }
+
+  /**
+   * Deletes the column descriptors that no storage descriptor uses.
+   */
+  private static void deleteUnusedColumnDescriptors(Connection conn, Set<Long> cdIds)
+      throws SQLException {
+    List<Long> ids = new ArrayList<Long>(cdIds);
+    String unused = " and not exists (select 1 from \"SDS\" where \"SDS\".\"CD_ID\" = ";
+    for (int from = 0; from < ids.size(); from += WRITE_BATCH_SIZE) {
+      String idList = join(ids.subList(from, Math.min(ids.size(), from + WRITE_BATCH_SIZE)), ",");
+      executeUpdate(conn, "delete from \"COLUMNS_V2\" where \"CD_ID\" in (" + idList + ")"
+          + unused + "\"COLUMNS_V2\".\"CD_ID\")");
+      executeUpdate(conn, "delete from \"CDS\" where \"CD_ID\" in (" + idList + ")"
+          + unused + "\"CDS\".\"CD_ID\")");
+    }
+  }
+
+  private static List<Long> selectIds(Connection conn, String table, String column,
+      String idColumn, List<Long> ids) throws SQLException {
+    List<Long> result = new ArrayList<Long>();
+    for (int from = 0; from < ids.size(); from += WRITE_BATCH_SIZE) {
+      String idList = join(ids.subList(from, Math.min(ids.size(), from + WRITE_BATCH_SIZE)), ",");
+      Statement statement = conn.createStatement();
+      try {
+        ResultSet rs = statement.executeQuery("select \"" + column + "\" from \"" + table
+            + "\" where \"" + idColumn + "\" in (" + idList + ")");
+        while (rs.next()) {
+          result.add(rs.getLong(1));
+        }
+      } finally {
+        statement.close();
+      }
+    }
+    return result;
+  }
+
+  private static int deleteByIds(Connection conn, String table, String idColumn,
+      List<Long> ids) throws SQLException {
+    int deleted = 0;
+    for (int from = 0; from < ids.size(); from += WRITE_BATCH_SIZE) {
+      String idList = join(ids.subList(from, Math.min(ids.size(), from + WRITE_BATCH_SIZE)), ",");
+      deleted += executeUpdate(conn,
+          "delete from \"" + table + "\" where \"" + idColumn + "\" in (" + idList + ")");
+    }
+    return deleted;
+  }
+
+  private static int executeUpdate(Connection conn, String queryText) throws SQLException {
+    boolean doTrace = LOG.isDebugEnabled();
+    long start = doTrace ? System.nanoTime() : 0;
+    Statement statement = conn.createStatement();
+    try {
+      return statement.executeUpdate(queryText);
+    } finally {
+      statement.close();
+      if (doTrace) {
+        LOG.debug("Direct SQL update in " + (System.nanoTime() - start) / 1000000.0
+            + "ms, the query is [" + queryText + "]");
+      }
+    }
+  }
+
   @SuppressWarnings("unchecked")
   private List<Object[]> ensureList(Object result) throws MetaException {
     if (!(result instanceof List<?>)) {
@@ -35,6 +35,7 @@
 import java.util.Properties;
 import java.util.Set;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
@@ -150,6 +151,10 @@ public class ObjectStore implements RawStore, Configurable {
   private static Lock pmfPropLock = new ReentrantLock();
   private static final Log LOG = LogFactory.getLog(ObjectStore.class.getName());
 
+  // The number of partition adds, alters and drops done with direct SQL, so the tests can
+  // tell whether it was used or JDO was.
+  private static final AtomicLong directSqlPartitionWrites = new AtomicLong();
+
   private static enum TXN_STATUS {
     NO_STATE, OPEN, COMMITED, ROLLBACK
   }
@@ -1229,6 +1234,7 @@ private MStorageDescriptor convertToMStorageDescriptor(StorageDescriptor sd,
   public boolean addPartitions(String dbName, String tblName, List<Partition> parts)
       throws InvalidObjectException, MetaException {
     boolean success = false;
+    boolean useDirectSql = isDirectSqlWriteEnabled();
     openTransaction();
     try {
       List<MTablePrivilege> tabGrants = null;
@@ -1237,6 +1243,9 @@ public boolean addPartitions(String dbName, String tblName, List<Partition> part
       if ("TRUE".equalsIgnoreCase(table.getParameters().get("PARTITION_LEVEL_PRIVILEGE"))) {
         tabGrants = this.listAllTableGrants(dbName, tblName);
         tabColumnGrants = this.listTableAllColumnGrants(dbName, tblName);
+      } else if (useDirectSql && addPartitionsViaSql(dbName, tblName, table, parts)) {
+        success = commitTransaction();
+        return success;
       }
       List<Object> toPersist = new ArrayList<Object>();
       for (Partition part : parts) {
@@ -1463,18 +1472,21 @@ public void dropPartitions(String dbName, String tblName, List<String> partNames
       throws MetaException, NoSuchObjectException {
     if (partNames.isEmpty()) return;
     boolean success = false;
+    boolean useDirectSql = isDirectSqlWriteEnabled();
     openTransaction();
     try {
-      // Delete all things.
-      dropPartitionGrantsNoTxn(dbName, tblName, partNames);
-      dropPartitionAllColumnGrantsNoTxn(dbName, tblName, partNames);
-      dropPartitionColumnStatisticsNoTxn(dbName, tblName, partNames);
-
-      // CDs are reused; go thry partition SDs, detach all CDs from SDs, then remove unused CDs.
-      for (MColumnDescriptor mcd : detachCdsFromSdsNoTxn(dbName, tblName, partNames)) {
-        removeUnusedColumnDescriptor(mcd);
+      if (!useDirectSql || !dropPartitionsViaSql(dbName, tblName, partNames)) {
+        // Delete all things.
+        dropPartitionGrantsNoTxn(dbName, tblName, partNames);
+        dropPartitionAllColumnGrantsNoTxn(dbName, tblName, partNames);
+        dropPartitionColumnStatisticsNoTxn(dbName, tblName, partNames);
+
+        // CDs are reused; go thry partition SDs, detach all CDs from SDs, then remove unused CDs.
+        for (MColumnDescriptor mcd : detachCdsFromSdsNoTxn(dbName, tblName, partNames)) {
+          removeUnusedColumnDescriptor(mcd);
+        }
+        dropPartitionsNoTxn(dbName, tblName, partNames);
       }
-      dropPartitionsNoTxn(dbName, tblName, partNames);
       if (!(success = commitTransaction())) {
         throw new MetaException("Failed to drop partitions"); // Should not happen?
       }
@@ -1485,6 +1497,138 @@ public void dropPartitions(String dbName, String tblName, List<String> partNames
     }
   }
 
+  /**
+   * Whether the partition writes should try direct SQL. Like the reads, they only do it
+   * inside a larger transaction if hive.metastore.try.direct.sql.ddl is set; the SQL writes
+   * are rolled back to a savepoint if they fail, so JDO can still do them.
+   */
+  private boolean isDirectSqlWriteEnabled() {
+    return HiveConf.getBoolVar(getConf(), ConfVars.METASTORE_TRY_DIRECT_SQL)
+        && (HiveConf.getBoolVar(getConf(), ConfVars.METASTORE_TRY_DIRECT_SQL_DDL)
+            || !isActiveTransaction())
+        && directSql.isCompatibleDatastore();
+  }
+
+  /**
+   * Checks whether the partitions can be written with direct SQL. That is the case if they
+   * have a storage descriptor with a serde and the same columns as the table, so they share
+   * its column descriptor, and no skewed values.
+   */
+  private boolean canWritePartitionsViaSql(String dbName, String tblName, MTable mtbl,
+      List<Partition> parts) throws MetaException {
+    if (mtbl == null || TableType.VIRTUAL_VIEW.name().equals(mtbl.getTableType())
+        || mtbl.getSd() == null || mtbl.getSd().getCD() == null
+        || mtbl.getSd().getCD().getCols() == null) {
+      return false;
+    }
+    List<FieldSchema> tblCols = convertToFieldSchemas(mtbl.getSd().getCD().getCols());
+    for (Partition part : parts) {
+      StorageDescriptor sd = part.getSd();
+      if (!dbName.equals(part.getDbName()) || !tblName.equals(part.getTableName())
+          || sd == null || sd.getSerdeInfo() == null || !tblCols.equals(sd.getCols())) {
+        return false;
+      }
+      SkewedInfo skewedInfo = sd.getSkewedInfo();
+      if (skewedInfo != null && ((skewedInfo.getSkewedColNames() != null
+          && !skewedInfo.getSkewedColNames().isEmpty())
+          || (skewedInfo.getSkewedColValues() != null
+              && !skewedInfo.getSkewedColValues().isEmpty())
+          || (skewedInfo.getSkewedColValueLocationMaps() != null
+              && !skewedInfo.getSkewedColValueLocationMaps().isEmpty()))) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Adds partitions with batched SQL inserts, if they allow it.
+   * @return Whether the partitions were added; if not, the caller adds them through JDO.
+   */
+  private boolean addPartitionsViaSql(String dbName, String tblName, MTable mtbl,
+      List<Partition> parts) throws MetaException {
+    if (!canWritePartitionsViaSql(dbName, tblName, mtbl, parts)) {
+      return false;
+    }
+    List<FieldSchema> partKeys = convertToFieldSchemas(mtbl.getPartitionKeys());
+    List<String> partNames = new ArrayList<String>(parts.size());
+    for (Partition part : parts) {
+      partNames.add(Warehouse.makePartName(partKeys, part.getValues()));
+    }
+    try {
+      pm.flush();
+      if (directSql.addPartitions(dbName, tblName, parts, partNames)) {
+        directSqlPartitionWrites.incrementAndGet();
+        return true;
+      }
+      return false;
+    } catch (MetaException ex) {
+      LOG.error("Direct SQL failed, falling back to ORM", ex);
+      return false;
+    }
+  }
+
+  /**
+   * Alters partitions, which keep their values, with batched SQL updates, if they allow it.
+   * @return Whether the partitions were altered; if not, the caller alters them through JDO.
+   */
+  private boolean alterPartitionsViaSql(String dbName, String tblName,
+      List<List<String>> partVals, List<Partition> newParts) throws MetaException {
+    if (partVals.size() != newParts.size()) {
+      return false;
+    }
+    MTable mtbl = getMTable(dbName, tblName);
+    if (!canWritePartitionsViaSql(dbName, tblName, mtbl, newParts)) {
+      return false;
+    }
+    List<FieldSchema> partKeys = convertToFieldSchemas(mtbl.getPartitionKeys());
+    List<String> partNames = new ArrayList<String>(newParts.size());
+    for (int i = 0; i < newParts.size(); ++i) {
+      if (!partVals.get(i).equals(newParts.get(i).getValues())) {
+        return false; // renames are done through JDO
+      }
+      partNames.add(Warehouse.makePartName(partKeys, partVals.get(i)));
+    }
+    try {
+      pm.flush();
+      if (directSql.alterPartitions(dbName, tblName, partNames, newParts)) {
+        // The cached objects of the partitions are stale now.
+        pm.evictAll();
+        directSqlPartitionWrites.incrementAndGet();
+        return true;
+      }
+    } catch (MetaException ex) {
+      LOG.error("Direct SQL failed, falling back to ORM", ex);
+    }
+    return false;
+  }
+
+  /**
+   * Drops partitions with SQL deletes.
+   * @return Whether the partitions were dropped; if not, the caller drops them through JDO.
+   */
+  private boolean dropPartitionsViaSql(String dbName, String tblName, List<String> partNames) {
+    try {
+      pm.flush();
+      int dropped = directSql.dropPartitions(dbName, tblName, partNames);
+      LOG.debug("Deleted " + dropped + " partition from store");
+      // The cached objects of the partitions are stale now.
+      pm.evictAll();
+      directSqlPartitionWrites.incrementAndGet();
+      return true;
+    } catch (MetaException ex) {
+      LOG.error("Direct SQL failed, falling back to ORM", ex);
+      return false;
+    }
+  }
+
+  /**
+   * @return The number of partition adds, alters and drops done with direct SQL so far.
+   */
+  static long getDirectSqlPartitionWrites() {
+    return directSqlPartitionWrites.get();
+  }
+
   /**
    * Drop an MPartition and cascade deletes (e.g., delete partition privilege grants,
    *   drop the storage descriptor cleanly, etc.)
@@ -2672,11 +2816,15 @@ public void alterPartitions(String dbname, String name, List<List<String>> part_
     boolean success = false;
     Exception e = null;
     try {
+      boolean useDirectSql = isDirectSqlWriteEnabled();
       openTransaction();
-      Iterator<List<String>> part_val_itr = part_vals.iterator();
-      for (Partition tmpPart: newParts) {
-        List<String> tmpPartVals = part_val_itr.next();
-        alterPartitionNoTxn(dbname, name, tmpPartVals, tmpPart);
+      if (!useDirectSql || !alterPartitionsViaSql(
+          dbname.toLowerCase(), name.toLowerCase(), part_vals, newParts)) {
+        Iterator<List<String>> part_val_itr = part_vals.iterator();
+        for (Partition tmpPart: newParts) {
+          List<String> tmpPartVals = part_val_itr.next();
+          alterPartitionNoTxn(dbname, name, tmpPartVals, tmpPart);
+        }
       }
       // commit the changes
       success = commitTransaction();
@@ -0,0 +1,228 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.hive.metastore;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.hive.common.metrics.Metrics;
+import org.apache.hadoop.hive.conf.HiveConf;
+import org.apache.hadoop.hive.metastore.api.MetaException;
+
+/**
+ * PooledMetaStoreClient. Creates a thread safe proxy for IMetaStoreClient that
+ * runs each call on a connection from a bounded pool, so that a slow call only
+ * holds up the calls that wait for a connection. Each connection is a
+ * {@link RetryingMetaStoreClient}, which retries the calls on that connection.
+ * Calls that change the state of a single connection, like setMetaConf, are
+ * rejected.
+ *
+ * The time the calls wait for a connection and the number of calls in flight
+ * are published as metrics, if the metrics are initialized.
+ */
+public class PooledMetaStoreClient implements InvocationHandler {
+
+  private static final Log LOG = LogFactory.getLog(PooledMetaStoreClient.class.getName());
+
+  static final String WAIT_TIME_METRIC = "metastore_client_pool_wait_time_ms";
+  static final String IN_FLIGHT_METRIC = "metastore_client_pool_in_flight_calls";
+
+  private final HiveConf hiveConf;
+  private final HiveMetaHookLoader hookLoader;
+  private final String mscClassName;
+  private final int poolSize;
+  // a permit for each connection that is not in use
+  private final Semaphore permits;
+  private final ConcurrentLinkedQueue<IMetaStoreClient> idle =
+      new ConcurrentLinkedQueue<IMetaStoreClient>();
+  private final AtomicInteger inFlightCalls = new AtomicInteger();
+  private final AtomicLong waitTimeMs = new AtomicLong();
+  private volatile boolean isClosed = false;
+
+  protected PooledMetaStoreClient(HiveConf hiveConf, HiveMetaHookLoader hookLoader,
+      String mscClassName, int poolSize) {
+    if (poolSize <= 0) {
+      throw new IllegalArgumentException("The pool size must be positive: " + poolSize);
+    }
+    this.hiveConf = hiveConf;
+    this.hookLoader = hookLoader;
+    this.mscClassName = mscClassName;
+    this.poolSize = poolSize;
+    this.permits = new Semaphore(poolSize, true);
+  }
+
+  public static IMetaStoreClient getProxy(HiveConf hiveConf, HiveMetaHookLoader hookLoader,
+      String mscClassName) {
+    return getProxy(hiveConf, hookLoader, mscClassName,
+        hiveConf.getIntVar(HiveConf.ConfVars.METASTORE_CLIENT_POOL_SIZE));
+  }
+
+  public static IMetaStoreClient getProxy(HiveConf hiveConf, HiveMetaHookLoader hookLoader,
+      String mscClassName, int poolSize) {
+    PooledMetaStoreClient handler =
+        new PooledMetaStoreClient(hiveConf, hookLoader, mscClassName, poolSize);
+    return (IMetaStoreClient) Proxy.newProxyInstance(PooledMetaStoreClient.class.getClassLoader(),
+        new Class [] { IMetaStoreClient.class }, handler);
+  }
+
+  /**
+   * Get the handler of a pooled client.
+   * @param client a client created by {@link #getProxy}
+   * @return the handler, which has the statistics of the pool
+   */
+  public static PooledMetaStoreClient getHandler(IMetaStoreClient client) {
+    return (PooledMetaStoreClient) Proxy.getInvocationHandler(client);
+  }
+
+  @Override
+  public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+    if (method.getDeclaringClass() == Object.class) {
+      try {
+        return method.invoke(this, args);
+      } catch (InvocationTargetException e) {
+        throw e.getCause();
+      }
+    }
+    String name = method.getName();
+    if (name.equals("close")) {
+      close();
+      return null;
+    }
+    if (name.equals("reconnect")) {
+      // the idle connections are dropped, and the ones in use are kept until
+      // their calls are done
+      closeIdle();
+      return null;
+    }
+    if (name.equals("setMetaConf")) {
+      // the metastore conf is kept per connection, and each call may run on a
+      // different connection, so the change would only reach one of them
+      throw new MetaException("setMetaConf is not supported by the pooled metastore client");
+    }
+    if (isClosed) {
+      throw new MetaException("The pooled metastore client is closed");
+    }
+
+    IMetaStoreClient client = borrow();
+    updateInFlight(inFlightCalls.incrementAndGet());
+    try {
+      return method.invoke(client, args);
+    } catch (InvocationTargetException e) {
+      throw e.getCause();
+    } finally {
+      updateInFlight(inFlightCalls.decrementAndGet());
+      giveBack(client);
+    }
+  }
+
+  private IMetaStoreClient borrow() throws MetaException {
+    long start = System.nanoTime();
+    try {
+      permits.acquire();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new MetaException("Interrupted while waiting for a metastore connection");
+    }
+    long waited = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+    if (waited > 0) {
+      waitTimeMs.addAndGet(waited);
+      try {
+        Metrics.incrementCounter(WAIT_TIME_METRIC, waited);
+      } catch (IOException e) {
+        LOG.debug("Failed to update " + WAIT_TIME_METRIC, e);
+      }
+    }
+    IMetaStoreClient client = idle.poll();
+    if (client == null) {
+      try {
+        client = RetryingMetaStoreClient.getProxy(hiveConf, hookLoader, mscClassName);
+      } catch (MetaException e) {
+        permits.release();
+        throw e;
+      } catch (RuntimeException e) {
+        permits.release();
+        throw e;
+      }
+    }
+    return client;
+  }
+
+  private void giveBack(IMetaStoreClient client) {
+    idle.add(client);
+    if (isClosed) {
+      closeIdle();
+    }
+    permits.release();
+  }
+
+  private static void updateInFlight(int calls) {
+    try {
+      Metrics.set(IN_FLIGHT_METRIC, Long.valueOf(calls));
+    } catch (IOException e) {
+      LOG.debug("Failed to update " + IN_FLIGHT_METRIC, e);
+    }
+  }
+
+  private void closeIdle() {
+    IMetaStoreClient client;
+    while ((client = idle.poll()) != null) {
+      client.close();
+    }
+  }
+
+  private void close() {
+    isClosed = true;
+    closeIdle();
+  }
+
+  public int getPoolSize() {
+    return poolSize;
+  }
+
+  /**
+   * Get the number of calls that are running on a connection.
+   */
+  public int getInFlightCalls() {
+    return inFlightCalls.get();
+  }
+
+  /**
+   * Get the total time the calls waited for a connection.
+   */
+  public long getWaitTimeMs() {
+    return waitTimeMs.get();
+  }
+
+  /**
+   * Get the number of connections that are open and not in use.
+   */
+  public int getIdleConnections() {
+    return idle.size();
+  }
+}
@@ -0,0 +1,61 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hive.metastore;
+
+import junit.framework.Assert;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hive.conf.HiveConf;
+import org.junit.Test;
+
+import java.util.List;
+
+/**
+ * Tests for MetaStoreChangeLog.
+ */
+public class TestMetaStoreChangeLog {
+
+  @Test
+  public void changesSince() {
+    Configuration conf = new Configuration();
+    conf.setInt(HiveConf.ConfVars.METASTORE_CLIENT_CACHE_CHANGE_LOG_SIZE.varname, 3);
+    new MetaStoreChangeLog(conf);
+    Assert.assertTrue(MetaStoreChangeLog.isActive());
+
+    long start = MetaStoreChangeLog.getLastSequence();
+    Assert.assertEquals(0, MetaStoreChangeLog.getChangesSince(start).size());
+    MetaStoreChangeLog.record("DB", "T1");
+    MetaStoreChangeLog.record("db", null);
+    Assert.assertEquals(start + 2, MetaStoreChangeLog.getLastSequence());
+
+    List<MetaStoreChangeLog.Change> changes = MetaStoreChangeLog.getChangesSince(start);
+    Assert.assertEquals(2, changes.size());
+    Assert.assertEquals(start + 1, changes.get(0).getSequence());
+    Assert.assertEquals("db", changes.get(0).getDbName());
+    Assert.assertEquals("t1", changes.get(0).getTableName());
+    Assert.assertNull(changes.get(1).getTableName());
+    Assert.assertEquals(1, MetaStoreChangeLog.getChangesSince(start + 1).size());
+
+    // the log keeps the last three changes, so the first one is lost
+    MetaStoreChangeLog.record("db", "t2");
+    MetaStoreChangeLog.record("db", "t3");
+    Assert.assertNull(MetaStoreChangeLog.getChangesSince(start));
+    changes = MetaStoreChangeLog.getChangesSince(start + 1);
+    Assert.assertEquals(3, changes.size());
+    Assert.assertEquals("t3", changes.get(2).getTableName());
+  }
+}
@@ -30,12 +30,14 @@
 import java.util.Map;
 import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.commons.lang.StringUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.fs.FSDataInputStream;
 import org.apache.hadoop.hive.common.ValidTxnList;
+import org.apache.hadoop.hive.common.metrics.Metrics;
 import org.apache.hadoop.hive.conf.HiveConf;
 import org.apache.hadoop.hive.conf.HiveConf.ConfVars;
 import org.apache.hadoop.hive.metastore.MetaStoreUtils;
@@ -121,8 +123,14 @@ public class Driver implements CommandProcessor {
   static final private Log LOG = LogFactory.getLog(CLASS_NAME);
   static final private LogHelper console = new LogHelper(LOG);
 
+  // held by all compilations if hive.driver.parallel.compilation is off
   private static final Object compileMonitor = new Object();
 
+  static final String COMPILE_METRIC = "driver_compile";
+  static final String COMPILE_QUEUE_DEPTH_METRIC = "driver_compile_queue_depth";
+  // the number of compilations that wait for their compile lock
+  private static final AtomicInteger waitingCompilations = new AtomicInteger();
+
   private int maxRows = 100;
   ByteStream.Output bos = new ByteStream.Output();
 
@@ -980,8 +988,24 @@ public CommandProcessorResponse compileAndRespond(String command) {
 
   private int compileInternal(String command) {
     int ret;
-    synchronized (compileMonitor) {
-      ret = compile(command);
+    Object compileLock = getCompileLock();
+    updateCompileQueueDepth(waitingCompilations.incrementAndGet());
+    synchronized (compileLock) {
+      updateCompileQueueDepth(waitingCompilations.decrementAndGet());
+      try {
+        Metrics.startScope(COMPILE_METRIC);
+      } catch (IOException e) {
+        LOG.debug("Failed to start metrics scope " + COMPILE_METRIC, e);
+      }
+      try {
+        ret = compile(command);
+      } finally {
+        try {
+          Metrics.endScope(COMPILE_METRIC);
+        } catch (IOException e) {
+          LOG.debug("Failed to end metrics scope " + COMPILE_METRIC, e);
+        }
+      }
     }
     if (ret != 0) {
       try {
@@ -994,6 +1018,28 @@ private int compileInternal(String command) {
     return ret;
   }
 
+  /**
+   * Get the lock to hold while compiling. The queries of a session share its
+   * state, so they are compiled one at a time. The queries of different
+   * sessions are compiled in parallel, unless hive.driver.parallel.compilation
+   * is off.
+   */
+  private Object getCompileLock() {
+    SessionState ss = SessionState.get();
+    if (ss == null || !conf.getBoolVar(HiveConf.ConfVars.HIVE_DRIVER_PARALLEL_COMPILATION)) {
+      return compileMonitor;
+    }
+    return ss.getCompileLock();
+  }
+
+  private static void updateCompileQueueDepth(int depth) {
+    try {
+      Metrics.set(COMPILE_QUEUE_DEPTH_METRIC, Long.valueOf(depth));
+    } catch (IOException e) {
+      LOG.debug("Failed to update " + COMPILE_QUEUE_DEPTH_METRIC, e);
+    }
+  }
+
   private CommandProcessorResponse runInternal(String command, boolean alreadyCompiled)
       throws CommandNeedRetryException {
     errorMessage = null;
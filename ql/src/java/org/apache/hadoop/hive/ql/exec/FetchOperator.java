@@ -22,10 +22,10 @@
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -221,7 +221,8 @@ public boolean isEmptyTable() {
   /**
    * A cache of InputFormat instances.
    */
-  private static Map<Class, InputFormat<WritableComparable, Writable>> inputFormats = new HashMap<Class, InputFormat<WritableComparable, Writable>>();
+  private static Map<Class, InputFormat<WritableComparable, Writable>> inputFormats =
+      new ConcurrentHashMap<Class, InputFormat<WritableComparable, Writable>>();
 
   @SuppressWarnings("unchecked")
   static InputFormat<WritableComparable, Writable> getInputFormatFromCache(Class inputFormatClass,
@@ -383,7 +384,8 @@ private void getNextPath() throws Exception {
   /**
    * A cache of Object Inspector Settable Properties.
    */
-  private static Map<ObjectInspector, Boolean> oiSettableProperties = new HashMap<ObjectInspector, Boolean>();
+  private static Map<ObjectInspector, Boolean> oiSettableProperties =
+      new ConcurrentHashMap<ObjectInspector, Boolean>();
 
   private RecordReader<WritableComparable, Writable> getRecordReader() throws Exception {
     if (currPath == null) {
@@ -607,16 +607,7 @@ public void processOp(Object row, int tag) throws HiveException {
       if (!multiFileSpray) {
         rowOutWriter = rowOutWriters[0];
       } else {
-        int keyHashCode = 0;
-        for (int i = 0; i < partitionEval.length; i++) {
-          Object o = partitionEval[i].evaluate(row);
-          keyHashCode = keyHashCode * 31
-              + ObjectInspectorUtils.hashCode(o, partitionObjectInspectors[i]);
-        }
-        key.setHashCode(keyHashCode);
-        int bucketNum = prtner.getBucket(key, null, totalFiles);
-        int idx = bucketMap.get(bucketNum);
-        rowOutWriter = rowOutWriters[idx];
+        rowOutWriter = rowOutWriters[findWriterOffset(row)];
       }
       rowOutWriter.write(recordValue);
     } catch (IOException e) {
@@ -626,6 +617,24 @@ public void processOp(Object row, int tag) throws HiveException {
     }
   }
 
+  /**
+   * Find the writer of the bucket of a row, when the rows are sprayed to
+   * several files.
+   * @param row the row, as seen by the input object inspector
+   * @return the index of the writer in the output writers
+   */
+  protected int findWriterOffset(Object row) throws HiveException {
+    int keyHashCode = 0;
+    for (int i = 0; i < partitionEval.length; i++) {
+      Object o = partitionEval[i].evaluate(row);
+      keyHashCode = keyHashCode * 31
+          + ObjectInspectorUtils.hashCode(o, partitionObjectInspectors[i]);
+    }
+    key.setHashCode(keyHashCode);
+    int bucketNum = prtner.getBucket(key, null, totalFiles);
+    return bucketMap.get(bucketNum);
+  }
+
   private boolean areAllTrue(boolean[] statsFromRW) {
     for(boolean b : statsFromRW) {
       if (!b) {
@@ -360,6 +360,7 @@ public final class FunctionRegistry {
 
     registerGenericUDAF("sum", new GenericUDAFSum());
     registerGenericUDAF("count", new GenericUDAFCount());
+    registerGenericUDAF("approx_count_distinct", new GenericUDAFApproxCountDistinct());
     registerGenericUDAF("avg", new GenericUDAFAverage());
     registerGenericUDAF("std", new GenericUDAFStd());
     registerGenericUDAF("stddev", new GenericUDAFStd());
@@ -674,9 +675,11 @@ public static Set<String> getFunctionNames() {
   }
 
   private static Set<String> getFunctionNames(boolean searchMetastore) {
-    Set<String> functionNames = mFunctions.keySet();
+    Set<String> functionNames;
+    synchronized (mFunctions) {
+      functionNames = new HashSet<String>(mFunctions.keySet());
+    }
     if (searchMetastore) {
-      functionNames = new HashSet<String>(functionNames);
       try {
         Hive db = getHive();
         List<String> dbNames = db.getAllDatabases();
@@ -716,9 +719,11 @@ public static Set<String> getFunctionNames(String funcPatternStr) {
     } catch (PatternSyntaxException e) {
       return funcNames;
     }
-    for (String funcName : mFunctions.keySet()) {
-      if (funcPattern.matcher(funcName).matches()) {
-        funcNames.add(funcName);
+    synchronized (mFunctions) {
+      for (String funcName : mFunctions.keySet()) {
+        if (funcPattern.matcher(funcName).matches()) {
+          funcNames.add(funcName);
+        }
       }
     }
     return funcNames;
@@ -740,12 +745,14 @@ public static Set<String> getFunctionSynonyms(String funcName) {
     }
 
     Class<?> funcClass = funcInfo.getFunctionClass();
-    for (String name : mFunctions.keySet()) {
-      if (name.equals(funcName)) {
-        continue;
-      }
-      if (mFunctions.get(name).getFunctionClass().equals(funcClass)) {
-        synonyms.add(name);
+    synchronized (mFunctions) {
+      for (Map.Entry<String, FunctionInfo> entry : mFunctions.entrySet()) {
+        if (entry.getKey().equals(funcName)) {
+          continue;
+        }
+        if (entry.getValue().getFunctionClass().equals(funcClass)) {
+          synonyms.add(entry.getKey());
+        }
       }
     }
 
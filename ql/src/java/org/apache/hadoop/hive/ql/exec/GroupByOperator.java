@@ -115,6 +115,10 @@ public class GroupByOperator extends Operator<GroupByDesc> implements
   // Used by hash-based GroupBy: Mode = HASH, PARTIALS
   protected transient HashMap<KeyWrapper, AggregationBuffer[]> hashAggregations;
 
+  // Used by hash-based GroupBy when the hash table is spilled to disk instead
+  // of being flushed
+  protected transient HashAggregationSpill hashSpill;
+
   // Used by hash distinct aggregations when hashGrpKeyNotRedKey is true
   protected transient HashSet<KeyWrapper> keysCurrentGroup;
 
@@ -170,8 +174,29 @@ public class GroupByOperator extends Operator<GroupByDesc> implements
    * Max memory usable by the hashtable before it should flush.
    */
   protected transient long maxHashTblMemory;
-  transient int totalVariableSize;
-  transient int numEntriesVarSize;
+
+  /**
+   * Memory budget of the operator, allocated by the record processor, or 0
+   * if the heap of the JVM is shared by nothing else than this task.
+   */
+  protected transient long memoryBudget;
+
+  /**
+   * Memory used by the entries of the hash table: the sum of the sizes of the
+   * keys and of the aggregation buffers, which are accounted as they change.
+   */
+  transient long hashTblMemory;
+
+  // Positions of the aggregation buffers whose size changes as they are
+  // updated. The estimable buffers report their size cheaply, and are
+  // measured on every update. The others have variable length fields, found
+  // by reflection: a sample of the entries is measured, and every entry is
+  // accounted at the average size of the sample.
+  transient int[] estimableAggrPositions;
+  transient int[] sampledAggrPositions;
+  transient long sampledAggrsSize;
+  transient int numSampledAggrs;
+  transient long numUpdatesHashTbl;
 
   /**
    * Current number of entries in the hash table.
@@ -385,6 +410,9 @@ protected void initializeOp(Configuration hconf) throws HiveException {
       groupKeyIsNotReduceKey = conf.getGroupKeyNotReductionKey();
       if (groupKeyIsNotReduceKey) {
         keysCurrentGroup = new HashSet<KeyWrapper>();
+      } else if (HiveConf.getBoolVar(hconf, HiveConf.ConfVars.HIVE_GROUPBY_SPILL_ENABLED)
+          && HashAggregationSpill.canSpill(conf.getAggregators())) {
+        initializeHashSpill(hconf);
       }
     }
 
@@ -428,17 +456,56 @@ protected void initializeOp(Configuration hconf) throws HiveException {
   }
 
   /**
-   * Estimate the number of entries in map-side hash table. The user can specify
-   * the total amount of memory to be used by the map-side hash. By default, all
-   * available memory is used. The size of each row is estimated, rather
-   * crudely, and the number of entries are figure out based on that.
-   *
-   * @return number of entries that can fit in hash table - useful for map-side
-   *         aggregation only
+   * Set up spilling of the hash table. The hash table always keeps partial
+   * aggregations, so that spilled runs can be merged: if the group by computes
+   * final aggregations, the evaluators are replaced by evaluators computing the
+   * partial aggregations, and the final aggregations are computed while merging.
+   */
+  private void initializeHashSpill(Configuration hconf) throws HiveException {
+    List<AggregationDesc> aggrs = conf.getAggregators();
+    ObjectInspector[] partialOIs = new ObjectInspector[aggrs.size()];
+    for (int i = 0; i < aggregationEvaluators.length; i++) {
+      GenericUDAFEvaluator.Mode mode = aggrs.get(i).getMode();
+      if (mode == GenericUDAFEvaluator.Mode.COMPLETE || mode == GenericUDAFEvaluator.Mode.FINAL) {
+        aggregationEvaluators[i] = HashAggregationSpill.newEvaluator(aggrs.get(i));
+        partialOIs[i] = aggregationEvaluators[i].init(
+            mode == GenericUDAFEvaluator.Mode.COMPLETE ? GenericUDAFEvaluator.Mode.PARTIAL1
+                : GenericUDAFEvaluator.Mode.PARTIAL2, aggregationParameterObjectInspectors[i]);
+      } else {
+        partialOIs[i] = objectInspectors.get(keyFields.length + i);
+      }
+    }
+    aggregations = newAggregations();
+    hashSpill = new HashAggregationSpill(hconf, reporter, aggrs,
+        currentKeyObjectInspectors, partialOIs);
+  }
+
+  /**
+   * Sets the memory the hash table of the operator may use. It is set by the
+   * record processor before the operator is initialized, when the heap is
+   * shared with other tasks and the used heap tells nothing about this one.
+   */
+  public void setMemoryBudget(long memoryBudget) {
+    this.memoryBudget = memoryBudget;
+  }
+
+  public long getMemoryBudget() {
+    return memoryBudget;
+  }
+
+  /**
+   * Compute the memory usable by the map-side hash table. It is the memory
+   * budget of the operator if one was allocated, or the configured percentage
+   * of the heap. The fixed size of each entry is estimated, and the variable
+   * sizes of the keys and aggregations are accounted as entries are added.
    **/
   private void computeMaxEntriesHashAggr(Configuration hconf) throws HiveException {
-    float memoryPercentage = this.getConf().getGroupByMemoryUsage();
-    maxHashTblMemory = (long) (memoryPercentage * Runtime.getRuntime().maxMemory());
+    if (memoryBudget > 0) {
+      maxHashTblMemory = memoryBudget;
+    } else {
+      float memoryPercentage = this.getConf().getGroupByMemoryUsage();
+      maxHashTblMemory = (long) (memoryPercentage * Runtime.getRuntime().maxMemory());
+    }
     estimateRowSize();
   }
 
@@ -557,18 +624,34 @@ private void estimateRowSize() throws HiveException {
     // Go over all the aggregation classes and and get the size of the fields of
     // fixed length. Keep track of the variable length
     // fields in these aggregation classes.
+    List<Integer> estimable = new ArrayList<Integer>();
+    List<Integer> sampled = new ArrayList<Integer>();
     for (int i = 0; i < aggregationEvaluators.length; i++) {
 
       fixedRowSize += javaObjectOverHead;
       AggregationBuffer agg = aggregationEvaluators[i].getNewAggregationBuffer();
       if (GenericUDAFEvaluator.isEstimable(agg)) {
+        estimable.add(i);
         continue;
       }
       Field[] fArr = ObjectInspectorUtils.getDeclaredNonStaticFields(agg.getClass());
       for (Field f : fArr) {
         fixedRowSize += getSize(i, f.getType(), f);
       }
+      if (aggrPositions[i] != null) {
+        sampled.add(i);
+      }
+    }
+    estimableAggrPositions = toIntArray(estimable);
+    sampledAggrPositions = toIntArray(sampled);
+  }
+
+  private static int[] toIntArray(List<Integer> list) {
+    int[] array = new int[list.size()];
+    for (int i = 0; i < array.length; i++) {
+      array[i] = list.get(i);
     }
+    return array;
   }
 
   protected AggregationBuffer[] newAggregations() throws HiveException {
@@ -751,7 +834,9 @@ public void processOp(Object row, int tag) throws HiveException {
     firstRow = false;
     ObjectInspector rowInspector = inputObjInspectors[tag];
     // Total number of input rows is needed for hash aggregation only
-    if (hashAggr && !groupKeyIsNotReduceKey) {
+    // A hash table of final aggregations cannot fall back to streaming
+    if (hashAggr && !groupKeyIsNotReduceKey
+        && (hashSpill == null || hashSpill.isPartialOutput())) {
       numRowsInput++;
       // if hash aggregation is not behaving properly, disable it
       if (numRowsInput == numRowsCompareHashAggr) {
@@ -817,12 +902,17 @@ private void processHashAggr(Object row, ObjectInspector rowInspector,
 
     // hash-based aggregations
     aggs = hashAggregations.get(newKeys);
+    long aggsSize;
     if (aggs == null) {
       KeyWrapper newKeyProber = newKeys.copyKey();
       aggs = newAggregations();
       hashAggregations.put(newKeyProber, aggs);
       newEntryForHashAggr = true;
       numRowsHashTbl++; // new entry in the hash table
+      hashTblMemory += fixedRowSize + getKeySize(newKeyProber);
+      aggsSize = 0;
+    } else {
+      aggsSize = getEstimableAggregationsSize(aggs);
     }
 
     // If the grouping key and the reduction key are different, a set of
@@ -836,6 +926,12 @@ private void processHashAggr(Object row, ObjectInspector rowInspector,
 
     // Update the aggs
     updateAggregations(aggs, row, rowInspector, true, newEntryForHashAggr, null);
+    hashTblMemory += getEstimableAggregationsSize(aggs) - aggsSize;
+    if (sampledAggrPositions.length > 0
+        && (numUpdatesHashTbl++ % NUMROWSESTIMATESIZE) == 0) {
+      sampledAggrsSize += getSampledAggregationsSize(aggs);
+      numSampledAggrs++;
+    }
 
     // We can only flush after the updateAggregations is done, or the
     // potentially new entry "aggs"
@@ -847,7 +943,11 @@ private void processHashAggr(Object row, ObjectInspector rowInspector,
     // happen at boundaries
     if ((!groupKeyIsNotReduceKey || firstRowInGroup)
         && shouldBeFlushed(newKeys)) {
-      flushHashTable(false);
+      if (hashSpill != null) {
+        spillHashTable(false);
+      } else {
+        flushHashTable(false);
+      }
     }
   }
 
@@ -912,69 +1012,99 @@ private void processAggr(Object row,
    *          keys for the row under consideration
    **/
   private boolean shouldBeFlushed(KeyWrapper newKeys) {
-    int numEntries = hashAggregations.size();
-    long usedMemory;
-    float rate;
-
-    // The fixed size for the aggregation class is already known. Get the
-    // variable portion of the size every NUMROWSESTIMATESIZE rows.
-    if ((numEntriesHashTable == 0) || ((numEntries % NUMROWSESTIMATESIZE) == 0)) {
-      //check how much memory left memory
-      usedMemory = memoryMXBean.getHeapMemoryUsage().getUsed();
-      rate = (float) usedMemory / (float) maxMemory;
-      if(rate > memoryThreshold){
+    long memory = getHashTblMemory();
+    if (memory >= maxHashTblMemory) {
+      LOG.trace("Hash Aggr: #hash table = " + hashAggregations.size()
+          + " memory = " + memory + " max memory = " + maxHashTblMemory);
+      return true;
+    }
+
+    // Without a memory budget the task has the heap to itself, so the used
+    // heap is checked every NUMROWSESTIMATESIZE entries as well, for what the
+    // accounting misses.
+    if (memoryBudget == 0 && (hashAggregations.size() % NUMROWSESTIMATESIZE) == 0) {
+      long usedMemory = memoryMXBean.getHeapMemoryUsage().getUsed();
+      float rate = (float) usedMemory / (float) maxMemory;
+      if (rate > memoryThreshold) {
         return true;
       }
-      for (Integer pos : keyPositionsSize) {
-        Object key = newKeys.getKeyArray()[pos.intValue()];
-        // Ignore nulls
-        if (key != null) {
-          if (key instanceof LazyString) {
-              totalVariableSize +=
-                  ((LazyPrimitive<LazyStringObjectInspector, Text>) key).
-                      getWritableObject().getLength();
-          } else if (key instanceof String) {
-            totalVariableSize += ((String) key).length();
-          } else if (key instanceof Text) {
-            totalVariableSize += ((Text) key).getLength();
-          } else if (key instanceof LazyBinary) {
-            totalVariableSize +=
-                ((LazyPrimitive<LazyBinaryObjectInspector, BytesWritable>) key).
-                    getWritableObject().getLength();
-          } else if (key instanceof BytesWritable) {
-            totalVariableSize += ((BytesWritable) key).getLength();
-          } else if (key instanceof ByteArrayRef) {
-            totalVariableSize += ((ByteArrayRef) key).getData().length;
-          }
-        }
-      }
+    }
+    return false;
+  }
 
-      AggregationBuffer[] aggs = hashAggregations.get(newKeys);
-      for (int i = 0; i < aggs.length; i++) {
-        AggregationBuffer agg = aggs[i];
-        if (GenericUDAFEvaluator.isEstimable(agg)) {
-          totalVariableSize += ((GenericUDAFEvaluator.AbstractAggregationBuffer)agg).estimate();
-          continue;
-        }
-        if (aggrPositions[i] != null) {
-          totalVariableSize += estimateSize(agg, aggrPositions[i]);
+  /**
+   * The memory used by the variable length keys of a hash table entry.
+   */
+  private int getKeySize(KeyWrapper keys) {
+    int length = 0;
+    for (Integer pos : keyPositionsSize) {
+      Object key = keys.getKeyArray()[pos.intValue()];
+      // Ignore nulls
+      if (key != null) {
+        if (key instanceof LazyString) {
+          length +=
+              ((LazyPrimitive<LazyStringObjectInspector, Text>) key).
+                  getWritableObject().getLength();
+        } else if (key instanceof String) {
+          length += ((String) key).length();
+        } else if (key instanceof Text) {
+          length += ((Text) key).getLength();
+        } else if (key instanceof LazyBinary) {
+          length +=
+              ((LazyPrimitive<LazyBinaryObjectInspector, BytesWritable>) key).
+                  getWritableObject().getLength();
+        } else if (key instanceof BytesWritable) {
+          length += ((BytesWritable) key).getLength();
+        } else if (key instanceof ByteArrayRef) {
+          length += ((ByteArrayRef) key).getData().length;
         }
       }
+    }
+    return length;
+  }
 
-      numEntriesVarSize++;
+  /**
+   * The memory used by the estimable aggregation buffers of a hash table
+   * entry.
+   */
+  private long getEstimableAggregationsSize(AggregationBuffer[] aggs) {
+    long length = 0;
+    for (int pos : estimableAggrPositions) {
+      length += ((GenericUDAFEvaluator.AbstractAggregationBuffer) aggs[pos]).estimate();
+    }
+    return length;
+  }
 
-      // Update the number of entries that can fit in the hash table
-      numEntriesHashTable =
-          (int) (maxHashTblMemory / (fixedRowSize + (totalVariableSize / numEntriesVarSize)));
-      LOG.trace("Hash Aggr: #hash table = " + numEntries
-          + " #max in hash table = " + numEntriesHashTable);
+  /**
+   * The memory used by the variable length fields of the other aggregation
+   * buffers of a hash table entry.
+   */
+  private long getSampledAggregationsSize(AggregationBuffer[] aggs) {
+    long length = 0;
+    for (int pos : sampledAggrPositions) {
+      length += estimateSize(aggs[pos], aggrPositions[pos]);
     }
+    return length;
+  }
 
-    // flush if necessary
-    if (numEntries >= numEntriesHashTable) {
-      return true;
+  /**
+   * The memory accounted for the hash table: the memory accounted for its
+   * entries, and the average size of the sampled aggregation buffers for
+   * each entry.
+   */
+  long getHashTblMemory() {
+    if (numSampledAggrs == 0) {
+      return hashTblMemory;
     }
-    return false;
+    return hashTblMemory + hashAggregations.size() * (sampledAggrsSize / numSampledAggrs);
+  }
+
+  /**
+   * The memory accounted for a hash table entry, but for its sampled
+   * aggregation buffers.
+   */
+  private long getEntrySize(KeyWrapper keys, AggregationBuffer[] aggs) {
+    return fixedRowSize + getKeySize(keys) + getEstimableAggregationsSize(aggs);
   }
 
   private int estimateSize(AggregationBuffer agg, List<Field> fields) {
@@ -1007,6 +1137,13 @@ private void flushHashTable(boolean complete) throws HiveException {
     // Currently, the algorithm flushes 10% of the entries - this can be
     // changed in the future
 
+    if (complete && hashSpill != null
+        && (hashSpill.hasSpilled() || !hashSpill.isPartialOutput())) {
+      spillHashTable(true);
+      hashAggregations = null;
+      return;
+    }
+
     if (complete) {
       Iterator<Map.Entry<KeyWrapper, AggregationBuffer[]>> iter = hashAggregations
           .entrySet().iterator();
@@ -1016,6 +1153,7 @@ private void flushHashTable(boolean complete) throws HiveException {
       }
       hashAggregations.clear();
       hashAggregations = null;
+      hashTblMemory = 0;
       LOG.info("Hash Table completed flushed");
       return;
     }
@@ -1028,6 +1166,7 @@ private void flushHashTable(boolean complete) throws HiveException {
     while (iter.hasNext()) {
       Map.Entry<KeyWrapper, AggregationBuffer[]> m = iter.next();
       forward(m.getKey().getKeyArray(), m.getValue());
+      hashTblMemory -= getEntrySize(m.getKey(), m.getValue());
       iter.remove();
       numDel++;
       if (numDel * 10 >= oldSize) {
@@ -1037,6 +1176,37 @@ private void flushHashTable(boolean complete) throws HiveException {
     }
   }
 
+  /**
+   * Spill the whole hash table to disk as a sorted run. This method is used by
+   * hash-based aggregations instead of flushHashTable when spilling is enabled.
+   * @param complete whether the group by is done: the runs are then merged and
+   *          forwarded
+   * @throws HiveException
+   */
+  private void spillHashTable(boolean complete) throws HiveException {
+    countAfterReport = 0;
+    LOG.info("Hash Tbl spill: #hash table = " + hashAggregations.size());
+    Object[] partials = new Object[aggregationEvaluators.length];
+    Iterator<Map.Entry<KeyWrapper, AggregationBuffer[]>> iter = hashAggregations
+        .entrySet().iterator();
+    while (iter.hasNext()) {
+      Map.Entry<KeyWrapper, AggregationBuffer[]> m = iter.next();
+      AggregationBuffer[] aggs = m.getValue();
+      for (int i = 0; i < aggs.length; i++) {
+        partials[i] = aggregationEvaluators[i].terminatePartial(aggs[i]);
+      }
+      hashSpill.add(m.getKey().getKeyArray(), partials);
+      iter.remove();
+    }
+    hashTblMemory = 0;
+    if (complete) {
+      hashSpill.finish(this, outputObjInspector);
+      LOG.info("Hash Table spilled runs merged");
+    } else {
+      hashSpill.spill();
+    }
+  }
+
   transient Object[] forwardCache;
 
   /**
@@ -1071,7 +1241,10 @@ protected void forward(Object[] keys,
   @Override
   public void flush() throws HiveException{
     try {
-      if (hashAggregations != null) {
+      if (hashAggregations != null && hashSpill != null
+          && (hashSpill.hasSpilled() || !hashSpill.isPartialOutput())) {
+        spillHashTable(true);
+      } else if (hashAggregations != null) {
         LOG.info("Begin Hash Table flush: size = "
             + hashAggregations.size());
         Iterator iter = hashAggregations.entrySet().iterator();
@@ -1083,6 +1256,7 @@ public void flush() throws HiveException{
           iter.remove();
         }
         hashAggregations.clear();
+        hashTblMemory = 0;
       } else if (aggregations != null) {
         // sort-based aggregations
         if (currentKeys != null) {
@@ -1141,6 +1315,9 @@ public void closeOp(boolean abort) throws HiveException {
         throw new HiveException(e);
       }
     }
+    if (hashSpill != null) {
+      hashSpill.close();
+    }
   }
 
   // Group by contains the columns needed - no need to aggregate from children
@@ -0,0 +1,450 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.hive.ql.exec;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hive.conf.HiveConf;
+import org.apache.hadoop.hive.ql.exec.persistence.RowContainer;
+import org.apache.hadoop.hive.ql.io.HiveSequenceFileOutputFormat;
+import org.apache.hadoop.hive.ql.metadata.HiveException;
+import org.apache.hadoop.hive.ql.plan.AggregationDesc;
+import org.apache.hadoop.hive.ql.plan.OperatorDesc;
+import org.apache.hadoop.hive.ql.plan.TableDesc;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDAFEvaluator;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDAFEvaluator.AggregationBuffer;
+import org.apache.hadoop.hive.serde.serdeConstants;
+import org.apache.hadoop.hive.serde2.SerDe;
+import org.apache.hadoop.hive.serde2.SerDeException;
+import org.apache.hadoop.hive.serde2.SerDeUtils;
+import org.apache.hadoop.hive.serde2.lazybinary.LazyBinarySerDe;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorUtils;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorUtils.ObjectInspectorCopyOption;
+import org.apache.hadoop.hive.serde2.objectinspector.StructObjectInspector;
+import org.apache.hadoop.hive.serde2.typeinfo.TypeInfoUtils;
+import org.apache.hadoop.mapred.Reporter;
+import org.apache.hadoop.mapred.SequenceFileInputFormat;
+import org.apache.hadoop.util.ReflectionUtils;
+
+/**
+ * Spills the hash table of a hash aggregation to local disk. Each spill writes
+ * the groups of the hash table as a run of (keys, partial aggregations) rows,
+ * sorted on the keys. When the group by closes, the runs and the groups still
+ * in memory are merged: the partial aggregations of each key are combined with
+ * the merge of the aggregation evaluator, so every key is forwarded once, with
+ * partial or final aggregations depending on the mode of the group by.
+ *
+ * Used by GroupByOperator and VectorGroupByOperator instead of forwarding
+ * partial aggregations when hive.groupby.spill.enabled is set.
+ */
+public class HashAggregationSpill {
+
+  private static final Log LOG = LogFactory.getLog(HashAggregationSpill.class.getName());
+
+  // number of rows of a run kept in memory while it is written or read
+  private static final int BLOCKSIZE = 1024;
+
+  private final Configuration hconf;
+  private final Reporter reporter;
+  private final int numKeys;
+  private final int maxRuns;
+
+  private final ObjectInspector[] inputOIs;
+  private final ObjectInspector[] standardOIs;
+  private final StructObjectInspector rowOI;
+  private final TableDesc spillTableDesc;
+  private final SerDe spillSerDe;
+
+  // PARTIAL2 evaluators, used to merge runs into a run
+  private final GenericUDAFEvaluator[] mergeEvaluators;
+  private final AggregationBuffer[] mergeBuffers;
+  private final ObjectInspector[] mergeOutputOIs;
+  // evaluators producing the output of the group by: the merge evaluators, or
+  // FINAL evaluators if the group by does not forward partial aggregations
+  private final GenericUDAFEvaluator[] outputEvaluators;
+  private final AggregationBuffer[] outputBuffers;
+  private final boolean partialOutput;
+
+  private final List<List<Object>> pending = new ArrayList<List<Object>>();
+  private final List<RowContainer<List<Object>>> runs =
+      new ArrayList<RowContainer<List<Object>>>();
+  private final Object[] outputRow;
+  private final Comparator<List<Object>> keyComparator;
+
+  /**
+   * @param keyOIs the object inspectors of the group by keys
+   * @param partialOIs the object inspectors of the partial aggregations
+   */
+  public HashAggregationSpill(Configuration hconf, Reporter reporter,
+      List<AggregationDesc> aggregators, ObjectInspector[] keyOIs,
+      ObjectInspector[] partialOIs) throws HiveException {
+    this.hconf = hconf;
+    this.reporter = reporter;
+    this.numKeys = keyOIs.length;
+    this.maxRuns = Math.max(2, HiveConf.getIntVar(hconf,
+        HiveConf.ConfVars.HIVE_GROUPBY_SPILL_MAX_RUNS));
+
+    int numColumns = keyOIs.length + partialOIs.length;
+    inputOIs = new ObjectInspector[numColumns];
+    standardOIs = new ObjectInspector[numColumns];
+    List<String> colNames = new ArrayList<String>(numColumns);
+    StringBuilder colTypes = new StringBuilder();
+    for (int i = 0; i < numColumns; i++) {
+      inputOIs[i] = i < numKeys ? keyOIs[i] : partialOIs[i - numKeys];
+      standardOIs[i] = ObjectInspectorUtils.getStandardObjectInspector(inputOIs[i],
+          ObjectInspectorCopyOption.WRITABLE);
+      colNames.add("_col" + i);
+      if (i > 0) {
+        colTypes.append(',');
+      }
+      colTypes.append(TypeInfoUtils.getTypeInfoFromObjectInspector(inputOIs[i]).getTypeName());
+    }
+    rowOI = ObjectInspectorFactory.getStandardStructObjectInspector(colNames,
+        Arrays.asList(standardOIs));
+    spillTableDesc = new TableDesc(
+        SequenceFileInputFormat.class, HiveSequenceFileOutputFormat.class,
+        Utilities.makeProperties(
+        serdeConstants.SERIALIZATION_FORMAT, "" + Utilities.ctrlaCode,
+        serdeConstants.LIST_COLUMNS, StringUtils.join(colNames, ','),
+        serdeConstants.LIST_COLUMN_TYPES, colTypes.toString(),
+        serdeConstants.SERIALIZATION_LIB, LazyBinarySerDe.class.getName()));
+    spillSerDe = ReflectionUtils.newInstance(LazyBinarySerDe.class, null);
+    try {
+      SerDeUtils.initializeSerDe(spillSerDe, null, spillTableDesc.getProperties(), null);
+    } catch (SerDeException e) {
+      throw new HiveException(e);
+    }
+
+    int numAggregations = partialOIs.length;
+    boolean partial = true;
+    mergeEvaluators = new GenericUDAFEvaluator[numAggregations];
+    mergeBuffers = new AggregationBuffer[numAggregations];
+    mergeOutputOIs = new ObjectInspector[numAggregations];
+    for (int i = 0; i < numAggregations; i++) {
+      AggregationDesc desc = aggregators.get(i);
+      partial &= desc.getMode() == GenericUDAFEvaluator.Mode.PARTIAL1 ||
+          desc.getMode() == GenericUDAFEvaluator.Mode.PARTIAL2;
+      mergeEvaluators[i] = newEvaluator(desc);
+      mergeOutputOIs[i] = mergeEvaluators[i].init(GenericUDAFEvaluator.Mode.PARTIAL2,
+          new ObjectInspector[] {standardOIs[numKeys + i]});
+      mergeBuffers[i] = mergeEvaluators[i].getNewAggregationBuffer();
+    }
+    partialOutput = partial;
+    if (partialOutput) {
+      outputEvaluators = mergeEvaluators;
+      outputBuffers = mergeBuffers;
+    } else {
+      outputEvaluators = new GenericUDAFEvaluator[numAggregations];
+      outputBuffers = new AggregationBuffer[numAggregations];
+      for (int i = 0; i < numAggregations; i++) {
+        outputEvaluators[i] = newEvaluator(aggregators.get(i));
+        outputEvaluators[i].init(GenericUDAFEvaluator.Mode.FINAL,
+            new ObjectInspector[] {standardOIs[numKeys + i]});
+        outputBuffers[i] = outputEvaluators[i].getNewAggregationBuffer();
+      }
+    }
+    outputRow = new Object[numColumns];
+
+    keyComparator = new Comparator<List<Object>>() {
+      @Override
+      public int compare(List<Object> o1, List<Object> o2) {
+        for (int i = 0; i < numKeys; i++) {
+          int c = ObjectInspectorUtils.compare(o1.get(i), standardOIs[i],
+              o2.get(i), standardOIs[i]);
+          if (c != 0) {
+            return c;
+          }
+        }
+        return 0;
+      }
+    };
+  }
+
+  /**
+   * Whether the aggregations can be spilled: the partial aggregations of
+   * distinct aggregations cannot be merged, and evaluators that are not
+   * created from their class name may carry state of the plan.
+   */
+  public static boolean canSpill(List<AggregationDesc> aggregators) {
+    for (AggregationDesc desc : aggregators) {
+      if (desc.getDistinct() || desc.getGenericUDAFEvaluatorClassName() == null) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Creates a new, uninitialized evaluator of an aggregation, the same way
+   * the evaluator of a deserialized plan is created.
+   */
+  public static GenericUDAFEvaluator newEvaluator(AggregationDesc desc) {
+    GenericUDAFEvaluator evaluator =
+        ReflectionUtils.newInstance(desc.getGenericUDAFEvaluator().getClass(), null);
+    MapredContext context = MapredContext.get();
+    if (context != null) {
+      context.setup(evaluator);
+    }
+    return evaluator;
+  }
+
+  /**
+   * Whether the group by forwards partial aggregations.
+   */
+  public boolean isPartialOutput() {
+    return partialOutput;
+  }
+
+  /**
+   * Whether a run was written since the hash aggregation started.
+   */
+  public boolean hasSpilled() {
+    return !runs.isEmpty();
+  }
+
+  /**
+   * Adds a group of the hash table to the next run. The keys and the partial
+   * aggregations are copied, so the caller can reuse them.
+   */
+  public void add(Object[] keys, Object[] partials) {
+    List<Object> row = new ArrayList<Object>(inputOIs.length);
+    for (int i = 0; i < numKeys; i++) {
+      row.add(ObjectInspectorUtils.copyToStandardObject(keys[i], inputOIs[i],
+          ObjectInspectorCopyOption.WRITABLE));
+    }
+    for (int i = 0; i < partials.length; i++) {
+      row.add(ObjectInspectorUtils.copyToStandardObject(partials[i], inputOIs[numKeys + i],
+          ObjectInspectorCopyOption.WRITABLE));
+    }
+    pending.add(row);
+  }
+
+  /**
+   * Writes the added groups as a sorted run.
+   */
+  public void spill() throws HiveException {
+    if (pending.isEmpty()) {
+      return;
+    }
+    if (runs.size() >= maxRuns) {
+      compact();
+    }
+    Collections.sort(pending, keyComparator);
+    RowContainer<List<Object>> run = newRun();
+    for (List<Object> row : pending) {
+      run.addRow(row);
+    }
+    pending.clear();
+    runs.add(run);
+    LOG.info("Hash aggregation spilled run " + runs.size() + " of " + run.rowCount() + " groups");
+  }
+
+  /**
+   * Merges the runs and the added groups, and forwards one row per key to the
+   * children of the operator.
+   */
+  public void finish(Operator<? extends OperatorDesc> op, ObjectInspector outputOI)
+      throws HiveException {
+    try {
+      Collections.sort(pending, keyComparator);
+      List<Iterator<List<Object>>> sources = openRuns();
+      sources.add(pending.iterator());
+      merge(sources, outputEvaluators, outputBuffers, null, op, outputOI);
+    } finally {
+      close();
+    }
+  }
+
+  /**
+   * Removes the runs from the local disk.
+   */
+  public void close() throws HiveException {
+    pending.clear();
+    for (RowContainer<List<Object>> run : runs) {
+      run.clearRows();
+    }
+    runs.clear();
+  }
+
+  private void compact() throws HiveException {
+    RowContainer<List<Object>> merged = newRun();
+    merge(openRuns(), mergeEvaluators, mergeBuffers, merged, null, null);
+    for (RowContainer<List<Object>> run : runs) {
+      run.clearRows();
+    }
+    runs.clear();
+    runs.add(merged);
+    LOG.info("Hash aggregation merged its runs into one run of " + merged.rowCount() + " groups");
+  }
+
+  private RowContainer<List<Object>> newRun() throws HiveException {
+    RowContainer<List<Object>> run = new RowContainer<List<Object>>(BLOCKSIZE, hconf, reporter);
+    run.setSerDe(spillSerDe, rowOI);
+    run.setTableDesc(spillTableDesc);
+    return run;
+  }
+
+  private List<Iterator<List<Object>>> openRuns() {
+    List<Iterator<List<Object>>> sources = new ArrayList<Iterator<List<Object>>>();
+    for (RowContainer<List<Object>> run : runs) {
+      sources.add(new RunIterator(run));
+    }
+    return sources;
+  }
+
+  /**
+   * Merges sorted sources, combining the partial aggregations of equal keys.
+   * The merged rows are added to the target run if there is one, or forwarded
+   * to the children of the operator.
+   */
+  private void merge(List<Iterator<List<Object>>> sources, GenericUDAFEvaluator[] evaluators,
+      AggregationBuffer[] buffers, RowContainer<List<Object>> target,
+      Operator<? extends OperatorDesc> op, ObjectInspector outputOI) throws HiveException {
+    PriorityQueue<Head> heads = new PriorityQueue<Head>(Math.max(1, sources.size()));
+    for (Iterator<List<Object>> source : sources) {
+      if (source.hasNext()) {
+        heads.add(new Head(source));
+      }
+    }
+
+    List<Object> current = null;
+    while (!heads.isEmpty()) {
+      Head head = heads.poll();
+      if (current == null || keyComparator.compare(current, head.row) != 0) {
+        if (current != null) {
+          emit(current, evaluators, buffers, target, op, outputOI);
+        }
+        current = head.row;
+        for (int i = 0; i < evaluators.length; i++) {
+          evaluators[i].reset(buffers[i]);
+        }
+      }
+      for (int i = 0; i < evaluators.length; i++) {
+        evaluators[i].merge(buffers[i], head.row.get(numKeys + i));
+      }
+      if (head.advance()) {
+        heads.add(head);
+      }
+    }
+    if (current != null) {
+      emit(current, evaluators, buffers, target, op, outputOI);
+    }
+  }
+
+  private void emit(List<Object> keys, GenericUDAFEvaluator[] evaluators,
+      AggregationBuffer[] buffers, RowContainer<List<Object>> target,
+      Operator<? extends OperatorDesc> op, ObjectInspector outputOI) throws HiveException {
+    for (int i = 0; i < numKeys; i++) {
+      outputRow[i] = keys.get(i);
+    }
+    for (int i = 0; i < evaluators.length; i++) {
+      outputRow[numKeys + i] = evaluators[i].evaluate(buffers[i]);
+    }
+    if (target == null) {
+      op.forward(outputRow, outputOI);
+      return;
+    }
+    // The evaluators reuse their results, so the merged row is copied.
+    List<Object> row = new ArrayList<Object>(outputRow.length);
+    for (int i = 0; i < numKeys; i++) {
+      row.add(outputRow[i]);
+    }
+    for (int i = 0; i < evaluators.length; i++) {
+      row.add(ObjectInspectorUtils.copyToStandardObject(outputRow[numKeys + i],
+          mergeOutputOIs[i], ObjectInspectorCopyOption.WRITABLE));
+    }
+    target.addRow(row);
+  }
+
+  /**
+   * The current row of a sorted source.
+   */
+  private class Head implements Comparable<Head> {
+    private final Iterator<List<Object>> source;
+    private List<Object> row;
+
+    Head(Iterator<List<Object>> source) {
+      this.source = source;
+      this.row = source.next();
+    }
+
+    boolean advance() {
+      if (!source.hasNext()) {
+        return false;
+      }
+      row = source.next();
+      return true;
+    }
+
+    @Override
+    public int compareTo(Head other) {
+      return keyComparator.compare(row, other.row);
+    }
+  }
+
+  /**
+   * Iterates over the rows of a run.
+   */
+  private static class RunIterator implements Iterator<List<Object>> {
+    private final RowContainer<List<Object>> run;
+    private List<Object> next;
+
+    RunIterator(RowContainer<List<Object>> run) {
+      this.run = run;
+      try {
+        next = run.first();
+      } catch (HiveException e) {
+        throw new RuntimeException(e);
+      }
+    }
+
+    @Override
+    public boolean hasNext() {
+      return next != null;
+    }
+
+    @Override
+    public List<Object> next() {
+      List<Object> row = next;
+      try {
+        next = run.next();
+      } catch (HiveException e) {
+        throw new RuntimeException(e);
+      }
+      return row;
+    }
+
+    @Override
+    public void remove() {
+      throw new UnsupportedOperationException();
+    }
+  }
+}
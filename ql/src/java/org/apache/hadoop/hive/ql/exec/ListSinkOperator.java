@@ -27,6 +27,7 @@
 import org.apache.hadoop.hive.ql.plan.ListSinkDesc;
 import org.apache.hadoop.hive.ql.plan.api.OperatorType;
 import org.apache.hadoop.hive.serde.serdeConstants;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
 import org.apache.hadoop.util.ReflectionUtils;
 
 /**
@@ -38,7 +39,16 @@ public class ListSinkOperator extends Operator<ListSinkDesc> {
   public static final String OUTPUT_FORMATTER = "output.formatter";
   public static final String OUTPUT_PROTOCOL = "output.protocol";
 
+  /**
+   * A result list that copies the fields of the rows into its own buffers.
+   * The rows it gets are not converted by the fetch formatter.
+   */
+  public interface RowCollector {
+    void collect(Object row, ObjectInspector rowOI) throws Exception;
+  }
+
   private transient List res;
+  private transient RowCollector collector;
   private transient FetchFormatter fetcher;
   private transient int numRows;
 
@@ -74,6 +84,7 @@ private FetchFormatter initializeFetcher(Configuration conf) throws Exception {
 
   public void reset(List res) {
     this.res = res;
+    this.collector = res instanceof RowCollector ? (RowCollector) res : null;
     this.numRows = 0;
   }
 
@@ -84,7 +95,11 @@ public int getNumRows() {
   @SuppressWarnings("unchecked")
   public void processOp(Object row, int tag) throws HiveException {
     try {
-      res.add(fetcher.convert(row, inputObjInspectors[0]));
+      if (collector != null) {
+        collector.collect(row, inputObjInspectors[0]);
+      } else {
+        res.add(fetcher.convert(row, inputObjInspectors[0]));
+      }
       numRows++;
     } catch (Exception e) {
       throw new HiveException(e);
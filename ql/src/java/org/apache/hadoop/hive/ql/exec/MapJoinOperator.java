@@ -26,6 +26,8 @@
 import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.hive.ql.HashTableLoaderFactory;
+import org.apache.hadoop.hive.ql.exec.persistence.HybridHashTableContainer;
+import org.apache.hadoop.hive.ql.exec.persistence.HybridHashTableContainer.HybridGetAdaptor;
 import org.apache.hadoop.hive.ql.exec.persistence.MapJoinKey;
 import org.apache.hadoop.hive.ql.exec.persistence.MapJoinObjectSerDeContext;
 import org.apache.hadoop.hive.ql.exec.persistence.MapJoinRowContainer;
@@ -33,6 +35,7 @@
 import org.apache.hadoop.hive.ql.exec.persistence.MapJoinTableContainer.ReusableGetAdaptor;
 import org.apache.hadoop.hive.ql.exec.persistence.MapJoinTableContainerSerDe;
 import org.apache.hadoop.hive.ql.exec.persistence.UnwrapRowContainer;
+import org.apache.hadoop.hive.ql.io.IOContext;
 import org.apache.hadoop.hive.ql.log.PerfLogger;
 import org.apache.hadoop.hive.ql.metadata.HiveException;
 import org.apache.hadoop.hive.ql.plan.MapJoinDesc;
@@ -41,7 +44,9 @@
 import org.apache.hadoop.hive.serde2.SerDe;
 import org.apache.hadoop.hive.serde2.SerDeException;
 import org.apache.hadoop.hive.serde2.SerDeUtils;
+import org.apache.hadoop.hive.serde2.io.ShortWritable;
 import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
 import org.apache.hadoop.util.ReflectionUtils;
 
 /**
@@ -65,6 +70,16 @@ public class MapJoinOperator extends AbstractMapJoinOperator<MapJoinDesc> implem
   private transient boolean hashTblInitedOnce;
   private transient ReusableGetAdaptor[] hashMapRowGetters;
 
+  // Hybrid grace hash join: the getter of the small table, if its partitions can be spilled,
+  // and the big table rows that probe the spilled partitions.
+  private transient HybridGetAdaptor spillableGetter;
+  private transient List<ObjectInspector> spilledValueOis;
+  private transient byte spilledAlias;
+  private transient long spilledRowCount;
+
+  // See MapJoinDesc.isBigTablePartitionPruning
+  protected transient boolean pruneBigTableSplits;
+
   private UnwrapRowContainer[] unwrapContainer;
 
   public MapJoinOperator() {
@@ -103,6 +118,7 @@ protected void initializeOp(Configuration hconf) throws HiveException {
 
     cache = ObjectCacheFactory.getCache(hconf);
     loader = HashTableLoaderFactory.getLoader(hconf);
+    pruneBigTableSplits = conf.isBigTablePartitionPruning();
 
     mapJoinTables = (MapJoinTableContainer[]) cache.retrieve(tableKey);
     mapJoinTableSerdes = (MapJoinTableContainerSerDe[]) cache.retrieve(serdeKey);
@@ -180,7 +196,7 @@ private void loadHashTable() throws HiveException {
     perfLogger.PerfLogBegin(CLASS_NAME, PerfLogger.LOAD_HASHTABLE);
     loader.init(getExecContext(), hconf, this);
     loader.load(mapJoinTables, mapJoinTableSerdes);
-    if (!conf.isBucketMapJoin()) {
+    if (!conf.isBucketMapJoin() && !hasSpilledTables()) {
       /*
        * The issue with caching in case of bucket map join is that different tasks
        * process different buckets and if the container is reused to join a different bucket,
@@ -188,6 +204,8 @@ private void loadHashTable() throws HiveException {
        * the operator does not change but data needed is different. For a proper fix, this
        * requires changes in the Tez API with regard to finding bucket id and 
        * also ability to schedule tasks to re-use containers that have cached the specific bucket.
+       * Tables with spilled partitions are consumed when the spilled rows are joined, so they
+       * cannot be reused either.
        */
       LOG.info("This is not bucket map join, so cache");
       cache.cache(tableKey, mapJoinTables);
@@ -196,6 +214,16 @@ private void loadHashTable() throws HiveException {
     perfLogger.PerfLogEnd(CLASS_NAME, PerfLogger.LOAD_HASHTABLE);
   }
 
+  private boolean hasSpilledTables() {
+    for (MapJoinTableContainer tableContainer : mapJoinTables) {
+      if (tableContainer instanceof HybridHashTableContainer
+          && ((HybridHashTableContainer)tableContainer).hasSpilledPartitions()) {
+        return true;
+      }
+    }
+    return false;
+  }
+
   // Load the hash table
   @Override
   public void cleanUpInputFileChangedOp() throws HiveException {
@@ -211,6 +239,17 @@ public void cleanUpInputFileChangedOp() throws HiveException {
     }
   }
 
+  /**
+   * Generates the map metadata and loads the hash tables when called for the first row.
+   */
+  protected void loadHashTableOnFirstRow() throws HiveException, SerDeException {
+    if (firstRow) {
+      generateMapMetaData();
+      loadHashTable();
+      firstRow = false;
+    }
+  }
+
   protected void setMapJoinKey(
       ReusableGetAdaptor dest, Object row, byte alias) throws HiveException {
     dest.setFromRow(row, joinKeys[alias], joinKeysObjectInspectors[alias]);
@@ -231,11 +270,7 @@ protected MapJoinKey getRefKey(byte alias) {
   @Override
   public void processOp(Object row, int tag) throws HiveException {
     try {
-      if (firstRow) {
-        generateMapMetaData();
-        loadHashTable();
-        firstRow = false;
-      }
+      loadHashTableOnFirstRow();
 
       alias = (byte)tag;
       if (hashMapRowGetters == null) {
@@ -244,6 +279,9 @@ public void processOp(Object row, int tag) throws HiveException {
         for (byte pos = 0; pos < order.length; pos++) {
           if (pos != alias) {
             hashMapRowGetters[pos] = mapJoinTables[pos].createGetter(refKey);
+            if (hashMapRowGetters[pos] instanceof HybridGetAdaptor) {
+              spillableGetter = (HybridGetAdaptor)hashMapRowGetters[pos];
+            }
           }
         }
       }
@@ -264,6 +302,13 @@ public void processOp(Object row, int tag) throws HiveException {
             adaptor.setFromOther(firstSetKey);
           }
           MapJoinRowContainer rowContainer = adaptor.getCurrentRows();
+          if (rowContainer == null && adaptor == spillableGetter
+              && spillableGetter.isCurrentKeySpilled()
+              && !firstSetKey.hasAnyNulls(fieldCount, nullsafes)) {
+            // The small table rows for the key are on disk; join the row after the big table.
+            spillBigTableRow(row);
+            return;
+          }
           if (rowContainer != null && unwrapContainer[pos] != null) {
             Object[] currentKey = firstSetKey.getCurrentKey();
             rowContainer = unwrapContainer[pos].setInternal(rowContainer, currentKey);
@@ -275,6 +320,9 @@ public void processOp(Object row, int tag) throws HiveException {
               storage[pos] = dummyObjVectors[pos];
             } else {
               storage[pos] = emptyList;
+              if (pruneBigTableSplits) {
+                skipBigTableSplit();
+              }
             }
           } else {
             joinNeeded = true;
@@ -304,8 +352,77 @@ public void processOp(Object row, int tag) throws HiveException {
     }
   }
 
+  /**
+   * Stops reading the current big table split after a row without a match. The join key is
+   * a partition column of the big table (see MapJoinDesc.isBigTablePartitionPruning), so it is
+   * the same for all the rows of the split, and none of them would match.
+   */
+  protected void skipBigTableSplit() {
+    IOContext ioContext = IOContext.get();
+    if (!ioContext.shouldSkipRemainingRows()) {
+      LOG.info("No match for the partition of " + ioContext.getInputPath()
+          + ", skipping the rest of the split");
+      ioContext.setSkipRemainingRows(true);
+    }
+  }
+
+  private void spillBigTableRow(Object row) throws HiveException {
+    // The filter tag is applied when the row is joined.
+    short aliasFilterTag = aliasFilterTags[alias];
+    List<Object> value = getFilteredValue(alias, row);
+    aliasFilterTags[alias] = aliasFilterTag;
+    if (spilledValueOis == null) {
+      spilledValueOis = new ArrayList<ObjectInspector>(joinValuesStandardObjectInspectors[alias]);
+      if (hasFilter(alias)) {
+        spilledValueOis.add(PrimitiveObjectInspectorFactory.writableShortObjectInspector);
+      }
+      spilledAlias = alias;
+    }
+    spillableGetter.spillCurrentRow(value, spilledValueOis);
+    ++spilledRowCount;
+  }
+
+  /**
+   * Joins the big table rows that were spilled by the hybrid grace hash join, partition by
+   * partition; to be called once all the big table rows have been processed.
+   */
+  protected void joinSpilledRows() throws HiveException {
+    if (spilledRowCount == 0) {
+      return;
+    }
+    LOG.info("Joining " + spilledRowCount + " spilled rows");
+    alias = spilledAlias;
+    byte smallPos = (byte)(alias == 0 ? 1 : 0);
+    while (spillableGetter.nextSpilledRow()) {
+      MapJoinRowContainer rowContainer = spillableGetter.getCurrentRows();
+      if (rowContainer == null) {
+        if (noOuterJoin) {
+          continue;
+        }
+        storage[smallPos] = dummyObjVectors[smallPos];
+      } else {
+        storage[smallPos] = rowContainer.copy();
+        aliasFilterTags[smallPos] = rowContainer.getAliasFilter();
+      }
+      List<Object> value = spillableGetter.getSpilledRowValue();
+      if (hasFilter(alias)) {
+        aliasFilterTags[alias] &= ((ShortWritable)value.get(value.size() - 1)).get();
+      }
+      storage[alias].addRow(value);
+      checkAndGenObject();
+      storage[alias].clearRows();
+      storage[smallPos] = null;
+    }
+    spilledRowCount = 0;
+    // The spilled partitions are consumed; release them and their files.
+    mapJoinTables[smallPos].clear();
+  }
+
   @Override
   public void closeOp(boolean abort) throws HiveException {
+    if (!abort) {
+      joinSpilledRows();
+    }
     for (MapJoinTableContainer tableContainer : mapJoinTables) {
       if (tableContainer != null) {
         tableContainer.dumpMetrics();
@@ -361,10 +361,14 @@ public int execute(DriverContext driverContext) {
               		" To turn off this error, set hive.error.on.empty.partition=false.");
             }
 
+            // get the loaded partitions in batches rather than one call each
+            List<Partition> partitions = db.getPartitionsBySpecs(table, dp);
+
             // for each partition spec, get the partition
             // and put it to WriteEntity for post-exec hook
-            for (LinkedHashMap<String, String> partSpec: dp) {
-              Partition partn = db.getPartition(table, partSpec, false);
+            for (int i = 0; i < dp.size(); i++) {
+              LinkedHashMap<String, String> partSpec = dp.get(i);
+              Partition partn = partitions.get(i);
 
               if (bucketCols != null || sortCols != null) {
                 updatePartitionBucketSortColumns(table, partn, bucketCols, numBuckets, sortCols);
@@ -22,11 +22,13 @@
 import java.util.List;
 import java.util.Map;
 
+import org.apache.hadoop.hive.ql.exec.vector.VectorExtractOperator;
 import org.apache.hadoop.hive.ql.exec.vector.VectorFileSinkOperator;
 import org.apache.hadoop.hive.ql.exec.vector.VectorFilterOperator;
 import org.apache.hadoop.hive.ql.exec.vector.VectorGroupByOperator;
 import org.apache.hadoop.hive.ql.exec.vector.VectorLimitOperator;
 import org.apache.hadoop.hive.ql.exec.vector.VectorMapJoinOperator;
+import org.apache.hadoop.hive.ql.exec.vector.VectorPTFOperator;
 import org.apache.hadoop.hive.ql.exec.vector.VectorReduceSinkOperator;
 import org.apache.hadoop.hive.ql.exec.vector.VectorSelectOperator;
 import org.apache.hadoop.hive.ql.exec.vector.VectorSMBMapJoinOperator;
@@ -128,6 +130,8 @@ public OpTuple(Class<T> descClass, Class<? extends Operator<T>> opClass) {
     vectorOpvec.add(new OpTuple<FileSinkDesc>(FileSinkDesc.class, VectorFileSinkOperator.class));
     vectorOpvec.add(new OpTuple<FilterDesc>(FilterDesc.class, VectorFilterOperator.class));
     vectorOpvec.add(new OpTuple<LimitDesc>(LimitDesc.class, VectorLimitOperator.class));
+    vectorOpvec.add(new OpTuple<ExtractDesc>(ExtractDesc.class, VectorExtractOperator.class));
+    vectorOpvec.add(new OpTuple<PTFDesc>(PTFDesc.class, VectorPTFOperator.class));
   }
 
   public static <T extends OperatorDesc> Operator<T> getVectorOperator(T conf,
@@ -150,6 +154,23 @@ public static <T extends OperatorDesc> Operator<T> getVectorOperator(T conf,
         + descClass.getName());
   }
 
+  /**
+   * Creates a specific vector operator class for a descriptor, for descriptors that can be
+   * executed by more than one vector operator.
+   */
+  public static <T extends OperatorDesc> Operator<T> getVectorOperator(
+      Class<? extends Operator<?>> opClass, T conf, VectorizationContext vContext)
+      throws HiveException {
+    try {
+      Operator<T> op = (Operator<T>) opClass.getDeclaredConstructor(
+          VectorizationContext.class, OperatorDesc.class).newInstance(vContext, conf);
+      return op;
+    } catch (Exception e) {
+      e.printStackTrace();
+      throw new HiveException(e);
+    }
+  }
+
   public static <T extends OperatorDesc> Operator<T> get(Class<T> opClass) {
 
     for (OpTuple o : opvec) {
@@ -145,8 +145,11 @@ public final class BytesBytesMultiHashMap {
   private long[] refs;
   private int startingHashBitCount, hashBitCount;
 
+  /** Bloom filter over the key hash codes, checked before probing; null if not built. */
+  private KeyBloomFilter keyFilter;
+
   private int metricPutConflict = 0, metricSameBitsDiffKey = 0,
-      metricSameBitsSameKey = 0, metricDiffBits = 0;
+      metricSameBitsSameKey = 0, metricDiffBits = 0, metricFilterRejects = 0;
 
   /** We have 39 bits to store list pointer from the first record; this is size limit */
   final static long MAX_WB_SIZE = ((long)1) << 38;
@@ -237,7 +240,12 @@ public void put(KvSource kv) throws SerDeException {
   public byte getValueRefs(byte[] key, int length, List<WriteBuffers.ByteSegmentRef> result) {
     // First, find first record for the key.
     result.clear();
-    long ref = findKeyRefToRead(key, length);
+    int hashCode = writeBuffers.hashCode(key, 0, length);
+    if (keyFilter != null && !keyFilter.mightContain(hashCode)) {
+      ++metricFilterRejects;
+      return 0;
+    }
+    long ref = findKeyRefToRead(key, length, hashCode);
     if (ref == 0) {
       return 0;
     }
@@ -296,6 +304,29 @@ public void clear() {
     this.writeBuffers.clear();
     this.refs = new long[1];
     this.keysAssigned = 0;
+    this.keyFilter = null;
+  }
+
+  /**
+   * Builds a bloom filter over the keys, to quickly rule out missing keys in getValueRefs.
+   * Must be called after all the keys have been added.
+   * @return The size of the filter in bytes.
+   */
+  public int buildKeyFilter() {
+    KeyBloomFilter filter = new KeyBloomFilter(keysAssigned);
+    for (int slot = 0; slot < refs.length; ++slot) {
+      long ref = refs[slot];
+      if (ref == 0) {
+        continue;
+      }
+      // The full hash code is stored in front of the key, see the class description.
+      writeBuffers.setReadPoint(getFirstRecordLengthsOffset(ref));
+      int valueLength = (int)writeBuffers.readVLong(), keyLength = (int)writeBuffers.readVLong();
+      long keyOffset = Ref.getOffset(ref) - (valueLength + keyLength);
+      filter.add(writeBuffers.readInt(keyOffset - 4));
+    }
+    keyFilter = filter;
+    return filter.getSizeInBytes();
   }
 
   private static void validateCapacity(long capacity) {
@@ -343,11 +374,11 @@ private int findKeySlotToWrite(long keyOffset, int keyLength, int hashCode) {
    * Finds the slot to use for reading.
    * @param key Read key array.
    * @param length Read key length.
+   * @param hashCode Hash code of the key.
    * @return The ref to use for reading.
    */
-  private long findKeyRefToRead(byte[] key, int length) {
+  private long findKeyRefToRead(byte[] key, int length, int hashCode) {
     final int bucketMask = (refs.length - 1);
-    int hashCode = writeBuffers.hashCode(key, 0, length);
     int slot = hashCode & bucketMask;
     // LOG.info("Read hash code for " + Utils.toStringBinary(key, 0, length)
     //   + " is " + Integer.toBinaryString(hashCode) + " - " + slot);
@@ -706,7 +737,8 @@ public void debugDumpMetrics() {
     if (LOG.isDebugEnabled()) {
       LOG.debug("Map metrics: keys " + this.keysAssigned + ", write conflict " + metricPutConflict
           + ", write max dist " + largestNumberOfSteps + ", read neq " + metricDiffBits
-          + ", read eq-eq " + metricSameBitsSameKey + ", read eq-neq " + metricSameBitsDiffKey);
+          + ", read eq-eq " + metricSameBitsSameKey + ", read eq-neq " + metricSameBitsDiffKey
+          + ", filter rejects " + metricFilterRejects);
     }
   }
 
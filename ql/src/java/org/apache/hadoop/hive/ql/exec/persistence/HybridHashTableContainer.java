@@ -0,0 +1,841 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.hive.ql.exec.persistence;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hive.conf.HiveConf;
+import org.apache.hadoop.hive.ql.exec.ExprNodeEvaluator;
+import org.apache.hadoop.hive.ql.exec.vector.VectorHashKeyWrapper;
+import org.apache.hadoop.hive.ql.exec.vector.VectorHashKeyWrapperBatch;
+import org.apache.hadoop.hive.ql.exec.vector.expressions.VectorExpressionWriter;
+import org.apache.hadoop.hive.ql.metadata.HiveException;
+import org.apache.hadoop.hive.serde2.ByteStream.Output;
+import org.apache.hadoop.hive.serde2.SerDeException;
+import org.apache.hadoop.hive.serde2.WriteBuffers;
+import org.apache.hadoop.hive.serde2.binarysortable.BinarySortableSerDe;
+import org.apache.hadoop.hive.serde2.lazy.ByteArrayRef;
+import org.apache.hadoop.hive.serde2.lazybinary.LazyBinaryFactory;
+import org.apache.hadoop.hive.serde2.lazybinary.LazyBinarySerDe;
+import org.apache.hadoop.hive.serde2.lazybinary.LazyBinaryStruct;
+import org.apache.hadoop.hive.serde2.lazybinary.LazyBinaryUtils;
+import org.apache.hadoop.hive.serde2.lazybinary.objectinspector.LazyBinaryObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.lazybinary.objectinspector.LazyBinaryStructObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorUtils;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorUtils.ObjectInspectorCopyOption;
+import org.apache.hadoop.hive.serde2.objectinspector.PrimitiveObjectInspector.PrimitiveCategory;
+import org.apache.hadoop.hive.serde2.typeinfo.TypeInfoUtils;
+import org.apache.hadoop.io.BinaryComparable;
+import org.apache.hadoop.io.BytesWritable;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableUtils;
+import org.apache.hadoop.util.hash.MurmurHash;
+
+/**
+ * Table container for hybrid grace hash join. The small table rows are hash partitioned on the
+ * key; as many partitions as fit into the memory budget are kept in memory, and the rows of the
+ * others are spilled to local disk. At seal time, each in-memory partition is turned into a
+ * MapJoinBytesTableContainer. Big table rows whose key falls into a spilled partition are
+ * spilled too (see {@link HybridGetAdaptor#spillCurrentRow(List, List)}); once the big table has
+ * been processed, the spilled partitions are loaded into memory one by one and their big table
+ * rows are replayed (see {@link HybridGetAdaptor#nextSpilledRow()}).
+ *
+ * Only BinarySortableSerDe keys and LazyBinarySerDe values are supported, so that the partition
+ * can be computed from the key bytes on both sides. Single integral keys are partitioned on the
+ * long value, so the native vectorized map join can probe the in-memory partitions directly
+ * (see {@link MapJoinTableContainerDirectAccess}) as long as nothing was spilled.
+ *
+ * A spilled partition that does not fit into memory when it is loaded is partitioned again,
+ * with a different hash, into a nested container; if it still does not fit after
+ * {@link #MAX_REPARTITION_LEVEL} levels (e.g. a single key with too many rows), the join fails.
+ */
+public class HybridHashTableContainer
+    implements MapJoinTableContainer, MapJoinTableContainerDirectAccess {
+  private static final Log LOG = LogFactory.getLog(HybridHashTableContainer.class);
+
+  /** Rough per row overhead of the hashtable, on top of the key and value bytes. */
+  private static final int ROW_OVERHEAD = 24;
+  /** Partitions are not chosen on the bits the hashtables use to pick a slot. */
+  private static final int PARTITION_HASH_SEED = 0x2f0e1eb3;
+  private static final int MIN_WB_SIZE = 64 * 1024;
+  /** How many times a spilled partition that is too big is partitioned again. */
+  static final int MAX_REPARTITION_LEVEL = 3;
+
+  private final Configuration hconf;
+  private final MapJoinObjectSerDeContext keyCtx, valCtx;
+  private final boolean[] sortableSortOrders;
+  private final long memoryThreshold;
+  private final int maxWbSize;
+  private final Partition[] partitions;
+  private final MurmurHash hash = (MurmurHash) MurmurHash.getInstance();
+  /** 0 for the small table, n for a spilled partition repartitioned n times. */
+  private final int level;
+  private final int partitionSeed;
+  /** The key category if the partition tables store the keys as longs; null otherwise. */
+  private final PrimitiveCategory longKeyCategory;
+  private final boolean longKeyIsDesc;
+  private final long[] longKey = new long[1];
+  /** The partition of the last direct access probe, to populate the values it returned. */
+  private Partition lastProbed;
+
+  private long memoryUsed = 0;
+  private int spilledPartitionCount = 0;
+  private File spillDir;
+
+  /** One hash partition of the small table, and the spilled big table rows that probe it. */
+  private static class Partition {
+    /** Raw rows while loading: [vlong key length][key][vlong value length][value]. */
+    WriteBuffers rows;
+    int rowCount;
+    long size;
+    /** The hashtable of the partition; null while loading, and when spilled. */
+    MapJoinBytesTableContainer table;
+    File smallTableFile, bigTableFile;
+    DataOutputStream smallTableOut, bigTableOut;
+    /** The container the partition was loaded into when it was too big to load as is. */
+    HybridHashTableContainer repartitioned;
+
+    boolean isSpilled() {
+      return smallTableFile != null;
+    }
+  }
+
+  public HybridHashTableContainer(Configuration hconf, MapJoinObjectSerDeContext keyCtx,
+      MapJoinObjectSerDeContext valCtx) throws SerDeException {
+    this(hconf, keyCtx, valCtx, HiveConf.getLongVar(hconf,
+        HiveConf.ConfVars.HIVECONVERTJOINNOCONDITIONALTASKTHRESHOLD));
+  }
+
+  HybridHashTableContainer(Configuration hconf, MapJoinObjectSerDeContext keyCtx,
+      MapJoinObjectSerDeContext valCtx, long memoryThreshold) throws SerDeException {
+    this(hconf, keyCtx, valCtx, memoryThreshold, 0);
+  }
+
+  private HybridHashTableContainer(Configuration hconf, MapJoinObjectSerDeContext keyCtx,
+      MapJoinObjectSerDeContext valCtx, long memoryThreshold, int level) throws SerDeException {
+    if (!isSupported(keyCtx, valCtx)) {
+      throw new SerDeException("Hybrid grace hash join needs BinarySortableSerDe keys and "
+          + "LazyBinarySerDe values");
+    }
+    this.hconf = hconf;
+    this.keyCtx = keyCtx;
+    this.valCtx = valCtx;
+    this.sortableSortOrders = ((BinarySortableSerDe)keyCtx.getSerDe()).getSortOrders();
+    this.memoryThreshold = memoryThreshold;
+    this.level = level;
+    this.partitionSeed = PARTITION_HASH_SEED + level;
+    this.longKeyCategory = MapJoinBytesTableContainer.getLongKeyCategory(keyCtx, valCtx);
+    this.longKeyIsDesc = longKeyCategory != null && sortableSortOrders[0];
+    int numPartitions = HiveConf.getIntVar(
+        hconf, HiveConf.ConfVars.HIVEHYBRIDGRACEHASHJOINNUMPARTITIONS);
+    if (Integer.bitCount(numPartitions) != 1) {
+      numPartitions = Integer.highestOneBit(numPartitions) << 1;
+    }
+    this.maxWbSize = HiveConf.getIntVar(hconf, HiveConf.ConfVars.HIVEHASHTABLEWBSIZE);
+    // Every partition allocates a buffer right away, so keep them small enough for the budget.
+    int rowsWbSize = (int)Math.max(MIN_WB_SIZE,
+        Math.min(maxWbSize, memoryThreshold / numPartitions / 2));
+    partitions = new Partition[numPartitions];
+    for (int i = 0; i < numPartitions; ++i) {
+      partitions[i] = new Partition();
+      partitions[i].rows = new WriteBuffers(rowsWbSize, BytesBytesMultiHashMap.MAX_WB_SIZE);
+    }
+    LOG.info("Hybrid grace hash join with " + numPartitions + " partitions and "
+        + memoryThreshold + " bytes of memory" + (level == 0 ? "" : " at level " + level));
+  }
+
+  /**
+   * @return Whether the keys and values can be partitioned by this container.
+   */
+  public static boolean isSupported(MapJoinObjectSerDeContext keyCtx,
+      MapJoinObjectSerDeContext valCtx) {
+    return keyCtx.getSerDe() instanceof BinarySortableSerDe
+        && valCtx.getSerDe() instanceof LazyBinarySerDe;
+  }
+
+  private int getPartitionId(byte[] key, int length) throws SerDeException {
+    if (longKeyCategory != null) {
+      if (!MapJoinBytesTableContainer.readLongKey(
+          key, length, longKeyCategory, longKeyIsDesc, longKey)) {
+        return 0; // null keys only have to land in the same partition on both sides
+      }
+      return getPartitionId(longKey[0]);
+    }
+    return hash.hash(key, length, partitionSeed) & (partitions.length - 1);
+  }
+
+  /**
+   * Partition of a long key. The long hashtables pick the slot from the low bits of the mixed
+   * key, so the partition is taken from the high bits of a differently seeded mix.
+   */
+  private int getPartitionId(long key) {
+    key ^= partitionSeed;
+    key ^= key >>> 33;
+    key *= 0xff51afd7ed558ccdL;
+    key ^= key >>> 33;
+    key *= 0xc4ceb9fe1a85ec53L;
+    key ^= key >>> 33;
+    return (int)(key >>> 32) & (partitions.length - 1);
+  }
+
+  @Override
+  public MapJoinKey putRow(MapJoinObjectSerDeContext keyContext, Writable currentKey,
+      MapJoinObjectSerDeContext valueContext, Writable currentValue)
+          throws SerDeException, HiveException {
+    if (!(currentKey instanceof BinaryComparable)
+        || !(currentValue instanceof BinaryComparable)) {
+      throw new SerDeException("Unexpected types " + currentKey.getClass().getCanonicalName()
+          + ", " + currentValue.getClass().getCanonicalName());
+    }
+    BinaryComparable key = (BinaryComparable)currentKey, value = (BinaryComparable)currentValue;
+    Partition partition = partitions[getPartitionId(key.getBytes(), key.getLength())];
+    try {
+      if (partition.isSpilled()) {
+        writeBytes(partition.smallTableOut, key.getBytes(), 0, key.getLength());
+        writeBytes(partition.smallTableOut, value.getBytes(), 0, value.getLength());
+        ++partition.rowCount;
+        partition.size += key.getLength() + value.getLength() + ROW_OVERHEAD;
+        return null;
+      }
+      partition.rows.writeVLong(key.getLength());
+      partition.rows.write(key.getBytes(), 0, key.getLength());
+      partition.rows.writeVLong(value.getLength());
+      partition.rows.write(value.getBytes(), 0, value.getLength());
+      long rowSize = key.getLength() + value.getLength() + ROW_OVERHEAD;
+      ++partition.rowCount;
+      partition.size += rowSize;
+      memoryUsed += rowSize;
+      while (memoryUsed > memoryThreshold && spillLargestPartition()) {
+        // Keep spilling until we fit.
+      }
+    } catch (IOException e) {
+      throw new HiveException(e);
+    }
+    return null; // there's no key to return
+  }
+
+  /**
+   * Spills the largest partition that is still in memory.
+   * @return false if all the partitions are already spilled.
+   */
+  private boolean spillLargestPartition() throws IOException {
+    int largest = -1;
+    for (int i = 0; i < partitions.length; ++i) {
+      if (!partitions[i].isSpilled()
+          && (largest < 0 || partitions[i].size > partitions[largest].size)) {
+        largest = i;
+      }
+    }
+    if (largest < 0) {
+      return false;
+    }
+    Partition partition = partitions[largest];
+    LOG.info("Spilling hash partition " + largest + " (" + partition.rowCount + " rows, "
+        + partition.size + " bytes); " + memoryUsed + " bytes in memory");
+    partition.smallTableFile = createSpillFile("small-" + largest);
+    partition.smallTableOut = openSpillFile(partition.smallTableFile);
+    long offset = 0, end = partition.rows.getWritePoint();
+    while (offset < end) {
+      WriteBuffers.ByteSegmentRef ref = readBytes(partition.rows, offset);
+      offset = ref.getOffset() + ref.getLength();
+      partition.rows.populateValue(ref);
+      writeBytes(partition.smallTableOut, ref.getBytes(), (int)ref.getOffset(), ref.getLength());
+    }
+    partition.rows.clear();
+    partition.rows = null;
+    memoryUsed -= partition.size;
+    ++spilledPartitionCount;
+    return true;
+  }
+
+  private File createSpillFile(String name) throws IOException {
+    if (spillDir == null) {
+      while (true) {
+        spillDir = File.createTempFile("hive-hybridgrace", "");
+        if (spillDir.delete() && spillDir.mkdir()) {
+          break;
+        }
+        LOG.debug("retry creating tmp hybrid grace hash join directory...");
+      }
+      // Caveat: it won't be deleted if JVM is killed by 'kill -9'.
+      spillDir.deleteOnExit();
+    }
+    File file = File.createTempFile(name, ".tmp", spillDir);
+    file.deleteOnExit();
+    return file;
+  }
+
+  private static DataOutputStream openSpillFile(File file) throws IOException {
+    return new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+  }
+
+  private static DataInputStream readSpillFile(File file) throws IOException {
+    return new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+  }
+
+  private static void writeBytes(DataOutputStream out, byte[] bytes, int offset, int length)
+      throws IOException {
+    WritableUtils.writeVInt(out, length);
+    out.write(bytes, offset, length);
+  }
+
+  /**
+   * Reads the next length-prefixed byte array written by writeBytes.
+   * @return false at the end of the file.
+   */
+  private static boolean readBytes(DataInputStream in, BytesWritable result) throws IOException {
+    int length;
+    try {
+      length = WritableUtils.readVInt(in);
+    } catch (EOFException e) {
+      return false;
+    }
+    result.setSize(length);
+    in.readFully(result.getBytes(), 0, length);
+    return true;
+  }
+
+  /**
+   * Reads the length of the length-prefixed byte array at the offset in the raw rows of a
+   * partition. The array ends at the offset of the returned reference plus its length.
+   */
+  private static WriteBuffers.ByteSegmentRef readBytes(WriteBuffers rows, long offset) {
+    rows.setReadPoint(offset);
+    int length = (int)rows.readVLong();
+    return new WriteBuffers.ByteSegmentRef(rows.getReadPoint(), length);
+  }
+
+  @Override
+  public void seal() {
+    try {
+      BytesWritable key = new BytesWritable(), value = new BytesWritable();
+      for (int i = 0; i < partitions.length; ++i) {
+        Partition partition = partitions[i];
+        if (partition.isSpilled()) {
+          partition.smallTableOut.close();
+          partition.smallTableOut = null;
+          continue;
+        }
+        partition.table = createPartitionTable(partition.rowCount, partition.size);
+        long offset = 0, end = partition.rows.getWritePoint();
+        while (offset < end) {
+          WriteBuffers.ByteSegmentRef ref = readBytes(partition.rows, offset);
+          offset = ref.getOffset() + ref.getLength();
+          partition.rows.populateValue(ref);
+          key.set(ref.getBytes(), (int)ref.getOffset(), ref.getLength());
+          ref = readBytes(partition.rows, offset);
+          offset = ref.getOffset() + ref.getLength();
+          partition.rows.populateValue(ref);
+          value.set(ref.getBytes(), (int)ref.getOffset(), ref.getLength());
+          partition.table.putRow(keyCtx, key, valCtx, value);
+        }
+        partition.rows.clear();
+        partition.rows = null;
+        partition.table.seal();
+      }
+    } catch (IOException e) {
+      throw new RuntimeException("Cannot build hybrid grace hash join partitions", e);
+    } catch (SerDeException e) {
+      throw new RuntimeException("Cannot build hybrid grace hash join partitions", e);
+    }
+    if (spilledPartitionCount > 0) {
+      LOG.info("Spilled " + spilledPartitionCount + " of " + partitions.length
+          + " hash partitions to " + spillDir);
+    }
+  }
+
+  private MapJoinBytesTableContainer createPartitionTable(int rowCount, long size)
+      throws SerDeException {
+    int wbSize = (int)Math.max(MIN_WB_SIZE, Math.min(maxWbSize, size));
+    return new MapJoinBytesTableContainer(hconf, keyCtx, valCtx, Math.max(rowCount, 1), wbSize);
+  }
+
+  /**
+   * @return Whether some partitions were spilled to disk. If so, the container cannot be reused
+   *         once the spilled partitions have been processed.
+   */
+  public boolean hasSpilledPartitions() {
+    return spilledPartitionCount > 0;
+  }
+
+  @Override
+  public ReusableGetAdaptor createGetter(MapJoinKey keyTypeFromLoader) {
+    if (keyTypeFromLoader != null) {
+      throw new AssertionError("No key expected from loader but got " + keyTypeFromLoader);
+    }
+    return new HybridGetAdaptor();
+  }
+
+  @Override
+  public void clear() {
+    for (Partition partition : partitions) {
+      if (partition.table != null) {
+        partition.table.clear();
+        partition.table = null;
+      }
+      if (partition.rows != null) {
+        partition.rows.clear();
+        partition.rows = null;
+      }
+      if (partition.repartitioned != null) {
+        partition.repartitioned.clear();
+        partition.repartitioned = null;
+      }
+      closeQuietly(partition.smallTableOut);
+      closeQuietly(partition.bigTableOut);
+      partition.smallTableOut = partition.bigTableOut = null;
+    }
+    if (spillDir != null) {
+      File[] files = spillDir.listFiles();
+      if (files != null) {
+        for (File file : files) {
+          if (!file.delete()) {
+            LOG.error("Error deleting tmp file:" + file.getAbsolutePath());
+          }
+        }
+      }
+      if (!spillDir.delete()) {
+        LOG.error("Error deleting tmp dir:" + spillDir.getAbsolutePath());
+      }
+      spillDir = null;
+    }
+  }
+
+  private static void closeQuietly(Closeable stream) {
+    if (stream == null) {
+      return;
+    }
+    try {
+      stream.close();
+    } catch (IOException e) {
+      LOG.warn("Error closing hybrid grace hash join spill file", e);
+    }
+  }
+
+  @Override
+  public MapJoinKey getAnyKey() {
+    return null; // This table has no keys.
+  }
+
+  @Override
+  public void dumpMetrics() {
+    for (Partition partition : partitions) {
+      if (partition.table != null) {
+        partition.table.dumpMetrics();
+      }
+    }
+  }
+
+  /**
+   * Gets the partition of a direct access probe; the direct access is only valid when no
+   * partition was spilled, see {@link #hasSpilledPartitions()}.
+   */
+  private Partition getProbedPartition(int partitionId) {
+    Partition partition = partitions[partitionId];
+    if (partition.table == null) {
+      throw new IllegalStateException("Hash partition " + partitionId + " is not in memory; "
+          + "spilled rows can only be joined through " + HybridGetAdaptor.class.getSimpleName());
+    }
+    lastProbed = partition;
+    return partition;
+  }
+
+  @Override
+  public byte getValueRefs(byte[] key, int length, List<WriteBuffers.ByteSegmentRef> result) {
+    int partitionId;
+    try {
+      partitionId = getPartitionId(key, length);
+    } catch (SerDeException e) {
+      throw new RuntimeException(e);
+    }
+    return getProbedPartition(partitionId).table.getValueRefs(key, length, result);
+  }
+
+  @Override
+  public boolean hasLongKeys() {
+    return longKeyCategory != null;
+  }
+
+  @Override
+  public byte getValueRefs(long key, List<WriteBuffers.ByteSegmentRef> result) {
+    return getProbedPartition(getPartitionId(key)).table.getValueRefs(key, result);
+  }
+
+  @Override
+  public void populateValue(WriteBuffers.ByteSegmentRef valueRef) {
+    lastProbed.table.populateValue(valueRef);
+  }
+
+  /**
+   * Get adaptor that finds the partition of the key, and gets the rows from the partition's
+   * table. If the partition is spilled, there are no rows; the caller is expected to spill the
+   * big table row, and to join it after the big table has been processed.
+   */
+  public class HybridGetAdaptor implements ReusableGetAdaptor {
+
+    private Object[] currentKey;
+    private boolean[] nulls;
+    private List<ObjectInspector> vectorKeyOIs;
+    private final Output output = new Output();
+    private final MapJoinBytesTableContainer.GetAdaptor[] partitionGetters =
+        new MapJoinBytesTableContainer.GetAdaptor[partitions.length];
+    private int partitionId;
+
+    // State of the spilled rows replay
+    private int replayPartitionId = -1;
+    private DataInputStream replayIn;
+    private final BytesWritable replayKey = new BytesWritable();
+    private final BytesWritable replayValue = new BytesWritable();
+    // The getter of the nested container of the replayed partition if it had to be
+    // repartitioned; the replayed rows are then served by it.
+    private HybridGetAdaptor replayChildGetter;
+    private final ByteArrayRef replayValueRef = new ByteArrayRef();
+    private List<ObjectInspector> spilledValueOis;
+    private LazyBinaryStructObjectInspector spilledValueSoi;
+    private LazyBinaryStruct spilledValueStruct;
+    private List<Object> spilledValue;
+
+    @Override
+    public void setFromVector(VectorHashKeyWrapper kw,
+        VectorExpressionWriter[] keyOutputWriters,
+        VectorHashKeyWrapperBatch keyWrapperBatch) throws HiveException {
+      if (nulls == null) {
+        nulls = new boolean[keyOutputWriters.length];
+        currentKey = new Object[keyOutputWriters.length];
+        vectorKeyOIs = new ArrayList<ObjectInspector>();
+        for (int i = 0; i < keyOutputWriters.length; i++) {
+          vectorKeyOIs.add(keyOutputWriters[i].getObjectInspector());
+        }
+      }
+      for (int i = 0; i < keyOutputWriters.length; i++) {
+        currentKey[i] = keyWrapperBatch.getWritableKeyValue(kw, i, keyOutputWriters[i]);
+        nulls[i] = currentKey[i] == null;
+      }
+      setFromCurrentKey(vectorKeyOIs);
+    }
+
+    @Override
+    public void setFromRow(Object row, List<ExprNodeEvaluator> fields,
+        List<ObjectInspector> ois) throws HiveException {
+      if (nulls == null) {
+        nulls = new boolean[fields.size()];
+        currentKey = new Object[fields.size()];
+      }
+      for (int keyIndex = 0; keyIndex < fields.size(); ++keyIndex) {
+        currentKey[keyIndex] = fields.get(keyIndex).evaluate(row);
+        nulls[keyIndex] = currentKey[keyIndex] == null;
+      }
+      setFromCurrentKey(ois);
+    }
+
+    private void setFromCurrentKey(List<ObjectInspector> ois) throws HiveException {
+      MapJoinKey.serializeRow(output, currentKey, ois, sortableSortOrders);
+      try {
+        partitionId = getPartitionId(output.getData(), output.getLength());
+      } catch (SerDeException e) {
+        throw new HiveException(e);
+      }
+      if (!partitions[partitionId].isSpilled()) {
+        getPartitionGetter(partitionId).setFromSerializedKey(
+            currentKey, nulls, output.getData(), output.getLength());
+      }
+    }
+
+    private MapJoinBytesTableContainer.GetAdaptor getPartitionGetter(int id) {
+      if (partitionGetters[id] == null) {
+        partitionGetters[id] =
+            (MapJoinBytesTableContainer.GetAdaptor)partitions[id].table.createGetter(null);
+      }
+      return partitionGetters[id];
+    }
+
+    @Override
+    public void setFromOther(ReusableGetAdaptor other) {
+      assert other instanceof HybridGetAdaptor;
+      HybridGetAdaptor other2 = (HybridGetAdaptor)other;
+      nulls = other2.nulls;
+      currentKey = other2.currentKey;
+      partitionId = other2.partitionId;
+      if (!partitions[partitionId].isSpilled()) {
+        getPartitionGetter(partitionId).setFromSerializedKey(currentKey, nulls,
+            other2.output.getData(), other2.output.getLength());
+      }
+    }
+
+    @Override
+    public boolean hasAnyNulls(int fieldCount, boolean[] nullsafes) {
+      if (nulls == null || nulls.length == 0) return false;
+      for (int i = 0; i < nulls.length; i++) {
+        if (nulls[i] && (nullsafes == null || !nullsafes[i])) {
+          return true;
+        }
+      }
+      return false;
+    }
+
+    @Override
+    public MapJoinRowContainer getCurrentRows() {
+      if (replayChildGetter != null) {
+        return replayChildGetter.getCurrentRows();
+      }
+      if (partitions[partitionId].table == null) {
+        return null;
+      }
+      return getPartitionGetter(partitionId).getCurrentRows();
+    }
+
+    @Override
+    public Object[] getCurrentKey() {
+      return currentKey;
+    }
+
+    /**
+     * @return Whether the partition of the current key is spilled, so the rows for the key
+     *         are not available until {@link #nextSpilledRow()} gets to it.
+     */
+    public boolean isCurrentKeySpilled() {
+      return partitions[partitionId].isSpilled();
+    }
+
+    /**
+     * Spills the big table row for the current key, to be joined after the big table has been
+     * processed.
+     * @param value The big table values of the row, as standard writable objects.
+     * @param valueOis The standard object inspectors for the values; the same for all rows.
+     */
+    public void spillCurrentRow(List<Object> value, List<ObjectInspector> valueOis)
+        throws HiveException {
+      if (spilledValueOis == null) {
+        spilledValueOis = valueOis;
+      }
+      try {
+        DataOutputStream out = getBigTableOut(partitionId);
+        writeBytes(out, output.getData(), 0, output.getLength());
+        output.reset();
+        LazyBinarySerDe.serializeStruct(output, value.toArray(), valueOis);
+        writeBytes(out, output.getData(), 0, output.getLength());
+      } catch (IOException e) {
+        throw new HiveException(e);
+      } catch (SerDeException e) {
+        throw new HiveException(e);
+      }
+    }
+
+    private DataOutputStream getBigTableOut(int id) throws IOException {
+      Partition partition = partitions[id];
+      if (partition.bigTableOut == null) {
+        partition.bigTableFile = createSpillFile("big-" + id);
+        partition.bigTableOut = openSpillFile(partition.bigTableFile);
+      }
+      return partition.bigTableOut;
+    }
+
+    /**
+     * Probes a big table row spilled by the parent container, whose partition was loaded into
+     * this container. If the key falls into a partition of this container that is spilled too,
+     * the row is spilled again, to be returned by {@link #nextSpilledRow()}.
+     * @return Whether the rows for the key are available.
+     */
+    private boolean probeSpilledRow(BytesWritable key, BytesWritable value)
+        throws IOException, SerDeException {
+      partitionId = getPartitionId(key.getBytes(), key.getLength());
+      if (partitions[partitionId].isSpilled()) {
+        DataOutputStream out = getBigTableOut(partitionId);
+        writeBytes(out, key.getBytes(), 0, key.getLength());
+        writeBytes(out, value.getBytes(), 0, value.getLength());
+        return false;
+      }
+      currentKey = null;
+      nulls = null;
+      getPartitionGetter(partitionId).setFromSerializedKey(
+          null, null, key.getBytes(), key.getLength());
+      replayValue.set(value);
+      spilledValue = null;
+      return true;
+    }
+
+    /**
+     * Moves to the next spilled big table row, loading the small table rows of its partition
+     * if needed; the in-memory partitions are released first. Afterwards, getCurrentRows returns
+     * the small table rows for the row, and getSpilledRowValue its values. The key is not
+     * available; spilled rows never have null keys that would prevent the match.
+     * @return false when there are no more spilled rows.
+     */
+    public boolean nextSpilledRow() throws HiveException {
+      try {
+        while (true) {
+          if (replayIn != null) {
+            while (readBytes(replayIn, replayKey)) {
+              if (!readBytes(replayIn, replayValue)) {
+                throw new HiveException("Truncated spill file "
+                    + partitions[replayPartitionId].bigTableFile);
+              }
+              if (replayChildGetter == null) {
+                currentKey = null;
+                nulls = null;
+                partitionId = replayPartitionId;
+                getPartitionGetter(partitionId).setFromSerializedKey(
+                    null, null, replayKey.getBytes(), replayKey.getLength());
+                spilledValue = null;
+                return true;
+              }
+              if (replayChildGetter.probeSpilledRow(replayKey, replayValue)) {
+                return true;
+              }
+            }
+            closeQuietly(replayIn);
+            replayIn = null;
+          }
+          // The rows of the repartitioned partition that were spilled again come last.
+          if (replayChildGetter != null && replayChildGetter.nextSpilledRow()) {
+            return true;
+          }
+          if (!loadNextSpilledPartition()) {
+            return false;
+          }
+        }
+      } catch (IOException e) {
+        throw new HiveException(e);
+      } catch (SerDeException e) {
+        throw new HiveException(e);
+      }
+    }
+
+    private boolean loadNextSpilledPartition()
+        throws IOException, SerDeException, HiveException {
+      if (replayPartitionId < 0) {
+        // Make room for the spilled partitions.
+        for (int i = 0; i < partitions.length; ++i) {
+          if (!partitions[i].isSpilled()) {
+            partitions[i].table.clear();
+            partitions[i].table = null;
+            partitionGetters[i] = null;
+          }
+        }
+      } else {
+        Partition done = partitions[replayPartitionId];
+        if (done.table != null) {
+          done.table.clear();
+          done.table = null;
+          partitionGetters[replayPartitionId] = null;
+        }
+        if (done.repartitioned != null) {
+          done.repartitioned.clear();
+          done.repartitioned = null;
+          replayChildGetter = null;
+        }
+      }
+      do {
+        ++replayPartitionId;
+        if (replayPartitionId >= partitions.length) {
+          return false;
+        }
+      } while (!partitions[replayPartitionId].isSpilled()
+          || partitions[replayPartitionId].bigTableOut == null);
+
+      Partition partition = partitions[replayPartitionId];
+      partition.bigTableOut.close();
+      partition.bigTableOut = null;
+      if (partition.size <= memoryThreshold) {
+        LOG.info("Loading spilled hash partition " + replayPartitionId);
+        partition.table = createPartitionTable(partition.rowCount, partition.size);
+      } else if (level < MAX_REPARTITION_LEVEL) {
+        LOG.info("Spilled hash partition " + replayPartitionId + " (" + partition.size
+            + " bytes) does not fit in memory; partitioning it again");
+        partition.repartitioned = new HybridHashTableContainer(
+            hconf, keyCtx, valCtx, memoryThreshold, level + 1);
+      } else {
+        throw new HiveException("Spilled hash partition " + replayPartitionId + " of the map "
+            + "join small table (" + partition.rowCount + " rows, " + partition.size
+            + " bytes) does not fit in " + memoryThreshold + " bytes of memory after "
+            + MAX_REPARTITION_LEVEL + " levels of repartitioning; the small table probably has "
+            + "a key with too many rows");
+      }
+      DataInputStream in = readSpillFile(partition.smallTableFile);
+      try {
+        while (readBytes(in, replayKey)) {
+          if (!readBytes(in, replayValue)) {
+            throw new IOException("Truncated spill file " + partition.smallTableFile);
+          }
+          if (partition.table != null) {
+            partition.table.putRow(keyCtx, replayKey, valCtx, replayValue);
+          } else {
+            partition.repartitioned.putRow(keyCtx, replayKey, valCtx, replayValue);
+          }
+        }
+      } finally {
+        in.close();
+      }
+      if (partition.table != null) {
+        partition.table.seal();
+      } else {
+        partition.repartitioned.seal();
+        replayChildGetter = (HybridGetAdaptor)partition.repartitioned.createGetter(null);
+        replayChildGetter.spilledValueOis = spilledValueOis;
+      }
+      replayIn = readSpillFile(partition.bigTableFile);
+      return true;
+    }
+
+    /**
+     * @return The big table values of the current spilled row, as standard writable objects.
+     */
+    @SuppressWarnings("unchecked")
+    public List<Object> getSpilledRowValue() {
+      if (replayChildGetter != null) {
+        return replayChildGetter.getSpilledRowValue();
+      }
+      if (spilledValue == null) {
+        if (spilledValueStruct == null) {
+          List<String> names = new ArrayList<String>(spilledValueOis.size());
+          List<ObjectInspector> ois = new ArrayList<ObjectInspector>(spilledValueOis.size());
+          for (int i = 0; i < spilledValueOis.size(); ++i) {
+            names.add("_col" + i);
+            ois.add(LazyBinaryUtils.getLazyBinaryObjectInspectorFromTypeInfo(
+                TypeInfoUtils.getTypeInfoFromTypeString(spilledValueOis.get(i).getTypeName())));
+          }
+          spilledValueSoi = LazyBinaryObjectInspectorFactory
+              .getLazyBinaryStructObjectInspector(names, ois);
+          spilledValueStruct =
+              (LazyBinaryStruct)LazyBinaryFactory.createLazyBinaryObject(spilledValueSoi);
+        }
+        replayValueRef.setData(replayValue.getBytes());
+        spilledValueStruct.init(replayValueRef, 0, replayValue.getLength());
+        spilledValue = (List<Object>)ObjectInspectorUtils.copyToStandardObject(
+            spilledValueStruct, spilledValueSoi, ObjectInspectorCopyOption.WRITABLE);
+      }
+      return spilledValue;
+    }
+  }
+}
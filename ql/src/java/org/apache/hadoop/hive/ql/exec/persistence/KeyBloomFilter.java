@@ -0,0 +1,115 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.hive.ql.exec.persistence;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Bloom filter over the hash codes of the keys of a MapJoin hashtable, checked before probing
+ * the hashtable. When most big table keys have no match, this saves the probe: the filter is
+ * several times smaller than the hashtable, so it is much more likely to be in the CPU cache.
+ *
+ * The filter is blocked: all the bits of a key are in one long word, so a test touches one
+ * cache line. It uses the 32-bit hash code the hashtable already computed for the key, so it
+ * cannot tell apart keys with the same hash code; the hashtable does that.
+ *
+ * The filter is checked by the hashtable, so it runs after the big table key has been
+ * serialized (or read as a long) and hashed; what it saves is the probe and the key comparison,
+ * not the key serialization. It is not pushed into the big table scan, which would need a
+ * runtime filter from the join into the TableScan/FilterOperator that does not exist here.
+ *
+ * If the filter turns out not to reject enough keys (i.e. most big table keys match), it turns
+ * itself off, and passes all keys.
+ */
+final class KeyBloomFilter {
+  private static final Log LOG = LogFactory.getLog(KeyBloomFilter.class);
+
+  /**
+   * 3 bits per key in the word, and 8 bits per key; with the number of keys per word varying,
+   * that is about 4% false positives (vs. 3% for an unblocked filter).
+   */
+  static final int BITS_PER_KEY = 8;
+  /** Number of tests after which we check whether the filter is worth it. */
+  private static final int SAMPLE_TESTS = 1 << 16;
+  /** The filter is turned off if it rejects less than 1/8 of the keys. */
+  private static final int MIN_REJECT_SHIFT = 3;
+
+  private final long[] words;
+  private final int indexShift;
+  private boolean isEnabled = true;
+  private int tests = 0, rejects = 0;
+
+  /**
+   * @param keyCount The number of keys that will be added.
+   */
+  KeyBloomFilter(int keyCount) {
+    long bitCount = Math.max(Long.SIZE, (long)keyCount * BITS_PER_KEY);
+    int wordCount = Integer.highestOneBit((int)Math.min(1 << 30, bitCount / Long.SIZE));
+    if (wordCount < bitCount / Long.SIZE) {
+      wordCount <<= 1;
+    }
+    words = new long[wordCount];
+    indexShift = Integer.SIZE - Integer.numberOfTrailingZeros(wordCount);
+  }
+
+  /**
+   * The word index is taken from the top bits of the remixed hash code, since the hashtable
+   * uses the low bits to pick the slot; the bits in the word are from the hash code itself.
+   */
+  private int getWordIndex(int hashCode) {
+    return indexShift == Integer.SIZE ? 0 : ((hashCode * 0x9E3779B9) >>> indexShift);
+  }
+
+  private static long getBitMask(int hashCode) {
+    // Shifts of a long only use the low 6 bits of the shift distance.
+    return (1L << hashCode) | (1L << (hashCode >>> 6)) | (1L << (hashCode >>> 12));
+  }
+
+  void add(int hashCode) {
+    words[getWordIndex(hashCode)] |= getBitMask(hashCode);
+  }
+
+  /**
+   * @return false if no key with the hash code was added; true if one may have been.
+   */
+  boolean mightContain(int hashCode) {
+    if (!isEnabled) {
+      return true;
+    }
+    long mask = getBitMask(hashCode);
+    boolean result = (words[getWordIndex(hashCode)] & mask) == mask;
+    if (!result) {
+      ++rejects;
+    }
+    if (++tests == SAMPLE_TESTS) {
+      if (rejects < (tests >>> MIN_REJECT_SHIFT)) {
+        LOG.info("Turning off the key bloom filter; it rejected " + rejects + " of "
+            + tests + " keys");
+        isEnabled = false;
+      }
+      tests = rejects = 0;
+    }
+    return result;
+  }
+
+  int getSizeInBytes() {
+    return words.length * (Long.SIZE / Byte.SIZE);
+  }
+}
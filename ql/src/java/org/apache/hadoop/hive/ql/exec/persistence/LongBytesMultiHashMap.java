@@ -0,0 +1,354 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.hive.ql.exec.persistence;
+
+import java.util.List;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.hive.serde2.SerDeException;
+import org.apache.hadoop.hive.serde2.WriteBuffers;
+
+import com.google.common.annotations.VisibleForTesting;
+
+/**
+ * HashMap that maps primitive longs to byte arrays, for MapJoin hash tables keyed by a single
+ * integral column. Works like {@link BytesBytesMultiHashMap} (multiple values per key, a state
+ * byte per key, values in {@link WriteBuffers}), but the keys are kept in a long array next to
+ * the refs, so putting and getting a key needs neither serializing it nor comparing bytes.
+ * Null keys cannot be represented by a long; their values are kept in a separate list.
+ */
+public final class LongBytesMultiHashMap {
+  public static final Log LOG = LogFactory.getLog(LongBytesMultiHashMap.class);
+
+  /*
+   * The refs array holds, for each key, the tail offset of the most recently added value
+   * record. Records are written one after another, and each one points back to the previous
+   * record for the same key:
+   *    [value bytes][vlong value length][vlong relative offset to the previous record, 0 if none]
+   * Offset 0 is never a valid tail offset (we reserve a byte in the buffers), so 0 ref
+   * means the slot is empty.
+   */
+
+  /** Write buffers for values. */
+  private final WriteBuffers writeBuffers;
+
+  private final float loadFactor;
+
+  private int resizeThreshold;
+  private int keysAssigned;
+
+  /**
+   * Largest number of probe steps ever taken to find location for a key. When getting, we can
+   * conclude that they key is not in hashtable when we make this many steps and don't find it.
+   */
+  private int largestNumberOfSteps = 0;
+
+  /**
+   * Keys, refs and state bytes of the hashtable. The index is hash of the key; collisions are
+   * resolved using open addressing with quadratic probing, like BytesBytesMultiHashMap.
+   */
+  private long[] keys;
+  private long[] refs;
+  private byte[] stateBytes;
+
+  /** The values for the null key; same as a ref, 0 if there are none. */
+  private long nullKeyRef = 0;
+  private byte nullKeyStateByte;
+
+  /** Bloom filter over the key hash codes, checked before probing; null if not built. */
+  private KeyBloomFilter keyFilter;
+
+  private int metricPutConflict = 0, metricGetConflict = 0, metricFilterRejects = 0;
+
+  public LongBytesMultiHashMap(int initialCapacity, float loadFactor, int wbSize) {
+    if (loadFactor < 0 || loadFactor > 1) {
+      throw new AssertionError("Load factor must be between (0, 1].");
+    }
+    initialCapacity = (Long.bitCount(initialCapacity) == 1)
+        ? initialCapacity : nextHighestPowerOfTwo(initialCapacity);
+    validateCapacity(initialCapacity);
+    this.loadFactor = loadFactor;
+    keys = new long[initialCapacity];
+    refs = new long[initialCapacity];
+    stateBytes = new byte[initialCapacity];
+    writeBuffers = new WriteBuffers(wbSize, BytesBytesMultiHashMap.MAX_WB_SIZE);
+    writeBuffers.write(0); // Make sure no record ends at offset 0, see above.
+    resizeThreshold = (int)(initialCapacity * this.loadFactor);
+  }
+
+  /**
+   * Adds new value to new or existing key in hashmap.
+   * @param key The key.
+   * @param kv Value writer; writeKey is never called.
+   */
+  public void put(long key, BytesBytesMultiHashMap.KvSource kv) throws SerDeException {
+    if (resizeThreshold <= keysAssigned) {
+      expandAndRehash();
+    }
+    int slot = findKeySlotToWrite(key);
+    long ref = refs[slot];
+    long tailOffset = writeValueRecord(kv, ref);
+    if (ref == 0) {
+      keys[slot] = key;
+      stateBytes[slot] = kv.updateStateByte(null);
+      ++keysAssigned;
+    } else {
+      stateBytes[slot] = kv.updateStateByte(stateBytes[slot]);
+    }
+    refs[slot] = tailOffset;
+  }
+
+  /**
+   * Adds new value for the null key.
+   * @param kv Value writer; writeKey is never called.
+   */
+  public void putNullKey(BytesBytesMultiHashMap.KvSource kv) throws SerDeException {
+    long tailOffset = writeValueRecord(kv, nullKeyRef);
+    nullKeyStateByte = kv.updateStateByte(nullKeyRef == 0 ? null : nullKeyStateByte);
+    nullKeyRef = tailOffset;
+  }
+
+  /**
+   * Gets "lazy" values for a key (as a set of byte segments in underlying buffer).
+   * @param key The key.
+   * @param result The list to use to store the results.
+   * @return the state byte for the key.
+   */
+  public byte getValueRefs(long key, List<WriteBuffers.ByteSegmentRef> result) {
+    result.clear();
+    int hashCode = hashCode(key);
+    if (keyFilter != null && !keyFilter.mightContain(hashCode)) {
+      ++metricFilterRejects;
+      return 0;
+    }
+    int slot = findKeySlotToRead(key, hashCode);
+    if (slot < 0) {
+      return 0;
+    }
+    readValueRefs(refs[slot], result);
+    return stateBytes[slot];
+  }
+
+  /**
+   * Gets "lazy" values for the null key.
+   * @param result The list to use to store the results.
+   * @return the state byte for the null key.
+   */
+  public byte getNullKeyValueRefs(List<WriteBuffers.ByteSegmentRef> result) {
+    result.clear();
+    if (nullKeyRef == 0) {
+      return 0;
+    }
+    readValueRefs(nullKeyRef, result);
+    return nullKeyStateByte;
+  }
+
+  /**
+   * Take the segment reference from {@link #getValueRefs(long, List)}
+   * result and makes it self-contained - adds byte array where the value is stored, and
+   * updates the offset from "global" write buffers offset to offset within that array.
+   */
+  public void populateValue(WriteBuffers.ByteSegmentRef valueRef) {
+    writeBuffers.populateValue(valueRef);
+  }
+
+  public int size() {
+    return keysAssigned;
+  }
+
+  public void seal() {
+    writeBuffers.seal();
+  }
+
+  public void clear() {
+    // This will make the object completely unusable. Semantics of clear are not defined...
+    this.writeBuffers.clear();
+    this.keys = new long[1];
+    this.refs = new long[1];
+    this.stateBytes = new byte[1];
+    this.keysAssigned = 0;
+    this.nullKeyRef = 0;
+    this.keyFilter = null;
+  }
+
+  /**
+   * Builds a bloom filter over the keys, to quickly rule out missing keys in getValueRefs.
+   * Must be called after all the keys have been added.
+   * @return The size of the filter in bytes.
+   */
+  public int buildKeyFilter() {
+    KeyBloomFilter filter = new KeyBloomFilter(keysAssigned);
+    for (int slot = 0; slot < refs.length; ++slot) {
+      if (refs[slot] != 0) {
+        filter.add(hashCode(keys[slot]));
+      }
+    }
+    keyFilter = filter;
+    return filter.getSizeInBytes();
+  }
+
+  private static void validateCapacity(long capacity) {
+    if (Long.bitCount(capacity) != 1) {
+      throw new AssertionError("Capacity must be a power of two");
+    }
+    if (capacity <= 0) {
+      throw new AssertionError("Invalid capacity " + capacity);
+    }
+  }
+
+  /**
+   * Mixes the key bits (the finalizer of Murmur3); integral join keys are often sequential,
+   * and the low bits alone would cluster them.
+   */
+  private static int hashCode(long key) {
+    key ^= key >>> 33;
+    key *= 0xff51afd7ed558ccdL;
+    key ^= key >>> 33;
+    key *= 0xc4ceb9fe1a85ec53L;
+    key ^= key >>> 33;
+    return (int)key;
+  }
+
+  /**
+   * @return The slot to use for writing; can be new, or matching existing key.
+   */
+  private int findKeySlotToWrite(long key) {
+    final int bucketMask = (refs.length - 1);
+    int slot = hashCode(key) & bucketMask;
+    long probeSlot = slot;
+    int i = 0;
+    while (refs[slot] != 0 && keys[slot] != key) {
+      ++metricPutConflict;
+      // Some other key (collision) - keep probing.
+      probeSlot += (++i);
+      slot = (int)(probeSlot & bucketMask);
+    }
+    if (largestNumberOfSteps < i) {
+      if (LOG.isDebugEnabled()) {
+        LOG.debug("Probed " + i + " slots (the longest so far) to find space");
+      }
+      largestNumberOfSteps = i;
+    }
+    return slot;
+  }
+
+  /**
+   * @return The slot of the key, or -1 if the key is not in the hashtable.
+   */
+  private int findKeySlotToRead(long key, int hashCode) {
+    final int bucketMask = (refs.length - 1);
+    int slot = hashCode & bucketMask;
+    long probeSlot = slot;
+    int i = 0;
+    while (true) {
+      // When we were inserting the key, we would have inserted here; so, there's no key.
+      if (refs[slot] == 0) {
+        return -1;
+      }
+      if (keys[slot] == key) {
+        return slot;
+      }
+      ++metricGetConflict;
+      probeSlot += (++i);
+      if (i > largestNumberOfSteps) {
+        // We know we never went that far when we were inserting.
+        return -1;
+      }
+      slot = (int)(probeSlot & bucketMask);
+    }
+  }
+
+  private void expandAndRehash() {
+    final long[] oldKeys = keys, oldRefs = refs;
+    final byte[] oldStateBytes = stateBytes;
+    long capacity = refs.length << 1;
+    validateCapacity(capacity);
+    keys = new long[(int)capacity];
+    refs = new long[(int)capacity];
+    stateBytes = new byte[(int)capacity];
+    final int bucketMask = refs.length - 1;
+
+    // Relocate all assigned slots from the old hash table.
+    int maxSteps = 0;
+    for (int oldSlot = 0; oldSlot < oldRefs.length; ++oldSlot) {
+      if (oldRefs[oldSlot] == 0) {
+        continue;
+      }
+      int slot = hashCode(oldKeys[oldSlot]) & bucketMask;
+      long probeSlot = slot;
+      int i = 0;
+      // New array cannot contain the records w/the same key, so just advance, don't check.
+      while (refs[slot] != 0) {
+        probeSlot += (++i);
+        slot = (int)(probeSlot & bucketMask);
+      }
+      keys[slot] = oldKeys[oldSlot];
+      refs[slot] = oldRefs[oldSlot];
+      stateBytes[slot] = oldStateBytes[oldSlot];
+      maxSteps = Math.max(i, maxSteps);
+    }
+    this.largestNumberOfSteps = maxSteps;
+    this.resizeThreshold = (int)(capacity * loadFactor);
+  }
+
+  /**
+   * Writes the value record.
+   * @param kv Value writer.
+   * @param previousTailOffset Tail offset of the previous record for the key; 0 if none.
+   * @return The tail offset of the new record.
+   */
+  private long writeValueRecord(BytesBytesMultiHashMap.KvSource kv, long previousTailOffset)
+      throws SerDeException {
+    long valueOffset = writeBuffers.getWritePoint();
+    kv.writeValue(writeBuffers);
+    long tailOffset = writeBuffers.getWritePoint();
+    writeBuffers.writeVLong(tailOffset - valueOffset);
+    // Records are only appended, so the previous record is always before this one.
+    writeBuffers.writeVLong(previousTailOffset == 0 ? 0 : (tailOffset - previousTailOffset));
+    return tailOffset;
+  }
+
+  private void readValueRefs(long tailOffset, List<WriteBuffers.ByteSegmentRef> result) {
+    while (tailOffset > 0) {
+      writeBuffers.setReadPoint(tailOffset);
+      int valueLength = (int)writeBuffers.readVLong();
+      result.add(new WriteBuffers.ByteSegmentRef(tailOffset - valueLength, valueLength));
+      long delta = writeBuffers.readVLong();
+      tailOffset = delta == 0 ? 0 : (tailOffset - delta);
+    }
+  }
+
+  private static int nextHighestPowerOfTwo(int v) {
+    return Integer.highestOneBit(v) << 1;
+  }
+
+  @VisibleForTesting
+  int getCapacity() {
+    return refs.length;
+  }
+
+  public void debugDumpMetrics() {
+    if (LOG.isDebugEnabled()) {
+      LOG.debug("Map metrics: keys " + this.keysAssigned + ", write conflict " + metricPutConflict
+          + ", write max dist " + largestNumberOfSteps + ", read conflict " + metricGetConflict
+          + ", null key values " + (nullKeyRef != 0) + ", filter rejects " + metricFilterRejects);
+    }
+  }
+}
@@ -29,8 +29,11 @@
 import org.apache.hadoop.hive.serde2.lazybinary.objectinspector.LazyBinaryObjectInspectorFactory;
 import org.apache.hadoop.hive.serde2.lazybinary.objectinspector.LazyBinaryStructObjectInspector;
 import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.PrimitiveObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.PrimitiveObjectInspector.PrimitiveCategory;
 import org.apache.hadoop.hive.serde2.objectinspector.StructField;
 import org.apache.hadoop.hive.serde2.objectinspector.StructObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorUtils;
 import org.apache.hadoop.hive.serde2.objectinspector.primitive.ShortObjectInspector;
 import org.apache.hadoop.hive.serde2.typeinfo.TypeInfo;
 import org.apache.hadoop.hive.serde2.typeinfo.TypeInfoUtils;
@@ -41,11 +44,19 @@
  * Table container that serializes keys and values using LazyBinarySerDe into
  * BytesBytesMultiHashMap, with very low memory overhead. However,
  * there may be some perf overhead when retrieving rows.
+ * When the key is a single integral column, the keys are stored as longs in
+ * LongBytesMultiHashMap instead, and are never serialized.
  */
-public class MapJoinBytesTableContainer implements MapJoinTableContainer {
+public class MapJoinBytesTableContainer
+    implements MapJoinTableContainer, MapJoinTableContainerDirectAccess {
   private static final Log LOG = LogFactory.getLog(MapJoinTableContainer.class);
 
+  /** Exactly one of hashMap and longHashMap is used, depending on the key. */
   private final BytesBytesMultiHashMap hashMap;
+  private final LongBytesMultiHashMap longHashMap;
+  /** Category and sort order of the single integral key column, for longHashMap. */
+  private final PrimitiveCategory longKeyCategory;
+  private final boolean longKeyIsDesc;
   /** The OI used to deserialize values. We never deserialize keys. */
   private LazyBinaryStructObjectInspector internalValueOi;
   /**
@@ -58,17 +69,112 @@ public class MapJoinBytesTableContainer implements MapJoinTableContainer {
   private KeyValueHelper writeHelper;
 
   private List<Object> EMPTY_LIST = new ArrayList<Object>(0);
+  private final long[] putLongKey = new long[1], getLongKey = new long[1];
+  /** Minimum key count to build the key bloom filter for at seal time; -1 if disabled. */
+  private final int keyFilterMinKeys;
 
-  public MapJoinBytesTableContainer(Configuration hconf, MapJoinObjectSerDeContext valCtx)
-      throws SerDeException {
+  public MapJoinBytesTableContainer(Configuration hconf, MapJoinObjectSerDeContext keyCtx,
+      MapJoinObjectSerDeContext valCtx) throws SerDeException {
     this(HiveConf.getIntVar(hconf, HiveConf.ConfVars.HIVEHASHTABLETHRESHOLD),
         HiveConf.getFloatVar(hconf, HiveConf.ConfVars.HIVEHASHTABLELOADFACTOR),
-        HiveConf.getIntVar(hconf, HiveConf.ConfVars.HIVEHASHTABLEWBSIZE), valCtx);
+        HiveConf.getIntVar(hconf, HiveConf.ConfVars.HIVEHASHTABLEWBSIZE),
+        getKeyFilterMinKeys(hconf), keyCtx, valCtx);
+  }
+
+  /**
+   * Used by HybridHashTableContainer, which knows the size of each partition up front.
+   */
+  MapJoinBytesTableContainer(Configuration hconf, MapJoinObjectSerDeContext keyCtx,
+      MapJoinObjectSerDeContext valCtx, int initialCapacity, int wbSize) throws SerDeException {
+    this(initialCapacity, HiveConf.getFloatVar(hconf, HiveConf.ConfVars.HIVEHASHTABLELOADFACTOR),
+        wbSize, getKeyFilterMinKeys(hconf), keyCtx, valCtx);
   }
 
   private MapJoinBytesTableContainer(int threshold, float loadFactor, int wbSize,
+      int keyFilterMinKeys, MapJoinObjectSerDeContext keyCtx, MapJoinObjectSerDeContext valCtx)
+      throws SerDeException {
+    this.keyFilterMinKeys = keyFilterMinKeys;
+    longKeyCategory = getLongKeyCategory(keyCtx, valCtx);
+    if (longKeyCategory != null) {
+      LOG.info("Using long keys for " + longKeyCategory + " key column");
+      hashMap = null;
+      longHashMap = new LongBytesMultiHashMap(threshold, loadFactor, wbSize);
+      longKeyIsDesc = ((BinarySortableSerDe)keyCtx.getSerDe()).getSortOrders()[0];
+    } else {
+      hashMap = new BytesBytesMultiHashMap(threshold, loadFactor, wbSize);
+      longHashMap = null;
+      longKeyIsDesc = false;
+    }
+  }
+
+  /**
+   * @return The minimum key count to build the key bloom filter for; -1 if it is disabled.
+   */
+  private static int getKeyFilterMinKeys(Configuration hconf) {
+    return HiveConf.getBoolVar(hconf, HiveConf.ConfVars.HIVEMAPJOINBLOOMFILTER)
+        ? HiveConf.getIntVar(hconf, HiveConf.ConfVars.HIVEMAPJOINBLOOMFILTERMINKEYS) : -1;
+  }
+
+  /**
+   * @return The category of the key column if the keys can be stored as longs (a single
+   *         BYTE, SHORT, INT or LONG column of BinarySortableSerDe-serialized keys, with
+   *         LazyBinarySerDe-serialized values); null otherwise.
+   */
+  static PrimitiveCategory getLongKeyCategory(MapJoinObjectSerDeContext keyCtx,
       MapJoinObjectSerDeContext valCtx) throws SerDeException {
-    hashMap = new BytesBytesMultiHashMap(threshold, loadFactor, wbSize);
+    if (keyCtx == null || !(keyCtx.getSerDe() instanceof BinarySortableSerDe)
+        || !(valCtx.getSerDe() instanceof LazyBinarySerDe)) {
+      return null;
+    }
+    List<? extends StructField> keyFields = ((StructObjectInspector)
+        keyCtx.getSerDe().getObjectInspector()).getAllStructFieldRefs();
+    if (keyFields.size() != 1) {
+      return null;
+    }
+    ObjectInspector keyOi = keyFields.get(0).getFieldObjectInspector();
+    if (keyOi.getCategory() != ObjectInspector.Category.PRIMITIVE) {
+      return null;
+    }
+    PrimitiveCategory category = ((PrimitiveObjectInspector)keyOi).getPrimitiveCategory();
+    switch (category) {
+    case BYTE:
+    case SHORT:
+    case INT:
+    case LONG:
+      return category;
+    default:
+      return null;
+    }
+  }
+
+  /**
+   * Reads the long key from a BinarySortableSerDe-serialized key; see BinarySortableSerDe.
+   * @return Whether the key is not null; if so, the value is in longKey[0].
+   */
+  static boolean readLongKey(byte[] bytes, int length, PrimitiveCategory category,
+      boolean invert, long[] longKey) throws SerDeException {
+    int mask = invert ? 0xff : 0;
+    if (length < 1 || ((bytes[0] ^ mask) & 0xff) == 0) {
+      return false;
+    }
+    int size;
+    switch (category) {
+    case BYTE: size = 1; break;
+    case SHORT: size = 2; break;
+    case INT: size = 4; break;
+    default: size = 8; break;
+    }
+    // Keys may have a trailing tag byte (see LazyBinaryKvWriter), so don't check the length.
+    if (length < 1 + size) {
+      throw new SerDeException("Key of " + length + " bytes is too short for " + category);
+    }
+    // The sign bit is flipped; shift the first byte into the top bits to sign-extend.
+    long v = (long)(byte)((bytes[1] ^ mask) ^ 0x80);
+    for (int i = 2; i <= size; ++i) {
+      v = (v << 8) | ((bytes[i] ^ mask) & 0xff);
+    }
+    longKey[0] = v;
+    return true;
   }
 
   private LazyBinaryStructObjectInspector createInternalOi(
@@ -262,13 +368,26 @@ public MapJoinKey putRow(MapJoinObjectSerDeContext keyContext, Writable currentK
       }
     }
     writeHelper.setKeyValue(currentKey, currentValue);
-    hashMap.put(writeHelper);
+    if (longHashMap != null) {
+      BinaryComparable b = (BinaryComparable)currentKey;
+      if (readLongKey(b.getBytes(), b.getLength(), longKeyCategory, longKeyIsDesc, putLongKey)) {
+        longHashMap.put(putLongKey[0], writeHelper);
+      } else {
+        longHashMap.putNullKey(writeHelper);
+      }
+    } else {
+      hashMap.put(writeHelper);
+    }
     return null; // there's no key to return
   }
 
   @Override
   public void clear() {
-    hashMap.clear();
+    if (longHashMap != null) {
+      longHashMap.clear();
+    } else {
+      hashMap.clear();
+    }
   }
 
   @Override
@@ -286,12 +405,59 @@ public ReusableGetAdaptor createGetter(MapJoinKey keyTypeFromLoader) {
 
   @Override
   public void seal() {
-    hashMap.seal();
+    int keyCount = longHashMap != null ? longHashMap.size() : hashMap.size();
+    if (keyFilterMinKeys >= 0 && keyCount >= keyFilterMinKeys) {
+      int filterSize = longHashMap != null
+          ? longHashMap.buildKeyFilter() : hashMap.buildKeyFilter();
+      LOG.info("Built a " + filterSize + " byte key bloom filter for " + keyCount + " keys");
+    }
+    if (longHashMap != null) {
+      longHashMap.seal();
+    } else {
+      hashMap.seal();
+    }
+  }
+
+  @Override
+  public byte getValueRefs(byte[] key, int length, List<WriteBuffers.ByteSegmentRef> result) {
+    if (longHashMap == null) {
+      return hashMap.getValueRefs(key, length, result);
+    }
+    try {
+      if (!readLongKey(key, length, longKeyCategory, longKeyIsDesc, getLongKey)) {
+        return longHashMap.getNullKeyValueRefs(result);
+      }
+    } catch (SerDeException e) {
+      throw new RuntimeException(e);
+    }
+    return longHashMap.getValueRefs(getLongKey[0], result);
+  }
+
+  @Override
+  public boolean hasLongKeys() {
+    return longHashMap != null;
+  }
+
+  @Override
+  public byte getValueRefs(long key, List<WriteBuffers.ByteSegmentRef> result) {
+    if (longHashMap == null) {
+      throw new UnsupportedOperationException("Keys are not stored as longs");
+    }
+    return longHashMap.getValueRefs(key, result);
+  }
+
+  @Override
+  public void populateValue(WriteBuffers.ByteSegmentRef valueRef) {
+    if (longHashMap != null) {
+      longHashMap.populateValue(valueRef);
+    } else {
+      hashMap.populateValue(valueRef);
+    }
   }
 
   /** Implementation of ReusableGetAdaptor that has Output for key serialization; row
    * container is also created once and reused for every row. */
-  private class GetAdaptor implements ReusableGetAdaptor {
+  class GetAdaptor implements ReusableGetAdaptor {
 
     private Object[] currentKey;
     private boolean[] nulls;
@@ -299,6 +465,7 @@ private class GetAdaptor implements ReusableGetAdaptor {
 
     private final ReusableRowContainer currentValue;
     private final Output output;
+    private long longKey;
 
     public GetAdaptor() {
       currentValue = new ReusableRowContainer();
@@ -323,8 +490,12 @@ public void setFromVector(VectorHashKeyWrapper kw,
         currentKey[i] = keyWrapperBatch.getWritableKeyValue(kw, i, keyOutputWriters[i]);
         nulls[i] = currentKey[i] == null;
       }
-      currentValue.setFromOutput(
-          MapJoinKey.serializeRow(output, currentKey, vectorKeyOIs, sortableSortOrders));
+      if (longHashMap != null) {
+        setFromLongKey(vectorKeyOIs);
+      } else {
+        currentValue.setFromOutput(
+            MapJoinKey.serializeRow(output, currentKey, vectorKeyOIs, sortableSortOrders));
+      }
     }
 
     @Override
@@ -338,8 +509,37 @@ public void setFromRow(Object row, List<ExprNodeEvaluator> fields,
         currentKey[keyIndex] = fields.get(keyIndex).evaluate(row);
         nulls[keyIndex] = currentKey[keyIndex] == null;
       }
-      currentValue.setFromOutput(
-          MapJoinKey.serializeRow(output, currentKey, ois, sortableSortOrders));
+      if (longHashMap != null) {
+        setFromLongKey(ois);
+      } else {
+        currentValue.setFromOutput(
+            MapJoinKey.serializeRow(output, currentKey, ois, sortableSortOrders));
+      }
+    }
+
+    private void setFromLongKey(List<ObjectInspector> ois) {
+      if (currentKey.length != 1) {
+        throw new AssertionError("Expected one key column but got " + currentKey.length);
+      }
+      if (nulls[0]) {
+        currentValue.setFromNullKey();
+      } else {
+        longKey = PrimitiveObjectInspectorUtils.getLong(
+            currentKey[0], (PrimitiveObjectInspector)ois.get(0));
+        currentValue.setFromLongKey(longKey);
+      }
+    }
+
+    /**
+     * Changes current rows to the rows of a key that the caller has already serialized the way
+     * keys are looked up in this table (see MapJoinKey.serializeRow).
+     * @param key The key objects, or null if not needed by the caller.
+     * @param keyNulls Which key fields are null, or null if not needed by the caller.
+     */
+    void setFromSerializedKey(Object[] key, boolean[] keyNulls, byte[] bytes, int length) {
+      currentKey = key;
+      nulls = keyNulls;
+      currentValue.setFromBytes(bytes, length);
     }
 
     @Override
@@ -348,7 +548,16 @@ public void setFromOther(ReusableGetAdaptor other) {
       GetAdaptor other2 = (GetAdaptor)other;
       nulls = other2.nulls;
       currentKey = other2.currentKey;
-      currentValue.setFromOutput(other2.output);
+      if (longHashMap != null) {
+        longKey = other2.longKey;
+        if (nulls[0]) {
+          currentValue.setFromNullKey();
+        } else {
+          currentValue.setFromLongKey(longKey);
+        }
+      } else {
+        currentValue.setFromOutput(other2.output);
+      }
     }
 
     @Override
@@ -400,10 +609,32 @@ public ReusableRowContainer() {
     }
 
     public void setFromOutput(Output output) {
+      setFromBytes(output.getData(), output.getLength());
+    }
+
+    public void setFromBytes(byte[] key, int length) {
+      if (refs == null) {
+        refs = new ArrayList<WriteBuffers.ByteSegmentRef>(0);
+      }
+      byte aliasFilter = getValueRefs(key, length, refs);
+      this.aliasFilter = refs.isEmpty() ? (byte) 0xff : aliasFilter;
+      this.dummyRow = null;
+    }
+
+    public void setFromLongKey(long key) {
+      if (refs == null) {
+        refs = new ArrayList<WriteBuffers.ByteSegmentRef>(0);
+      }
+      byte aliasFilter = longHashMap.getValueRefs(key, refs);
+      this.aliasFilter = refs.isEmpty() ? (byte) 0xff : aliasFilter;
+      this.dummyRow = null;
+    }
+
+    public void setFromNullKey() {
       if (refs == null) {
         refs = new ArrayList<WriteBuffers.ByteSegmentRef>(0);
       }
-      byte aliasFilter = hashMap.getValueRefs(output.getData(), output.getLength(), refs);
+      byte aliasFilter = longHashMap.getNullKeyValueRefs(refs);
       this.aliasFilter = refs.isEmpty() ? (byte) 0xff : aliasFilter;
       this.dummyRow = null;
     }
@@ -467,7 +698,7 @@ public List<Object> next() throws HiveException {
         return EMPTY_LIST; // shortcut, 0 length means no fields
       }
       if (ref.getBytes() == null) {
-        hashMap.populateValue(ref);
+        populateValue(ref);
       }
       uselessIndirection.setData(ref.getBytes());
       valueStruct.init(uselessIndirection, (int)ref.getOffset(), ref.getLength());
@@ -502,6 +733,10 @@ public static boolean isSupportedKey(ObjectInspector keyOi) {
 
   @Override
   public void dumpMetrics() {
-    hashMap.debugDumpMetrics();
+    if (longHashMap != null) {
+      longHashMap.debugDumpMetrics();
+    } else {
+      hashMap.debugDumpMetrics();
+    }
   }
 }
@@ -0,0 +1,59 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.hive.ql.exec.persistence;
+
+import java.util.List;
+
+import org.apache.hadoop.hive.serde2.WriteBuffers;
+
+/**
+ * Table container that can be probed with an already serialized key, and hands out
+ * its values as LazyBinarySerDe-serialized bytes. Used by the native vectorized map join
+ * operators, which build keys straight from column vectors and never create row objects.
+ */
+public interface MapJoinTableContainerDirectAccess {
+  /**
+   * Gets the values for a key serialized the same way the container serializes its keys
+   * (BinarySortableSerDe when the small table keys come from BinarySortableSerDe).
+   * @param key Key buffer.
+   * @param length Length of the key in buffer.
+   * @param result The list to use to store the results.
+   * @return the state byte for the key.
+   */
+  byte getValueRefs(byte[] key, int length, List<WriteBuffers.ByteSegmentRef> result);
+
+  /**
+   * @return Whether the keys are stored as longs, so that {@link #getValueRefs(long, List)}
+   *         can be used to probe without serializing the key.
+   */
+  boolean hasLongKeys();
+
+  /**
+   * Gets the values for a non-null integral key; only supported if {@link #hasLongKeys()}.
+   * @param key The key.
+   * @param result The list to use to store the results.
+   * @return the state byte for the key.
+   */
+  byte getValueRefs(long key, List<WriteBuffers.ByteSegmentRef> result);
+
+  /**
+   * Makes the segment reference returned by getValueRefs self-contained.
+   */
+  void populateValue(WriteBuffers.ByteSegmentRef valueRef);
+}
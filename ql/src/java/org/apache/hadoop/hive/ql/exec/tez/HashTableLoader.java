@@ -31,6 +31,7 @@
 import org.apache.hadoop.hive.ql.exec.MapredContext;
 import org.apache.hadoop.hive.ql.exec.mr.ExecMapperContext;
 import org.apache.hadoop.hive.ql.exec.persistence.HashMapWrapper;
+import org.apache.hadoop.hive.ql.exec.persistence.HybridHashTableContainer;
 import org.apache.hadoop.hive.ql.exec.persistence.MapJoinBytesTableContainer;
 import org.apache.hadoop.hive.ql.exec.persistence.MapJoinKey;
 import org.apache.hadoop.hive.ql.exec.persistence.MapJoinKeyObject;
@@ -91,6 +92,10 @@ public void load(
 
     boolean useOptimizedTables = HiveConf.getBoolVar(
         hconf, HiveConf.ConfVars.HIVEMAPJOINUSEOPTIMIZEDTABLE);
+    // The hybrid grace hash join spills the small table partitions that do not fit in memory;
+    // only done for a single small table, since the big table rows have to be spilled as well.
+    boolean useHybridGraceHashJoin = useOptimizedTables && mapJoinTables.length == 2
+        && HiveConf.getBoolVar(hconf, HiveConf.ConfVars.HIVEUSEHYBRIDGRACEHASHJOIN);
     boolean isFirstKey = true;
     TezCacheAccess tezCacheAccess = TezCacheAccess.createInstance(hconf);
     for (int pos = 0; pos < mapJoinTables.length; pos++) {
@@ -117,8 +122,16 @@ public void load(
           }
         }
         isFirstKey = false;
-        MapJoinTableContainer tableContainer = useOptimizedTables
-            ? new MapJoinBytesTableContainer(hconf, valCtx) : new HashMapWrapper(hconf);
+        MapJoinTableContainer tableContainer;
+        // Spilled rows are joined without their key, so the values must not be taken from it.
+        if (useOptimizedTables && useHybridGraceHashJoin && desc.getValueIndex((byte)pos) == null
+            && HybridHashTableContainer.isSupported(keyCtx, valCtx)) {
+          tableContainer = new HybridHashTableContainer(hconf, keyCtx, valCtx);
+        } else if (useOptimizedTables) {
+          tableContainer = new MapJoinBytesTableContainer(hconf, keyCtx, valCtx);
+        } else {
+          tableContainer = new HashMapWrapper(hconf);
+        }
 
         while (kvReader.next()) {
           lastKey = tableContainer.putRow(keyCtx, (Writable)kvReader.getCurrentKey(),
@@ -137,14 +150,20 @@ public void load(
       // Register that the Input has been cached.
       LOG.info("Is this a bucket map join: " + desc.isBucketMapJoin());
       // cache is disabled for bucket map join because of the same reason
-      // given in loadHashTable in MapJoinOperator.
-      if (!desc.isBucketMapJoin()) {
+      // given in loadHashTable in MapJoinOperator. A hybrid table with spilled
+      // partitions is consumed by the join, so it cannot be cached either.
+      if (!desc.isBucketMapJoin() && !hasSpilledPartitions(mapJoinTables[pos])) {
         tezCacheAccess.registerCachedInput(inputName);
         LOG.info("Setting Input: " + inputName + " as cached");
       }
     }
   }
 
+  private static boolean hasSpilledPartitions(MapJoinTableContainer tableContainer) {
+    return tableContainer instanceof HybridHashTableContainer
+        && ((HybridHashTableContainer)tableContainer).hasSpilledPartitions();
+  }
+
   private String describeOi(String desc, ObjectInspector keyOi) {
     for (StructField field : ((StructObjectInspector)keyOi).getAllStructFieldRefs()) {
       ObjectInspector oi = field.getFieldObjectInspector();
@@ -118,6 +118,7 @@ void init(JobConf jconf, TezProcessorContext processorContext, MRTaskReporter mr
       ((TezContext)MapredContext.get()).setInputs(inputs);
       mapOp.setExecContext(execContext);
       mapOp.initializeLocalWork(jconf);
+      allocateGroupByMemory(mapOp);
       mapOp.initialize(jconf, null);
 
       // Initialization isn't finished until all parents of all operators
@@ -19,14 +19,20 @@
 import java.lang.management.ManagementFactory;
 import java.lang.management.MemoryMXBean;
 import java.net.URLClassLoader;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.hive.ql.exec.GroupByOperator;
+import org.apache.hadoop.hive.ql.exec.Operator;
+import org.apache.hadoop.hive.ql.exec.OperatorUtils;
 import org.apache.hadoop.hive.ql.exec.tez.TezProcessor.TezKVOutputCollector;
 import org.apache.hadoop.hive.ql.log.PerfLogger;
+import org.apache.hadoop.hive.ql.plan.GroupByDesc;
 import org.apache.hadoop.mapred.JobConf;
 import org.apache.hadoop.mapred.OutputCollector;
 import org.apache.tez.mapreduce.processor.MRTaskReporter;
@@ -102,6 +108,37 @@ void init(JobConf jconf, TezProcessorContext processorContext, MRTaskReporter mr
     }
   }
 
+  /**
+   * Splits the memory available to the task among the hash aggregations of an
+   * operator tree. The heap of a container is shared by the tasks running in
+   * it, so the used heap says little about one of them: with a budget, a group
+   * by flushes when the memory it accounts for its hash table exceeds it. Each
+   * group by gets its configured share of the task memory, divided by the
+   * number of hash aggregations. Must be called before the tree is initialized.
+   * @param root the root of the operator tree
+   */
+  protected void allocateGroupByMemory(Operator<?> root) {
+    List<GroupByOperator> hashGroupBys = new ArrayList<GroupByOperator>();
+    for (GroupByOperator groupBy : OperatorUtils.findOperators(root, GroupByOperator.class)) {
+      GroupByDesc desc = groupBy.getConf();
+      if (desc.getMode() == GroupByDesc.Mode.HASH || desc.isGroupingSetsPresent()) {
+        hashGroupBys.add(groupBy);
+      }
+    }
+    if (hashGroupBys.isEmpty()) {
+      return;
+    }
+    long taskMemory = processorContext.getTotalMemoryAvailableToTask();
+    for (GroupByOperator groupBy : hashGroupBys) {
+      long budget = (long) (taskMemory * groupBy.getConf().getGroupByMemoryUsage()
+          / hashGroupBys.size());
+      groupBy.setMemoryBudget(budget);
+      if (isLogInfoEnabled) {
+        l4j.info("Memory budget of " + groupBy + " = " + budget);
+      }
+    }
+  }
+
   /**
    * start processing the inputs and writing output
    * @throws Exception
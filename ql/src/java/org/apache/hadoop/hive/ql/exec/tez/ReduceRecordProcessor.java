@@ -39,7 +39,10 @@
 import org.apache.hadoop.hive.ql.exec.mr.ExecMapperContext;
 import org.apache.hadoop.hive.ql.exec.tez.TezProcessor.TezKVOutputCollector;
 import org.apache.hadoop.hive.ql.exec.tez.tools.InputMerger;
+import org.apache.hadoop.hive.ql.exec.vector.BytesColumnVector;
 import org.apache.hadoop.hive.ql.exec.vector.VectorizedBatchUtil;
+import org.apache.hadoop.hive.ql.exec.vector.VectorizedBinarySortableDeserializer;
+import org.apache.hadoop.hive.ql.exec.vector.VectorizedLazyBinaryDeserializer;
 import org.apache.hadoop.hive.ql.exec.vector.VectorizedRowBatch;
 import org.apache.hadoop.hive.ql.exec.vector.expressions.VectorExpressionWriter;
 import org.apache.hadoop.hive.ql.exec.vector.expressions.VectorExpressionWriterFactory;
@@ -52,6 +55,8 @@
 import org.apache.hadoop.hive.serde2.SerDe;
 import org.apache.hadoop.hive.serde2.SerDeException;
 import org.apache.hadoop.hive.serde2.SerDeUtils;
+import org.apache.hadoop.hive.serde2.binarysortable.BinarySortableSerDe;
+import org.apache.hadoop.hive.serde2.lazybinary.LazyBinarySerDe;
 import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
 import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorFactory;
 import org.apache.hadoop.hive.serde2.objectinspector.StructField;
@@ -111,6 +116,10 @@ public class ReduceRecordProcessor  extends RecordProcessor{
   private StructObjectInspector[] valueStructInspectors;
   /* this is only used in the error code path */
   private List<VectorExpressionWriter>[] valueStringWriters;
+  // deserialize the shuffle bytes straight into the batch columns when the
+  // key/value serdes are the default binary ones, otherwise these are null
+  private VectorizedBinarySortableDeserializer keyBatchDeserializer;
+  private VectorizedLazyBinaryDeserializer[] valueBatchDeserializers;
 
   @Override
   void init(JobConf jconf, TezProcessorContext processorContext, MRTaskReporter mrReporter,
@@ -153,8 +162,13 @@ void init(JobConf jconf, TezProcessorContext processorContext, MRTaskReporter mr
         batches = new VectorizedRowBatch[maxTags];
         valueStructInspectors = new StructObjectInspector[maxTags];
         valueStringWriters = (List<VectorExpressionWriter>[])new List[maxTags];
+        valueBatchDeserializers = new VectorizedLazyBinaryDeserializer[maxTags];
         keysColumnOffset = keyStructInspector.getAllStructFieldRefs().size();
         buffer = new DataOutputBuffer();
+        if (inputKeyDeserializer instanceof BinarySortableSerDe) {
+          keyBatchDeserializer =
+              VectorizedBinarySortableDeserializer.create(keyTableDesc.getProperties());
+        }
       }
 
       for (int tag = 0; tag < redWork.getTagToValueDesc().size(); tag++) {
@@ -175,6 +189,12 @@ void init(JobConf jconf, TezProcessorContext processorContext, MRTaskReporter mr
 
           batches[tag] = VectorizedBatchUtil.constructVectorizedRowBatch(keyStructInspector,
               valueStructInspectors[tag]);
+          VectorizedBatchUtil.addScratchColumnsToBatch(batches[tag],
+              redWork.getScratchColumnVectorTypes());
+          if (inputValueDeserializer[tag] instanceof LazyBinarySerDe) {
+            valueBatchDeserializers[tag] =
+                VectorizedLazyBinaryDeserializer.create(valueTableDesc[tag].getProperties());
+          }
           final int totalColumns = keysColumnOffset +
               valueStructInspectors[tag].getAllStructFieldRefs().size();
           valueStringWriters[tag] = new ArrayList<VectorExpressionWriter>(totalColumns);
@@ -220,6 +240,7 @@ void init(JobConf jconf, TezProcessorContext processorContext, MRTaskReporter mr
     // initialize reduce operator tree
     try {
       l4j.info(reducer.dump(0));
+      allocateGroupByMemory(reducer);
       reducer.initialize(jconf, rowObjectInspector);
 
       // Initialization isn't finished until all parents of all operators
@@ -368,7 +389,7 @@ private boolean processRows(Object key, Iterable<Object> values) {
       }
       /* this.keyObject passed via reference */
       if(vectorized) {
-        return processVectors(values, tag);
+        return processVectors(keyWritable, values, tag);
       } else {
         return processKeyValues(values, tag);
       }
@@ -432,34 +453,51 @@ private boolean processKeyValues(Iterable<Object> values, byte tag) throws HiveE
   }
 
   /**
+   * @param keyWritable
    * @param values
    * @return true if it is not done and can take more inputs
    */
-  private boolean processVectors(Iterable<Object> values, byte tag) throws HiveException {
+  private boolean processVectors(BytesWritable keyWritable, Iterable<Object> values, byte tag)
+      throws HiveException {
     VectorizedRowBatch batch = batches[tag];
+    VectorizedLazyBinaryDeserializer valueBatchDeserializer = valueBatchDeserializers[tag];
     batch.reset();
+    buffer.reset();
 
     /* deserialize key into columns */
-    VectorizedBatchUtil.addRowToBatchFrom(keyObject, keyStructInspector,
-        0, 0, batch, buffer);
+    if (keyBatchDeserializer != null) {
+      initBytesColumns(batch, 0, keysColumnOffset);
+      keyBatchDeserializer.deserialize(keyWritable.getBytes(), 0, keyWritable.getLength(),
+          batch, 0, 0);
+    } else {
+      VectorizedBatchUtil.addRowToBatchFrom(keyObject, keyStructInspector,
+          0, 0, batch, buffer);
+    }
     for(int i = 0; i < keysColumnOffset; i++) {
       VectorizedBatchUtil.setRepeatingColumn(batch, i);
     }
+    resetValueColumns(batch);
 
     int rowIdx = 0;
     try {
       for (Object value : values) {
         /* deserialize value into columns */
         BytesWritable valueWritable = (BytesWritable) value;
-        Object valueObj = deserializeValue(valueWritable, tag);
-
-        VectorizedBatchUtil.addRowToBatchFrom(valueObj, valueStructInspectors[tag],
-            rowIdx, keysColumnOffset, batch, buffer);
+        if (valueBatchDeserializer != null) {
+          valueBatchDeserializer.deserialize(valueWritable.getBytes(), 0,
+              valueWritable.getLength(), batch, keysColumnOffset, rowIdx);
+        } else {
+          Object valueObj = deserializeValue(valueWritable, tag);
+          VectorizedBatchUtil.addRowToBatchFrom(valueObj, valueStructInspectors[tag],
+              rowIdx, keysColumnOffset, batch, buffer);
+        }
         rowIdx++;
         if (rowIdx >= BATCH_SIZE) {
           VectorizedBatchUtil.setBatchSize(batch, rowIdx);
           reducer.processOp(batch, tag);
           rowIdx = 0;
+          // the key columns stay as they are for the rest of the group
+          resetValueColumns(batch);
           if (isLogInfoEnabled) {
             logProgress();
           }
@@ -489,6 +527,27 @@ private boolean processVectors(Iterable<Object> values, byte tag) throws HiveExc
     return true; // give me more
   }
 
+  /**
+   * Prepares the value and scratch columns of the batch for the next rows of
+   * the current group.
+   */
+  private void resetValueColumns(VectorizedRowBatch batch) {
+    for (int i = keysColumnOffset; i < batch.numCols; i++) {
+      batch.cols[i].reset();
+    }
+    initBytesColumns(batch, keysColumnOffset, batch.numCols);
+    batch.selectedInUse = false;
+    batch.size = 0;
+  }
+
+  private static void initBytesColumns(VectorizedRowBatch batch, int from, int to) {
+    for (int i = from; i < to; i++) {
+      if (batch.cols[i] instanceof BytesColumnVector) {
+        ((BytesColumnVector) batch.cols[i]).initBuffer();
+      }
+    }
+  }
+
   @Override
   void close(){
     // check if there are IOExceptions
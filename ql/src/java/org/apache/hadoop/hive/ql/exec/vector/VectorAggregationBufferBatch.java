@@ -127,6 +127,20 @@ public void mapAggregationBufferSet(VectorAggregationBufferRow bufferSet, int ro
     aggregationBuffers[row] = bufferSet;
   }
 
+  /**
+   * Recomputes the variable size of the aggregation buffer sets used in the current batch.
+   * @return the change of their variable size since it was last computed
+   */
+  public long updateVariableSize() {
+    long delta = 0;
+    if (variableSizeAggregators.length > 0) {
+      for (int r = 0; r < distinctCount; ++r) {
+        delta += distinctAggregationBuffers[r].updateVariableSize(variableSizeAggregators);
+      }
+    }
+    return delta;
+  }
+
   public void compileAggregationBatchInfo(VectorAggregateExpression[] aggregators) {
     JavaDataModel model = JavaDataModel.get();
     int[] variableSizeAggregators = new int[aggregators.length];
@@ -28,6 +28,7 @@ public class VectorAggregationBufferRow {
   private VectorAggregateExpression.AggregationBuffer[] aggregationBuffers;
   private int version;
   private int index;
+  private int variableSize;
   
   public VectorAggregationBufferRow(
       VectorAggregateExpression.AggregationBuffer[] aggregationBuffers) {
@@ -72,6 +73,29 @@ public void setVersionAndIndex(int version, int index) {
     this.version = version;
   }
 
+  /**
+   * returns the memory used by the variable size aggregation buffers, as of the last
+   * {@link #updateVariableSize(int[])}.
+   */
+  public int getVariableSize() {
+    return variableSize;
+  }
+
+  /**
+   * recomputes the memory used by the variable size aggregation buffers.
+   * @param variableSizeAggregators the indexes of the aggregators with a variable size
+   * @return the change since the last time it was computed
+   */
+  public int updateVariableSize(int[] variableSizeAggregators) {
+    int newVariableSize = 0;
+    for (int i = 0; i < variableSizeAggregators.length; ++i) {
+      newVariableSize += aggregationBuffers[variableSizeAggregators[i]].getVariableSize();
+    }
+    int delta = newVariableSize - variableSize;
+    variableSize = newVariableSize;
+    return delta;
+  }
+
   /**
    * Resets the aggregation buffers for reuse
    */
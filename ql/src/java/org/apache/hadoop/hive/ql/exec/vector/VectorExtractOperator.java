@@ -0,0 +1,126 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.hive.ql.exec.vector;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hive.ql.exec.ExtractOperator;
+import org.apache.hadoop.hive.ql.exec.Utilities;
+import org.apache.hadoop.hive.ql.exec.vector.expressions.VectorExpressionWriter;
+import org.apache.hadoop.hive.ql.exec.vector.expressions.VectorExpressionWriterFactory;
+import org.apache.hadoop.hive.ql.metadata.HiveException;
+import org.apache.hadoop.hive.ql.plan.ExtractDesc;
+import org.apache.hadoop.hive.ql.plan.OperatorDesc;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.objectinspector.StructField;
+import org.apache.hadoop.hive.serde2.objectinspector.StructObjectInspector;
+
+/**
+ * Extract operator implementation for the reduce side. The reduce batch holds
+ * the KEY.x columns followed by the VALUE.x columns, so extracting the value
+ * is a projection onto the VALUE.x columns.
+ */
+public class VectorExtractOperator extends ExtractOperator implements VectorizationContextRegion {
+
+  private static final long serialVersionUID = 1L;
+
+  private static final String VALUE_PREFIX = Utilities.ReduceField.VALUE.toString() + ".";
+
+  private int[] valueColumns;
+  private String[] valueColumnNames;
+
+  private transient VectorExpressionWriter[] valueWriters = null;
+
+  // Create a new outgoing vectorization context because column name map will change.
+  private VectorizationContext vOutContext;
+
+  public VectorExtractOperator(VectorizationContext vContext, OperatorDesc conf)
+      throws HiveException {
+    this.conf = (ExtractDesc) conf;
+
+    // Order the value columns by their position in the batch.
+    Map<Integer, String> values = new TreeMap<Integer, String>();
+    for (Map.Entry<String, Integer> entry : vContext.getColumnMap().entrySet()) {
+      if (entry.getKey().startsWith(VALUE_PREFIX)) {
+        values.put(entry.getValue(), entry.getKey().substring(VALUE_PREFIX.length()));
+      }
+    }
+
+    vOutContext = new VectorizationContext(vContext);
+    vOutContext.setFileKey(vContext.getFileKey() + "/_EXTRACT_");
+    vOutContext.getColumnMap().clear();
+    valueColumns = new int[values.size()];
+    valueColumnNames = new String[values.size()];
+    int i = 0;
+    for (Map.Entry<Integer, String> entry : values.entrySet()) {
+      valueColumns[i] = entry.getKey();
+      valueColumnNames[i++] = entry.getValue();
+      vOutContext.addToColumnMap(entry.getValue(), entry.getKey());
+    }
+  }
+
+  public VectorExtractOperator() {
+  }
+
+  @Override
+  protected void initializeOp(Configuration hconf) throws HiveException {
+    // The fields of the input are the columns of the batch. Their names are lower
+    // cased by the struct object inspector, so the value fields are found by position.
+    List<? extends StructField> fields =
+        ((StructObjectInspector) inputObjInspectors[0]).getAllStructFieldRefs();
+    List<ObjectInspector> ois = new ArrayList<ObjectInspector>();
+    for (int valueColumn : valueColumns) {
+      ois.add(fields.get(valueColumn).getFieldObjectInspector());
+    }
+    outputObjInspector = ObjectInspectorFactory.getStandardStructObjectInspector(
+        Arrays.asList(valueColumnNames), ois);
+    valueWriters = VectorExpressionWriterFactory.getExpressionWriters(
+        (StructObjectInspector) outputObjInspector);
+    initializeChildren(hconf);
+  }
+
+  @Override
+  public void processOp(Object row, int tag) throws HiveException {
+    VectorizedRowBatch vrg = (VectorizedRowBatch) row;
+
+    VectorExpressionWriter[] originalValueWriters = vrg.valueWriters;
+    int[] originalProjections = vrg.projectedColumns;
+    int originalProjectionSize = vrg.projectionSize;
+    vrg.valueWriters = valueWriters;
+    vrg.projectionSize = valueColumns.length;
+    vrg.projectedColumns = valueColumns;
+    forward(vrg, outputObjInspector);
+
+    // Revert the projected columns back, because vrg will be re-used.
+    vrg.projectionSize = originalProjectionSize;
+    vrg.projectedColumns = originalProjections;
+    vrg.valueWriters = originalValueWriters;
+  }
+
+  @Override
+  public VectorizationContext getOuputVectorizationContext() {
+    return vOutContext;
+  }
+}
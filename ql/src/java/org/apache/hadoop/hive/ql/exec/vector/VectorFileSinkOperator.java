@@ -21,6 +21,7 @@
 import java.io.IOException;
 
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hive.conf.HiveConf;
 import org.apache.hadoop.hive.ql.exec.FileSinkOperator;
 import org.apache.hadoop.hive.ql.exec.vector.expressions.VectorExpressionWriter;
 import org.apache.hadoop.hive.ql.exec.vector.expressions.VectorExpressionWriterFactory;
@@ -28,6 +29,7 @@
 import org.apache.hadoop.hive.ql.plan.FileSinkDesc;
 import org.apache.hadoop.hive.ql.plan.OperatorDesc;
 import org.apache.hadoop.hive.common.StatsSetupConst;
+import org.apache.hadoop.hive.serde2.Deserializer;
 import org.apache.hadoop.hive.serde2.SerDeException;
 import org.apache.hadoop.hive.serde2.SerDeStats;
 import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
@@ -49,6 +51,11 @@ public class VectorFileSinkOperator extends FileSinkOperator {
 
   protected transient VectorExpressionWriter[] valueWriters;
 
+  // whether batches are handed to the record writer without serializing rows
+  protected transient boolean writeBatches;
+
+  protected transient ObjectInspector batchInspector;
+
   public VectorFileSinkOperator(VectorizationContext context,
       OperatorDesc conf) {
     super();
@@ -65,6 +72,19 @@ protected void initializeOp(Configuration hconf) throws HiveException {
     valueWriters = VectorExpressionWriterFactory.getExpressionWriters(
         (StructObjectInspector) inputObjInspectors[0]);
     singleRow = new Object[valueWriters.length];
+    // the rows of a batch sprayed to several bucket files go to different writers
+    writeBatches = HiveConf.getBoolVar(hconf,
+        HiveConf.ConfVars.HIVE_VECTORIZATION_FILESINK_BATCH_ENABLED)
+        && !bDynParts && lbCtx == null && !multiFileSpray
+        && serializer instanceof VectorizedSerde
+        && serializer instanceof Deserializer;
+    if (writeBatches) {
+      try {
+        batchInspector = ((Deserializer) serializer).getObjectInspector();
+      } catch (SerDeException e) {
+        throw new HiveException(e);
+      }
+    }
   }
 
   @Override
@@ -72,6 +92,10 @@ public void processOp(Object data, int tag) throws HiveException {
 
     VectorizedRowBatch vrg = (VectorizedRowBatch)data;
 
+    if (writeBatches && processBatch(vrg)) {
+      return;
+    }
+
     Writable [] records = null;
     boolean vectorizedSerde = false;
     try {
@@ -163,11 +187,10 @@ public void processOp(Object data, int tag) throws HiveException {
       if (!multiFileSpray) {
         rowOutWriters[0].write(row);
       } else {
-        int keyHashCode = 0;
-        key.setHashCode(keyHashCode);
-        int bucketNum = prtner.getBucket(key, null, totalFiles);
-        int idx = bucketMap.get(bucketNum);
-        rowOutWriters[idx].write(row);
+        if (vrg.valueWriters == null) {
+          vrg.setValueWriters(this.valueWriters);
+        }
+        rowOutWriters[findWriterOffset(getRowObject(vrg, i))].write(row);
       }
     } catch (IOException e) {
       throw new HiveException(e);
@@ -175,6 +198,38 @@ public void processOp(Object data, int tag) throws HiveException {
     }
   }
 
+  /**
+   * Hand the whole batch to the record writer, if it takes batches.
+   * @return false if the rows have to be serialized one by one
+   */
+  private boolean processBatch(VectorizedRowBatch vrg) throws HiveException {
+    if (!filesCreated) {
+      createBucketFiles(fsp);
+    }
+    RecordWriter[] writers = fsp.getOutWriters();
+    if (!(writers[0] instanceof VectorizedRecordWriter)) {
+      writeBatches = false;
+      return false;
+    }
+    if (vrg.size == 0) {
+      return true;
+    }
+    rowOutWriters = writers;
+    try {
+      updateProgress();
+      if (conf.isGatherStats()) {
+        fsp.getStat().addToStat(StatsSetupConst.ROW_COUNT, vrg.size);
+      }
+      if (row_count != null) {
+        row_count.set(row_count.get() + vrg.size);
+      }
+      ((VectorizedRecordWriter) writers[0]).writeBatch(vrg, batchInspector);
+    } catch (IOException e) {
+      throw new HiveException(e);
+    }
+    return true;
+  }
+
   private Object[] getRowObject(VectorizedRowBatch vrg, int rowIndex)
       throws HiveException {
     int batchIndex = rowIndex;
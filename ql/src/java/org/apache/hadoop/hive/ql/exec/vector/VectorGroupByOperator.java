@@ -33,6 +33,7 @@
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.hive.conf.HiveConf;
 import org.apache.hadoop.hive.ql.exec.GroupByOperator;
+import org.apache.hadoop.hive.ql.exec.HashAggregationSpill;
 import org.apache.hadoop.hive.ql.exec.KeyWrapper;
 import org.apache.hadoop.hive.ql.exec.vector.expressions.VectorExpression;
 import org.apache.hadoop.hive.ql.exec.vector.expressions.VectorExpressionWriter;
@@ -44,6 +45,7 @@
 import org.apache.hadoop.hive.ql.plan.GroupByDesc;
 import org.apache.hadoop.hive.ql.plan.OperatorDesc;
 import org.apache.hadoop.hive.ql.plan.api.OperatorType;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDAFEvaluator;
 import org.apache.hadoop.hive.ql.util.JavaDataModel;
 import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
 import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorFactory;
@@ -85,6 +87,15 @@ public class VectorGroupByOperator extends GroupByOperator {
 
   private transient Object[] forwardCache;
 
+  /**
+   * The grouping sets, if present: for each set, which of the keys before the
+   * grouping set key are part of it, and the value of the grouping set key.
+   * Each batch is aggregated once per grouping set, under the keys of that set.
+   */
+  private transient boolean[][] groupingSetsKeys;
+  private transient byte[][] groupingSetsValues;
+  private transient int groupingSetKeyPosition;
+
   /**
    * Interface for processing mode: global, hash or streaming
    */
@@ -191,14 +202,10 @@ private class ProcessingModeHashAggregate extends ProcessingModeBase {
     private int fixedHashEntrySize;
 
     /**
-     * Average per hashtable entry variable size memory (depends on key/agg value).
-     */
-    private int avgVariableSize;
-
-    /**
-     * Number of entries added to the hashtable since the last check if it should flush.
+     * Memory used by the hashtable entries: their fixed size, plus the variable size of
+     * their keys and aggregation buffers, accounted as entries are added and updated.
      */
-    private int numEntriesSinceCheck;
+    private long hashTableMemory;
 
     /**
      * Sum of batch size processed (ie. rows).
@@ -211,11 +218,6 @@ private class ProcessingModeHashAggregate extends ProcessingModeBase {
      */
     private int maxHtEntries = 1000000;
 
-    /**
-     * The number of new entries that must be added to the hashtable before a memory size check.
-     */
-    private int checkInterval = 10000;
-
     /**
      * Percent of entries to flush when memory threshold exceeded.
      */
@@ -244,7 +246,6 @@ private class ProcessingModeHashAggregate extends ProcessingModeBase {
 
     /**
      * Number of rows processed between checks for minReductionHashAggr factor
-     * TODO: there is overlap between numRowsCompareHashAggr and checkInterval
      */
     private long numRowsCompareHashAggr;
 
@@ -254,8 +255,6 @@ public void initialize(Configuration hconf) throws HiveException {
       if (null != hconf) {
         this.percentEntriesToFlush = HiveConf.getFloatVar(hconf,
           HiveConf.ConfVars.HIVE_VECTORIZATION_GROUPBY_FLUSH_PERCENT);
-        this.checkInterval = HiveConf.getIntVar(hconf,
-          HiveConf.ConfVars.HIVE_VECTORIZATION_GROUPBY_CHECKINTERVAL);
         this.maxHtEntries = HiveConf.getIntVar(hconf,
             HiveConf.ConfVars.HIVE_VECTORIZATION_GROUPBY_MAXENTRIES);
         this.minReductionHashAggr = HiveConf.getFloatVar(hconf,
@@ -266,8 +265,6 @@ public void initialize(Configuration hconf) throws HiveException {
       else {
         this.percentEntriesToFlush =
             HiveConf.ConfVars.HIVE_VECTORIZATION_GROUPBY_FLUSH_PERCENT.defaultFloatVal;
-        this.checkInterval =
-            HiveConf.ConfVars.HIVE_VECTORIZATION_GROUPBY_CHECKINTERVAL.defaultIntVal;
         this.maxHtEntries =
             HiveConf.ConfVars.HIVE_VECTORIZATION_GROUPBY_MAXENTRIES.defaultIntVal;
         this.minReductionHashAggr =
@@ -278,9 +275,40 @@ public void initialize(Configuration hconf) throws HiveException {
 
       mapKeysAggregationBuffers = new HashMap<KeyWrapper, VectorAggregationBufferRow>();
       computeMemoryLimits();
+      if (null != hconf
+          && HiveConf.getBoolVar(hconf, HiveConf.ConfVars.HIVE_GROUPBY_SPILL_ENABLED)) {
+        initializeSpill(hconf);
+      }
       LOG.info("using hash aggregation processing mode");
     }
 
+    /**
+     * Sets up spilling of the hash table, if the aggregations can be merged.
+     * The hash table only keeps final aggregations for a MERGEPARTIAL group by,
+     * which runs in streaming mode, so only partial aggregations are spilled.
+     */
+    private void initializeSpill(Configuration hconf) throws HiveException {
+      List<AggregationDesc> aggrDesc = conf.getAggregators();
+      if (!HashAggregationSpill.canSpill(aggrDesc)) {
+        return;
+      }
+      ObjectInspector[] keyOIs = new ObjectInspector[keyExpressions.length];
+      for (int i = 0; i < keyExpressions.length; ++i) {
+        keyOIs[i] = keyOutputWriters[i].getObjectInspector();
+      }
+      ObjectInspector[] partialOIs = new ObjectInspector[aggregators.length];
+      for (int i = 0; i < aggregators.length; ++i) {
+        GenericUDAFEvaluator.Mode mode = aggrDesc.get(i).getMode();
+        if (mode != GenericUDAFEvaluator.Mode.PARTIAL1
+            && mode != GenericUDAFEvaluator.Mode.PARTIAL2) {
+          return;
+        }
+        partialOIs[i] = aggregators[i].getOutputObjectInspector();
+      }
+      hashSpill = new HashAggregationSpill(hconf, reporter, aggrDesc, keyOIs, partialOIs);
+      LOG.info("hash aggregation spills to disk");
+    }
+
     @Override
     public void processBatch(VectorizedRowBatch batch) throws HiveException {
 
@@ -288,11 +316,21 @@ public void processBatch(VectorizedRowBatch batch) throws HiveException {
       // After this the KeyWrappers are properly set and hash code is computed
       keyWrappersBatch.evaluateBatch(batch);
 
-      // Next we locate the aggregation buffer set for each key
-      prepareBatchAggregationBufferSets(batch);
+      if (groupingSetsKeys == null) {
+        // Next we locate the aggregation buffer set for each key
+        prepareBatchAggregationBufferSets(batch, keyWrappersBatch.getVectorHashKeyWrappers());
 
-      // Finally, evaluate the aggregators
-      processAggregators(batch);
+        // Finally, evaluate the aggregators
+        processAggregators(batch);
+        hashTableMemory += aggregationBatchInfo.updateVariableSize();
+      } else {
+        for (int i = 0; i < groupingSetsKeys.length; ++i) {
+          prepareBatchAggregationBufferSets(batch, keyWrappersBatch.evaluateGroupingSet(
+              batch.size, groupingSetsKeys[i], groupingSetKeyPosition, groupingSetsValues[i]));
+          processAggregators(batch);
+          hashTableMemory += aggregationBatchInfo.updateVariableSize();
+        }
+      }
 
       //Flush if memory limits were reached
       // We keep flushing until the memory is under threshold 
@@ -317,11 +355,6 @@ public void processBatch(VectorizedRowBatch batch) throws HiveException {
         preFlushEntriesCount = numEntriesHashTable;
       }
 
-      if (sumBatchSize == 0 && 0 != batch.size) {
-        // Sample the first batch processed for variable sizes.
-        updateAvgVariableSize(batch);
-      }
-
       sumBatchSize += batch.size;
       lastModeCheckRowCount += batch.size;
 
@@ -334,20 +367,23 @@ public void close(boolean aborted) throws HiveException {
       if (!aborted) {
         flush(true);
       }
+      if (hashSpill != null) {
+        hashSpill.close();
+      }
     }
 
     /**
      * Locates the aggregation buffer sets to use for each key in the current batch.
      * The keyWrappersBatch must have evaluated the current batch first.
      */
-    private void prepareBatchAggregationBufferSets(VectorizedRowBatch batch) throws HiveException {
+    private void prepareBatchAggregationBufferSets(VectorizedRowBatch batch,
+        VectorHashKeyWrapper[] keyWrappers) throws HiveException {
       // The aggregation batch vector needs to know when we start a new batch
       // to bump its internal version.
       aggregationBatchInfo.startBatch();
 
       // We now have to probe the global hash and find-or-allocate
       // the aggregation buffers to use for each key present in the batch
-      VectorHashKeyWrapper[] keyWrappers = keyWrappersBatch.getVectorHashKeyWrappers();
       for (int i=0; i < batch.size; ++i) {
         VectorHashKeyWrapper kw = keyWrappers[i];
         VectorAggregationBufferRow aggregationBuffer = mapKeysAggregationBuffers.get(kw);
@@ -359,7 +395,7 @@ private void prepareBatchAggregationBufferSets(VectorizedRowBatch batch) throws
           aggregationBuffer = allocateAggregationBuffer();
           mapKeysAggregationBuffers.put(kw.copyKey(), aggregationBuffer);
           numEntriesHashTable++;
-          numEntriesSinceCheck++;
+          hashTableMemory += fixedHashEntrySize + kw.getVariableSize();
         }
         aggregationBatchInfo.mapAggregationBufferSet(aggregationBuffer, i);
       }
@@ -384,7 +420,11 @@ private void computeMemoryLimits() {
         memoryThreshold = 1.0f;
       }
 
-      maxHashTblMemory = (int)(maxMemory * memoryThreshold);
+      if (memoryBudget > 0) {
+        maxHashTblMemory = memoryBudget;
+      } else {
+        maxHashTblMemory = (long)(maxMemory * memoryThreshold);
+      }
 
       if (LOG.isDebugEnabled()) {
         LOG.debug(String.format("maxMemory:%dMb (%d * %f) fixSize:%d (key:%d agg:%d)",
@@ -405,6 +445,11 @@ private void computeMemoryLimits() {
      */
     private void flush(boolean all) throws HiveException {
 
+      if (hashSpill != null && (!all || hashSpill.hasSpilled())) {
+        spill(all);
+        return;
+      }
+
       int entriesToFlush = all ? numEntriesHashTable :
         (int)(numEntriesHashTable * this.percentEntriesToFlush);
       int entriesFlushed = 0;
@@ -413,8 +458,9 @@ private void flush(boolean all) throws HiveException {
         LOG.debug(String.format(
             "Flush %d %s entries:%d fixed:%d variable:%d (used:%dMb max:%dMb) gcCanary:%s",
             entriesToFlush, all ? "(all)" : "",
-            numEntriesHashTable, fixedHashEntrySize, avgVariableSize,
-            numEntriesHashTable * (fixedHashEntrySize + avgVariableSize)/1024/1024,
+            numEntriesHashTable, fixedHashEntrySize,
+            hashTableMemory - (long) numEntriesHashTable * fixedHashEntrySize,
+            hashTableMemory/1024/1024,
             maxHashTblMemory/1024/1024,
             gcCanary.get() == null ? "dead" : "alive"));
       }
@@ -425,10 +471,13 @@ private void flush(boolean all) throws HiveException {
           mapKeysAggregationBuffers.entrySet().iterator();
       while(iter.hasNext()) {
         Map.Entry<KeyWrapper, VectorAggregationBufferRow> pair = iter.next();
+        VectorHashKeyWrapper kw = (VectorHashKeyWrapper) pair.getKey();
 
-        flushSingleRow((VectorHashKeyWrapper) pair.getKey(), pair.getValue());
+        flushSingleRow(kw, pair.getValue());
 
         if (!all) {
+          hashTableMemory -= fixedHashEntrySize + kw.getVariableSize()
+              + pair.getValue().getVariableSize();
           iter.remove();
           --numEntriesHashTable;
           if (++entriesFlushed >= entriesToFlush) {
@@ -440,6 +489,7 @@ private void flush(boolean all) throws HiveException {
       if (all) {
         mapKeysAggregationBuffers.clear();
         numEntriesHashTable = 0;
+        hashTableMemory = 0;
       }
       
       if (all && LOG.isDebugEnabled()) {
@@ -447,46 +497,58 @@ private void flush(boolean all) throws HiveException {
       }
     }
 
+    /**
+     * Spills all the entries in the hash table to disk as a sorted run.
+     * When parameter 'all' is true the runs are merged and emitted (forward).
+     * @param all
+     * @throws HiveException
+     */
+    private void spill(boolean all) throws HiveException {
+      LOG.info(String.format("Spill %d entries", numEntriesHashTable));
+      Object[] keys = new Object[keyExpressions.length];
+      Object[] partials = new Object[aggregators.length];
+      for (Map.Entry<KeyWrapper, VectorAggregationBufferRow> pair :
+          mapKeysAggregationBuffers.entrySet()) {
+        VectorHashKeyWrapper kw = (VectorHashKeyWrapper) pair.getKey();
+        for (int i = 0; i < keyExpressions.length; ++i) {
+          keys[i] = keyWrappersBatch.getWritableKeyValue(kw, i, keyOutputWriters[i]);
+        }
+        for (int i = 0; i < aggregators.length; ++i) {
+          partials[i] = aggregators[i].evaluateOutput(pair.getValue().getAggregationBuffer(i));
+        }
+        hashSpill.add(keys, partials);
+      }
+      mapKeysAggregationBuffers.clear();
+      numEntriesHashTable = 0;
+      hashTableMemory = 0;
+
+      if (all) {
+        hashSpill.finish(VectorGroupByOperator.this, outputObjInspector);
+      } else {
+        hashSpill.spill();
+      }
+    }
+
     /**
      * Returns true if the memory threshold for the hash table was reached.
+     * The soft reference canary only tells about memory pressure when the
+     * task has the heap to itself, that is when no memory budget was allocated.
      */
     private boolean shouldFlush(VectorizedRowBatch batch) {
       if (batch.size == 0) {
         return false;
       }
-      //numEntriesSinceCheck is the number of entries added to the hash table
-      // since the last time we checked the average variable size
-      if (numEntriesSinceCheck >= this.checkInterval) {
-        // Were going to update the average variable row size by sampling the current batch
-        updateAvgVariableSize(batch);
-        numEntriesSinceCheck = 0;
-      }
       if (numEntriesHashTable > this.maxHtEntries ||
-          numEntriesHashTable * (fixedHashEntrySize + avgVariableSize) > maxHashTblMemory) {
+          hashTableMemory > maxHashTblMemory) {
         return true;
       }
-      if (gcCanary.get() == null) {
+      if (memoryBudget == 0 && gcCanary.get() == null) {
         return true;
       }
       
       return false;
     }
 
-    /**
-     * Updates the average variable size of the hash table entries.
-     * The average is only updates by probing the batch that added the entry in the hash table
-     * that caused the check threshold to be reached.
-     */
-    private void updateAvgVariableSize(VectorizedRowBatch batch) {
-      int keyVariableSize = keyWrappersBatch.getVariableSize(batch.size);
-      int aggVariableSize = aggregationBatchInfo.getVariableSize(batch.size);
-
-      // This assumes the distribution of variable size keys/aggregates in the input
-      // is the same as the distribution of variable sizes in the hash entries
-      avgVariableSize = (int)((avgVariableSize * sumBatchSize + keyVariableSize +aggVariableSize) /
-          (sumBatchSize + batch.size));
-    }
-
     /**
      * Checks if the HT reduces the number of entries by at least minReductionHashAggr factor 
      * @throws HiveException
@@ -498,7 +560,9 @@ private void checkHashModeEfficiency() throws HiveException {
           LOG.debug(String.format("checkHashModeEfficiency: HT:%d RC:%d MIN:%d", 
               numEntriesHashTable, sumBatchSize, (long)(sumBatchSize * minReductionHashAggr)));
         }
-        if (numEntriesHashTable > sumBatchSize * minReductionHashAggr) {
+        // Each row adds up to one entry per grouping set.
+        int groupingSetsCount = groupingSetsKeys == null ? 1 : groupingSetsKeys.length;
+        if (numEntriesHashTable > sumBatchSize * groupingSetsCount * minReductionHashAggr) {
           flush(true);
 
           changeToStreamingMode();
@@ -509,7 +573,9 @@ private void checkHashModeEfficiency() throws HiveException {
 
   /**
    * Streaming processing mode. Intermediate values are flushed each time key changes.
-   * In this mode we're relying on the MR shuffle and merge the intermediates in the reduce.
+   * On the map side we're relying on the MR shuffle and merge the intermediates in the reduce.
+   * On the reduce side (MERGEPARTIAL) the input is sorted on the keys and the flushed
+   * values are final.
    */
   private class ProcessingModeStreaming extends ProcessingModeBase {
 
@@ -566,8 +632,20 @@ public void processBatch(VectorizedRowBatch batch) throws HiveException {
       // After this the KeyWrappers are properly set and hash code is computed
       keyWrappersBatch.evaluateBatch(batch);
 
-      VectorHashKeyWrapper[] batchKeys = keyWrappersBatch.getVectorHashKeyWrappers();
+      if (groupingSetsKeys == null) {
+        processBatchKeys(batch, keyWrappersBatch.getVectorHashKeyWrappers());
+      } else {
+        // The keys of the grouping sets interleave, so each set mostly flushes its own
+        // rows; that is fine on the map side, where the reducer merges the partial results.
+        for (int i = 0; i < groupingSetsKeys.length; ++i) {
+          processBatchKeys(batch, keyWrappersBatch.evaluateGroupingSet(
+              batch.size, groupingSetsKeys[i], groupingSetKeyPosition, groupingSetsValues[i]));
+        }
+      }
+    }
 
+    private void processBatchKeys(VectorizedRowBatch batch, VectorHashKeyWrapper[] batchKeys)
+        throws HiveException {
       if (streamingKey == null) {
         // This is the first batch we process after switching from hash mode
         currentStreamingAggregators = streamAggregationBufferRowPool.getFromPool();
@@ -680,10 +758,29 @@ protected void initializeOp(Configuration hconf) throws HiveException {
 
     forwardCache =new Object[keyExpressions.length + aggregators.length];
 
+    if (conf.isGroupingSetsPresent()) {
+      List<Integer> groupingSets = conf.getListGroupingSets();
+      groupingSetKeyPosition = conf.getGroupingSetPosition();
+      groupingSetsKeys = new boolean[groupingSets.size()][];
+      groupingSetsValues = new byte[groupingSets.size()][];
+      for (int i = 0; i < groupingSets.size(); ++i) {
+        int groupingSet = groupingSets.get(i);
+        // Same bit layout as GroupByOperator.groupingSet2BitSet
+        groupingSetsKeys[i] = new boolean[groupingSetKeyPosition];
+        for (int k = 0; k < groupingSetKeyPosition; ++k) {
+          groupingSetsKeys[i][k] = ((groupingSet >>> k) & 1) != 0;
+        }
+        groupingSetsValues[i] = String.valueOf(groupingSet).getBytes();
+      }
+    }
+
     if (keyExpressions.length == 0) {
       processingMode = this.new ProcessingModeGlobalAggregate();
-    }
-    else {
+    } else if (conf.getMode() == GroupByDesc.Mode.MERGEPARTIAL) {
+      // On the reduce side the input arrives sorted on the group keys, so the
+      // partial aggregates of a key are merged and emitted as soon as the key changes.
+      processingMode = this.new ProcessingModeStreaming();
+    } else {
       //TODO: consider if parent can offer order guarantees
       // If input is sorted, is more efficient to use the streaming mode
       processingMode = this.new ProcessingModeHashAggregate();
@@ -189,6 +189,22 @@ public Object[] getKeyArray() {
     throw new UnsupportedOperationException();
   }
 
+  /**
+   * Assigns the key values of another wrapper with the same layout. The string
+   * keys refer to the same bytes, as with {@link #assignString}.
+   */
+  public void assignFrom(VectorHashKeyWrapper other) {
+    System.arraycopy(other.longValues, 0, longValues, 0, longValues.length);
+    System.arraycopy(other.doubleValues, 0, doubleValues, 0, doubleValues.length);
+    System.arraycopy(other.byteValues, 0, byteValues, 0, byteValues.length);
+    System.arraycopy(other.byteStarts, 0, byteStarts, 0, byteStarts.length);
+    System.arraycopy(other.byteLengths, 0, byteLengths, 0, byteLengths.length);
+    for (int i = 0; i < decimalValues.length; ++i) {
+      decimalValues[i].update(other.decimalValues[i]);
+    }
+    System.arraycopy(other.isNull, 0, isNull, 0, isNull.length);
+  }
+
   public void assignDouble(int index, double d) {
     doubleValues[index] = d;
     isNull[longValues.length + index] = false;
@@ -227,6 +243,7 @@ public void assignDecimal(int index, Decimal128 value) {
   }
 
   public void assignNullDecimal(int index) {
+      decimalValues[index].zeroClear(); // assign 0 to simplify hashcode
       isNull[longValues.length + doubleValues.length + byteValues.length + index] = true;
   }
 
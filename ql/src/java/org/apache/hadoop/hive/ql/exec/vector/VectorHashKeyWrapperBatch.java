@@ -107,6 +107,12 @@ public void setDecimal(int index) {
    */
   private VectorHashKeyWrapper[] vectorHashKeyWrappers;
 
+  /**
+   * Pre-allocated batch size vector of the key wrappers of one grouping set.
+   * Allocated on the first use, the same rules as for vectorHashKeyWrappers apply.
+   */
+  private VectorHashKeyWrapper[] groupingSetHashKeyWrappers;
+
   /**
    * Lookup vector to map from key index to primitive type index.
    */
@@ -239,6 +245,57 @@ public void evaluateBatch(VectorizedRowBatch batch) throws HiveException {
     }
   }
 
+  /**
+   * Prepares the key wrappers of one grouping set from the keys evaluated by
+   * {@link #evaluateBatch}. The keys that are not part of the set are null and the
+   * grouping set key holds the value of the set. The evaluated keys are left as
+   * they are, so all the grouping sets of a batch share one evaluation of the keys.
+   * @param batchSize
+   * @param groupingSetKeys for each key before the grouping set key, whether it is in the set
+   * @param groupingSetKey the index of the (string) grouping set key
+   * @param groupingSetValue the value of the grouping set key
+   * @return the batch size vector of key wrappers of the grouping set
+   * @throws HiveException
+   */
+  public VectorHashKeyWrapper[] evaluateGroupingSet(int batchSize, boolean[] groupingSetKeys,
+      int groupingSetKey, byte[] groupingSetValue) throws HiveException {
+    int groupingSetIndex = indexLookup[groupingSetKey].stringIndex;
+    if (groupingSetIndex < 0) {
+      throw new HiveException("The grouping set key must be a string key");
+    }
+    if (groupingSetHashKeyWrappers == null) {
+      groupingSetHashKeyWrappers = new VectorHashKeyWrapper[VectorizedRowBatch.DEFAULT_SIZE];
+      for (int i = 0; i < groupingSetHashKeyWrappers.length; ++i) {
+        groupingSetHashKeyWrappers[i] = allocateKeyWrapper();
+      }
+    }
+    for (int i = 0; i < batchSize; ++i) {
+      VectorHashKeyWrapper kw = groupingSetHashKeyWrappers[i];
+      kw.assignFrom(vectorHashKeyWrappers[i]);
+      for (int k = 0; k < groupingSetKeys.length; ++k) {
+        if (!groupingSetKeys[k]) {
+          assignNullKey(kw, k);
+        }
+      }
+      kw.assignString(groupingSetIndex, groupingSetValue, 0, groupingSetValue.length);
+      kw.setHashKey();
+    }
+    return groupingSetHashKeyWrappers;
+  }
+
+  private void assignNullKey(VectorHashKeyWrapper kw, int keyIndex) {
+    KeyLookupHelper klh = indexLookup[keyIndex];
+    if (klh.longIndex >= 0) {
+      kw.assignNullLong(klh.longIndex);
+    } else if (klh.doubleIndex >= 0) {
+      kw.assignNullDouble(klh.doubleIndex);
+    } else if (klh.stringIndex >= 0) {
+      kw.assignNullString(klh.stringIndex);
+    } else {
+      kw.assignNullDecimal(klh.decimalIndex);
+    }
+  }
+
   /**
    * Helper method to assign values from a vector column into the key wrapper.
    * Optimized for string type, possible nulls, no repeat values, batch selection vector.
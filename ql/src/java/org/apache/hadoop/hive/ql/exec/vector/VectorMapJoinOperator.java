@@ -66,14 +66,14 @@ public class VectorMapJoinOperator extends MapJoinOperator implements Vectorizat
   private String fileKey;
   private int tagLen;
 
-  private VectorExpression[] keyExpressions;
+  protected VectorExpression[] keyExpressions;
   private transient VectorHashKeyWrapperBatch keyWrapperBatch;
   private transient VectorExpressionWriter[] keyOutputWriters;
 
-  private VectorExpression[] bigTableFilterExpressions;
-  private VectorExpression[] bigTableValueExpressions;
+  protected VectorExpression[] bigTableFilterExpressions;
+  protected VectorExpression[] bigTableValueExpressions;
 
-  private transient VectorizedRowBatch outputBatch;
+  protected transient VectorizedRowBatch outputBatch;
   private transient VectorExpressionWriter[] valueWriters;
   private transient Map<ObjectInspector, VectorColumnAssign[]> outputVectorAssigners;
 
@@ -223,13 +223,16 @@ protected void internalForward(Object row, ObjectInspector outputOI) throws Hive
     }
   }
 
-  private void flushOutput() throws HiveException {
+  protected void flushOutput() throws HiveException {
     forward(outputBatch, null);
     outputBatch.reset();
   }
 
   @Override
   public void closeOp(boolean aborted) throws HiveException {
+    if (!aborted) {
+      joinSpilledRows();
+    }
     if (!aborted && 0 < outputBatch.size) {
       flushOutput();
     }
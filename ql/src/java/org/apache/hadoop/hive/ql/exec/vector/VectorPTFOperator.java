@@ -0,0 +1,462 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.hive.ql.exec.vector;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hive.ql.exec.PTFOperator;
+import org.apache.hadoop.hive.ql.exec.vector.expressions.StringExpr;
+import org.apache.hadoop.hive.ql.exec.vector.expressions.VectorExpressionWriter;
+import org.apache.hadoop.hive.ql.exec.vector.expressions.VectorExpressionWriterFactory;
+import org.apache.hadoop.hive.ql.metadata.HiveException;
+import org.apache.hadoop.hive.ql.plan.ExprNodeColumnDesc;
+import org.apache.hadoop.hive.ql.plan.ExprNodeDesc;
+import org.apache.hadoop.hive.ql.plan.OperatorDesc;
+import org.apache.hadoop.hive.ql.plan.PTFDesc;
+import org.apache.hadoop.hive.ql.plan.ptf.PTFExpressionDef;
+import org.apache.hadoop.hive.ql.plan.ptf.ValueBoundaryDef;
+import org.apache.hadoop.hive.ql.plan.ptf.WindowFunctionDef;
+import org.apache.hadoop.hive.ql.plan.ptf.WindowTableFunctionDef;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorUtils;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorUtils.ObjectInspectorCopyOption;
+import org.apache.hadoop.hive.serde2.objectinspector.StructField;
+import org.apache.hadoop.hive.serde2.objectinspector.StructObjectInspector;
+import org.apache.hadoop.hive.serde2.typeinfo.TypeInfoUtils;
+
+/**
+ * Vectorized windowing operator for the reduce side.
+ *
+ * It computes row_number, rank, dense_rank and the running count, sum, min,
+ * max and avg of integer and floating point columns directly from the column
+ * vectors, instead of feeding each row to a GenericUDAFEvaluator through a
+ * PTFPartition. The rows arrive sorted on the partition and order columns, so
+ * a partition starts whenever a partition column changes and a group of peers
+ * whenever an order column changes.
+ *
+ * The aggregates are evaluated over frames that start at the beginning of the
+ * partition. A ROWS frame ends at the current row, so the row is emitted at
+ * once. A RANGE frame ends at the last peer of the current row, so the rows of
+ * a group of peers are held back until the group is complete.
+ *
+ * Like the vectorized group by, this operator emits rows.
+ */
+public class VectorPTFOperator extends PTFOperator {
+
+  private static final long serialVersionUID = 1L;
+
+  /**
+   * The window functions that can be computed in vector mode.
+   */
+  public static enum WindowFunction {
+    ROW_NUMBER, RANK, DENSE_RANK, COUNT, SUM, MIN, MAX, AVG;
+
+    public static WindowFunction get(String name) {
+      for (WindowFunction f : values()) {
+        if (f.name().equalsIgnoreCase(name)) {
+          return f;
+        }
+      }
+      return null;
+    }
+
+    public boolean isRanking() {
+      return this == ROW_NUMBER || this == RANK || this == DENSE_RANK;
+    }
+  }
+
+  private int[] partitionColumns;
+  private int[] orderColumns;
+
+  private WindowFunction[] functions;
+  // The batch column of the argument of each aggregate, -1 for count(*) and the ranking functions.
+  private int[] argumentColumns;
+  private boolean[] longArguments;
+  private boolean[] rangeFrames;
+  private boolean hasRangeFrames;
+
+  private transient VectorExpressionWriter[] outputWriters;
+  private transient ObjectInspector[] outputFieldOIs;
+  private transient Object[] forwardRow;
+
+  private transient KeyValue[] partitionKey;
+  private transient KeyValue[] orderKey;
+  private transient boolean firstRow;
+
+  private transient long rowNumber;
+  private transient long rank;
+  private transient long denseRank;
+
+  private transient long[] counts;
+  private transient long[] longValues;
+  private transient double[] doubleValues;
+  private transient boolean[] hasValues;
+
+  // The rows of the current group of peers, while a RANGE frame is pending.
+  private transient List<Object[]> pendingRows;
+
+  public VectorPTFOperator(VectorizationContext vContext, OperatorDesc conf)
+      throws HiveException {
+    this.conf = (PTFDesc) conf;
+    WindowTableFunctionDef def = (WindowTableFunctionDef) this.conf.getFuncDef();
+    Map<String, Integer> columnMap = vContext.getColumnMap();
+
+    // Constant partition expressions never change, so only columns are compared.
+    List<Integer> partitionIndexes = new ArrayList<Integer>();
+    for (PTFExpressionDef expr : def.getPartition().getExpressions()) {
+      if (expr.getExprNode() instanceof ExprNodeColumnDesc) {
+        partitionIndexes.add(getColumnIndex(columnMap, expr.getExprNode()));
+      }
+    }
+    partitionColumns = toArray(partitionIndexes);
+
+    List<Integer> orderIndexes = new ArrayList<Integer>();
+    if (def.getOrder() != null) {
+      for (PTFExpressionDef expr : def.getOrder().getExpressions()) {
+        orderIndexes.add(getColumnIndex(columnMap, expr.getExprNode()));
+      }
+    }
+    orderColumns = toArray(orderIndexes);
+
+    List<WindowFunctionDef> wFnDefs = def.getWindowFunctions();
+    functions = new WindowFunction[wFnDefs.size()];
+    argumentColumns = new int[wFnDefs.size()];
+    longArguments = new boolean[wFnDefs.size()];
+    rangeFrames = new boolean[wFnDefs.size()];
+    for (int i = 0; i < wFnDefs.size(); i++) {
+      WindowFunctionDef wFnDef = wFnDefs.get(i);
+      functions[i] = WindowFunction.get(wFnDef.getName());
+      if (functions[i] == null) {
+        throw new HiveException("Window function " + wFnDef.getName()
+            + " is not supported in vector mode");
+      }
+      argumentColumns[i] = -1;
+      if (functions[i].isRanking()) {
+        continue;
+      }
+      if (!wFnDef.isStar()) {
+        ExprNodeDesc arg = wFnDef.getArgs().get(0).getExprNode();
+        argumentColumns[i] = getColumnIndex(columnMap, arg);
+        longArguments[i] = VectorizationContext.isIntFamily(arg.getTypeString());
+      }
+      rangeFrames[i] = wFnDef.getWindowFrame().getStart() instanceof ValueBoundaryDef;
+      hasRangeFrames |= rangeFrames[i];
+    }
+  }
+
+  public VectorPTFOperator() {
+  }
+
+  private static int getColumnIndex(Map<String, Integer> columnMap, ExprNodeDesc expr)
+      throws HiveException {
+    Integer index = null;
+    if (expr instanceof ExprNodeColumnDesc) {
+      index = columnMap.get(((ExprNodeColumnDesc) expr).getColumn());
+    }
+    if (index == null) {
+      throw new HiveException("Cannot find the column of " + expr.getExprString()
+          + " in vector mode");
+    }
+    return index;
+  }
+
+  private static int[] toArray(List<Integer> list) {
+    int[] array = new int[list.size()];
+    for (int i = 0; i < array.length; i++) {
+      array[i] = list.get(i);
+    }
+    return array;
+  }
+
+  @Override
+  protected void initializeOp(Configuration hconf) throws HiveException {
+    reconstructQueryDef(hconf);
+
+    // The windowing output is the window function values followed by the input
+    // columns; they are emitted as writables.
+    StructObjectInspector wdwOutputOI = conf.getFuncDef().getTFunction().getOutputOI();
+    List<String> names = new ArrayList<String>();
+    List<ObjectInspector> ois = new ArrayList<ObjectInspector>();
+    for (StructField field : wdwOutputOI.getAllStructFieldRefs()) {
+      names.add(field.getFieldName());
+      ois.add(TypeInfoUtils.getStandardWritableObjectInspectorFromTypeInfo(
+          TypeInfoUtils.getTypeInfoFromObjectInspector(field.getFieldObjectInspector())));
+    }
+    outputObjInspector = ObjectInspectorFactory.getStandardStructObjectInspector(names, ois);
+    outputFieldOIs = ois.toArray(new ObjectInspector[ois.size()]);
+    forwardRow = new Object[outputFieldOIs.length];
+    outputWriters = new VectorExpressionWriter[outputFieldOIs.length];
+    for (int i = 0; i < outputWriters.length; i++) {
+      outputWriters[i] = VectorExpressionWriterFactory.genVectorExpressionWritable(
+          outputFieldOIs[i]);
+    }
+
+    partitionKey = new KeyValue[partitionColumns.length];
+    for (int i = 0; i < partitionKey.length; i++) {
+      partitionKey[i] = new KeyValue();
+    }
+    orderKey = new KeyValue[orderColumns.length];
+    for (int i = 0; i < orderKey.length; i++) {
+      orderKey[i] = new KeyValue();
+    }
+    firstRow = true;
+
+    counts = new long[functions.length];
+    longValues = new long[functions.length];
+    doubleValues = new double[functions.length];
+    hasValues = new boolean[functions.length];
+    pendingRows = new ArrayList<Object[]>();
+
+    initializeChildren(hconf);
+  }
+
+  @Override
+  public void processOp(Object row, int tag) throws HiveException {
+    VectorizedRowBatch batch = (VectorizedRowBatch) row;
+    int[] selected = batch.selected;
+    for (int i = 0; i < batch.size; i++) {
+      int r = batch.selectedInUse ? selected[i] : i;
+      boolean newPartition = firstRow || !isSameKey(batch, partitionColumns, partitionKey, r);
+      boolean newPeers = newPartition || !isSameKey(batch, orderColumns, orderKey, r);
+      if (newPeers) {
+        finishPeers();
+        if (newPartition) {
+          saveKey(batch, partitionColumns, partitionKey, r);
+          startPartition();
+        }
+        saveKey(batch, orderColumns, orderKey, r);
+        rank = rowNumber + 1;
+        denseRank++;
+      }
+      firstRow = false;
+      rowNumber++;
+      aggregate(batch, r);
+      emitRow(batch, r);
+    }
+  }
+
+  @Override
+  protected void closeOp(boolean abort) throws HiveException {
+    if (!abort) {
+      finishPeers();
+    }
+  }
+
+  private void startPartition() {
+    rowNumber = 0;
+    rank = 0;
+    denseRank = 0;
+    Arrays.fill(counts, 0);
+    Arrays.fill(longValues, 0);
+    Arrays.fill(doubleValues, 0);
+    Arrays.fill(hasValues, false);
+  }
+
+  private void aggregate(VectorizedRowBatch batch, int r) {
+    for (int f = 0; f < functions.length; f++) {
+      if (functions[f].isRanking()) {
+        continue;
+      }
+      if (argumentColumns[f] < 0) {
+        // count(*)
+        counts[f]++;
+        continue;
+      }
+      ColumnVector col = batch.cols[argumentColumns[f]];
+      int c = col.isRepeating ? 0 : r;
+      if (!col.noNulls && col.isNull[c]) {
+        continue;
+      }
+      counts[f]++;
+      if (longArguments[f]) {
+        long value = ((LongColumnVector) col).vector[c];
+        switch (functions[f]) {
+          case SUM:
+            longValues[f] += value;
+            break;
+          case MIN:
+            longValues[f] = hasValues[f] ? Math.min(longValues[f], value) : value;
+            break;
+          case MAX:
+            longValues[f] = hasValues[f] ? Math.max(longValues[f], value) : value;
+            break;
+          case AVG:
+            doubleValues[f] += value;
+            break;
+          default:
+            break;
+        }
+      } else {
+        double value = ((DoubleColumnVector) col).vector[c];
+        switch (functions[f]) {
+          case SUM:
+          case AVG:
+            doubleValues[f] += value;
+            break;
+          case MIN:
+            doubleValues[f] = hasValues[f] ? Math.min(doubleValues[f], value) : value;
+            break;
+          case MAX:
+            doubleValues[f] = hasValues[f] ? Math.max(doubleValues[f], value) : value;
+            break;
+          default:
+            break;
+        }
+      }
+      hasValues[f] = true;
+    }
+  }
+
+  private Object functionValue(int f) throws HiveException {
+    VectorExpressionWriter writer = outputWriters[f];
+    switch (functions[f]) {
+      case ROW_NUMBER:
+        return writer.writeValue(rowNumber);
+      case RANK:
+        return writer.writeValue(rank);
+      case DENSE_RANK:
+        return writer.writeValue(denseRank);
+      case COUNT:
+        return writer.writeValue(counts[f]);
+      case AVG:
+        return hasValues[f] ? writer.writeValue(doubleValues[f] / counts[f]) : null;
+      default:
+        if (!hasValues[f]) {
+          return null;
+        }
+        return longArguments[f] ? writer.writeValue(longValues[f])
+            : writer.writeValue(doubleValues[f]);
+    }
+  }
+
+  private void emitRow(VectorizedRowBatch batch, int r) throws HiveException {
+    Object[] outputRow = hasRangeFrames ? new Object[outputWriters.length] : forwardRow;
+    for (int f = 0; f < functions.length; f++) {
+      if (!rangeFrames[f]) {
+        outputRow[f] = functionValue(f);
+      }
+    }
+    for (int i = functions.length; i < outputWriters.length; i++) {
+      ColumnVector col = batch.cols[batch.projectedColumns[i - functions.length]];
+      outputRow[i] = outputWriters[i].writeValue(col, r);
+    }
+    if (!hasRangeFrames) {
+      forward(outputRow, outputObjInspector);
+      return;
+    }
+    // The writers reuse their writables, so the held back row needs its own copy.
+    for (int i = 0; i < outputRow.length; i++) {
+      outputRow[i] = ObjectInspectorUtils.copyToStandardObject(outputRow[i],
+          outputFieldOIs[i], ObjectInspectorCopyOption.WRITABLE);
+    }
+    pendingRows.add(outputRow);
+  }
+
+  /**
+   * Emits the held back rows of the current group of peers, with the RANGE
+   * frame values that now cover all of the peers.
+   */
+  private void finishPeers() throws HiveException {
+    if (pendingRows == null || pendingRows.isEmpty()) {
+      return;
+    }
+    for (Object[] outputRow : pendingRows) {
+      for (int f = 0; f < functions.length; f++) {
+        if (rangeFrames[f]) {
+          outputRow[f] = functionValue(f);
+        }
+      }
+      forward(outputRow, outputObjInspector);
+    }
+    pendingRows.clear();
+  }
+
+  private static boolean isSameKey(VectorizedRowBatch batch, int[] columns, KeyValue[] key,
+      int r) throws HiveException {
+    for (int i = 0; i < columns.length; i++) {
+      if (!key[i].isSame(batch.cols[columns[i]], r)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static void saveKey(VectorizedRowBatch batch, int[] columns, KeyValue[] key, int r)
+      throws HiveException {
+    for (int i = 0; i < columns.length; i++) {
+      key[i].set(batch.cols[columns[i]], r);
+    }
+  }
+
+  /**
+   * The value of a partition or order column in the previous row.
+   */
+  private static final class KeyValue {
+    private boolean isNull;
+    private long longValue;
+    private double doubleValue;
+    private byte[] bytesValue = new byte[16];
+    private int bytesLength;
+
+    void set(ColumnVector col, int r) throws HiveException {
+      int c = col.isRepeating ? 0 : r;
+      isNull = !col.noNulls && col.isNull[c];
+      if (isNull) {
+        return;
+      }
+      if (col instanceof LongColumnVector) {
+        longValue = ((LongColumnVector) col).vector[c];
+      } else if (col instanceof DoubleColumnVector) {
+        doubleValue = ((DoubleColumnVector) col).vector[c];
+      } else if (col instanceof BytesColumnVector) {
+        BytesColumnVector bcv = (BytesColumnVector) col;
+        bytesLength = bcv.length[c];
+        if (bytesValue.length < bytesLength) {
+          bytesValue = new byte[bytesLength];
+        }
+        System.arraycopy(bcv.vector[c], bcv.start[c], bytesValue, 0, bytesLength);
+      } else {
+        throw new HiveException("Unsupported windowing key column " + col.getClass().getName());
+      }
+    }
+
+    boolean isSame(ColumnVector col, int r) throws HiveException {
+      int c = col.isRepeating ? 0 : r;
+      boolean colIsNull = !col.noNulls && col.isNull[c];
+      if (isNull || colIsNull) {
+        return isNull == colIsNull;
+      }
+      if (col instanceof LongColumnVector) {
+        return longValue == ((LongColumnVector) col).vector[c];
+      } else if (col instanceof DoubleColumnVector) {
+        return doubleValue == ((DoubleColumnVector) col).vector[c];
+      } else if (col instanceof BytesColumnVector) {
+        BytesColumnVector bcv = (BytesColumnVector) col;
+        return StringExpr.compare(bytesValue, 0, bytesLength,
+            bcv.vector[c], bcv.start[c], bcv.length[c]) == 0;
+      }
+      throw new HiveException("Unsupported windowing key column " + col.getClass().getName());
+    }
+  }
+}
@@ -43,8 +43,10 @@
 import org.apache.hadoop.hive.ql.exec.vector.VectorExpressionDescriptor.Mode;
 import org.apache.hadoop.hive.ql.exec.vector.expressions.*;
 import org.apache.hadoop.hive.ql.exec.vector.expressions.aggregates.VectorAggregateExpression;
+import org.apache.hadoop.hive.ql.exec.vector.expressions.aggregates.VectorUDAFApproxCountDistinct;
 import org.apache.hadoop.hive.ql.exec.vector.expressions.aggregates.VectorUDAFAvgDecimal;
 import org.apache.hadoop.hive.ql.exec.vector.expressions.aggregates.VectorUDAFCount;
+import org.apache.hadoop.hive.ql.exec.vector.expressions.aggregates.VectorUDAFCountMerge;
 import org.apache.hadoop.hive.ql.exec.vector.expressions.aggregates.VectorUDAFCountStar;
 import org.apache.hadoop.hive.ql.exec.vector.expressions.aggregates.VectorUDAFSumDecimal;
 import org.apache.hadoop.hive.ql.exec.vector.expressions.aggregates.gen.VectorUDAFAvgDouble;
@@ -1609,6 +1611,9 @@ static String getNormalizedTypeName(String colType){
     {"stddev_samp","Long",  VectorUDAFStdSampLong.class},
     {"stddev_samp","Double",VectorUDAFStdSampDouble.class},
     {"stddev_samp","Decimal",VectorUDAFStdSampDecimal.class},
+    {"approx_count_distinct","Long",  VectorUDAFApproxCountDistinct.class},
+    {"approx_count_distinct","Double",VectorUDAFApproxCountDistinct.class},
+    {"approx_count_distinct","String",VectorUDAFApproxCountDistinct.class},
   };
 
   public VectorAggregateExpression getAggregatorExpression(AggregationDesc desc)
@@ -1625,6 +1630,16 @@ public VectorAggregateExpression getAggregatorExpression(AggregationDesc desc)
     String aggregateName = desc.getGenericUDAFName();
     String inputType = null;
 
+    // When merging partial aggregates (e.g. on the reduce side), the input of
+    // COUNT is the partial count, which has to be summed up instead of counted.
+    if (aggregateName.equalsIgnoreCase("count") && vectorParams.length == 1 &&
+        (desc.getMode() == GenericUDAFEvaluator.Mode.PARTIAL2 ||
+         desc.getMode() == GenericUDAFEvaluator.Mode.FINAL)) {
+      VectorAggregateExpression aggExpr = new VectorUDAFCountMerge(vectorParams[0]);
+      aggExpr.init(desc);
+      return aggExpr;
+    }
+
     if (paramDescList.size() > 0) {
       ExprNodeDesc inputExpr = paramDescList.get(0);
       inputType = getNormalizedTypeName(inputExpr.getTypeString());
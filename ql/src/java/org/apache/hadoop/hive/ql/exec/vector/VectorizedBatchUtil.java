@@ -20,8 +20,10 @@
 
 import java.io.IOException;
 import java.sql.Timestamp;
+import java.util.Arrays;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 
 import org.apache.hadoop.hive.ql.metadata.HiveException;
 import org.apache.hadoop.hive.serde2.io.ByteWritable;
@@ -36,6 +38,7 @@
 import org.apache.hadoop.hive.serde2.objectinspector.StructField;
 import org.apache.hadoop.hive.serde2.objectinspector.StructObjectInspector;
 import org.apache.hadoop.hive.serde2.typeinfo.DecimalTypeInfo;
+import org.apache.hadoop.hive.serde2.typeinfo.TypeInfoUtils;
 import org.apache.hadoop.io.BooleanWritable;
 import org.apache.hadoop.io.DataOutputBuffer;
 import org.apache.hadoop.io.FloatWritable;
@@ -184,6 +187,39 @@ public static VectorizedRowBatch constructVectorizedRowBatch(
     return result;
   }
 
+  /**
+   * Appends the scratch columns described by the column type map to the batch.
+   * The keys of the map are the indices of the scratch columns in the batch
+   * and are expected to follow the existing columns.
+   *
+   * @param batch
+   * @param scratchColumnTypeMap
+   */
+  public static void addScratchColumnsToBatch(VectorizedRowBatch batch,
+      Map<Integer, String> scratchColumnTypeMap) {
+    if (scratchColumnTypeMap == null || scratchColumnTypeMap.isEmpty()) {
+      return;
+    }
+    int origNumCols = batch.numCols;
+    int newNumCols = batch.cols.length + scratchColumnTypeMap.keySet().size();
+    batch.cols = Arrays.copyOf(batch.cols, newNumCols);
+    for (int i = origNumCols; i < newNumCols; i++) {
+      String type = scratchColumnTypeMap.get(i);
+      if (type.equalsIgnoreCase("double")) {
+        batch.cols[i] = new DoubleColumnVector(VectorizedRowBatch.DEFAULT_SIZE);
+      } else if (type.equalsIgnoreCase("string")) {
+        batch.cols[i] = new BytesColumnVector(VectorizedRowBatch.DEFAULT_SIZE);
+      } else if (VectorizationContext.decimalTypePattern.matcher(type).matches()) {
+        DecimalTypeInfo tInfo = (DecimalTypeInfo) TypeInfoUtils.getTypeInfoFromTypeString(type);
+        batch.cols[i] = new DecimalColumnVector(VectorizedRowBatch.DEFAULT_SIZE,
+            tInfo.precision(), tInfo.scale());
+      } else {
+        batch.cols[i] = new LongColumnVector(VectorizedRowBatch.DEFAULT_SIZE);
+      }
+    }
+    batch.numCols = batch.cols.length;
+  }
+
   /**
    * Iterates through all columns in a given row and populates the batch
    *
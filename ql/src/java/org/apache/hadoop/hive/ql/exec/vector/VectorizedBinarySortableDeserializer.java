@@ -0,0 +1,257 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.hive.ql.exec.vector;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+import org.apache.hadoop.hive.ql.metadata.HiveException;
+import org.apache.hadoop.hive.serde.serdeConstants;
+import org.apache.hadoop.hive.serde2.binarysortable.InputByteBuffer;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector.Category;
+import org.apache.hadoop.hive.serde2.objectinspector.PrimitiveObjectInspector.PrimitiveCategory;
+import org.apache.hadoop.hive.serde2.typeinfo.PrimitiveTypeInfo;
+import org.apache.hadoop.hive.serde2.typeinfo.TypeInfo;
+import org.apache.hadoop.hive.serde2.typeinfo.TypeInfoUtils;
+
+/**
+ * Deserializes rows written by BinarySortableSerDe directly into the column vectors
+ * of a VectorizedRowBatch, without materializing writables or going through
+ * object inspectors. Only the primitive types that have a flat representation
+ * in the binary sortable format are supported, see {@link #isSupported(List)}.
+ */
+public class VectorizedBinarySortableDeserializer {
+
+  private final PrimitiveCategory[] categories;
+  private final boolean[] columnSortOrderIsDesc;
+  private final InputByteBuffer inputByteBuffer = new InputByteBuffer();
+
+  // used to unescape and/or invert string values before copying them into the batch
+  private byte[] scratch = new byte[64];
+
+  public VectorizedBinarySortableDeserializer(List<TypeInfo> columnTypes,
+      boolean[] columnSortOrderIsDesc) {
+    this.categories = new PrimitiveCategory[columnTypes.size()];
+    for (int i = 0; i < categories.length; i++) {
+      categories[i] = ((PrimitiveTypeInfo) columnTypes.get(i)).getPrimitiveCategory();
+    }
+    this.columnSortOrderIsDesc = columnSortOrderIsDesc;
+  }
+
+  /**
+   * Creates a deserializer from the table properties used to initialize a
+   * BinarySortableSerDe, or returns null if the columns cannot be deserialized
+   * directly into a batch.
+   */
+  public static VectorizedBinarySortableDeserializer create(Properties tbl) {
+    String columnTypeProperty = tbl.getProperty(serdeConstants.LIST_COLUMN_TYPES);
+    List<TypeInfo> columnTypes;
+    if (columnTypeProperty == null || columnTypeProperty.length() == 0) {
+      columnTypes = new ArrayList<TypeInfo>();
+    } else {
+      columnTypes = TypeInfoUtils.getTypeInfosFromTypeString(columnTypeProperty);
+    }
+    if (!isSupported(columnTypes)) {
+      return null;
+    }
+    String columnSortOrder = tbl.getProperty(serdeConstants.SERIALIZATION_SORT_ORDER);
+    boolean[] columnSortOrderIsDesc = new boolean[columnTypes.size()];
+    for (int i = 0; i < columnSortOrderIsDesc.length; i++) {
+      columnSortOrderIsDesc[i] = (columnSortOrder != null && columnSortOrder
+          .charAt(i) == '-');
+    }
+    return new VectorizedBinarySortableDeserializer(columnTypes, columnSortOrderIsDesc);
+  }
+
+  public static boolean isSupported(List<TypeInfo> columnTypes) {
+    for (TypeInfo typeInfo : columnTypes) {
+      if (typeInfo.getCategory() != Category.PRIMITIVE) {
+        return false;
+      }
+      switch (((PrimitiveTypeInfo) typeInfo).getPrimitiveCategory()) {
+      case BOOLEAN:
+      case BYTE:
+      case SHORT:
+      case INT:
+      case LONG:
+      case DATE:
+      case FLOAT:
+      case DOUBLE:
+      case STRING:
+        break;
+      default:
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Deserializes one row into the batch.
+   * @param bytes serialized row
+   * @param start offset of the row in bytes
+   * @param length length of the serialized row
+   * @param batch batch to fill
+   * @param colOffset index of the batch column that receives the first field
+   * @param rowIndex index of the row in the batch
+   */
+  public void deserialize(byte[] bytes, int start, int length, VectorizedRowBatch batch,
+      int colOffset, int rowIndex) throws HiveException {
+    inputByteBuffer.reset(bytes, start, start + length);
+    try {
+      for (int i = 0; i < categories.length; i++) {
+        deserializeField(batch.cols[colOffset + i], categories[i],
+            columnSortOrderIsDesc[i], rowIndex);
+      }
+    } catch (IOException e) {
+      throw new HiveException("Unable to deserialize binary sortable row", e);
+    }
+  }
+
+  private void deserializeField(ColumnVector cv, PrimitiveCategory category,
+      boolean invert, int rowIndex) throws IOException {
+    InputByteBuffer buffer = inputByteBuffer;
+    byte isNull = buffer.read(invert);
+    if (isNull == 0) {
+      if (category == PrimitiveCategory.FLOAT || category == PrimitiveCategory.DOUBLE) {
+        ((DoubleColumnVector) cv).vector[rowIndex] = Double.NaN;
+      } else if (category != PrimitiveCategory.STRING) {
+        ((LongColumnVector) cv).vector[rowIndex] = 1;
+      }
+      VectorizedBatchUtil.setNullColIsNullValue(cv, rowIndex);
+      return;
+    }
+    cv.isNull[rowIndex] = false;
+
+    switch (category) {
+    case BOOLEAN:
+      ((LongColumnVector) cv).vector[rowIndex] = (buffer.read(invert) == 2) ? 1 : 0;
+      break;
+    case BYTE:
+      ((LongColumnVector) cv).vector[rowIndex] = (byte) (buffer.read(invert) ^ 0x80);
+      break;
+    case SHORT: {
+      int v = buffer.read(invert) ^ 0x80;
+      v = (v << 8) + (buffer.read(invert) & 0xff);
+      ((LongColumnVector) cv).vector[rowIndex] = (short) v;
+      break;
+    }
+    case INT:
+    case DATE: {
+      int v = buffer.read(invert) ^ 0x80;
+      for (int i = 0; i < 3; i++) {
+        v = (v << 8) + (buffer.read(invert) & 0xff);
+      }
+      ((LongColumnVector) cv).vector[rowIndex] = v;
+      break;
+    }
+    case LONG: {
+      long v = buffer.read(invert) ^ 0x80;
+      for (int i = 0; i < 7; i++) {
+        v = (v << 8) + (buffer.read(invert) & 0xff);
+      }
+      ((LongColumnVector) cv).vector[rowIndex] = v;
+      break;
+    }
+    case FLOAT: {
+      int v = 0;
+      for (int i = 0; i < 4; i++) {
+        v = (v << 8) + (buffer.read(invert) & 0xff);
+      }
+      if ((v & (1 << 31)) == 0) {
+        // negative number, flip all bits
+        v = ~v;
+      } else {
+        // positive number, flip the first bit
+        v = v ^ (1 << 31);
+      }
+      ((DoubleColumnVector) cv).vector[rowIndex] = Float.intBitsToFloat(v);
+      break;
+    }
+    case DOUBLE: {
+      long v = 0;
+      for (int i = 0; i < 8; i++) {
+        v = (v << 8) + (buffer.read(invert) & 0xff);
+      }
+      if ((v & (1L << 63)) == 0) {
+        // negative number, flip all bits
+        v = ~v;
+      } else {
+        // positive number, flip the first bit
+        v = v ^ (1L << 63);
+      }
+      ((DoubleColumnVector) cv).vector[rowIndex] = Double.longBitsToDouble(v);
+      break;
+    }
+    case STRING:
+      deserializeString((BytesColumnVector) cv, invert, rowIndex);
+      break;
+    default:
+      throw new IOException("Unsupported type " + category);
+    }
+  }
+
+  /**
+   * Strings are NULL-terminated with \0 escaped as \1\1 and \1 escaped as \1\2.
+   * When the column is ascending and nothing was escaped the value is copied
+   * straight from the serialized bytes.
+   */
+  private void deserializeString(BytesColumnVector bcv, boolean invert, int rowIndex)
+      throws IOException {
+    InputByteBuffer buffer = inputByteBuffer;
+    int start = buffer.tell();
+    int length = 0;
+    do {
+      byte b = buffer.read(invert);
+      if (b == 0) {
+        // end of string
+        break;
+      }
+      if (b == 1) {
+        // the last char is an escape char. read the actual char
+        buffer.read(invert);
+      }
+      length++;
+    } while (true);
+
+    if (!invert && length == buffer.tell() - start - 1) {
+      // No escaping happened, copy the bytes as they are.
+      bcv.setVal(rowIndex, buffer.getData(), start, length);
+      return;
+    }
+
+    if (scratch.length < length) {
+      scratch = new byte[Math.max(length, scratch.length * 2)];
+    }
+    int end = buffer.tell();
+    buffer.seek(start);
+    for (int i = 0; i < length; i++) {
+      byte b = buffer.read(invert);
+      if (b == 1) {
+        // The last char is an escape char, read the actual char.
+        b = (byte) (buffer.read(invert) - 1);
+      }
+      scratch[i] = b;
+    }
+    buffer.seek(end);
+    bcv.setVal(rowIndex, scratch, 0, length);
+  }
+}
@@ -0,0 +1,243 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.hive.ql.exec.vector;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+import org.apache.hadoop.hive.ql.metadata.HiveException;
+import org.apache.hadoop.hive.serde.serdeConstants;
+import org.apache.hadoop.hive.serde2.ByteStream.Output;
+import org.apache.hadoop.hive.serde2.objectinspector.PrimitiveObjectInspector.PrimitiveCategory;
+import org.apache.hadoop.hive.serde2.typeinfo.PrimitiveTypeInfo;
+import org.apache.hadoop.hive.serde2.typeinfo.TypeInfo;
+import org.apache.hadoop.hive.serde2.typeinfo.TypeInfoUtils;
+
+/**
+ * Serializes rows of a VectorizedRowBatch in the BinarySortableSerDe format, reading
+ * the column vectors directly. The bytes are identical to what BinarySortableSerDe
+ * writes for the same values, so they can be used to probe tables keyed by
+ * BinarySortableSerDe-serialized keys. The same primitive types as
+ * {@link VectorizedBinarySortableDeserializer} are supported.
+ */
+public class VectorizedBinarySortableSerializer {
+
+  private final PrimitiveCategory[] categories;
+  private final boolean[] columnSortOrderIsDesc;
+  private final byte[] longScratch = new byte[9];
+
+  public VectorizedBinarySortableSerializer(List<TypeInfo> columnTypes,
+      boolean[] columnSortOrderIsDesc) {
+    this.categories = new PrimitiveCategory[columnTypes.size()];
+    for (int i = 0; i < categories.length; i++) {
+      categories[i] = ((PrimitiveTypeInfo) columnTypes.get(i)).getPrimitiveCategory();
+    }
+    this.columnSortOrderIsDesc = columnSortOrderIsDesc;
+  }
+
+  /**
+   * Creates a serializer from the table properties used to initialize a
+   * BinarySortableSerDe, or returns null if the columns cannot be serialized
+   * directly from a batch.
+   */
+  public static VectorizedBinarySortableSerializer create(Properties tbl) {
+    String columnTypeProperty = tbl.getProperty(serdeConstants.LIST_COLUMN_TYPES);
+    List<TypeInfo> columnTypes;
+    if (columnTypeProperty == null || columnTypeProperty.length() == 0) {
+      columnTypes = new ArrayList<TypeInfo>();
+    } else {
+      columnTypes = TypeInfoUtils.getTypeInfosFromTypeString(columnTypeProperty);
+    }
+    if (!VectorizedBinarySortableDeserializer.isSupported(columnTypes)) {
+      return null;
+    }
+    String columnSortOrder = tbl.getProperty(serdeConstants.SERIALIZATION_SORT_ORDER);
+    boolean[] columnSortOrderIsDesc = new boolean[columnTypes.size()];
+    for (int i = 0; i < columnSortOrderIsDesc.length; i++) {
+      columnSortOrderIsDesc[i] = (columnSortOrder != null && columnSortOrder
+          .charAt(i) == '-');
+    }
+    return new VectorizedBinarySortableSerializer(columnTypes, columnSortOrderIsDesc);
+  }
+
+  public PrimitiveCategory[] getColumnCategories() {
+    return categories;
+  }
+
+  public boolean[] getColumnSortOrderIsDesc() {
+    return columnSortOrderIsDesc;
+  }
+
+  /**
+   * Serializes one row of the batch.
+   * @param out output to append the row to
+   * @param batch batch to read from
+   * @param columns batch column of each serialized field
+   * @param rowIndex index of the row in the batch (not the selected position)
+   */
+  public void serialize(Output out, VectorizedRowBatch batch, int[] columns, int rowIndex)
+      throws HiveException {
+    for (int i = 0; i < categories.length; i++) {
+      ColumnVector cv = batch.cols[columns[i]];
+      int index = cv.isRepeating ? 0 : rowIndex;
+      boolean invert = columnSortOrderIsDesc[i];
+      if (!cv.noNulls && cv.isNull[index]) {
+        writeByte(out, (byte) 0, invert);
+        continue;
+      }
+      switch (categories[i]) {
+      case BOOLEAN:
+      case BYTE:
+      case SHORT:
+      case INT:
+      case LONG:
+      case DATE:
+        serializeLong(out, ((LongColumnVector) cv).vector[index], categories[i], invert);
+        break;
+      case FLOAT:
+      case DOUBLE:
+        serializeDouble(out, ((DoubleColumnVector) cv).vector[index], categories[i], invert);
+        break;
+      case STRING: {
+        BytesColumnVector bcv = (BytesColumnVector) cv;
+        serializeBytes(out, bcv.vector[index], bcv.start[index], bcv.length[index], invert);
+        break;
+      }
+      default:
+        throw new HiveException("Unsupported type " + categories[i]);
+      }
+    }
+  }
+
+  /**
+   * Writes a non-null integral value into a byte array, which is faster than going
+   * through an Output for fixed length keys.
+   * @return the number of bytes written, at most 9
+   */
+  public static int serializeLong(byte[] dest, int offset, long v,
+      PrimitiveCategory category, boolean invert) {
+    int start = offset;
+    dest[offset++] = (byte) 1;
+    switch (category) {
+    case BOOLEAN:
+      dest[offset++] = (byte) (v != 0 ? 2 : 1);
+      break;
+    case BYTE:
+      dest[offset++] = (byte) (v ^ 0x80);
+      break;
+    case SHORT:
+      dest[offset++] = (byte) ((v >> 8) ^ 0x80);
+      dest[offset++] = (byte) v;
+      break;
+    case INT:
+    case DATE:
+      dest[offset++] = (byte) ((v >> 24) ^ 0x80);
+      dest[offset++] = (byte) (v >> 16);
+      dest[offset++] = (byte) (v >> 8);
+      dest[offset++] = (byte) v;
+      break;
+    default:
+      dest[offset++] = (byte) ((v >> 56) ^ 0x80);
+      dest[offset++] = (byte) (v >> 48);
+      dest[offset++] = (byte) (v >> 40);
+      dest[offset++] = (byte) (v >> 32);
+      dest[offset++] = (byte) (v >> 24);
+      dest[offset++] = (byte) (v >> 16);
+      dest[offset++] = (byte) (v >> 8);
+      dest[offset++] = (byte) v;
+      break;
+    }
+    if (invert) {
+      for (int i = start; i < offset; i++) {
+        dest[i] = (byte) (0xff ^ dest[i]);
+      }
+    }
+    return offset - start;
+  }
+
+  private void serializeLong(Output out, long v, PrimitiveCategory category, boolean invert) {
+    int length = serializeLong(longScratch, 0, v, category, invert);
+    out.write(longScratch, 0, length);
+  }
+
+  /**
+   * Writes a non-null floating point value to the output.
+   */
+  public static void serializeDouble(Output out, double d, PrimitiveCategory category,
+      boolean invert) {
+    writeByte(out, (byte) 1, invert);
+    if (category == PrimitiveCategory.FLOAT) {
+      int v = Float.floatToIntBits((float) d);
+      if ((v & (1 << 31)) != 0) {
+        // negative number, flip all bits
+        v = ~v;
+      } else {
+        // positive number, flip the first bit
+        v = v ^ (1 << 31);
+      }
+      writeByte(out, (byte) (v >> 24), invert);
+      writeByte(out, (byte) (v >> 16), invert);
+      writeByte(out, (byte) (v >> 8), invert);
+      writeByte(out, (byte) v, invert);
+    } else {
+      long v = Double.doubleToLongBits(d);
+      if ((v & (1L << 63)) != 0) {
+        // negative number, flip all bits
+        v = ~v;
+      } else {
+        // positive number, flip the first bit
+        v = v ^ (1L << 63);
+      }
+      writeByte(out, (byte) (v >> 56), invert);
+      writeByte(out, (byte) (v >> 48), invert);
+      writeByte(out, (byte) (v >> 40), invert);
+      writeByte(out, (byte) (v >> 32), invert);
+      writeByte(out, (byte) (v >> 24), invert);
+      writeByte(out, (byte) (v >> 16), invert);
+      writeByte(out, (byte) (v >> 8), invert);
+      writeByte(out, (byte) v, invert);
+    }
+  }
+
+  /**
+   * Writes a non-null string value to the output, escaping \0 and \1.
+   */
+  public static void serializeBytes(Output out, byte[] data, int start, int length,
+      boolean invert) {
+    writeByte(out, (byte) 1, invert);
+    int end = start + length;
+    for (int i = start; i < end; i++) {
+      if (data[i] == 0 || data[i] == 1) {
+        writeByte(out, (byte) 1, invert);
+        writeByte(out, (byte) (data[i] + 1), invert);
+      } else {
+        writeByte(out, data[i], invert);
+      }
+    }
+    writeByte(out, (byte) 0, invert);
+  }
+
+  private static void writeByte(Output out, byte b, boolean invert) {
+    if (invert) {
+      b = (byte) (0xff ^ b);
+    }
+    out.write(b);
+  }
+}
@@ -0,0 +1,154 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.hive.ql.exec.vector;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+import org.apache.hadoop.hive.ql.metadata.HiveException;
+import org.apache.hadoop.hive.serde.serdeConstants;
+import org.apache.hadoop.hive.serde2.lazybinary.LazyBinaryUtils;
+import org.apache.hadoop.hive.serde2.objectinspector.PrimitiveObjectInspector.PrimitiveCategory;
+import org.apache.hadoop.hive.serde2.typeinfo.PrimitiveTypeInfo;
+import org.apache.hadoop.hive.serde2.typeinfo.TypeInfo;
+import org.apache.hadoop.hive.serde2.typeinfo.TypeInfoUtils;
+
+/**
+ * Deserializes rows written by LazyBinarySerDe directly into the column vectors
+ * of a VectorizedRowBatch. The same primitive types as
+ * {@link VectorizedBinarySortableDeserializer} are supported.
+ */
+public class VectorizedLazyBinaryDeserializer {
+
+  private final PrimitiveCategory[] categories;
+  private final LazyBinaryUtils.VInt vInt = new LazyBinaryUtils.VInt();
+  private final LazyBinaryUtils.VLong vLong = new LazyBinaryUtils.VLong();
+
+  public VectorizedLazyBinaryDeserializer(List<TypeInfo> columnTypes) {
+    this.categories = new PrimitiveCategory[columnTypes.size()];
+    for (int i = 0; i < categories.length; i++) {
+      categories[i] = ((PrimitiveTypeInfo) columnTypes.get(i)).getPrimitiveCategory();
+    }
+  }
+
+  /**
+   * Creates a deserializer from the table properties used to initialize a
+   * LazyBinarySerDe, or returns null if the columns cannot be deserialized
+   * directly into a batch.
+   */
+  public static VectorizedLazyBinaryDeserializer create(Properties tbl) {
+    String columnTypeProperty = tbl.getProperty(serdeConstants.LIST_COLUMN_TYPES);
+    List<TypeInfo> columnTypes;
+    if (columnTypeProperty == null || columnTypeProperty.length() == 0) {
+      columnTypes = new ArrayList<TypeInfo>();
+    } else {
+      columnTypes = TypeInfoUtils.getTypeInfosFromTypeString(columnTypeProperty);
+    }
+    if (!VectorizedBinarySortableDeserializer.isSupported(columnTypes)) {
+      return null;
+    }
+    return new VectorizedLazyBinaryDeserializer(columnTypes);
+  }
+
+  public int getFieldCount() {
+    return categories.length;
+  }
+
+  /**
+   * Deserializes one row into the batch.
+   * @param bytes serialized row
+   * @param start offset of the row in bytes
+   * @param length length of the serialized row
+   * @param batch batch to fill
+   * @param colOffset index of the batch column that receives the first field
+   * @param rowIndex index of the row in the batch
+   */
+  public void deserialize(byte[] bytes, int start, int length, VectorizedRowBatch batch,
+      int colOffset, int rowIndex) throws HiveException {
+    final int end = start + length;
+    int offset = start;
+    byte nullByte = 0;
+    for (int i = 0; i < categories.length; i++) {
+      ColumnVector cv = batch.cols[colOffset + i];
+      // a null byte precedes every group of eight fields; missing trailing
+      // fields are treated as nulls, as LazyBinaryStruct does
+      if (i % 8 == 0) {
+        nullByte = offset < end ? bytes[offset++] : 0;
+      }
+      if ((nullByte & (1 << (i % 8))) == 0 || offset >= end) {
+        setNull(cv, categories[i], rowIndex);
+        continue;
+      }
+      cv.isNull[rowIndex] = false;
+
+      switch (categories[i]) {
+      case BOOLEAN:
+        ((LongColumnVector) cv).vector[rowIndex] = bytes[offset++] == 0 ? 0 : 1;
+        break;
+      case BYTE:
+        ((LongColumnVector) cv).vector[rowIndex] = bytes[offset++];
+        break;
+      case SHORT:
+        ((LongColumnVector) cv).vector[rowIndex] =
+            LazyBinaryUtils.byteArrayToShort(bytes, offset);
+        offset += 2;
+        break;
+      case INT:
+      case DATE:
+        LazyBinaryUtils.readVInt(bytes, offset, vInt);
+        ((LongColumnVector) cv).vector[rowIndex] = vInt.value;
+        offset += vInt.length;
+        break;
+      case LONG:
+        LazyBinaryUtils.readVLong(bytes, offset, vLong);
+        ((LongColumnVector) cv).vector[rowIndex] = vLong.value;
+        offset += vLong.length;
+        break;
+      case FLOAT:
+        ((DoubleColumnVector) cv).vector[rowIndex] =
+            Float.intBitsToFloat(LazyBinaryUtils.byteArrayToInt(bytes, offset));
+        offset += 4;
+        break;
+      case DOUBLE:
+        ((DoubleColumnVector) cv).vector[rowIndex] =
+            Double.longBitsToDouble(LazyBinaryUtils.byteArrayToLong(bytes, offset));
+        offset += 8;
+        break;
+      case STRING:
+        LazyBinaryUtils.readVInt(bytes, offset, vInt);
+        offset += vInt.length;
+        ((BytesColumnVector) cv).setVal(rowIndex, bytes, offset, vInt.value);
+        offset += vInt.value;
+        break;
+      default:
+        throw new HiveException("Unsupported type " + categories[i]);
+      }
+    }
+  }
+
+  private static void setNull(ColumnVector cv, PrimitiveCategory category, int rowIndex) {
+    if (category == PrimitiveCategory.FLOAT || category == PrimitiveCategory.DOUBLE) {
+      ((DoubleColumnVector) cv).vector[rowIndex] = Double.NaN;
+    } else if (category != PrimitiveCategory.STRING) {
+      ((LongColumnVector) cv).vector[rowIndex] = 1;
+    }
+    VectorizedBatchUtil.setNullColIsNullValue(cv, rowIndex);
+  }
+}
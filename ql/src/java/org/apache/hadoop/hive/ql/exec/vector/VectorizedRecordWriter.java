@@ -0,0 +1,42 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.hive.ql.exec.vector;
+
+import java.io.IOException;
+
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+
+/**
+ * Record writers that can write a {@link VectorizedRowBatch} without turning
+ * it into rows implement this interface, so that the vectorized file sink
+ * can hand them whole batches.
+ */
+public interface VectorizedRecordWriter {
+
+  /**
+   * Write the selected rows of the batch. The projected columns of the batch
+   * are the fields of the rows.
+   * @param batch the rows to write
+   * @param inspector the inspector of the rows, as the serde would have
+   *                  serialized them
+   * @throws IOException
+   */
+  void writeBatch(VectorizedRowBatch batch, ObjectInspector inspector)
+      throws IOException;
+}
@@ -118,6 +118,20 @@ public VectorizedRowBatchCtx(StructObjectInspector rawRowOI, StructObjectInspect
   public VectorizedRowBatchCtx() {
 
   }
+
+  /**
+   * @return the object inspector of the row data, without the partition columns
+   */
+  public StructObjectInspector getRawRowOI() {
+    return rawRowOI;
+  }
+
+  /**
+   * @return the deserializer of the partition, once initialized from a split
+   */
+  public Deserializer getDeserializer() {
+    return deserializer;
+  }
   
   /**
    * Initializes the VectorizedRowBatch context based on an arbitrary object inspector
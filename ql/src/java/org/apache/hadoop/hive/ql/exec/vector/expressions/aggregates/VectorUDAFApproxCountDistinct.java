@@ -0,0 +1,279 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.hive.ql.exec.vector.expressions.aggregates;
+
+import java.util.List;
+
+import org.apache.hadoop.hive.ql.exec.Description;
+import org.apache.hadoop.hive.ql.exec.vector.BytesColumnVector;
+import org.apache.hadoop.hive.ql.exec.vector.ColumnVector;
+import org.apache.hadoop.hive.ql.exec.vector.DoubleColumnVector;
+import org.apache.hadoop.hive.ql.exec.vector.LongColumnVector;
+import org.apache.hadoop.hive.ql.exec.vector.VectorAggregationBufferRow;
+import org.apache.hadoop.hive.ql.exec.vector.VectorizedRowBatch;
+import org.apache.hadoop.hive.ql.exec.vector.expressions.VectorExpression;
+import org.apache.hadoop.hive.ql.metadata.HiveException;
+import org.apache.hadoop.hive.ql.plan.AggregationDesc;
+import org.apache.hadoop.hive.ql.plan.ExprNodeConstantDesc;
+import org.apache.hadoop.hive.ql.plan.ExprNodeDesc;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDAFEvaluator;
+import org.apache.hadoop.hive.ql.udf.generic.HyperLogLog;
+import org.apache.hadoop.hive.ql.util.JavaDataModel;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
+import org.apache.hadoop.io.BytesWritable;
+import org.apache.hadoop.io.LongWritable;
+
+/**
+ * VectorUDAFApproxCountDistinct. Vectorized implementation of the
+ * approx_count_distinct aggregate for long, double and string columns. The
+ * values are hashed as in GenericUDAFApproxCountDistinct, so the serialized
+ * partial sketches are merged by the row mode evaluator on the reduce side.
+ */
+@Description(name = "approx_count_distinct",
+    value = "_FUNC_(expr[, p]) - Returns an estimate of the number of distinct values (vectorized)")
+public class VectorUDAFApproxCountDistinct extends VectorAggregateExpression {
+
+  private static final long serialVersionUID = 1L;
+
+    /**
+     * class for storing the current aggregate value.
+     */
+    static class Aggregation implements AggregationBuffer {
+
+      private static final long serialVersionUID = 1L;
+
+      transient private HyperLogLog sketch;
+
+      @Override
+      public int getVariableSize() {
+        if (sketch == null) {
+          return 0;
+        }
+        return JavaDataModel.get().lengthForByteArrayOfSize(sketch.getNumRegisters());
+      }
+
+      @Override
+      public void reset() {
+        if (sketch != null) {
+          sketch.reset();
+        }
+      }
+    }
+
+    private VectorExpression inputExpression = null;
+    private int precision = HyperLogLog.DEFAULT_PRECISION;
+    private boolean isPartial;
+    transient private BytesWritable partialResult;
+    transient private LongWritable result;
+
+    public VectorUDAFApproxCountDistinct(VectorExpression inputExpression) {
+      this();
+      this.inputExpression = inputExpression;
+    }
+
+    public VectorUDAFApproxCountDistinct() {
+      super();
+      partialResult = new BytesWritable();
+      result = new LongWritable(0);
+    }
+
+    private HyperLogLog getSketch(Aggregation myagg) {
+      if (myagg.sketch == null) {
+        myagg.sketch = new HyperLogLog(precision);
+      }
+      return myagg.sketch;
+    }
+
+    private HyperLogLog getCurrentSketch(
+        VectorAggregationBufferRow[] aggregationBufferSets,
+        int aggregateIndex,
+        int row) {
+      VectorAggregationBufferRow mySet = aggregationBufferSets[row];
+      return getSketch((Aggregation) mySet.getAggregationBuffer(aggregateIndex));
+    }
+
+    @Override
+    public void aggregateInputSelection(
+      VectorAggregationBufferRow[] aggregationBufferSets,
+      int aggregateIndex,
+      VectorizedRowBatch batch) throws HiveException {
+
+      int batchSize = batch.size;
+
+      if (batchSize == 0) {
+        return;
+      }
+
+      inputExpression.evaluate(batch);
+
+      ColumnVector inputVector = batch.cols[this.inputExpression.getOutputColumn()];
+      int[] selected = batch.selectedInUse ? batch.selected : null;
+
+      // The aggregation buffer of the j-th selected row is aggregationBufferSets[j].
+      if (inputVector instanceof LongColumnVector) {
+        long[] vector = ((LongColumnVector) inputVector).vector;
+        for (int j = 0; j < batchSize; ++j) {
+          int i = getRow(inputVector, selected, j);
+          if (i >= 0) {
+            getCurrentSketch(aggregationBufferSets, aggregateIndex, j).addLong(vector[i]);
+          }
+        }
+      } else if (inputVector instanceof DoubleColumnVector) {
+        double[] vector = ((DoubleColumnVector) inputVector).vector;
+        for (int j = 0; j < batchSize; ++j) {
+          int i = getRow(inputVector, selected, j);
+          if (i >= 0) {
+            getCurrentSketch(aggregationBufferSets, aggregateIndex, j).addDouble(vector[i]);
+          }
+        }
+      } else {
+        BytesColumnVector bytesVector = (BytesColumnVector) inputVector;
+        for (int j = 0; j < batchSize; ++j) {
+          int i = getRow(inputVector, selected, j);
+          if (i >= 0) {
+            getCurrentSketch(aggregationBufferSets, aggregateIndex, j).addBytes(
+                bytesVector.vector[i], bytesVector.start[i], bytesVector.length[i]);
+          }
+        }
+      }
+    }
+
+    /**
+     * Returns the index of the value of the j-th selected row, or -1 if the
+     * value is null.
+     */
+    private static int getRow(ColumnVector inputVector, int[] selected, int j) {
+      int i = inputVector.isRepeating ? 0 : (selected != null ? selected[j] : j);
+      return inputVector.noNulls || !inputVector.isNull[i] ? i : -1;
+    }
+
+    @Override
+    public void aggregateInput(AggregationBuffer agg, VectorizedRowBatch batch)
+    throws HiveException {
+
+      inputExpression.evaluate(batch);
+
+      ColumnVector inputVector = batch.cols[this.inputExpression.getOutputColumn()];
+
+      int batchSize = batch.size;
+
+      if (batchSize == 0) {
+        return;
+      }
+
+      HyperLogLog sketch = getSketch((Aggregation) agg);
+
+      // A repeated value only has to be added once.
+      if (inputVector.isRepeating) {
+        batchSize = 1;
+      }
+      int[] selected = batch.selectedInUse ? batch.selected : null;
+
+      if (inputVector instanceof LongColumnVector) {
+        long[] vector = ((LongColumnVector) inputVector).vector;
+        for (int j = 0; j < batchSize; ++j) {
+          int i = getRow(inputVector, selected, j);
+          if (i >= 0) {
+            sketch.addLong(vector[i]);
+          }
+        }
+      } else if (inputVector instanceof DoubleColumnVector) {
+        double[] vector = ((DoubleColumnVector) inputVector).vector;
+        for (int j = 0; j < batchSize; ++j) {
+          int i = getRow(inputVector, selected, j);
+          if (i >= 0) {
+            sketch.addDouble(vector[i]);
+          }
+        }
+      } else {
+        BytesColumnVector bytesVector = (BytesColumnVector) inputVector;
+        for (int j = 0; j < batchSize; ++j) {
+          int i = getRow(inputVector, selected, j);
+          if (i >= 0) {
+            sketch.addBytes(bytesVector.vector[i], bytesVector.start[i], bytesVector.length[i]);
+          }
+        }
+      }
+    }
+
+    @Override
+    public AggregationBuffer getNewAggregationBuffer() throws HiveException {
+      return new Aggregation();
+    }
+
+    @Override
+    public void reset(AggregationBuffer agg) throws HiveException {
+      Aggregation myAgg = (Aggregation) agg;
+      myAgg.reset();
+    }
+
+    @Override
+    public Object evaluateOutput(AggregationBuffer agg) throws HiveException {
+      Aggregation myagg = (Aggregation) agg;
+      if (isPartial) {
+        if (myagg.sketch == null) {
+          return null;
+        }
+        myagg.sketch.serialize(partialResult);
+        return partialResult;
+      }
+      result.set(myagg.sketch == null ? 0 : myagg.sketch.count());
+      return result;
+    }
+
+    @Override
+    public ObjectInspector getOutputObjectInspector() {
+      return isPartial ? PrimitiveObjectInspectorFactory.writableBinaryObjectInspector
+          : PrimitiveObjectInspectorFactory.writableLongObjectInspector;
+    }
+
+    @Override
+    public int getAggregationBufferFixedSize() {
+      JavaDataModel model = JavaDataModel.get();
+      return JavaDataModel.alignUp(
+        model.object() * 2 +
+        model.ref() +
+        model.primitive1(),
+        model.memoryAlign());
+    }
+
+    @Override
+    public boolean hasVariableSize() {
+      return true;
+    }
+
+    @Override
+    public void init(AggregationDesc desc) throws HiveException {
+      List<ExprNodeDesc> parameters = desc.getParameters();
+      if (parameters.size() > 1) {
+        precision = ((Number) ((ExprNodeConstantDesc) parameters.get(1)).getValue()).intValue();
+      }
+      isPartial = desc.getMode() == GenericUDAFEvaluator.Mode.PARTIAL1 ||
+          desc.getMode() == GenericUDAFEvaluator.Mode.PARTIAL2;
+    }
+
+    public VectorExpression getInputExpression() {
+      return inputExpression;
+    }
+
+    public void setInputExpression(VectorExpression inputExpression) {
+      this.inputExpression = inputExpression;
+    }
+}
@@ -0,0 +1,340 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.hive.ql.exec.vector.mapjoin;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hive.ql.exec.persistence.HybridHashTableContainer;
+import org.apache.hadoop.hive.ql.exec.persistence.MapJoinTableContainer;
+import org.apache.hadoop.hive.ql.exec.persistence.MapJoinTableContainerDirectAccess;
+import org.apache.hadoop.hive.ql.exec.vector.ColumnVector;
+import org.apache.hadoop.hive.ql.exec.vector.VectorMapJoinOperator;
+import org.apache.hadoop.hive.ql.exec.vector.VectorizationContext;
+import org.apache.hadoop.hive.ql.exec.vector.VectorizedBinarySortableSerializer;
+import org.apache.hadoop.hive.ql.exec.vector.VectorizedLazyBinaryDeserializer;
+import org.apache.hadoop.hive.ql.exec.vector.VectorizedRowBatch;
+import org.apache.hadoop.hive.ql.exec.vector.expressions.VectorExpression;
+import org.apache.hadoop.hive.ql.metadata.HiveException;
+import org.apache.hadoop.hive.ql.plan.JoinCondDesc;
+import org.apache.hadoop.hive.ql.plan.JoinDesc;
+import org.apache.hadoop.hive.ql.plan.MapJoinDesc;
+import org.apache.hadoop.hive.ql.plan.OperatorDesc;
+import org.apache.hadoop.hive.ql.plan.TableDesc;
+import org.apache.hadoop.hive.serde2.SerDeException;
+import org.apache.hadoop.hive.serde2.WriteBuffers;
+
+/**
+ * Base class of the native vectorized map join operators. Unlike
+ * {@link VectorMapJoinOperator}, which hands every row of the batch to the row-mode
+ * join, these operators serialize the big table keys straight from the column vectors,
+ * probe the small table hash table with the serialized bytes and deserialize the
+ * matching small table values directly into the output batch. No row objects are
+ * created.
+ *
+ * Only two-way joins with a single small table are handled; the Vectorizer makes sure
+ * of that. The key type specific subclasses implement the probe loop. When the small
+ * table was not loaded into a container that can be probed directly (e.g. the optimized
+ * hash table is disabled) the operator falls back to the row-mode implementation of
+ * {@link VectorMapJoinOperator}.
+ */
+public abstract class VectorMapJoinCommonOperator extends VectorMapJoinOperator {
+
+  private static final long serialVersionUID = 1L;
+
+  private static final Log LOG = LogFactory.getLog(
+      VectorMapJoinCommonOperator.class.getName());
+
+  /**
+   * How big table rows are matched against the small table.
+   */
+  public static enum JoinVariation {
+    // Output a row for every matching small table row.
+    INNER,
+    // Like INNER, but big table rows without a match are output with null small table columns.
+    OUTER,
+    // Output each big table row with at least one match once, without small table columns.
+    LEFT_SEMI
+  }
+
+  protected JoinVariation variation;
+  protected byte posSingleSmallTable;
+
+  // Big table batch columns holding the join key and the value expression results
+  protected int[] bigTableKeyColumns;
+  private int[] bigTableValueColumns;
+
+  // Output batch column of the first big table value, and of the first small table value
+  private int bigTableOutputOffset;
+  private int smallTableOutputOffset;
+  private int smallTableValueCount;
+
+  protected transient VectorizedBinarySortableSerializer keySerializer;
+  private transient VectorizedLazyBinaryDeserializer smallTableValueDeserializer;
+  protected transient MapJoinTableContainerDirectAccess hashTable;
+  private transient boolean loggedRowMode;
+
+  // Reused for every probe
+  protected transient List<WriteBuffers.ByteSegmentRef> matches;
+
+  public VectorMapJoinCommonOperator() {
+    super();
+  }
+
+  public VectorMapJoinCommonOperator(VectorizationContext vContext, OperatorDesc conf)
+      throws HiveException {
+    super(vContext, conf);
+
+    MapJoinDesc desc = (MapJoinDesc) conf;
+    byte posBigTable = (byte) desc.getPosBigTable();
+    posSingleSmallTable = (byte) (posBigTable == 0 ? 1 : 0);
+
+    JoinCondDesc cond = desc.getConds()[0];
+    switch (cond.getType()) {
+    case JoinDesc.INNER_JOIN:
+      variation = JoinVariation.INNER;
+      break;
+    case JoinDesc.LEFT_SEMI_JOIN:
+      variation = JoinVariation.LEFT_SEMI;
+      break;
+    case JoinDesc.LEFT_OUTER_JOIN:
+    case JoinDesc.RIGHT_OUTER_JOIN:
+      // The Vectorizer only allows outer joins which preserve the big table.
+      variation = JoinVariation.OUTER;
+      break;
+    default:
+      throw new HiveException("Join type " + cond.getType()
+          + " is not supported by the native vectorized map join");
+    }
+
+    bigTableKeyColumns = new int[keyExpressions.length];
+    for (int i = 0; i < keyExpressions.length; i++) {
+      bigTableKeyColumns[i] = keyExpressions[i].getOutputColumn();
+    }
+    bigTableValueColumns = new int[bigTableValueExpressions.length];
+    for (int i = 0; i < bigTableValueExpressions.length; i++) {
+      bigTableValueColumns[i] = bigTableValueExpressions[i].getOutputColumn();
+    }
+
+    // The output row holds the values of every input, in tag order.
+    int outputColumn = 0;
+    for (Byte pos : desc.getTagOrder()) {
+      int valueCount = desc.getExprs().get(pos).size();
+      if (pos.byteValue() == posBigTable) {
+        bigTableOutputOffset = outputColumn;
+      } else {
+        smallTableOutputOffset = outputColumn;
+        smallTableValueCount = valueCount;
+      }
+      outputColumn += valueCount;
+    }
+  }
+
+  @Override
+  public void initializeOp(Configuration hconf) throws HiveException {
+    super.initializeOp(hconf);
+
+    keySerializer = VectorizedBinarySortableSerializer.create(
+        conf.getKeyTblDesc().getProperties());
+    if (keySerializer == null) {
+      throw new HiveException("Unsupported map join key types "
+          + conf.getKeyTblDesc().getProperties());
+    }
+
+    if (smallTableValueCount > 0) {
+      TableDesc valueTableDesc = conf.getNoOuterJoin()
+          ? conf.getValueTblDescs().get(posSingleSmallTable)
+          : conf.getValueFilteredTblDescs().get(posSingleSmallTable);
+      smallTableValueDeserializer =
+          VectorizedLazyBinaryDeserializer.create(valueTableDesc.getProperties());
+      if (smallTableValueDeserializer == null
+          || smallTableValueDeserializer.getFieldCount() != smallTableValueCount) {
+        throw new HiveException("Unsupported map join small table values "
+            + valueTableDesc.getProperties());
+      }
+    }
+
+    matches = new ArrayList<WriteBuffers.ByteSegmentRef>();
+    initOutputColumns();
+  }
+
+  @Override
+  public void processOp(Object row, int tag) throws HiveException {
+    try {
+      loadHashTableOnFirstRow();
+    } catch (SerDeException e) {
+      throw new HiveException(e);
+    }
+
+    // The tables are reloaded when the input file changes, so check every time.
+    MapJoinTableContainer smallTable = mapJoinTables[posSingleSmallTable];
+    // Rows probing the spilled partitions of a hybrid grace hash join are spilled and joined
+    // at close time, which only the row mode map join does.
+    if (!(smallTable instanceof MapJoinTableContainerDirectAccess)
+        || (smallTable instanceof HybridHashTableContainer
+            && ((HybridHashTableContainer) smallTable).hasSpilledPartitions())) {
+      if (!loggedRowMode) {
+        loggedRowMode = true;
+        LOG.info("Small table container " + smallTable.getClass().getName()
+            + " cannot be probed directly, using row mode map join");
+      }
+      super.processOp(row, tag);
+      return;
+    }
+    hashTable = (MapJoinTableContainerDirectAccess) smallTable;
+
+    VectorizedRowBatch inBatch = (VectorizedRowBatch) row;
+
+    if (null != bigTableFilterExpressions) {
+      for (VectorExpression ve : bigTableFilterExpressions) {
+        ve.evaluate(inBatch);
+      }
+    }
+
+    if (null != bigTableValueExpressions) {
+      for (VectorExpression ve : bigTableValueExpressions) {
+        ve.evaluate(inBatch);
+      }
+    }
+
+    for (VectorExpression ve : keyExpressions) {
+      ve.evaluate(inBatch);
+    }
+
+    if (inBatch.size > 0) {
+      processBatch(inBatch);
+    }
+  }
+
+  /**
+   * Probes the hash table for every selected row of the batch and calls
+   * {@link #generateRows(VectorizedRowBatch, int, List)} with the result.
+   */
+  protected abstract void processBatch(VectorizedRowBatch batch) throws HiveException;
+
+  /**
+   * Looks up a key serialized with {@link #keySerializer}'s format.
+   * @return the small table rows of the key, empty if none
+   */
+  protected List<WriteBuffers.ByteSegmentRef> lookup(byte[] key, int length) {
+    hashTable.getValueRefs(key, length, matches);
+    return matches;
+  }
+
+  /**
+   * Adds the join results of one big table row to the output batch.
+   * @param batch big table batch
+   * @param batchIndex index of the row in the big table batch
+   * @param smallTableRows matching small table rows; null or empty if there are none
+   *     (or the key has nulls)
+   */
+  protected void generateRows(VectorizedRowBatch batch, int batchIndex,
+      List<WriteBuffers.ByteSegmentRef> smallTableRows) throws HiveException {
+    boolean isMatch = smallTableRows != null && !smallTableRows.isEmpty();
+    if (!isMatch && pruneBigTableSplits && variation != JoinVariation.OUTER) {
+      skipBigTableSplit();
+    }
+    switch (variation) {
+    case OUTER:
+      if (!isMatch) {
+        copyBigTableRow(batch, batchIndex);
+        setSmallTableNulls();
+        commitOutputRow();
+        break;
+      }
+      // fall through
+    case INNER:
+      if (isMatch) {
+        for (int i = 0; i < smallTableRows.size(); i++) {
+          copyBigTableRow(batch, batchIndex);
+          copySmallTableRow(smallTableRows.get(i));
+          commitOutputRow();
+        }
+      }
+      break;
+    case LEFT_SEMI:
+      if (isMatch) {
+        copyBigTableRow(batch, batchIndex);
+        commitOutputRow();
+      }
+      break;
+    }
+  }
+
+  private void copyBigTableRow(VectorizedRowBatch batch, int batchIndex) {
+    int outputIndex = outputBatch.size;
+    for (int i = 0; i < bigTableValueColumns.length; i++) {
+      ColumnVector in = batch.cols[bigTableValueColumns[i]];
+      ColumnVector out = outputBatch.cols[bigTableOutputOffset + i];
+      int inputIndex = in.isRepeating ? 0 : batchIndex;
+      if (!in.noNulls && in.isNull[inputIndex]) {
+        out.noNulls = false;
+        out.isNull[outputIndex] = true;
+      } else {
+        out.isNull[outputIndex] = false;
+        out.setElement(outputIndex, inputIndex, in);
+      }
+    }
+  }
+
+  private void copySmallTableRow(WriteBuffers.ByteSegmentRef ref) throws HiveException {
+    if (smallTableValueCount == 0) {
+      return;
+    }
+    if (ref.getBytes() == null) {
+      hashTable.populateValue(ref);
+    }
+    smallTableValueDeserializer.deserialize(ref.getBytes(), (int) ref.getOffset(),
+        ref.getLength(), outputBatch, smallTableOutputOffset, outputBatch.size);
+  }
+
+  private void setSmallTableNulls() {
+    int outputIndex = outputBatch.size;
+    for (int i = 0; i < smallTableValueCount; i++) {
+      ColumnVector out = outputBatch.cols[smallTableOutputOffset + i];
+      out.noNulls = false;
+      out.isNull[outputIndex] = true;
+    }
+  }
+
+  private void commitOutputRow() throws HiveException {
+    ++outputBatch.size;
+    if (outputBatch.size == VectorizedRowBatch.DEFAULT_SIZE) {
+      flushOutput();
+    }
+  }
+
+  @Override
+  protected void flushOutput() throws HiveException {
+    super.flushOutput();
+    initOutputColumns();
+  }
+
+  private void initOutputColumns() {
+    // Resets the string column buffers, the values are copied into the output batch.
+    for (ColumnVector cv : outputBatch.cols) {
+      if (cv != null) {
+        cv.init();
+      }
+    }
+  }
+}
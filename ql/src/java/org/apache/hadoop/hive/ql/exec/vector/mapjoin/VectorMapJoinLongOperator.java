@@ -0,0 +1,114 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.hive.ql.exec.vector.mapjoin;
+
+import java.util.List;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hive.ql.exec.vector.LongColumnVector;
+import org.apache.hadoop.hive.ql.exec.vector.VectorizationContext;
+import org.apache.hadoop.hive.ql.exec.vector.VectorizedBinarySortableSerializer;
+import org.apache.hadoop.hive.ql.exec.vector.VectorizedRowBatch;
+import org.apache.hadoop.hive.ql.metadata.HiveException;
+import org.apache.hadoop.hive.ql.plan.OperatorDesc;
+import org.apache.hadoop.hive.serde2.WriteBuffers;
+import org.apache.hadoop.hive.serde2.objectinspector.PrimitiveObjectInspector.PrimitiveCategory;
+
+/**
+ * Native vectorized map join on a single integral key (boolean, tinyint, smallint, int,
+ * bigint or date), read straight from a LongColumnVector. If the small table stores its
+ * keys as longs the key is probed as is, otherwise it is serialized first.
+ */
+public class VectorMapJoinLongOperator extends VectorMapJoinCommonOperator {
+
+  private static final long serialVersionUID = 1L;
+
+  private transient int keyColumn;
+  private transient PrimitiveCategory keyCategory;
+  private transient boolean keyIsDesc;
+  private transient byte[] keyBytes;
+
+  public VectorMapJoinLongOperator() {
+    super();
+  }
+
+  public VectorMapJoinLongOperator(VectorizationContext vContext, OperatorDesc conf)
+      throws HiveException {
+    super(vContext, conf);
+  }
+
+  @Override
+  public void initializeOp(Configuration hconf) throws HiveException {
+    super.initializeOp(hconf);
+    keyColumn = bigTableKeyColumns[0];
+    keyCategory = keySerializer.getColumnCategories()[0];
+    keyIsDesc = keySerializer.getColumnSortOrderIsDesc()[0];
+    keyBytes = new byte[9];
+  }
+
+  @Override
+  protected void processBatch(VectorizedRowBatch batch) throws HiveException {
+    LongColumnVector keyVector = (LongColumnVector) batch.cols[keyColumn];
+    long[] vector = keyVector.vector;
+    int[] selected = batch.selected;
+    boolean selectedInUse = batch.selectedInUse;
+
+    if (keyVector.isRepeating) {
+      // One probe serves the whole batch.
+      List<WriteBuffers.ByteSegmentRef> smallTableRows = null;
+      if (keyVector.noNulls || !keyVector.isNull[0]) {
+        smallTableRows = lookup(vector[0]);
+      }
+      for (int j = 0; j < batch.size; j++) {
+        generateRows(batch, selectedInUse ? selected[j] : j, smallTableRows);
+      }
+      return;
+    }
+
+    // Runs of equal keys are common in data sorted or clustered on the join key,
+    // so only probe again when the key changes.
+    boolean haveLastKey = false;
+    long lastKey = 0;
+    List<WriteBuffers.ByteSegmentRef> smallTableRows = null;
+    for (int j = 0; j < batch.size; j++) {
+      int i = selectedInUse ? selected[j] : j;
+      if (!keyVector.noNulls && keyVector.isNull[i]) {
+        generateRows(batch, i, null);
+        continue;
+      }
+      if (!haveLastKey || vector[i] != lastKey) {
+        smallTableRows = lookup(vector[i]);
+        lastKey = vector[i];
+        haveLastKey = true;
+      }
+      generateRows(batch, i, smallTableRows);
+    }
+  }
+
+  private List<WriteBuffers.ByteSegmentRef> lookup(long key) {
+    if (hashTable.hasLongKeys()) {
+      // The small table keys are stored as longs; no need to serialize.
+      hashTable.getValueRefs(key, matches);
+      return matches;
+    }
+    int length = VectorizedBinarySortableSerializer.serializeLong(
+        keyBytes, 0, key, keyCategory, keyIsDesc);
+    return lookup(keyBytes, length);
+  }
+}
@@ -0,0 +1,81 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.hive.ql.exec.vector.mapjoin;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hive.ql.exec.vector.ColumnVector;
+import org.apache.hadoop.hive.ql.exec.vector.VectorizationContext;
+import org.apache.hadoop.hive.ql.exec.vector.VectorizedRowBatch;
+import org.apache.hadoop.hive.ql.metadata.HiveException;
+import org.apache.hadoop.hive.ql.plan.OperatorDesc;
+import org.apache.hadoop.hive.serde2.ByteStream.Output;
+
+/**
+ * Native vectorized map join on a multi-column key, or a single key of a type without
+ * a specialized operator. The key columns are serialized together, the same way the
+ * small table keys were.
+ */
+public class VectorMapJoinMultiKeyOperator extends VectorMapJoinCommonOperator {
+
+  private static final long serialVersionUID = 1L;
+
+  private transient Output keyOutput;
+
+  public VectorMapJoinMultiKeyOperator() {
+    super();
+  }
+
+  public VectorMapJoinMultiKeyOperator(VectorizationContext vContext, OperatorDesc conf)
+      throws HiveException {
+    super(vContext, conf);
+  }
+
+  @Override
+  public void initializeOp(Configuration hconf) throws HiveException {
+    super.initializeOp(hconf);
+    keyOutput = new Output();
+  }
+
+  @Override
+  protected void processBatch(VectorizedRowBatch batch) throws HiveException {
+    int[] selected = batch.selected;
+    boolean selectedInUse = batch.selectedInUse;
+    for (int j = 0; j < batch.size; j++) {
+      int i = selectedInUse ? selected[j] : j;
+      if (hasAnyNulls(batch, i)) {
+        // Null keys never match.
+        generateRows(batch, i, null);
+        continue;
+      }
+      keyOutput.reset();
+      keySerializer.serialize(keyOutput, batch, bigTableKeyColumns, i);
+      generateRows(batch, i, lookup(keyOutput.getData(), keyOutput.getLength()));
+    }
+  }
+
+  private boolean hasAnyNulls(VectorizedRowBatch batch, int batchIndex) {
+    for (int k = 0; k < bigTableKeyColumns.length; k++) {
+      ColumnVector cv = batch.cols[bigTableKeyColumns[k]];
+      if (!cv.noNulls && cv.isNull[cv.isRepeating ? 0 : batchIndex]) {
+        return true;
+      }
+    }
+    return false;
+  }
+}
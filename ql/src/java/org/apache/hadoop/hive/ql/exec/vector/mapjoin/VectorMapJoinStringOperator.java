@@ -0,0 +1,98 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.hive.ql.exec.vector.mapjoin;
+
+import java.util.List;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hive.ql.exec.vector.BytesColumnVector;
+import org.apache.hadoop.hive.ql.exec.vector.VectorizationContext;
+import org.apache.hadoop.hive.ql.exec.vector.VectorizedBinarySortableSerializer;
+import org.apache.hadoop.hive.ql.exec.vector.VectorizedRowBatch;
+import org.apache.hadoop.hive.ql.metadata.HiveException;
+import org.apache.hadoop.hive.ql.plan.OperatorDesc;
+import org.apache.hadoop.hive.serde2.ByteStream.Output;
+import org.apache.hadoop.hive.serde2.WriteBuffers;
+
+/**
+ * Native vectorized map join on a single string key, read straight from a
+ * BytesColumnVector.
+ */
+public class VectorMapJoinStringOperator extends VectorMapJoinCommonOperator {
+
+  private static final long serialVersionUID = 1L;
+
+  private transient int keyColumn;
+  private transient boolean keyIsDesc;
+  private transient Output keyOutput;
+
+  public VectorMapJoinStringOperator() {
+    super();
+  }
+
+  public VectorMapJoinStringOperator(VectorizationContext vContext, OperatorDesc conf)
+      throws HiveException {
+    super(vContext, conf);
+  }
+
+  @Override
+  public void initializeOp(Configuration hconf) throws HiveException {
+    super.initializeOp(hconf);
+    keyColumn = bigTableKeyColumns[0];
+    keyIsDesc = keySerializer.getColumnSortOrderIsDesc()[0];
+    keyOutput = new Output();
+  }
+
+  @Override
+  protected void processBatch(VectorizedRowBatch batch) throws HiveException {
+    BytesColumnVector keyVector = (BytesColumnVector) batch.cols[keyColumn];
+    byte[][] vector = keyVector.vector;
+    int[] start = keyVector.start;
+    int[] length = keyVector.length;
+    int[] selected = batch.selected;
+    boolean selectedInUse = batch.selectedInUse;
+
+    if (keyVector.isRepeating) {
+      // One probe serves the whole batch.
+      List<WriteBuffers.ByteSegmentRef> smallTableRows = null;
+      if (keyVector.noNulls || !keyVector.isNull[0]) {
+        smallTableRows = lookup(vector[0], start[0], length[0]);
+      }
+      for (int j = 0; j < batch.size; j++) {
+        generateRows(batch, selectedInUse ? selected[j] : j, smallTableRows);
+      }
+      return;
+    }
+
+    for (int j = 0; j < batch.size; j++) {
+      int i = selectedInUse ? selected[j] : j;
+      if (!keyVector.noNulls && keyVector.isNull[i]) {
+        generateRows(batch, i, null);
+      } else {
+        generateRows(batch, i, lookup(vector[i], start[i], length[i]));
+      }
+    }
+  }
+
+  private List<WriteBuffers.ByteSegmentRef> lookup(byte[] bytes, int start, int length) {
+    keyOutput.reset();
+    VectorizedBinarySortableSerializer.serializeBytes(keyOutput, bytes, start, length, keyIsDesc);
+    return lookup(keyOutput.getData(), keyOutput.getLength());
+  }
+}
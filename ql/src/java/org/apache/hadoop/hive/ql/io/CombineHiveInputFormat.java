@@ -345,7 +345,8 @@ public InputSplit[] getSplits(JobConf job, int numSplits) throws IOException {
 
         //ie, dont't combine if inputformat is a TextInputFormat and has compression turned on
 
-        if (inputFormat instanceof TextInputFormat) {
+        if (inputFormat instanceof TextInputFormat
+            || inputFormat instanceof VectorizedTextInputFormat) {
           Queue<Path> dirs = new LinkedList<Path>();
           FileStatus fStats = inpFs.getFileStatus(path);
 
@@ -117,6 +117,9 @@ public boolean next(K key, V value) throws IOException {
     if(!initDone) {
       throw new IOException("Hive IOContext is not inited.");
     }
+    if (ioCxtRef.skipRemainingRows) {
+      return false;
+    }
     updateIOContext();
     try {
       return doNext(key, value);
@@ -165,6 +168,7 @@ public void initIOContext(long startPos, boolean isBlockPointer, Path inputPath)
     ioCxtRef.currentBlockStart = startPos;
     ioCxtRef.isBlockPointer = isBlockPointer;
     ioCxtRef.inputPath = inputPath;
+    ioCxtRef.skipRemainingRows = false;
     LOG.info("Processing file " + inputPath);
     initDone = true;
   }
@@ -69,6 +69,8 @@ public static void clear() {
   Comparison comparison = null;
   // The class name of the generic UDF being used by the filter
   String genericUDFClassName = null;
+  // Set when no row of the rest of the current split can produce output; reset for every split
+  boolean skipRemainingRows = false;
 
   public static enum Comparison {
     GREATER,
@@ -87,6 +89,14 @@ public IOContext() {
     this.ioExceptions = false;
   }
 
+  public boolean shouldSkipRemainingRows() {
+    return skipRemainingRows;
+  }
+
+  public void setSkipRemainingRows(boolean skipRemainingRows) {
+    this.skipRemainingRows = skipRemainingRows;
+  }
+
   public long getCurrentBlockStart() {
     return currentBlockStart;
   }
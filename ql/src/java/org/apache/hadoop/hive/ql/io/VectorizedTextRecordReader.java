@@ -0,0 +1,622 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.hive.ql.io;
+
+import java.io.IOException;
+import java.nio.charset.CharacterCodingException;
+import java.sql.Date;
+import java.sql.Timestamp;
+import java.util.List;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hive.common.type.HiveDecimal;
+import org.apache.hadoop.hive.ql.exec.vector.BytesColumnVector;
+import org.apache.hadoop.hive.ql.exec.vector.ColumnVector;
+import org.apache.hadoop.hive.ql.exec.vector.DecimalColumnVector;
+import org.apache.hadoop.hive.ql.exec.vector.DoubleColumnVector;
+import org.apache.hadoop.hive.ql.exec.vector.LongColumnVector;
+import org.apache.hadoop.hive.ql.exec.vector.TimestampUtils;
+import org.apache.hadoop.hive.ql.exec.vector.VectorizedRowBatch;
+import org.apache.hadoop.hive.ql.exec.vector.VectorizedRowBatchCtx;
+import org.apache.hadoop.hive.ql.metadata.HiveException;
+import org.apache.hadoop.hive.serde2.ColumnProjectionUtils;
+import org.apache.hadoop.hive.serde2.io.DateWritable;
+import org.apache.hadoop.hive.serde2.lazy.LazyByte;
+import org.apache.hadoop.hive.serde2.lazy.LazyInteger;
+import org.apache.hadoop.hive.serde2.lazy.LazyLong;
+import org.apache.hadoop.hive.serde2.lazy.LazyShort;
+import org.apache.hadoop.hive.serde2.lazy.LazySimpleSerDe;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.PrimitiveObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.StructField;
+import org.apache.hadoop.hive.serde2.typeinfo.HiveDecimalUtils;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapred.FileSplit;
+import org.apache.hadoop.mapred.RecordReader;
+
+/**
+ * Reads the lines of a delimited text split into a VectorizedRowBatch.
+ *
+ * The lines of a batch are copied into one buffer and split into fields in a
+ * single pass, which stops at the last projected column. The fields of each
+ * projected column are then parsed straight into its column vector, with the
+ * same results as LazySimpleSerDe, but without creating a lazy object per
+ * field. String vectors reference the buffer instead of copying the values.
+ *
+ * Files of tables whose fields are escaped are deserialized row by row with
+ * the table's SerDe.
+ */
+public class VectorizedTextRecordReader implements RecordReader<NullWritable, VectorizedRowBatch> {
+  private static final Log LOG = LogFactory.getLog(VectorizedTextRecordReader.class);
+
+  private final RecordReader<LongWritable, Text> in;
+  private final LongWritable lineKey;
+  private final Text line;
+  private final VectorizedRowBatchCtx rbCtx;
+  private boolean addPartitionCols = true;
+
+  // escaped files are deserialized by the SerDe
+  private final boolean rowByRow;
+  private final DataOutputBuffer buffer = new DataOutputBuffer();
+
+  private final byte separator;
+  private final byte[] nullSequence;
+  private final boolean lastColumnTakesRest;
+  private final int numColumns;
+  // the projected columns and, for each column, its index in columns or -1
+  private final int[] columns;
+  private final int[] projection;
+  private final int lastColumn;
+  private final FieldReader[] readers;
+
+  // the lines of the current batch and the fields of the projected columns
+  private byte[] data = new byte[64 * 1024];
+  private final int[][] fieldStarts;
+  private final int[][] fieldLengths;
+
+  public VectorizedTextRecordReader(Configuration conf, FileSplit split,
+      RecordReader<LongWritable, Text> in) throws IOException {
+    this.in = in;
+    this.lineKey = in.createKey();
+    this.line = in.createValue();
+    rbCtx = new VectorizedRowBatchCtx();
+    try {
+      rbCtx.init(conf, split);
+    } catch (Exception e) {
+      throw new IOException(e);
+    }
+    if (!(rbCtx.getDeserializer() instanceof LazySimpleSerDe)) {
+      throw new IOException("Vectorized text input requires " + LazySimpleSerDe.class.getName()
+          + ", but " + split.getPath() + " is read with "
+          + rbCtx.getDeserializer().getClass().getName());
+    }
+    LazySimpleSerDe.SerDeParameters params =
+        ((LazySimpleSerDe) rbCtx.getDeserializer()).getSerdeParams();
+    rowByRow = params.isEscaped();
+    separator = params.getSeparators()[0];
+    nullSequence = params.getNullSequence().copyBytes();
+    lastColumnTakesRest = params.isLastColumnTakesRest();
+    if (rowByRow) {
+      LOG.info("Reading " + split.getPath() + " row by row, because its fields are escaped");
+    }
+
+    List<? extends StructField> fields = rbCtx.getRawRowOI().getAllStructFieldRefs();
+    numColumns = fields.size();
+    projection = new int[numColumns];
+    for (int i = 0; i < numColumns; i++) {
+      projection[i] = -1;
+    }
+    List<Integer> included = ColumnProjectionUtils.getReadColumnIDs(conf);
+    int numIncluded = 0;
+    for (int column : included) {
+      if (column < numColumns && projection[column] < 0) {
+        projection[column] = numIncluded++;
+      }
+    }
+    columns = new int[numIncluded];
+    readers = new FieldReader[numIncluded];
+    int last = -1;
+    for (int column = 0; column < numColumns; column++) {
+      int index = projection[column];
+      if (index >= 0) {
+        columns[index] = column;
+        readers[index] = createFieldReader(fields.get(column).getFieldObjectInspector(),
+            params.isExtendedBooleanLiteral());
+        last = Math.max(last, column);
+      }
+    }
+    lastColumn = last;
+    fieldStarts = new int[numIncluded][VectorizedRowBatch.DEFAULT_SIZE];
+    fieldLengths = new int[numIncluded][VectorizedRowBatch.DEFAULT_SIZE];
+  }
+
+  private static FieldReader createFieldReader(ObjectInspector inspector,
+      boolean extendedBooleanLiteral) throws IOException {
+    if (inspector.getCategory() != ObjectInspector.Category.PRIMITIVE) {
+      throw new IOException("Vectorization is not supported for datatype: "
+          + inspector.getTypeName());
+    }
+    PrimitiveObjectInspector poi = (PrimitiveObjectInspector) inspector;
+    switch (poi.getPrimitiveCategory()) {
+    case BOOLEAN:
+      return new BooleanReader(extendedBooleanLiteral);
+    case BYTE:
+      return new ByteReader();
+    case SHORT:
+      return new ShortReader();
+    case INT:
+      return new IntReader();
+    case LONG:
+      return new LongReader();
+    case FLOAT:
+      return new FloatReader();
+    case DOUBLE:
+      return new DoubleReader();
+    case STRING:
+      return new StringReader();
+    case TIMESTAMP:
+      return new TimestampReader();
+    case DATE:
+      return new DateReader();
+    case DECIMAL:
+      return new DecimalReader();
+    default:
+      throw new IOException("Vectorization is not supported for datatype: "
+          + poi.getPrimitiveCategory());
+    }
+  }
+
+  @Override
+  public NullWritable createKey() {
+    return NullWritable.get();
+  }
+
+  @Override
+  public VectorizedRowBatch createValue() {
+    try {
+      return rbCtx.createVectorizedRowBatch();
+    } catch (HiveException e) {
+      throw new RuntimeException("Error creating a batch", e);
+    }
+  }
+
+  @Override
+  public boolean next(NullWritable key, VectorizedRowBatch value) throws IOException {
+    // Ideally partition columns would be added in createValue(), but
+    // CombineHiveRecordReader does not call it for every reader it creates.
+    if (addPartitionCols) {
+      try {
+        rbCtx.addPartitionColsToBatch(value);
+      } catch (HiveException e) {
+        throw new IOException(e);
+      }
+      addPartitionCols = false;
+    }
+    value.selectedInUse = false;
+    for (int column : columns) {
+      if (value.cols[column] != null) {
+        value.cols[column].reset();
+      }
+    }
+    int size = rowByRow ? readRows(value) : readLines(value);
+    value.size = size;
+    return size > 0;
+  }
+
+  private int readRows(VectorizedRowBatch batch) throws IOException {
+    buffer.reset();
+    int maxSize = batch.getMaxSize();
+    int row = 0;
+    try {
+      while (row < maxSize && in.next(lineKey, line)) {
+        rbCtx.addRowToBatch(row++, line, batch, buffer);
+      }
+    } catch (IOException e) {
+      throw e;
+    } catch (Exception e) {
+      throw new IOException("Error while getting next row", e);
+    }
+    return row;
+  }
+
+  private int readLines(VectorizedRowBatch batch) throws IOException {
+    int maxSize = Math.min(batch.getMaxSize(), VectorizedRowBatch.DEFAULT_SIZE);
+    int row = 0;
+    int length = 0;
+    while (row < maxSize && in.next(lineKey, line)) {
+      int lineLength = line.getLength();
+      if (length + lineLength > data.length) {
+        byte[] newData = new byte[Math.max(data.length * 2, length + lineLength)];
+        System.arraycopy(data, 0, newData, 0, length);
+        data = newData;
+      }
+      System.arraycopy(line.getBytes(), 0, data, length, lineLength);
+      splitFields(row++, length, length + lineLength);
+      length += lineLength;
+    }
+    for (int i = 0; i < columns.length; i++) {
+      ColumnVector vector = batch.cols[columns[i]];
+      if (vector != null) {
+        readers[i].read(vector, data, fieldStarts[i], fieldLengths[i], nullSequence, row);
+      }
+    }
+    return row;
+  }
+
+  /**
+   * Find the projected fields of a line, the way LazyStruct does: the last
+   * column takes the rest of the line if configured, extra fields are ignored
+   * and missing fields are nulls, marked by a negative length.
+   */
+  private void splitFields(int row, int start, int end) {
+    byte[] bytes = data;
+    int column = 0;
+    int fieldStart = start;
+    for (int i = start; column <= lastColumn; i++) {
+      if (i == end || bytes[i] == separator) {
+        if (lastColumnTakesRest && column == numColumns - 1) {
+          i = end;
+        }
+        int index = projection[column];
+        if (index >= 0) {
+          fieldStarts[index][row] = fieldStart;
+          fieldLengths[index][row] = i - fieldStart;
+        }
+        column++;
+        if (i == end) {
+          break;
+        }
+        fieldStart = i + 1;
+      }
+    }
+    for (; column <= lastColumn; column++) {
+      int index = projection[column];
+      if (index >= 0) {
+        fieldLengths[index][row] = -1;
+      }
+    }
+  }
+
+  @Override
+  public long getPos() throws IOException {
+    return in.getPos();
+  }
+
+  @Override
+  public void close() throws IOException {
+    in.close();
+  }
+
+  @Override
+  public float getProgress() throws IOException {
+    return in.getProgress();
+  }
+
+  /**
+   * Parses the fields of a column into its vector.
+   */
+  abstract static class FieldReader {
+
+    void read(ColumnVector vector, byte[] bytes, int[] starts, int[] lengths,
+        byte[] nullSequence, int size) {
+      for (int row = 0; row < size; row++) {
+        int length = lengths[row];
+        if (length < 0 || isNullSequence(bytes, starts[row], length, nullSequence)
+            || !read(vector, row, bytes, starts[row], length)) {
+          vector.noNulls = false;
+          vector.isNull[row] = true;
+        }
+      }
+    }
+
+    /**
+     * @return false if the field is not a valid value of the column's type
+     */
+    abstract boolean read(ColumnVector vector, int row, byte[] bytes, int start, int length);
+  }
+
+  static boolean isNullSequence(byte[] bytes, int start, int length, byte[] nullSequence) {
+    if (length != nullSequence.length) {
+      return false;
+    }
+    for (int i = 0; i < length; i++) {
+      if (bytes[start + i] != nullSequence[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  static class BooleanReader extends FieldReader {
+    private final boolean extendedLiteral;
+
+    BooleanReader(boolean extendedLiteral) {
+      this.extendedLiteral = extendedLiteral;
+    }
+
+    @Override
+    boolean read(ColumnVector vector, int row, byte[] bytes, int start, int length) {
+      long[] values = ((LongColumnVector) vector).vector;
+      if (matches(bytes, start, length, "TRUE")) {
+        values[row] = 1;
+      } else if (matches(bytes, start, length, "FALSE")) {
+        values[row] = 0;
+      } else if (extendedLiteral && length == 1) {
+        byte c = bytes[start];
+        if (c == '1' || c == 't' || c == 'T') {
+          values[row] = 1;
+        } else if (c == '0' || c == 'f' || c == 'F') {
+          values[row] = 0;
+        } else {
+          return false;
+        }
+      } else {
+        return false;
+      }
+      return true;
+    }
+
+    private static boolean matches(byte[] bytes, int start, int length, String upperCase) {
+      if (length != upperCase.length()) {
+        return false;
+      }
+      for (int i = 0; i < length; i++) {
+        if (Character.toUpperCase(bytes[start + i]) != upperCase.charAt(i)) {
+          return false;
+        }
+      }
+      return true;
+    }
+  }
+
+  static class ByteReader extends FieldReader {
+    @Override
+    boolean read(ColumnVector vector, int row, byte[] bytes, int start, int length) {
+      try {
+        ((LongColumnVector) vector).vector[row] = LazyByte.parseByte(bytes, start, length, 10);
+        return true;
+      } catch (NumberFormatException e) {
+        return false;
+      }
+    }
+  }
+
+  static class ShortReader extends FieldReader {
+    @Override
+    boolean read(ColumnVector vector, int row, byte[] bytes, int start, int length) {
+      try {
+        ((LongColumnVector) vector).vector[row] = LazyShort.parseShort(bytes, start, length, 10);
+        return true;
+      } catch (NumberFormatException e) {
+        return false;
+      }
+    }
+  }
+
+  static class IntReader extends FieldReader {
+    @Override
+    boolean read(ColumnVector vector, int row, byte[] bytes, int start, int length) {
+      try {
+        ((LongColumnVector) vector).vector[row] = LazyInteger.parseInt(bytes, start, length, 10);
+        return true;
+      } catch (NumberFormatException e) {
+        return false;
+      }
+    }
+  }
+
+  static class LongReader extends FieldReader {
+    @Override
+    boolean read(ColumnVector vector, int row, byte[] bytes, int start, int length) {
+      try {
+        ((LongColumnVector) vector).vector[row] = LazyLong.parseLong(bytes, start, length, 10);
+        return true;
+      } catch (NumberFormatException e) {
+        return false;
+      }
+    }
+  }
+
+  static class FloatReader extends FieldReader {
+    @Override
+    boolean read(ColumnVector vector, int row, byte[] bytes, int start, int length) {
+      try {
+        ((DoubleColumnVector) vector).vector[row] = Float.parseFloat(decode(bytes, start, length));
+        return true;
+      } catch (NumberFormatException e) {
+        return false;
+      }
+    }
+  }
+
+  static class DoubleReader extends FieldReader {
+    @Override
+    boolean read(ColumnVector vector, int row, byte[] bytes, int start, int length) {
+      try {
+        ((DoubleColumnVector) vector).vector[row] = parseDouble(bytes, start, length);
+        return true;
+      } catch (NumberFormatException e) {
+        return false;
+      }
+    }
+  }
+
+  private static final double[] POWERS_OF_TEN = {
+    1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+    1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+  };
+
+  /**
+   * Parse a double without decoding the bytes into a String, if it is a plain
+   * decimal number with at most 15 significant digits and a small exponent.
+   * Both the digits and the power of ten are exact doubles then, so one
+   * multiplication or division rounds the same way Double.parseDouble does.
+   * Anything else is left to Double.parseDouble.
+   */
+  static double parseDouble(byte[] bytes, int start, int length) {
+    int end = start + length;
+    int i = start;
+    boolean negative = false;
+    if (i < end && (bytes[i] == '-' || bytes[i] == '+')) {
+      negative = bytes[i] == '-';
+      i++;
+    }
+    long mantissa = 0;
+    int digits = 0;
+    int exponent = 0;
+    boolean seenDigit = false;
+    boolean seenPoint = false;
+    for (; i < end; i++) {
+      byte b = bytes[i];
+      if (b >= '0' && b <= '9') {
+        seenDigit = true;
+        if (mantissa != 0 || b != '0') {
+          if (++digits > 15) {
+            return Double.parseDouble(decode(bytes, start, length));
+          }
+          mantissa = mantissa * 10 + (b - '0');
+        }
+        if (seenPoint) {
+          exponent--;
+        }
+      } else if (b == '.' && !seenPoint) {
+        seenPoint = true;
+      } else {
+        break;
+      }
+    }
+    if (!seenDigit) {
+      return Double.parseDouble(decode(bytes, start, length));
+    }
+    if (i < end) {
+      if (bytes[i] != 'e' && bytes[i] != 'E') {
+        return Double.parseDouble(decode(bytes, start, length));
+      }
+      i++;
+      boolean negativeExponent = false;
+      if (i < end && (bytes[i] == '-' || bytes[i] == '+')) {
+        negativeExponent = bytes[i] == '-';
+        i++;
+      }
+      if (i == end || end - i > 3) {
+        return Double.parseDouble(decode(bytes, start, length));
+      }
+      int value = 0;
+      for (; i < end; i++) {
+        byte b = bytes[i];
+        if (b < '0' || b > '9') {
+          return Double.parseDouble(decode(bytes, start, length));
+        }
+        value = value * 10 + (b - '0');
+      }
+      exponent += negativeExponent ? -value : value;
+    }
+    double result;
+    if (mantissa == 0) {
+      result = 0;
+    } else if (exponent >= 0 && exponent < POWERS_OF_TEN.length) {
+      result = mantissa * POWERS_OF_TEN[exponent];
+    } else if (exponent < 0 && -exponent < POWERS_OF_TEN.length) {
+      result = mantissa / POWERS_OF_TEN[-exponent];
+    } else {
+      return Double.parseDouble(decode(bytes, start, length));
+    }
+    return negative ? -result : result;
+  }
+
+  static class StringReader extends FieldReader {
+    @Override
+    void read(ColumnVector vector, byte[] bytes, int[] starts, int[] lengths,
+        byte[] nullSequence, int size) {
+      ((BytesColumnVector) vector).initBuffer();
+      super.read(vector, bytes, starts, lengths, nullSequence, size);
+    }
+
+    @Override
+    boolean read(ColumnVector vector, int row, byte[] bytes, int start, int length) {
+      ((BytesColumnVector) vector).setRef(row, bytes, start, length);
+      return true;
+    }
+  }
+
+  static class TimestampReader extends FieldReader {
+    @Override
+    boolean read(ColumnVector vector, int row, byte[] bytes, int start, int length) {
+      String s = decode(bytes, start, length);
+      if ("NULL".equals(s)) {
+        return false;
+      }
+      try {
+        ((LongColumnVector) vector).vector[row] =
+            TimestampUtils.getTimeNanoSec(Timestamp.valueOf(s));
+        return true;
+      } catch (IllegalArgumentException e) {
+        return false;
+      }
+    }
+  }
+
+  static class DateReader extends FieldReader {
+    @Override
+    boolean read(ColumnVector vector, int row, byte[] bytes, int start, int length) {
+      try {
+        ((LongColumnVector) vector).vector[row] =
+            DateWritable.dateToDays(Date.valueOf(decode(bytes, start, length)));
+        return true;
+      } catch (IllegalArgumentException e) {
+        return false;
+      }
+    }
+  }
+
+  static class DecimalReader extends FieldReader {
+    @Override
+    boolean read(ColumnVector vector, int row, byte[] bytes, int start, int length) {
+      DecimalColumnVector decimals = (DecimalColumnVector) vector;
+      HiveDecimal value;
+      try {
+        value = HiveDecimalUtils.enforcePrecisionScale(
+            HiveDecimal.create(decode(bytes, start, length)), decimals.precision, decimals.scale);
+      } catch (NumberFormatException e) {
+        return false;
+      }
+      if (value == null) {
+        return false;
+      }
+      decimals.vector[row].update(value.unscaledValue(), (short) value.scale());
+      return true;
+    }
+  }
+
+  /**
+   * Decode a field, treating malformed input as an invalid value.
+   */
+  private static String decode(byte[] bytes, int start, int length) {
+    try {
+      return Text.decode(bytes, start, length, true);
+    } catch (CharacterCodingException e) {
+      throw new NumberFormatException("Malformed input: " + e.getMessage());
+    }
+  }
+}
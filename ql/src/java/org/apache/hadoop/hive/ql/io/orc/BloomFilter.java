@@ -0,0 +1,202 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.hive.ql.io.orc;
+
+import java.util.Arrays;
+
+/**
+ * A bloom filter over the values of a column in one row group. It lets
+ * the reader skip row groups for equality predicates on columns whose
+ * min/max statistics don't help, such as ids and other high cardinality
+ * strings.
+ *
+ * Each value is hashed to 64 bits and the bit positions are derived from
+ * the two halves of the hash. Longs and doubles are hashed from their bits
+ * and strings from their UTF-8 bytes, so the reader must look up a literal
+ * with the same type the writer added the values with.
+ *
+ * The BLOOM_FILTER stream of a column holds an OrcProto.BloomFilterIndex
+ * per stripe, with a bloom filter for each row group.
+ */
+final class BloomFilter {
+  private static final long C1 = 0x87c37b91114253d5L;
+  private static final long C2 = 0x4cf5ad432745937fL;
+
+  private final long[] bits;
+  private final int numHashFunctions;
+
+  /**
+   * Create a bloom filter sized for the given number of values.
+   * @param expectedEntries the number of values expected to be added
+   * @param fpp the desired false positive probability
+   */
+  BloomFilter(long expectedEntries, double fpp) {
+    if (expectedEntries <= 0) {
+      throw new IllegalArgumentException("Expected entries must be positive");
+    }
+    if (fpp <= 0.0 || fpp >= 1.0) {
+      throw new IllegalArgumentException("False positive probability must " +
+          "be between 0 and 1 " + fpp);
+    }
+    long numBits = (long) Math.ceil(-expectedEntries * Math.log(fpp) /
+        (Math.log(2) * Math.log(2)));
+    int numLongs = (int) Math.min(Integer.MAX_VALUE / Long.SIZE,
+        (numBits + Long.SIZE - 1) / Long.SIZE);
+    this.bits = new long[numLongs];
+    this.numHashFunctions = Math.max(1, (int) Math.round(
+        (double) numLongs * Long.SIZE / expectedEntries * Math.log(2)));
+  }
+
+  private BloomFilter(long[] bits, int numHashFunctions) {
+    this.bits = bits;
+    this.numHashFunctions = numHashFunctions;
+  }
+
+  void addLong(long value) {
+    addHash(hashLong(value));
+  }
+
+  void addDouble(double value) {
+    addLong(doubleToLong(value));
+  }
+
+  void addBytes(byte[] bytes, int offset, int length) {
+    addHash(hashBytes(bytes, offset, length));
+  }
+
+  boolean testLong(long value) {
+    return testHash(hashLong(value));
+  }
+
+  boolean testDouble(double value) {
+    return testLong(doubleToLong(value));
+  }
+
+  boolean testBytes(byte[] bytes, int offset, int length) {
+    return testHash(hashBytes(bytes, offset, length));
+  }
+
+  void reset() {
+    Arrays.fill(bits, 0);
+  }
+
+  int getNumHashFunctions() {
+    return numHashFunctions;
+  }
+
+  int getBitSize() {
+    return bits.length * Long.SIZE;
+  }
+
+  private void addHash(long hash) {
+    int hash1 = (int) hash;
+    int hash2 = (int) (hash >>> 32);
+    long bitSize = getBitSize();
+    for (int i = 1; i <= numHashFunctions; ++i) {
+      int combined = hash1 + i * hash2;
+      // flip the bits if negative, so all of them are used
+      long pos = (combined < 0 ? ~combined : combined) % bitSize;
+      bits[(int) (pos >>> 6)] |= 1L << pos;
+    }
+  }
+
+  private boolean testHash(long hash) {
+    int hash1 = (int) hash;
+    int hash2 = (int) (hash >>> 32);
+    long bitSize = getBitSize();
+    for (int i = 1; i <= numHashFunctions; ++i) {
+      int combined = hash1 + i * hash2;
+      long pos = (combined < 0 ? ~combined : combined) % bitSize;
+      if ((bits[(int) (pos >>> 6)] & (1L << pos)) == 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * 0.0 and -0.0 are equal in a predicate, so they are added as the same
+   * value.
+   */
+  private static long doubleToLong(double value) {
+    return Double.doubleToLongBits(value == 0.0 ? 0.0 : value);
+  }
+
+  private static long fmix(long k) {
+    k ^= k >>> 33;
+    k *= 0xff51afd7ed558ccdL;
+    k ^= k >>> 33;
+    k *= 0xc4ceb9fe1a85ec53L;
+    k ^= k >>> 33;
+    return k;
+  }
+
+  static long hashLong(long value) {
+    return fmix(value);
+  }
+
+  /**
+   * Hash the bytes 8 at a time with the mixing steps of murmur3.
+   */
+  static long hashBytes(byte[] bytes, int offset, int length) {
+    long hash = 0;
+    int end = offset + (length & ~7);
+    for (int i = offset; i < end; i += 8) {
+      long k = (bytes[i] & 0xffL)
+          | (bytes[i + 1] & 0xffL) << 8
+          | (bytes[i + 2] & 0xffL) << 16
+          | (bytes[i + 3] & 0xffL) << 24
+          | (bytes[i + 4] & 0xffL) << 32
+          | (bytes[i + 5] & 0xffL) << 40
+          | (bytes[i + 6] & 0xffL) << 48
+          | (bytes[i + 7] & 0xffL) << 56;
+      k *= C1;
+      k = Long.rotateLeft(k, 31);
+      k *= C2;
+      hash ^= k;
+      hash = Long.rotateLeft(hash, 27) * 5 + 0x52dce729;
+    }
+    long k = 0;
+    for (int i = offset + length - 1; i >= end; --i) {
+      k = (k << 8) | (bytes[i] & 0xffL);
+    }
+    k *= C1;
+    k = Long.rotateLeft(k, 31);
+    k *= C2;
+    hash ^= k;
+    return fmix(hash ^ length);
+  }
+
+  OrcProto.BloomFilter serialize() {
+    OrcProto.BloomFilter.Builder builder = OrcProto.BloomFilter.newBuilder();
+    builder.setNumHashFunctions(numHashFunctions);
+    for (long word : bits) {
+      builder.addBitset(word);
+    }
+    return builder.build();
+  }
+
+  static BloomFilter deserialize(OrcProto.BloomFilter bloomFilter) {
+    long[] bits = new long[bloomFilter.getBitsetCount()];
+    for (int i = 0; i < bits.length; ++i) {
+      bits[i] = bloomFilter.getBitset(i);
+    }
+    return new BloomFilter(bits, bloomFilter.getNumHashFunctions());
+  }
+}
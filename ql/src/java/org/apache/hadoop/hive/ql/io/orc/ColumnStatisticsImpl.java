@@ -470,6 +470,11 @@ void updateBinary(BytesWritable value) {
       sum += value.getLength();
     }
 
+    @Override
+    void updateBinary(byte[] bytes, int offset, int length) {
+      sum += length;
+    }
+
     @Override
     void merge(ColumnStatisticsImpl other) {
       super.merge(other);
@@ -731,6 +736,10 @@ void increment() {
     count += 1;
   }
 
+  void increment(int length) {
+    count += length;
+  }
+
   void updateBoolean(boolean value) {
     throw new UnsupportedOperationException("Can't update boolean");
   }
@@ -751,6 +760,10 @@ void updateBinary(BytesWritable value) {
     throw new UnsupportedOperationException("Can't update binary");
   }
 
+  void updateBinary(byte[] bytes, int offset, int length) {
+    throw new UnsupportedOperationException("Can't update binary");
+  }
+
   void updateDecimal(HiveDecimal value) {
     throw new UnsupportedOperationException("Can't update decimal");
   }
@@ -158,6 +158,19 @@ synchronized void addedRow() throws IOException {
     }
   }
 
+  /**
+   * Give the memory manager an opportunity for doing a memory check after a
+   * batch of rows was added.
+   * @param rows the number of rows that were added
+   * @throws IOException
+   */
+  synchronized void addedRows(int rows) throws IOException {
+    rowsAddedSinceCheck += rows;
+    if (rowsAddedSinceCheck >= ROWS_BETWEEN_CHECKS) {
+      notifyWriters();
+    }
+  }
+
   /**
    * Notify all of the writers that they should check their memory usage.
    * @throws IOException
@@ -21,6 +21,7 @@
 import java.io.IOException;
 
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.hive.conf.HiveConf;
@@ -124,7 +125,9 @@ public static enum OrcTableProperties {
     ROW_INDEX_STRIDE("orc.row.index.stride"),
     ENABLE_INDEXES("orc.create.index"),
     BLOCK_PADDING("orc.block.padding"),
-    ENCODING_STRATEGY("orc.encoding.strategy");
+    ENCODING_STRATEGY("orc.encoding.strategy"),
+    BLOOM_FILTER_COLUMNS("orc.bloom.filter.columns"),
+    BLOOM_FILTER_FPP("orc.bloom.filter.fpp");
 
     private final String propName;
 
@@ -158,6 +161,7 @@ public static class ReaderOptions {
     private final Configuration conf;
     private FileSystem filesystem;
     private ReaderImpl.FileMetaInfo fileMetaInfo;
+    private FileStatus fileStatus;
     private long maxLength = Long.MAX_VALUE;
 
     ReaderOptions(Configuration conf) {
@@ -168,6 +172,15 @@ ReaderOptions fileMetaInfo(ReaderImpl.FileMetaInfo info) {
       return this;
     }
 
+    /**
+     * Set the status of the file, which lets the reader look up the
+     * metadata of this version of the file in the metadata cache.
+     */
+    ReaderOptions fileStatus(FileStatus status) {
+      fileStatus = status;
+      return this;
+    }
+
     public ReaderOptions filesystem(FileSystem fs) {
       this.filesystem = fs;
       return this;
@@ -190,6 +203,10 @@ ReaderImpl.FileMetaInfo getFileMetaInfo() {
       return fileMetaInfo;
     }
 
+    FileStatus getFileStatus() {
+      return fileStatus;
+    }
+
     long getMaxLength() {
       return maxLength;
     }
@@ -231,6 +248,8 @@ public static class WriterOptions {
     private WriterCallback callback;
     private EncodingStrategy encodingStrategy;
     private float paddingTolerance;
+    private String bloomFilterColumns;
+    private double bloomFilterFpp;
 
     WriterOptions(Configuration conf) {
       configuration = conf;
@@ -257,6 +276,9 @@ public static class WriterOptions {
       paddingTolerance =
           conf.getFloat(HiveConf.ConfVars.HIVE_ORC_BLOCK_PADDING_TOLERANCE.varname,
               HiveConf.ConfVars.HIVE_ORC_BLOCK_PADDING_TOLERANCE.defaultFloatVal);
+      bloomFilterFpp =
+          conf.getFloat(HiveConf.ConfVars.HIVE_ORC_DEFAULT_BLOOM_FILTER_FPP.varname,
+              HiveConf.ConfVars.HIVE_ORC_DEFAULT_BLOOM_FILTER_FPP.defaultFloatVal);
     }
 
     /**
@@ -332,6 +354,24 @@ public WriterOptions paddingTolerance(float value) {
       return this;
     }
 
+    /**
+     * Sets the columns that get a bloom filter in each row group of the
+     * index, as a comma separated list of top level column names. The row
+     * index must be enabled for the bloom filters to be written.
+     */
+    public WriterOptions bloomFilterColumns(String columns) {
+      bloomFilterColumns = columns;
+      return this;
+    }
+
+    /**
+     * Sets the false positive probability of the bloom filters.
+     */
+    public WriterOptions bloomFilterFpp(double fpp) {
+      bloomFilterFpp = fpp;
+      return this;
+    }
+
     /**
      * Sets the generic compression that is used to compress the data.
      */
@@ -404,7 +444,8 @@ public static Writer createWriter(Path path,
                           opts.memoryManagerValue, opts.blockPaddingValue,
                           opts.versionValue, opts.callback,
                           opts.encodingStrategy, opts.paddingTolerance,
-                          opts.blockSizeValue);
+                          opts.blockSizeValue, opts.bloomFilterColumns,
+                          opts.bloomFilterFpp);
   }
 
   /**
@@ -0,0 +1,179 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.hive.ql.io.orc;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hive.conf.HiveConf;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.Weigher;
+
+/**
+ * A cache of the parsed footers and metadata of ORC files, shared by the
+ * split generation and the readers in the process. The entries are keyed by
+ * the path, length and modification time of the file, so a file that was
+ * rewritten is read again. The cache is bounded by the approximate size of
+ * the entries in bytes, and evicts the least recently used ones.
+ */
+final class OrcFileMetadataCache {
+  private static final Log LOG = LogFactory.getLog(OrcFileMetadataCache.class);
+
+  private static OrcFileMetadataCache instance = null;
+
+  private final long maxSize;
+  private final Cache<Key, Entry> cache;
+
+  /**
+   * Get the cache of the process.
+   * @param conf the configuration with the size of the cache
+   * @return the cache, or null if the cache is disabled
+   */
+  static synchronized OrcFileMetadataCache getInstance(Configuration conf) {
+    long maxSize = HiveConf.getLongVar(conf,
+        HiveConf.ConfVars.HIVE_ORC_CACHE_METADATA_SIZE);
+    if (maxSize <= 0) {
+      return null;
+    }
+    if (instance == null || instance.maxSize != maxSize) {
+      LOG.info("Creating ORC metadata cache of " + maxSize + " bytes");
+      instance = new OrcFileMetadataCache(maxSize);
+    }
+    return instance;
+  }
+
+  OrcFileMetadataCache(long maxSize) {
+    this.maxSize = maxSize;
+    this.cache = CacheBuilder.newBuilder()
+        .maximumWeight(maxSize)
+        .weigher(new Weigher<Key, Entry>() {
+          @Override
+          public int weigh(Key key, Entry entry) {
+            return entry.getSize();
+          }
+        }).build();
+  }
+
+  /**
+   * The identity of a version of a file.
+   */
+  static final class Key {
+    private final Path path;
+    private final long length;
+    private final long modificationTime;
+
+    Key(Path path, long length, long modificationTime) {
+      this.path = path;
+      this.length = length;
+      this.modificationTime = modificationTime;
+    }
+
+    Key(FileStatus file) {
+      this(file.getPath(), file.getLen(), file.getModificationTime());
+    }
+
+    @Override
+    public boolean equals(Object other) {
+      if (!(other instanceof Key)) {
+        return false;
+      }
+      Key key = (Key) other;
+      return length == key.length && modificationTime == key.modificationTime
+          && path.equals(key.path);
+    }
+
+    @Override
+    public int hashCode() {
+      return path.hashCode() * 31 + (int) (length ^ modificationTime);
+    }
+
+    @Override
+    public String toString() {
+      return path + " length: " + length + " modified: " + modificationTime;
+    }
+  }
+
+  /**
+   * The metadata of a file. The serialized footer is shared by the readers,
+   * so each of them gets a duplicate of the buffer.
+   */
+  static final class Entry {
+    private final ReaderImpl.FileMetaInfo fileMetaInfo;
+    private final OrcProto.Footer footer;
+    private final OrcProto.Metadata metadata;
+
+    Entry(ReaderImpl.FileMetaInfo fileMetaInfo, OrcProto.Footer footer,
+          OrcProto.Metadata metadata) {
+      this.fileMetaInfo = fileMetaInfo;
+      this.footer = footer;
+      this.metadata = metadata;
+    }
+
+    ReaderImpl.FileMetaInfo getFileMetaInfo() {
+      return new ReaderImpl.FileMetaInfo(fileMetaInfo.compressionType,
+          fileMetaInfo.bufferSize, fileMetaInfo.metadataSize,
+          fileMetaInfo.footerBuffer.duplicate());
+    }
+
+    OrcProto.Footer getFooter() {
+      return footer;
+    }
+
+    OrcProto.Metadata getMetadata() {
+      return metadata;
+    }
+
+    /**
+     * The serialized footer and the uncompressed size of the parsed footer
+     * and metadata, which is less than their size on the heap.
+     */
+    int getSize() {
+      return fileMetaInfo.footerBuffer.remaining() +
+          footer.getSerializedSize() + metadata.getSerializedSize();
+    }
+  }
+
+  Entry get(Key key) {
+    return cache.getIfPresent(key);
+  }
+
+  void put(Key key, Entry entry) {
+    cache.put(key, entry);
+  }
+
+  void invalidateAll() {
+    cache.invalidateAll();
+  }
+
+  /**
+   * Get the hit, miss and eviction counts of the cache.
+   */
+  CacheStats getStats() {
+    return cache.stats();
+  }
+
+  long getEntryCount() {
+    return cache.size();
+  }
+}
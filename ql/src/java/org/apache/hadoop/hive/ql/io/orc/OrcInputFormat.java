@@ -27,7 +27,6 @@
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -70,8 +69,7 @@
 import org.apache.hadoop.mapred.Reporter;
 import org.apache.hadoop.util.StringUtils;
 
-import com.google.common.cache.Cache;
-import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
 /**
  * A MapReduce/Hive input format for ORC files.
@@ -315,7 +313,7 @@ public boolean validateInput(FileSystem fs, HiveConf conf,
     for (FileStatus file : files) {
       try {
         OrcFile.createReader(file.getPath(),
-            OrcFile.readerOptions(conf).filesystem(fs));
+            OrcFile.readerOptions(conf).filesystem(fs).fileStatus(file));
       } catch (IOException e) {
         return false;
       }
@@ -348,7 +346,6 @@ static Path[] getInputPaths(Configuration conf) throws IOException {
    */
   static class Context {
     private final Configuration conf;
-    private static Cache<Path, FileInfo> footerCache;
     private final ExecutorService threadPool;
     private final List<OrcSplit> splits =
         new ArrayList<OrcSplit>(10000);
@@ -357,9 +354,6 @@ static class Context {
     private final long maxSize;
     private final long minSize;
     private final boolean footerInSplits;
-    private final boolean cacheStripeDetails;
-    private final AtomicInteger cacheHitCounter = new AtomicInteger(0);
-    private final AtomicInteger numFilesCounter = new AtomicInteger(0);
     private Throwable fatalError = null;
     private ValidTxnList transactionList;
 
@@ -377,23 +371,12 @@ static class Context {
           ConfVars.HIVE_ORC_INCLUDE_FILE_FOOTER_IN_SPLITS);
       numBuckets =
           Math.max(conf.getInt(hive_metastoreConstants.BUCKET_COUNT, 0), 0);
-      int cacheStripeDetailsSize = HiveConf.getIntVar(conf,
-          ConfVars.HIVE_ORC_CACHE_STRIPE_DETAILS_SIZE);
       int numThreads = HiveConf.getIntVar(conf,
           ConfVars.HIVE_ORC_COMPUTE_SPLITS_NUM_THREADS);
 
-      cacheStripeDetails = (cacheStripeDetailsSize > 0);
-
       threadPool = Executors.newFixedThreadPool(numThreads,
           new ThreadFactoryBuilder().setDaemon(true)
               .setNameFormat("ORC_GET_SPLITS #%d").build());
-
-      synchronized (Context.class) {
-        if (footerCache == null && cacheStripeDetails) {
-          footerCache = CacheBuilder.newBuilder().concurrencyLevel(numThreads)
-              .initialCapacity(cacheStripeDetailsSize).softValues().build();
-        }
-      }
       String value = conf.get(ValidTxnList.VALID_TXNS_KEY,
                               Long.MAX_VALUE + ":");
       transactionList = new ValidTxnListImpl(value);
@@ -493,11 +476,7 @@ private void scheduleSplits(FileStatus file,
                                 boolean isOriginal,
                                 boolean hasBase,
                                 List<Long> deltas) throws IOException{
-      FileInfo info = null;
-      if (context.cacheStripeDetails) {
-        info = verifyCachedFileInfo(file);
-      }
-      new SplitGenerator(context, fs, file, info, isOriginal, deltas,
+      new SplitGenerator(context, fs, file, isOriginal, deltas,
           hasBase).schedule();
     }
 
@@ -567,37 +546,6 @@ public void run() {
       }
     }
 
-    private FileInfo verifyCachedFileInfo(FileStatus file) {
-      context.numFilesCounter.incrementAndGet();
-      FileInfo fileInfo = Context.footerCache.getIfPresent(file.getPath());
-      if (fileInfo != null) {
-        if (LOG.isDebugEnabled()) {
-          LOG.debug("Info cached for path: " + file.getPath());
-        }
-        if (fileInfo.modificationTime == file.getModificationTime() &&
-            fileInfo.size == file.getLen()) {
-          // Cached copy is valid
-          context.cacheHitCounter.incrementAndGet();
-          return fileInfo;
-        } else {
-          // Invalidate
-          Context.footerCache.invalidate(file.getPath());
-          if (LOG.isDebugEnabled()) {
-            LOG.debug("Meta-Info for : " + file.getPath() +
-                " changed. CachedModificationTime: "
-              + fileInfo.modificationTime + ", CurrentModificationTime: "
-              + file.getModificationTime()
-              + ", CachedLength: " + fileInfo.size + ", CurrentLength: " +
-                file.getLen());
-          }
-        }
-      } else {
-        if (LOG.isDebugEnabled()) {
-          LOG.debug("Info not cached for path: " + file.getPath());
-        }
-      }
-      return null;
-    }
   }
 
   /**
@@ -610,7 +558,6 @@ static final class SplitGenerator implements Runnable {
     private final FileStatus file;
     private final long blockSize;
     private final BlockLocation[] locations;
-    private final FileInfo fileInfo;
     private List<StripeInformation> stripes;
     private ReaderImpl.FileMetaInfo fileMetaInfo;
     private Metadata metadata;
@@ -620,7 +567,7 @@ static final class SplitGenerator implements Runnable {
     private final boolean hasBase;
 
     SplitGenerator(Context context, FileSystem fs,
-                   FileStatus file, FileInfo fileInfo,
+                   FileStatus file,
                    boolean isOriginal,
                    List<Long> deltas,
                    boolean hasBase) throws IOException {
@@ -628,7 +575,6 @@ static final class SplitGenerator implements Runnable {
       this.fs = fs;
       this.file = file;
       this.blockSize = file.getBlockSize();
-      this.fileInfo = fileInfo;
       locations = SHIMS.getLocations(fs, file);
       this.isOriginal = isOriginal;
       this.deltas = deltas;
@@ -838,35 +784,15 @@ public void run() {
 
     private void populateAndCacheStripeDetails() {
       try {
-        Reader orcReader;
-        if (fileInfo != null) {
-          stripes = fileInfo.stripeInfos;
-          fileMetaInfo = fileInfo.fileMetaInfo;
-          metadata = fileInfo.metadata;
-          types = fileInfo.types;
-          // For multiple runs, in case sendSplitsInFooter changes
-          if (fileMetaInfo == null && context.footerInSplits) {
-            orcReader = OrcFile.createReader(file.getPath(),
-                OrcFile.readerOptions(context.conf).filesystem(fs));
-            fileInfo.fileMetaInfo = ((ReaderImpl) orcReader).getFileMetaInfo();
-            fileInfo.metadata = orcReader.getMetadata();
-            fileInfo.types = orcReader.getTypes();
-          }
-        } else {
-          orcReader = OrcFile.createReader(file.getPath(),
-              OrcFile.readerOptions(context.conf).filesystem(fs));
-          stripes = orcReader.getStripes();
-          metadata = orcReader.getMetadata();
-          types = orcReader.getTypes();
-          fileMetaInfo = context.footerInSplits ?
-              ((ReaderImpl) orcReader).getFileMetaInfo() : null;
-          if (context.cacheStripeDetails) {
-            // Populate into cache.
-            Context.footerCache.put(file.getPath(),
-                new FileInfo(file.getModificationTime(), file.getLen(), stripes,
-                    metadata, types, fileMetaInfo));
-          }
-        }
+        // the file status lets the reader use the metadata cache
+        Reader orcReader = OrcFile.createReader(file.getPath(),
+            OrcFile.readerOptions(context.conf).filesystem(fs)
+                .fileStatus(file));
+        stripes = orcReader.getStripes();
+        metadata = orcReader.getMetadata();
+        types = orcReader.getTypes();
+        fileMetaInfo = context.footerInSplits ?
+            ((ReaderImpl) orcReader).getFileMetaInfo() : null;
       } catch (Throwable th) {
         if (!(th instanceof IOException)) {
           LOG.error("Unexpected Exception", th);
@@ -930,9 +856,12 @@ static List<OrcSplit> generateSplitsInfo(Configuration conf)
 	    }
 	    throw new InvalidInputException(errors);
 	  }
-    if (context.cacheStripeDetails) {
-      LOG.info("FooterCacheHitRatio: " + context.cacheHitCounter.get() + "/"
-          + context.numFilesCounter.get());
+    OrcFileMetadataCache cache = OrcFileMetadataCache.getInstance(conf);
+    if (cache != null) {
+      CacheStats stats = cache.getStats();
+      LOG.info("ORC metadata cache hits: " + stats.hitCount() + " misses: " +
+          stats.missCount() + " evictions: " + stats.evictionCount() +
+          " entries: " + cache.getEntryCount());
     }
 	  return context.splits;
   }
@@ -947,31 +876,17 @@ public InputSplit[] getSplits(JobConf job,
   }
 
   /**
-   * FileInfo.
-   *
-   * Stores information relevant to split generation for an ORC File.
-   *
+   * Create a reader for a whole file. The reader gets the file status, so
+   * that it can use the metadata cache.
+   * @param path the file to read
+   * @param conf the configuration
+   * @return the reader
    */
-  private static class FileInfo {
-    long modificationTime;
-    long size;
-    List<StripeInformation> stripeInfos;
-    ReaderImpl.FileMetaInfo fileMetaInfo;
-    Metadata metadata;
-    List<OrcProto.Type> types;
-
-
-    FileInfo(long modificationTime, long size,
-             List<StripeInformation> stripeInfos,
-             Metadata metadata, List<OrcProto.Type> types,
-             ReaderImpl.FileMetaInfo fileMetaInfo) {
-      this.modificationTime = modificationTime;
-      this.size = size;
-      this.stripeInfos = stripeInfos;
-      this.fileMetaInfo = fileMetaInfo;
-      this.metadata = metadata;
-      this.types = types;
-    }
+  static Reader createReader(Path path,
+                             Configuration conf) throws IOException {
+    FileSystem fs = path.getFileSystem(conf);
+    return OrcFile.createReader(path, OrcFile.readerOptions(conf)
+        .filesystem(fs).fileStatus(fs.getFileStatus(path)));
   }
 
   @SuppressWarnings("unchecked")
@@ -994,9 +909,9 @@ private static class FileInfo {
       if (vectorMode) {
         return createVectorizedReader(inputSplit, conf, reporter);
       }
-      return new OrcRecordReader(OrcFile.createReader(
-          ((FileSplit) inputSplit).getPath(),
-          OrcFile.readerOptions(conf)), conf, (FileSplit) inputSplit);
+      return new OrcRecordReader(createReader(
+          ((FileSplit) inputSplit).getPath(), conf), conf,
+          (FileSplit) inputSplit);
     }
 
     OrcSplit split = (OrcSplit) inputSplit;
@@ -1007,8 +922,8 @@ private static class FileInfo {
       if (vectorMode) {
         return createVectorizedReader(inputSplit, conf, reporter);
       } else {
-        return new OrcRecordReader(OrcFile.createReader(split.getPath(),
-            OrcFile.readerOptions(conf)), conf, split);
+        return new OrcRecordReader(createReader(split.getPath(), conf),
+            conf, split);
       }
     }
 
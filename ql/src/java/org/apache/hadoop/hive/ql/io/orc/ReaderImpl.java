@@ -31,6 +31,7 @@
 import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileStatus;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.hive.ql.io.orc.OrcProto.Type;
@@ -285,19 +286,52 @@ static void checkOrcVersion(Log log, Path path, List<Integer> version) {
     this.path = path;
     this.conf = options.getConfiguration();
 
+    // the metadata cache is used when we know which version of the file
+    // this is and the metadata wasn't passed in
+    OrcFileMetadataCache cache = null;
+    OrcFileMetadataCache.Key cacheKey = null;
+    FileStatus fileStatus = options.getFileStatus();
+    if (options.getFileMetaInfo() == null && fileStatus != null &&
+        conf != null) {
+      cache = OrcFileMetadataCache.getInstance(conf);
+      if (cache != null) {
+        cacheKey = new OrcFileMetadataCache.Key(path,
+            Math.min(fileStatus.getLen(), options.getMaxLength()),
+            fileStatus.getModificationTime());
+      }
+    }
+    OrcFileMetadataCache.Entry cached =
+        cache == null ? null : cache.get(cacheKey);
+
     FileMetaInfo footerMetaData;
-    if (options.getFileMetaInfo() != null) {
-      footerMetaData = options.getFileMetaInfo();
+    MetaInfoObjExtractor rInfo;
+    if (cached != null) {
+      footerMetaData = cached.getFileMetaInfo();
+      rInfo = new MetaInfoObjExtractor(footerMetaData, cached.getFooter(),
+          cached.getMetadata());
     } else {
-      footerMetaData = extractMetaInfoFromFooter(fs, path,
-          options.getMaxLength());
-    }
-    MetaInfoObjExtractor rInfo =
-        new MetaInfoObjExtractor(footerMetaData.compressionType,
-                                 footerMetaData.bufferSize,
-                                 footerMetaData.metadataSize,
-                                 footerMetaData.footerBuffer
-                                 );
+      if (options.getFileMetaInfo() != null) {
+        footerMetaData = options.getFileMetaInfo();
+      } else {
+        long maxLength = options.getMaxLength();
+        if (fileStatus != null && maxLength == Long.MAX_VALUE) {
+          maxLength = fileStatus.getLen();
+        }
+        footerMetaData = extractMetaInfoFromFooter(fs, path, maxLength);
+      }
+      rInfo = new MetaInfoObjExtractor(footerMetaData.compressionType,
+                                       footerMetaData.bufferSize,
+                                       footerMetaData.metadataSize,
+                                       footerMetaData.footerBuffer
+                                       );
+      if (cache != null) {
+        cache.put(cacheKey, new OrcFileMetadataCache.Entry(
+            new FileMetaInfo(footerMetaData.compressionType,
+                footerMetaData.bufferSize, footerMetaData.metadataSize,
+                footerMetaData.footerBuffer.duplicate()),
+            rInfo.footer, rInfo.metadata));
+      }
+    }
     this.footerByteBuffer = footerMetaData.footerBuffer;
     this.compressionKind = rInfo.compressionKind;
     this.codec = rInfo.codec;
@@ -434,6 +468,21 @@ private static FileMetaInfo extractMetaInfoFromFooter(FileSystem fs,
       footerBuffer.position(position);
       this.inspector = OrcStruct.createObjectInspector(0, footer.getTypesList());
     }
+
+    /**
+     * Use the footer and metadata that were already parsed.
+     */
+    MetaInfoObjExtractor(FileMetaInfo fileMetaInfo, OrcProto.Footer footer,
+                         OrcProto.Metadata metadata) {
+      this.compressionKind =
+          CompressionKind.valueOf(fileMetaInfo.compressionType);
+      this.bufferSize = fileMetaInfo.bufferSize;
+      this.codec = WriterImpl.createCodec(compressionKind);
+      this.metadataSize = fileMetaInfo.metadataSize;
+      this.metadata = metadata;
+      this.footer = footer;
+      this.inspector = OrcStruct.createObjectInspector(0, footer.getTypesList());
+    }
   }
 
   /**
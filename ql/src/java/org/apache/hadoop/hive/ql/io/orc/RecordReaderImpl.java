@@ -17,6 +17,9 @@
  */
 package org.apache.hadoop.hive.ql.io.orc;
 
+import static org.apache.hadoop.hive.conf.HiveConf.ConfVars.HIVE_ORC_READ_AHEAD;
+import static org.apache.hadoop.hive.conf.HiveConf.ConfVars.HIVE_ORC_READ_AHEAD_THREADS;
+import static org.apache.hadoop.hive.conf.HiveConf.ConfVars.HIVE_ORC_READ_COALESCE_GAP;
 import static org.apache.hadoop.hive.conf.HiveConf.ConfVars.HIVE_ORC_ZEROCOPY;
 
 import java.io.EOFException;
@@ -26,10 +29,16 @@
 import java.sql.Timestamp;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.apache.commons.lang.StringUtils;
 import org.apache.commons.lang.builder.HashCodeBuilder;
@@ -71,6 +80,7 @@
 import org.apache.hadoop.io.Text;
 
 import com.google.common.collect.ComparisonChain;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 class RecordReaderImpl implements RecordReader {
 
@@ -101,6 +111,9 @@ class RecordReaderImpl implements RecordReader {
   private final List<PredicateLeaf> sargLeaves;
   // an array the same length as the sargLeaves that map them to column ids
   private final int[] filterColumns;
+  // the bloom filters of the current stripe for each row group, only read
+  // for the columns that are in the sarg
+  private final BloomFilter[][] bloomFilters;
   // an array about which row groups aren't skipped
   private boolean[] includedRowGroups = null;
   private final Configuration conf;
@@ -108,6 +121,19 @@ class RecordReaderImpl implements RecordReader {
   private final ByteBufferAllocatorPool pool = new ByteBufferAllocatorPool();
   private final ZeroCopyReaderShim zcr;
 
+  // the threads of the process that read ahead
+  private static ExecutorService sharedReadAheadPool = null;
+  // the stream and threads for reading ahead, which are null if the reads
+  // are done synchronously by the reader
+  private final FSDataInputStream readAheadFile;
+  private final ExecutorService readAheadPool;
+  // the largest gap between the ranges that are read together
+  private final long readAheadGap;
+  // the stripe after the current one, which is read in the background
+  private Future<PrefetchedStripe> nextStripe = null;
+  // the index area of the current stripe, if it was read ahead
+  private ByteBuffer stripeIndexArea = null;
+
   // this is an implementation copied from ElasticByteBufferPool in hadoop-2,
   // which lacks a clear()/clean() operation
   public final static class ByteBufferAllocatorPool implements ByteBufferPoolShim {
@@ -276,10 +302,28 @@ static int[] mapSargColumns(List<PredicateLeaf> sargLeaves,
       this.zcr = null;
     }
 
+    // the zero copy reads are positioned reads of the stream, so they can't
+    // be done in the background. The footers are decompressed by the read
+    // ahead threads, so the codec must not have any state.
+    if (zcr == null && conf != null &&
+        HiveConf.getBoolVar(conf, HIVE_ORC_READ_AHEAD) &&
+        (codec == null || codec instanceof ZlibCodec ||
+            codec instanceof SnappyCodec)) {
+      this.readAheadFile = fileSystem.open(path);
+      this.readAheadPool = getReadAheadPool(
+          HiveConf.getIntVar(conf, HIVE_ORC_READ_AHEAD_THREADS));
+      this.readAheadGap = HiveConf.getLongVar(conf, HIVE_ORC_READ_COALESCE_GAP);
+    } else {
+      this.readAheadFile = null;
+      this.readAheadPool = null;
+      this.readAheadGap = 0;
+    }
+
     firstRow = skippedRows;
     totalRowCount = rows;
     reader = createTreeReader(path, 0, types, included, conf);
     indexes = new OrcProto.RowIndex[types.size()];
+    bloomFilters = new BloomFilter[types.size()][];
     rowIndexStride = strideRate;
     advanceToNextRow(0L);
   }
@@ -2167,14 +2211,19 @@ private static TreeReader createTreeReader(Path path,
 
   OrcProto.StripeFooter readStripeFooter(StripeInformation stripe
                                          ) throws IOException {
+    return readStripeFooter(file, stripe);
+  }
+
+  private OrcProto.StripeFooter readStripeFooter(FSDataInputStream in,
+                                                 StripeInformation stripe
+                                                 ) throws IOException {
     long offset = stripe.getOffset() + stripe.getIndexLength() +
         stripe.getDataLength();
     int tailLength = (int) stripe.getFooterLength();
 
     // read the footer
     ByteBuffer tailBuf = ByteBuffer.allocate(tailLength);
-    file.seek(offset);
-    file.readFully(tailBuf.array(), tailBuf.arrayOffset(), tailLength);
+    in.readFully(offset, tailBuf.array(), tailBuf.arrayOffset(), tailLength);
     return OrcProto.StripeFooter.parseFrom(InStream.create("footer",
         new ByteBuffer[]{tailBuf}, new long[]{0}, tailLength, codec,
         bufferSize));
@@ -2263,6 +2312,22 @@ static Object getMin(ColumnStatistics index) {
    */
   static TruthValue evaluatePredicate(OrcProto.ColumnStatistics index,
                                       PredicateLeaf predicate) {
+    return evaluatePredicate(index, predicate, null);
+  }
+
+  /**
+   * Evaluate a predicate with respect to the statistics and the bloom filter
+   * from the column that is referenced in the predicate.
+   * @param index the statistics for the column mentioned in the predicate
+   * @param predicate the leaf predicate we need to evaluation
+   * @param bloomFilter the bloom filter of the row group or null if the
+   *   column doesn't have one
+   * @return the set of truth values that may be returned for the given
+   *   predicate.
+   */
+  static TruthValue evaluatePredicate(OrcProto.ColumnStatistics index,
+                                      PredicateLeaf predicate,
+                                      BloomFilter bloomFilter) {
     ColumnStatistics cs = ColumnStatisticsImpl.deserialize(index);
     Object minValue = getMin(cs);
     // if we didn't have any values, everything must have been null
@@ -2274,7 +2339,62 @@ static TruthValue evaluatePredicate(OrcProto.ColumnStatistics index,
       }
     }
     Object maxValue = getMax(cs);
-    return evaluatePredicateRange(predicate, minValue, maxValue);
+    TruthValue result = evaluatePredicateRange(predicate, minValue, maxValue);
+    if (bloomFilter != null && result != TruthValue.NO_NULL &&
+        (predicate.getOperator() == PredicateLeaf.Operator.EQUALS ||
+         predicate.getOperator() == PredicateLeaf.Operator.IN) &&
+        !evaluateBloomFilter(predicate, minValue, bloomFilter)) {
+      result = TruthValue.NO_NULL;
+    }
+    return result;
+  }
+
+  /**
+   * Check whether any of the literals of an EQUALS or IN predicate may be in
+   * the row group.
+   * @param predicate the EQUALS or IN predicate
+   * @param statsObj the minimum value of the column, which gives the type
+   *   the literals need to be converted to
+   * @param bloomFilter the bloom filter of the row group
+   * @return false if none of the literals are in the row group
+   */
+  static boolean evaluateBloomFilter(PredicateLeaf predicate, Object statsObj,
+                                     BloomFilter bloomFilter) {
+    List<Object> literals;
+    if (predicate.getOperator() == PredicateLeaf.Operator.IN) {
+      literals = predicate.getLiteralList();
+    } else {
+      literals = Collections.singletonList(predicate.getLiteral());
+    }
+    for (Object literal : literals) {
+      if (literal == null) {
+        continue;
+      }
+      Object predObj;
+      try {
+        predObj = getBaseObjectForComparison(literal, statsObj);
+      } catch (NumberFormatException nfe) {
+        return true;
+      }
+      if (statsObj instanceof Long && predObj instanceof Long) {
+        if (bloomFilter.testLong((Long) predObj)) {
+          return true;
+        }
+      } else if (statsObj instanceof Double && predObj instanceof Double) {
+        if (bloomFilter.testDouble((Double) predObj)) {
+          return true;
+        }
+      } else if (statsObj instanceof String && predObj instanceof String) {
+        Text text = new Text((String) predObj);
+        if (bloomFilter.testBytes(text.getBytes(), 0, text.getLength())) {
+          return true;
+        }
+      } else {
+        // the bloom filter can't be used with this type
+        return true;
+      }
+    }
+    return false;
   }
 
   static TruthValue evaluatePredicateRange(PredicateLeaf predicate, Object min,
@@ -2460,7 +2580,9 @@ private boolean[] pickRowGroups() throws IOException {
         if (filterColumns[pred] != -1) {
           OrcProto.ColumnStatistics stats =
               indexes[filterColumns[pred]].getEntry(rowGroup).getStatistics();
-          leafValues[pred] = evaluatePredicate(stats, sargLeaves.get(pred));
+          BloomFilter[] columnBloomFilters = bloomFilters[filterColumns[pred]];
+          leafValues[pred] = evaluatePredicate(stats, sargLeaves.get(pred),
+              columnBloomFilters == null ? null : columnBloomFilters[rowGroup]);
           if (LOG.isDebugEnabled()) {
             LOG.debug("Stats = " + stats);
             LOG.debug("Setting " + sargLeaves.get(pred) + " to " +
@@ -2510,8 +2632,16 @@ private void clearStreams() throws IOException {
    */
   private void readStripe() throws IOException {
     StripeInformation stripe = stripes.get(currentStripe);
-    stripeFooter = readStripeFooter(stripe);
+    PrefetchedStripe prefetched = takePrefetchedStripe();
     clearStreams();
+    if (prefetched != null) {
+      stripeFooter = prefetched.footer;
+      stripeIndexArea = prefetched.index == null ? null :
+          getResult(prefetched.index).chunk;
+    } else {
+      stripeFooter = readStripeFooter(stripe);
+      stripeIndexArea = null;
+    }
     // setup the position in the stripe
     rowCountInStripe = stripe.getNumberOfRows();
     rowInStripe = 0;
@@ -2522,6 +2652,7 @@ private void readStripe() throws IOException {
     // reset all of the indexes
     for(int i=0; i < indexes.length; ++i) {
       indexes[i] = null;
+      bloomFilters[i] = null;
     }
     includedRowGroups = pickRowGroups();
 
@@ -2535,8 +2666,12 @@ private void readStripe() throws IOException {
 
     // if we haven't skipped the whole stripe, read the data
     if (rowInStripe < rowCountInStripe) {
-      // if we aren't projecting columns or filtering rows, just read it all
-      if (included == null && includedRowGroups == null) {
+      if (prefetched != null && prefetched.data != null) {
+        bufferChunks = getResults(prefetched.data);
+        createStreams(stripeFooter.getStreamsList(), bufferChunks, included,
+            codec, bufferSize, streams);
+      } else if (included == null && includedRowGroups == null) {
+        // if we aren't projecting columns or filtering rows, just read it all
         readAllDataStreams(stripe);
       } else {
         readPartialDataStreams(stripe);
@@ -2547,6 +2682,137 @@ private void readStripe() throws IOException {
         seekToRowEntry((int) (rowInStripe / rowIndexStride));
       }
     }
+    if (readAheadPool != null && currentStripe + 1 < stripes.size()) {
+      readAhead(currentStripe + 1);
+    }
+  }
+
+  private static synchronized ExecutorService getReadAheadPool(int threads) {
+    if (sharedReadAheadPool == null) {
+      sharedReadAheadPool = Executors.newFixedThreadPool(threads,
+          new ThreadFactoryBuilder().setDaemon(true)
+              .setNameFormat("ORC_READ_AHEAD #%d").build());
+    }
+    return sharedReadAheadPool;
+  }
+
+  /**
+   * A stripe that is read in the background. The row groups of the stripe
+   * are picked when it becomes the current stripe, so if there is a search
+   * argument, the index area is read ahead instead of the data.
+   */
+  private static final class PrefetchedStripe {
+    final int stripeIndex;
+    final OrcProto.StripeFooter footer;
+    // the index area of the stripe or null
+    final Future<BufferChunk> index;
+    // the data of the included columns or null
+    final List<Future<BufferChunk>> data;
+
+    PrefetchedStripe(int stripeIndex, OrcProto.StripeFooter footer,
+                     Future<BufferChunk> index,
+                     List<Future<BufferChunk>> data) {
+      this.stripeIndex = stripeIndex;
+      this.footer = footer;
+      this.index = index;
+      this.data = data;
+    }
+  }
+
+  /**
+   * Start reading a stripe in the background. The footer is read first, and
+   * then the ranges it points to are read in parallel.
+   */
+  private void readAhead(final int stripeIndex) {
+    final StripeInformation stripe = stripes.get(stripeIndex);
+    nextStripe = readAheadPool.submit(new Callable<PrefetchedStripe>() {
+      @Override
+      public PrefetchedStripe call() throws IOException {
+        OrcProto.StripeFooter footer = readStripeFooter(readAheadFile, stripe);
+        if (sarg != null && rowIndexStride != 0) {
+          List<DiskRange> ranges = new ArrayList<DiskRange>(1);
+          ranges.add(new DiskRange(0, stripe.getIndexLength()));
+          return new PrefetchedStripe(stripeIndex, footer,
+              readDiskRangesAhead(stripe.getOffset(), ranges).get(0), null);
+        }
+        List<DiskRange> ranges;
+        if (included == null) {
+          ranges = new ArrayList<DiskRange>(1);
+          ranges.add(new DiskRange(stripe.getIndexLength(),
+              stripe.getIndexLength() + stripe.getDataLength()));
+        } else {
+          ranges = planReadPartialDataStreams(footer.getStreamsList(), null,
+              included, null, codec != null, footer.getColumnsList(), types,
+              bufferSize);
+          mergeDiskRanges(ranges, readAheadGap);
+        }
+        return new PrefetchedStripe(stripeIndex, footer, null,
+            readDiskRangesAhead(stripe.getOffset(), ranges));
+      }
+    });
+  }
+
+  /**
+   * Get the stripe that was read ahead, if it is the current stripe.
+   * @return the prefetched stripe or null if there isn't one
+   */
+  private PrefetchedStripe takePrefetchedStripe() throws IOException {
+    if (nextStripe == null) {
+      return null;
+    }
+    Future<PrefetchedStripe> future = nextStripe;
+    nextStripe = null;
+    PrefetchedStripe result = getResult(future);
+    // after a seek, the stripe that was read ahead isn't needed
+    return result.stripeIndex == currentStripe ? result : null;
+  }
+
+  /**
+   * Read the ranges of a stripe with the read ahead threads. The ranges are
+   * read with positioned reads of a separate stream, so that they don't
+   * move the position of the stream the reader uses.
+   * @param base the offset of the stripe in the file
+   * @param ranges the disk ranges within the stripe to read
+   * @return the pending reads of the ranges
+   */
+  private List<Future<BufferChunk>> readDiskRangesAhead(final long base,
+      List<DiskRange> ranges) {
+    List<Future<BufferChunk>> result =
+        new ArrayList<Future<BufferChunk>>(ranges.size());
+    for(final DiskRange range: ranges) {
+      result.add(readAheadPool.submit(new Callable<BufferChunk>() {
+        @Override
+        public BufferChunk call() throws IOException {
+          byte[] buffer = new byte[(int) (range.end - range.offset)];
+          readAheadFile.readFully(base + range.offset, buffer, 0,
+              buffer.length);
+          return new BufferChunk(ByteBuffer.wrap(buffer), range.offset);
+        }
+      }));
+    }
+    return result;
+  }
+
+  private static <T> T getResult(Future<T> future) throws IOException {
+    try {
+      return future.get();
+    } catch (InterruptedException e) {
+      throw new IOException("Interrupted while reading ahead", e);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof IOException) {
+        throw (IOException) e.getCause();
+      }
+      throw new IOException("Failed to read ahead", e.getCause());
+    }
+  }
+
+  private static List<BufferChunk> getResults(List<Future<BufferChunk>> futures
+                                              ) throws IOException {
+    List<BufferChunk> result = new ArrayList<BufferChunk>(futures.size());
+    for(Future<BufferChunk> future: futures) {
+      result.add(getResult(future));
+    }
+    return result;
   }
 
   private void readAllDataStreams(StripeInformation stripe
@@ -2555,7 +2821,12 @@ private void readAllDataStreams(StripeInformation stripe
     long end = start + stripe.getDataLength();
     // explicitly trigger 1 big read
     DiskRange[] ranges = new DiskRange[]{new DiskRange(start, end)};
-    bufferChunks = readDiskRanges(file, stripe.getOffset(), Arrays.asList(ranges));
+    if (readAheadPool != null) {
+      bufferChunks = getResults(readDiskRangesAhead(stripe.getOffset(),
+          Arrays.asList(ranges)));
+    } else {
+      bufferChunks = readDiskRanges(file, stripe.getOffset(), Arrays.asList(ranges));
+    }
     List<OrcProto.Stream> streamDescriptions = stripeFooter.getStreamsList();
     createStreams(streamDescriptions, bufferChunks, null, codec, bufferSize, streams);
   }
@@ -2787,10 +3058,21 @@ static boolean isDictionary(OrcProto.Stream.Kind kind,
    * @param ranges the list of disk ranges to merge
    */
   static void mergeDiskRanges(List<DiskRange> ranges) {
+    mergeDiskRanges(ranges, 0);
+  }
+
+  /**
+   * Update the disk ranges to collapse the ranges that are at most gap bytes
+   * apart, so that they are read with one read. It assumes that the ranges
+   * are sorted.
+   * @param ranges the list of disk ranges to merge
+   * @param gap the largest number of bytes between ranges that are merged
+   */
+  static void mergeDiskRanges(List<DiskRange> ranges, long gap) {
     DiskRange prev = null;
     for(int i=0; i < ranges.size(); ++i) {
       DiskRange current = ranges.get(i);
-      if (prev != null && overlap(prev.offset, prev.end,
+      if (prev != null && overlap(prev.offset, prev.end + gap,
           current.offset, current.end)) {
         prev.offset = Math.min(prev.offset, current.offset);
         prev.end = Math.max(prev.end, current.end);
@@ -2933,11 +3215,16 @@ private void readPartialDataStreams(StripeInformation stripe
     if (LOG.isDebugEnabled()) {
       LOG.debug("chunks = " + stringifyDiskRanges(chunks));
     }
-    mergeDiskRanges(chunks);
+    mergeDiskRanges(chunks, readAheadGap);
     if (LOG.isDebugEnabled()) {
       LOG.debug("merge = " + stringifyDiskRanges(chunks));
     }
-    bufferChunks = readDiskRanges(file, stripe.getOffset(), chunks);
+    if (readAheadPool != null) {
+      bufferChunks = getResults(readDiskRangesAhead(stripe.getOffset(),
+          chunks));
+    } else {
+      bufferChunks = readDiskRanges(file, stripe.getOffset(), chunks);
+    }
     createStreams(streamList, bufferChunks, included, codec, bufferSize,
         streams);
   }
@@ -3075,6 +3362,13 @@ public void close() throws IOException {
     clearStreams();
     pool.clear();
     file.close();
+    if (readAheadFile != null) {
+      if (nextStripe != null) {
+        nextStripe.cancel(false);
+        nextStripe = null;
+      }
+      readAheadFile.close();
+    }
   }
 
   @Override
@@ -3119,19 +3413,72 @@ OrcProto.RowIndex[] readRowIndex(int stripeIndex) throws IOException {
       if (stream.getKind() == OrcProto.Stream.Kind.ROW_INDEX) {
         int col = stream.getColumn();
         if ((included == null || included[col]) && indexes[col] == null) {
-          byte[] buffer = new byte[(int) stream.getLength()];
-          file.seek(offset);
-          file.readFully(buffer);
+          ByteBuffer buffer = readIndexStream(stripeIndex, offset,
+              (int) stream.getLength());
           indexes[col] = OrcProto.RowIndex.parseFrom(InStream.create("index",
-              new ByteBuffer[] {ByteBuffer.wrap(buffer)}, new long[]{0},
+              new ByteBuffer[] {buffer}, new long[]{0},
               stream.getLength(), codec, bufferSize));
         }
+      } else if (stream.getKind() == OrcProto.Stream.Kind.BLOOM_FILTER &&
+          stripeIndex == currentStripe) {
+        // the bloom filters are only used for picking the row groups of the
+        // current stripe
+        int col = stream.getColumn();
+        if (isFilterColumn(col) && bloomFilters[col] == null) {
+          ByteBuffer buffer = readIndexStream(stripeIndex, offset,
+              (int) stream.getLength());
+          OrcProto.BloomFilterIndex bloomFilterIndex =
+              OrcProto.BloomFilterIndex.parseFrom(InStream.create("bloom_filter",
+                  new ByteBuffer[] {buffer}, new long[]{0},
+                  stream.getLength(), codec, bufferSize));
+          BloomFilter[] rowGroupFilters =
+              new BloomFilter[bloomFilterIndex.getBloomFilterCount()];
+          for (int i = 0; i < rowGroupFilters.length; ++i) {
+            rowGroupFilters[i] =
+                BloomFilter.deserialize(bloomFilterIndex.getBloomFilter(i));
+          }
+          bloomFilters[col] = rowGroupFilters;
+        }
       }
       offset += stream.getLength();
     }
     return indexes;
   }
 
+  /**
+   * Read a stream from the index area of a stripe. The index area of the
+   * current stripe may have been read ahead.
+   * @param stripeIndex the stripe
+   * @param offset the offset of the stream in the file
+   * @param length the length of the stream
+   * @return the bytes of the stream
+   */
+  private ByteBuffer readIndexStream(int stripeIndex, long offset,
+                                     int length) throws IOException {
+    if (stripeIndex == currentStripe && stripeIndexArea != null) {
+      ByteBuffer result = stripeIndexArea.duplicate();
+      int start = (int) (offset - stripes.get(stripeIndex).getOffset());
+      result.position(start);
+      result.limit(start + length);
+      return result.slice();
+    }
+    byte[] buffer = new byte[length];
+    file.seek(offset);
+    file.readFully(buffer);
+    return ByteBuffer.wrap(buffer);
+  }
+
+  private boolean isFilterColumn(int column) {
+    if (filterColumns != null) {
+      for (int filterColumn : filterColumns) {
+        if (filterColumn == column) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
   private void seekToRowEntry(int rowEntry) throws IOException {
     PositionProvider[] index = new PositionProvider[indexes.length];
     for(int i=0; i < indexes.length; ++i) {
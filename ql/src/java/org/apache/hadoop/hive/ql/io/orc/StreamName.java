@@ -75,6 +75,7 @@ public static Area getArea(OrcProto.Stream.Kind kind) {
     switch (kind) {
       case ROW_INDEX:
       case DICTIONARY_COUNT:
+      case BLOOM_FILTER:
         return Area.INDEX;
       default:
         return Area.DATA;
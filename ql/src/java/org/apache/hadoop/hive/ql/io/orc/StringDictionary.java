@@ -0,0 +1,112 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hive.ql.io.orc;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import org.apache.hadoop.io.Text;
+
+/**
+ * The set of distinct strings that a string column writer collects for
+ * dictionary encoding. Each distinct string gets an id in the order it was
+ * first added, and the strings are visited in sorted order when the
+ * dictionary is written.
+ */
+interface StringDictionary {
+
+  /**
+   * Add a string to the dictionary.
+   * @param value the string to add
+   * @return the id of the string, which is its position in insertion order
+   */
+  int add(Text value);
+
+  /**
+   * Get the number of distinct strings in the dictionary.
+   * @return the number of strings
+   */
+  int size();
+
+  /**
+   * The information about each string.
+   */
+  public interface VisitorContext {
+    /**
+     * Get the position where the key was originally added.
+     * @return the number returned by add.
+     */
+    int getOriginalPosition();
+
+    /**
+     * Write the bytes for the string to the given output stream.
+     * @param out the stream to write to.
+     * @throws IOException
+     */
+    void writeBytes(OutputStream out) throws IOException;
+
+    /**
+     * Get the original string.
+     * @return the string
+     */
+    Text getText();
+
+    /**
+     * Get the number of bytes.
+     * @return the string's length in bytes
+     */
+    int getLength();
+  }
+
+  /**
+   * The interface for visitors.
+   */
+  public interface Visitor {
+    /**
+     * Called once for each string of the dictionary in sort order.
+     * @param context the information about each string
+     * @throws IOException
+     */
+    void visit(VisitorContext context) throws IOException;
+  }
+
+  /**
+   * Visit all of the strings in the dictionary in sorted order.
+   * @param visitor the action to be applied to each string
+   * @throws IOException
+   */
+  void visit(Visitor visitor) throws IOException;
+
+  /**
+   * Get the string with the given id.
+   * @param result the text to set to the string
+   * @param originalPosition the id returned by add
+   */
+  void getText(Text result, int originalPosition);
+
+  /**
+   * Reset the dictionary to empty.
+   */
+  void clear();
+
+  /**
+   * Calculate the approximate size in memory.
+   * @return the number of bytes used in storing the dictionary.
+   */
+  long getSizeInBytes();
+}
@@ -0,0 +1,276 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hive.ql.io.orc;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import org.apache.hadoop.io.Text;
+
+/**
+ * A string dictionary that uses an open addressing hash table to find the
+ * distinct strings. Like StringRedBlackTree, the strings are stored as UTF-8
+ * bytes and an offset for each entry, but adding a string costs a hash and
+ * usually a single comparison. The keys are only sorted when the dictionary
+ * is visited.
+ */
+class StringHashDictionary implements StringDictionary {
+  private static final float LOAD_FACTOR = 0.75f;
+  private static final int INSERTION_SORT_SIZE = 16;
+
+  private final DynamicByteArray byteArray = new DynamicByteArray();
+  private final DynamicIntArray keyOffsets;
+  private final DynamicIntArray hashCodes;
+  private final int initialBuckets;
+  private final Text newKey = new Text();
+  private final Text sortKey = new Text();
+  // the id + 1 of the key in each bucket or 0 for an empty bucket; allocated
+  // by the first add
+  private int[] buckets = null;
+  private int threshold = 0;
+
+  public StringHashDictionary(int initialCapacity) {
+    keyOffsets = new DynamicIntArray(initialCapacity);
+    hashCodes = new DynamicIntArray(initialCapacity);
+    int bucketCount = 1;
+    while (bucketCount * LOAD_FACTOR < initialCapacity) {
+      bucketCount <<= 1;
+    }
+    initialBuckets = bucketCount;
+  }
+
+  public int add(String value) {
+    newKey.set(value);
+    return add(newKey);
+  }
+
+  public int add(Text value) {
+    if (buckets == null) {
+      allocateBuckets(initialBuckets);
+    }
+    byte[] bytes = value.getBytes();
+    int length = value.getLength();
+    int hash = hash(bytes, length);
+    int mask = buckets.length - 1;
+    int bucket = hash & mask;
+    while (buckets[bucket] != 0) {
+      int id = buckets[bucket] - 1;
+      if (hashCodes.get(id) == hash &&
+          byteArray.compare(bytes, 0, length, keyOffsets.get(id),
+                            getKeyLength(id)) == 0) {
+        return id;
+      }
+      bucket = (bucket + 1) & mask;
+    }
+    int id = keyOffsets.size();
+    keyOffsets.add(byteArray.add(bytes, 0, length));
+    hashCodes.add(hash);
+    buckets[bucket] = id + 1;
+    if (id + 1 > threshold) {
+      rehash(buckets.length * 2);
+    }
+    return id;
+  }
+
+  /**
+   * Hash the bytes of a key. The multiplicative hash is followed by the
+   * murmur3 finalizer, because linear probing uses the low bits.
+   */
+  private static int hash(byte[] bytes, int length) {
+    int hash = 1;
+    for (int i = 0; i < length; ++i) {
+      hash = 31 * hash + bytes[i];
+    }
+    hash ^= hash >>> 16;
+    hash *= 0x85ebca6b;
+    hash ^= hash >>> 13;
+    hash *= 0xc2b2ae35;
+    hash ^= hash >>> 16;
+    return hash;
+  }
+
+  private void allocateBuckets(int bucketCount) {
+    buckets = new int[bucketCount];
+    threshold = (int) (bucketCount * LOAD_FACTOR);
+  }
+
+  private void rehash(int bucketCount) {
+    allocateBuckets(bucketCount);
+    int mask = bucketCount - 1;
+    int size = keyOffsets.size();
+    for (int id = 0; id < size; ++id) {
+      int bucket = hashCodes.get(id) & mask;
+      while (buckets[bucket] != 0) {
+        bucket = (bucket + 1) & mask;
+      }
+      buckets[bucket] = id + 1;
+    }
+  }
+
+  private int getKeyLength(int id) {
+    if (id + 1 == keyOffsets.size()) {
+      return byteArray.size() - keyOffsets.get(id);
+    } else {
+      return keyOffsets.get(id + 1) - keyOffsets.get(id);
+    }
+  }
+
+  public int size() {
+    return keyOffsets.size();
+  }
+
+  private class VisitorContextImpl implements VisitorContext {
+    private int originalPosition;
+    private int start;
+    private int length;
+    private final Text text = new Text();
+
+    public int getOriginalPosition() {
+      return originalPosition;
+    }
+
+    public Text getText() {
+      byteArray.setText(text, start, length);
+      return text;
+    }
+
+    public void writeBytes(OutputStream out) throws IOException {
+      byteArray.write(out, start, length);
+    }
+
+    public int getLength() {
+      return length;
+    }
+
+    void setPosition(int position) {
+      originalPosition = position;
+      start = keyOffsets.get(position);
+      length = getKeyLength(position);
+    }
+  }
+
+  /**
+   * Compare the key in sortKey with the key with the given id.
+   */
+  private int compareSortKey(int id) {
+    return byteArray.compare(sortKey.getBytes(), 0, sortKey.getLength(),
+                             keyOffsets.get(id), getKeyLength(id));
+  }
+
+  private void setSortKey(int id) {
+    byteArray.setText(sortKey, keyOffsets.get(id), getKeyLength(id));
+  }
+
+  /**
+   * Sort the ids between left and right, inclusive, by their keys. Since the
+   * keys are distinct, no two of them compare as equal.
+   */
+  private void sort(int[] ids, int left, int right) {
+    while (right - left >= INSERTION_SORT_SIZE) {
+      setSortKey(ids[(left + right) >>> 1]);
+      int i = left;
+      int j = right;
+      while (i <= j) {
+        while (compareSortKey(ids[i]) > 0) {
+          i += 1;
+        }
+        while (compareSortKey(ids[j]) < 0) {
+          j -= 1;
+        }
+        if (i <= j) {
+          int tmp = ids[i];
+          ids[i] = ids[j];
+          ids[j] = tmp;
+          i += 1;
+          j -= 1;
+        }
+      }
+      // recurse into the smaller side to bound the stack depth
+      if (j - left < right - i) {
+        sort(ids, left, j);
+        left = i;
+      } else {
+        sort(ids, i, right);
+        right = j;
+      }
+    }
+    for (int i = left + 1; i <= right; ++i) {
+      int id = ids[i];
+      setSortKey(id);
+      int j = i - 1;
+      while (j >= left && compareSortKey(ids[j]) < 0) {
+        ids[j + 1] = ids[j];
+        j -= 1;
+      }
+      ids[j + 1] = id;
+    }
+  }
+
+  /**
+   * Visit all of the keys in sorted order. The keys are sorted on each call,
+   * so the writer calls it once per stripe.
+   * @param visitor the action to be applied to each key
+   * @throws IOException
+   */
+  public void visit(Visitor visitor) throws IOException {
+    int size = keyOffsets.size();
+    int[] ids = new int[size];
+    for (int i = 0; i < size; ++i) {
+      ids[i] = i;
+    }
+    sort(ids, 0, size - 1);
+    VisitorContextImpl context = new VisitorContextImpl();
+    for (int i = 0; i < size; ++i) {
+      context.setPosition(ids[i]);
+      visitor.visit(context);
+    }
+  }
+
+  /**
+   * Reset the table to empty.
+   */
+  public void clear() {
+    byteArray.clear();
+    keyOffsets.clear();
+    hashCodes.clear();
+    buckets = null;
+    threshold = 0;
+  }
+
+  public void getText(Text result, int originalPosition) {
+    byteArray.setText(result, keyOffsets.get(originalPosition),
+        getKeyLength(originalPosition));
+  }
+
+  /**
+   * Get the size of the character data in the table.
+   * @return the bytes used by the table
+   */
+  public int getCharacterSize() {
+    return byteArray.size();
+  }
+
+  /**
+   * Calculate the approximate size in memory.
+   * @return the number of bytes used in storing the table.
+   */
+  public long getSizeInBytes() {
+    return byteArray.getSizeInBytes() + keyOffsets.getSizeInBytes() +
+      hashCodes.getSizeInBytes() + (buckets == null ? 0 : 4L * buckets.length);
+  }
+}
@@ -26,7 +26,7 @@
  * A red-black tree that stores strings. The strings are stored as UTF-8 bytes
  * and an offset for each entry.
  */
-class StringRedBlackTree extends RedBlackTree {
+class StringRedBlackTree extends RedBlackTree implements StringDictionary {
   private final DynamicByteArray byteArray = new DynamicByteArray();
   private final DynamicIntArray keyOffsets;
   private final Text newKey = new Text();
@@ -68,48 +68,6 @@ protected int compareValue(int position) {
                              start, end - start);
   }
 
-  /**
-   * The information about each node.
-   */
-  public interface VisitorContext {
-    /**
-     * Get the position where the key was originally added.
-     * @return the number returned by add.
-     */
-    int getOriginalPosition();
-
-    /**
-     * Write the bytes for the string to the given output stream.
-     * @param out the stream to write to.
-     * @throws IOException
-     */
-    void writeBytes(OutputStream out) throws IOException;
-
-    /**
-     * Get the original string.
-     * @return the string
-     */
-    Text getText();
-
-    /**
-     * Get the number of bytes.
-     * @return the string's length in bytes
-     */
-    int getLength();
-  }
-
-  /**
-   * The interface for visitors.
-   */
-  public interface Visitor {
-    /**
-     * Called once for each node of the tree in sort order.
-     * @param context the information about each node
-     * @throws IOException
-     */
-    void visit(VisitorContext context) throws IOException;
-  }
-
   private class VisitorContextImpl implements VisitorContext {
     private int originalPosition;
     private int start;
@@ -143,14 +143,13 @@ public VectorizedOrcInputFormat() {
 
     Path path = fSplit.getPath();
 
-    OrcFile.ReaderOptions opts = OrcFile.readerOptions(conf);
-    if(fSplit instanceof OrcSplit){
-      OrcSplit orcSplit = (OrcSplit) fSplit;
-      if (orcSplit.hasFooter()) {
-        opts.fileMetaInfo(orcSplit.getFileMetaInfo());
-      }
+    Reader reader;
+    if (fSplit instanceof OrcSplit && ((OrcSplit) fSplit).hasFooter()) {
+      reader = OrcFile.createReader(path, OrcFile.readerOptions(conf)
+          .fileMetaInfo(((OrcSplit) fSplit).getFileMetaInfo()));
+    } else {
+      reader = OrcInputFormat.createReader(path, conf);
     }
-    Reader reader = OrcFile.createReader(path, opts);
     return new VectorizedOrcRecordReader(reader, conf, fSplit);
   }
 
@@ -164,7 +163,7 @@ public boolean validateInput(FileSystem fs, HiveConf conf,
     for (FileStatus file : files) {
       try {
         OrcFile.createReader(file.getPath(),
-            OrcFile.readerOptions(conf).filesystem(fs));
+            OrcFile.readerOptions(conf).filesystem(fs).fileStatus(file));
       } catch (IOException e) {
         return false;
       }
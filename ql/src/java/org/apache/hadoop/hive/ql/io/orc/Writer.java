@@ -21,6 +21,8 @@
 import java.io.IOException;
 import java.nio.ByteBuffer;
 
+import org.apache.hadoop.hive.ql.exec.vector.VectorizedRowBatch;
+
 /**
  * The interface for writing ORC files.
  */
@@ -41,6 +43,16 @@ public interface Writer {
    */
   void addRow(Object row) throws IOException;
 
+  /**
+   * Add the rows of a batch to the ORC file. The projected columns of the
+   * batch are written, in order, as the top level columns of the file, so
+   * the writer's schema must be a struct of primitive types. The column
+   * vectors are consumed directly instead of being turned into rows.
+   * @param batch the rows to add
+   * @throws IOException
+   */
+  void addRowBatch(VectorizedRowBatch batch) throws IOException;
+
   /**
    * Flush all of the buffers and close the file. No methods on this writer
    * should be called afterwards.
@@ -24,8 +24,10 @@
 import java.nio.ByteBuffer;
 import java.sql.Timestamp;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.TreeMap;
 
 import com.google.common.annotations.VisibleForTesting;
@@ -36,8 +38,16 @@
 import org.apache.hadoop.fs.FSDataOutputStream;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hive.common.type.Decimal128;
 import org.apache.hadoop.hive.common.type.HiveDecimal;
 import org.apache.hadoop.hive.conf.HiveConf;
+import org.apache.hadoop.hive.ql.exec.vector.BytesColumnVector;
+import org.apache.hadoop.hive.ql.exec.vector.ColumnVector;
+import org.apache.hadoop.hive.ql.exec.vector.DecimalColumnVector;
+import org.apache.hadoop.hive.ql.exec.vector.DoubleColumnVector;
+import org.apache.hadoop.hive.ql.exec.vector.LongColumnVector;
+import org.apache.hadoop.hive.ql.exec.vector.TimestampUtils;
+import org.apache.hadoop.hive.ql.exec.vector.VectorizedRowBatch;
 import org.apache.hadoop.hive.ql.io.IOConstants;
 import org.apache.hadoop.hive.ql.io.orc.OrcFile.EncodingStrategy;
 import org.apache.hadoop.hive.ql.io.orc.OrcProto.RowIndexEntry;
@@ -46,6 +56,8 @@
 import org.apache.hadoop.hive.ql.util.JavaDataModel;
 import org.apache.hadoop.hive.serde2.ColumnProjectionUtils;
 import org.apache.hadoop.hive.serde2.io.DateWritable;
+import org.apache.hadoop.hive.serde2.io.HiveCharWritable;
+import org.apache.hadoop.hive.serde2.io.HiveVarcharWritable;
 import org.apache.hadoop.hive.serde2.objectinspector.ListObjectInspector;
 import org.apache.hadoop.hive.serde2.objectinspector.MapObjectInspector;
 import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
@@ -145,6 +157,8 @@ class WriterImpl implements Writer, MemoryManager.Callback {
   private final OrcFile.WriterCallback callback;
   private final OrcFile.WriterContext callbackContext;
   private final OrcFile.EncodingStrategy encodingStrategy;
+  private final boolean[] bloomFilterColumns;
+  private final double bloomFilterFpp;
 
   WriterImpl(FileSystem fs,
              Path path,
@@ -160,7 +174,9 @@ class WriterImpl implements Writer, MemoryManager.Callback {
              OrcFile.WriterCallback callback,
              OrcFile.EncodingStrategy encodingStrategy,
              float paddingTolerance,
-             long blockSizeValue) throws IOException {
+             long blockSizeValue,
+             String bloomFilterColumnNames,
+             double bloomFilterFpp) throws IOException {
     this.fs = fs;
     this.path = path;
     this.conf = conf;
@@ -189,6 +205,9 @@ public Writer getWriter() {
     buildIndex = rowIndexStride > 0;
     codec = createCodec(compress);
     this.bufferSize = getEstimatedBufferSize(bufferSize);
+    this.bloomFilterColumns =
+        getBloomFilterColumns(bloomFilterColumnNames, inspector);
+    this.bloomFilterFpp = bloomFilterFpp;
     treeWriter = createTreeWriter(inspector, streamFactory, false);
     if (buildIndex && rowIndexStride < MIN_ROW_INDEX_STRIDE) {
       throw new IllegalArgumentException("Row stride must be at least " +
@@ -237,6 +256,76 @@ int getEstimatedBufferSize(int bs) {
     return bs;
   }
 
+  /**
+   * Find the column ids of the top level columns that should have bloom
+   * filters.
+   * @param columnNames a comma separated list of column names
+   * @param inspector the object inspector of the rows
+   * @return an array with a boolean for each column id or null if no
+   *    column has a bloom filter
+   */
+  private static boolean[] getBloomFilterColumns(String columnNames,
+                                                 ObjectInspector inspector) {
+    if (columnNames == null || columnNames.trim().isEmpty() ||
+        inspector.getCategory() != ObjectInspector.Category.STRUCT) {
+      return null;
+    }
+    Set<String> names = new HashSet<String>();
+    for (String name : columnNames.split(",")) {
+      names.add(name.trim().toLowerCase());
+    }
+    List<? extends StructField> fields =
+        ((StructObjectInspector) inspector).getAllStructFieldRefs();
+    int[] columnIds = new int[fields.size()];
+    int nextId = 1;
+    for (int i = 0; i < fields.size(); ++i) {
+      columnIds[i] = nextId;
+      nextId += getColumnCount(fields.get(i).getFieldObjectInspector());
+    }
+    boolean[] result = new boolean[nextId];
+    boolean found = false;
+    for (int i = 0; i < fields.size(); ++i) {
+      if (names.contains(fields.get(i).getFieldName().toLowerCase())) {
+        result[columnIds[i]] = true;
+        found = true;
+      }
+    }
+    return found ? result : null;
+  }
+
+  /**
+   * Get the number of columns the writer creates for a type.
+   */
+  private static int getColumnCount(ObjectInspector inspector) {
+    int result = 1;
+    switch (inspector.getCategory()) {
+      case STRUCT:
+        for (StructField field :
+            ((StructObjectInspector) inspector).getAllStructFieldRefs()) {
+          result += getColumnCount(field.getFieldObjectInspector());
+        }
+        break;
+      case LIST:
+        result += getColumnCount(((ListObjectInspector) inspector)
+            .getListElementObjectInspector());
+        break;
+      case MAP:
+        MapObjectInspector mapInspector = (MapObjectInspector) inspector;
+        result += getColumnCount(mapInspector.getMapKeyObjectInspector());
+        result += getColumnCount(mapInspector.getMapValueObjectInspector());
+        break;
+      case UNION:
+        for (ObjectInspector child :
+            ((UnionObjectInspector) inspector).getObjectInspectors()) {
+          result += getColumnCount(child);
+        }
+        break;
+      default:
+        break;
+    }
+    return result;
+  }
+
   private int getClosestBufferSize(int estBufferSize, int bs) {
     final int kb4 = 4 * 1024;
     final int kb8 = 8 * 1024;
@@ -515,6 +604,23 @@ public Configuration getConfiguration() {
     public OrcFile.Version getVersion() {
       return version;
     }
+
+    /**
+     * Should the column have a bloom filter in its index?
+     * @param column the column id
+     * @return true if the column was configured to have a bloom filter
+     */
+    public boolean hasBloomFilter(int column) {
+      return buildIndex && bloomFilterColumns != null &&
+          column < bloomFilterColumns.length && bloomFilterColumns[column];
+    }
+
+    /**
+     * Get the false positive probability of the bloom filters.
+     */
+    public double getBloomFilterFpp() {
+      return bloomFilterFpp;
+    }
   }
 
   /**
@@ -536,6 +642,9 @@ private abstract static class TreeWriter {
     private final OrcProto.RowIndex.Builder rowIndex;
     private final OrcProto.RowIndexEntry.Builder rowIndexEntry;
     private final PositionedOutputStream rowIndexStream;
+    protected final BloomFilter bloomFilter;
+    private final OrcProto.BloomFilterIndex.Builder bloomFilterIndex;
+    private final PositionedOutputStream bloomFilterStream;
     private boolean foundNulls;
     private OutStream isPresentOutStream;
     private final List<StripeStatistics.Builder> stripeStatsBuilders;
@@ -576,6 +685,39 @@ private abstract static class TreeWriter {
       } else {
         rowIndexStream = null;
       }
+      if (streamFactory.hasBloomFilter(id) && supportsBloomFilter(inspector)) {
+        bloomFilter = new BloomFilter(streamFactory.getRowIndexStride(),
+            streamFactory.getBloomFilterFpp());
+        bloomFilterIndex = OrcProto.BloomFilterIndex.newBuilder();
+        bloomFilterStream = streamFactory.createStream(id,
+            OrcProto.Stream.Kind.BLOOM_FILTER);
+      } else {
+        bloomFilter = null;
+        bloomFilterIndex = null;
+        bloomFilterStream = null;
+      }
+    }
+
+    /**
+     * Bloom filters are kept for the types whose values the reader looks
+     * up exactly as they were written.
+     */
+    private static boolean supportsBloomFilter(ObjectInspector inspector) {
+      if (inspector.getCategory() != ObjectInspector.Category.PRIMITIVE) {
+        return false;
+      }
+      switch (((PrimitiveObjectInspector) inspector).getPrimitiveCategory()) {
+        case BYTE:
+        case SHORT:
+        case INT:
+        case LONG:
+        case DOUBLE:
+        case STRING:
+        case VARCHAR:
+          return true;
+        default:
+          return false;
+      }
     }
 
     protected OrcProto.RowIndex.Builder getRowIndex() {
@@ -629,6 +771,69 @@ void write(Object obj) throws IOException {
       }
     }
 
+    /**
+     * Add a range of the values of a column vector to the column. Subclasses
+     * write the non-null values after calling this method, which records
+     * which of the values are present.
+     * @param vector the column vector holding the values
+     * @param selected the selected rows of the batch or null if all of the
+     *                 rows are used
+     * @param offset the first (selected) row to write
+     * @param length the number of rows to write
+     * @throws IOException
+     */
+    void writeBatch(ColumnVector vector, int[] selected, int offset,
+                    int length) throws IOException {
+      if (vector.noNulls) {
+        indexStatistics.increment(length);
+        if (isPresent != null) {
+          for(int i = 0; i < length; ++i) {
+            isPresent.write(1);
+          }
+        }
+      } else if (vector.isRepeating) {
+        boolean isNull = vector.isNull[0];
+        if (!isNull) {
+          indexStatistics.increment(length);
+        }
+        if (isPresent != null) {
+          for(int i = 0; i < length; ++i) {
+            isPresent.write(isNull ? 0 : 1);
+          }
+          if (isNull) {
+            foundNulls = true;
+          }
+        }
+      } else {
+        for(int i = 0; i < length; ++i) {
+          boolean isNull = vector.isNull[getRow(selected, offset + i)];
+          if (!isNull) {
+            indexStatistics.increment();
+          }
+          if (isPresent != null) {
+            isPresent.write(isNull ? 0 : 1);
+            if (isNull) {
+              foundNulls = true;
+            }
+          }
+        }
+      }
+    }
+
+    /**
+     * Get the index in the column vectors of the given row of the batch.
+     */
+    static int getRow(int[] selected, int row) {
+      return selected == null ? row : selected[row];
+    }
+
+    /**
+     * Is the value of the given row of the batch non-null?
+     */
+    static boolean isPresent(ColumnVector vector, int row) {
+      return vector.noNulls || !vector.isNull[row];
+    }
+
     private void removeIsPresentPositions() {
       for(int i=0; i < rowIndex.getEntryCount(); ++i) {
         RowIndexEntry.Builder entry = rowIndex.getEntryBuilder(i);
@@ -685,6 +890,11 @@ void writeStripe(OrcProto.StripeFooter.Builder builder,
         rowIndex.build().writeTo(rowIndexStream);
         rowIndexStream.flush();
       }
+      if (bloomFilterStream != null) {
+        bloomFilterIndex.build().writeTo(bloomFilterStream);
+        bloomFilterStream.flush();
+        bloomFilterIndex.clear();
+      }
       rowIndex.clear();
       rowIndexEntry.clear();
     }
@@ -725,12 +935,24 @@ void createRowIndexEntry() throws IOException {
       indexStatistics.reset();
       rowIndex.addEntry(rowIndexEntry);
       rowIndexEntry.clear();
+      writeBloomFilterEntry();
       recordPosition(rowIndexPosition);
       for(TreeWriter child: childrenWriters) {
         child.createRowIndexEntry();
       }
     }
 
+    /**
+     * Add the bloom filter of the row group that just ended to the stripe's
+     * bloom filter index and clear it for the next one.
+     */
+    void writeBloomFilterEntry() {
+      if (bloomFilter != null) {
+        bloomFilterIndex.addBloomFilter(bloomFilter.serialize());
+        bloomFilter.reset();
+      }
+    }
+
     /**
      * Record the current position in each of this column's streams.
      * @param recorder where should the locations be recorded
@@ -779,6 +1001,31 @@ void write(Object obj) throws IOException {
       }
     }
 
+    @Override
+    void writeBatch(ColumnVector vector, int[] selected, int offset,
+                    int length) throws IOException {
+      super.writeBatch(vector, selected, offset, length);
+      long[] values = ((LongColumnVector) vector).vector;
+      if (vector.isRepeating) {
+        if (isPresent(vector, 0)) {
+          boolean val = values[0] != 0;
+          for(int i = 0; i < length; ++i) {
+            indexStatistics.updateBoolean(val);
+            writer.write(val ? 1 : 0);
+          }
+        }
+      } else {
+        for(int i = 0; i < length; ++i) {
+          int row = getRow(selected, offset + i);
+          if (isPresent(vector, row)) {
+            boolean val = values[row] != 0;
+            indexStatistics.updateBoolean(val);
+            writer.write(val ? 1 : 0);
+          }
+        }
+      }
+    }
+
     @Override
     void writeStripe(OrcProto.StripeFooter.Builder builder,
                      int requiredIndexEntries) throws IOException {
@@ -813,10 +1060,44 @@ void write(Object obj) throws IOException {
       if (obj != null) {
         byte val = ((ByteObjectInspector) inspector).get(obj);
         indexStatistics.updateInteger(val);
+        if (bloomFilter != null) {
+          bloomFilter.addLong(val);
+        }
         writer.write(val);
       }
     }
 
+    @Override
+    void writeBatch(ColumnVector vector, int[] selected, int offset,
+                    int length) throws IOException {
+      super.writeBatch(vector, selected, offset, length);
+      long[] values = ((LongColumnVector) vector).vector;
+      if (vector.isRepeating) {
+        if (isPresent(vector, 0)) {
+          byte val = (byte) values[0];
+          for(int i = 0; i < length; ++i) {
+            indexStatistics.updateInteger(val);
+            writer.write(val);
+          }
+          if (bloomFilter != null) {
+            bloomFilter.addLong(val);
+          }
+        }
+      } else {
+        for(int i = 0; i < length; ++i) {
+          int row = getRow(selected, offset + i);
+          if (isPresent(vector, row)) {
+            byte val = (byte) values[row];
+            indexStatistics.updateInteger(val);
+            if (bloomFilter != null) {
+              bloomFilter.addLong(val);
+            }
+            writer.write(val);
+          }
+        }
+      }
+    }
+
     @Override
     void writeStripe(OrcProto.StripeFooter.Builder builder,
                      int requiredIndexEntries) throws IOException {
@@ -888,10 +1169,44 @@ void write(Object obj) throws IOException {
           val = shortInspector.get(obj);
         }
         indexStatistics.updateInteger(val);
+        if (bloomFilter != null) {
+          bloomFilter.addLong(val);
+        }
         writer.write(val);
       }
     }
 
+    @Override
+    void writeBatch(ColumnVector vector, int[] selected, int offset,
+                    int length) throws IOException {
+      super.writeBatch(vector, selected, offset, length);
+      long[] values = ((LongColumnVector) vector).vector;
+      if (vector.isRepeating) {
+        if (isPresent(vector, 0)) {
+          long val = values[0];
+          for(int i = 0; i < length; ++i) {
+            indexStatistics.updateInteger(val);
+            writer.write(val);
+          }
+          if (bloomFilter != null) {
+            bloomFilter.addLong(val);
+          }
+        }
+      } else {
+        for(int i = 0; i < length; ++i) {
+          int row = getRow(selected, offset + i);
+          if (isPresent(vector, row)) {
+            long val = values[row];
+            indexStatistics.updateInteger(val);
+            if (bloomFilter != null) {
+              bloomFilter.addLong(val);
+            }
+            writer.write(val);
+          }
+        }
+      }
+    }
+
     @Override
     void writeStripe(OrcProto.StripeFooter.Builder builder,
                      int requiredIndexEntries) throws IOException {
@@ -932,6 +1247,31 @@ void write(Object obj) throws IOException {
       }
     }
 
+    @Override
+    void writeBatch(ColumnVector vector, int[] selected, int offset,
+                    int length) throws IOException {
+      super.writeBatch(vector, selected, offset, length);
+      double[] values = ((DoubleColumnVector) vector).vector;
+      if (vector.isRepeating) {
+        if (isPresent(vector, 0)) {
+          float val = (float) values[0];
+          for(int i = 0; i < length; ++i) {
+            indexStatistics.updateDouble(val);
+            utils.writeFloat(stream, val);
+          }
+        }
+      } else {
+        for(int i = 0; i < length; ++i) {
+          int row = getRow(selected, offset + i);
+          if (isPresent(vector, row)) {
+            float val = (float) values[row];
+            indexStatistics.updateDouble(val);
+            utils.writeFloat(stream, val);
+          }
+        }
+      }
+    }
+
     @Override
     void writeStripe(OrcProto.StripeFooter.Builder builder,
                      int requiredIndexEntries) throws IOException {
@@ -968,10 +1308,44 @@ void write(Object obj) throws IOException {
       if (obj != null) {
         double val = ((DoubleObjectInspector) inspector).get(obj);
         indexStatistics.updateDouble(val);
+        if (bloomFilter != null) {
+          bloomFilter.addDouble(val);
+        }
         utils.writeDouble(stream, val);
       }
     }
 
+    @Override
+    void writeBatch(ColumnVector vector, int[] selected, int offset,
+                    int length) throws IOException {
+      super.writeBatch(vector, selected, offset, length);
+      double[] values = ((DoubleColumnVector) vector).vector;
+      if (vector.isRepeating) {
+        if (isPresent(vector, 0)) {
+          double val = values[0];
+          for(int i = 0; i < length; ++i) {
+            indexStatistics.updateDouble(val);
+            utils.writeDouble(stream, val);
+          }
+          if (bloomFilter != null) {
+            bloomFilter.addDouble(val);
+          }
+        }
+      } else {
+        for(int i = 0; i < length; ++i) {
+          int row = getRow(selected, offset + i);
+          if (isPresent(vector, row)) {
+            double val = values[row];
+            indexStatistics.updateDouble(val);
+            if (bloomFilter != null) {
+              bloomFilter.addDouble(val);
+            }
+            utils.writeDouble(stream, val);
+          }
+        }
+      }
+    }
+
     @Override
     void writeStripe(OrcProto.StripeFooter.Builder builder,
                      int requiredIndexEntries) throws IOException {
@@ -992,9 +1366,9 @@ private static class StringTreeWriter extends TreeWriter {
     private final OutStream stringOutput;
     private final IntegerWriter lengthOutput;
     private final IntegerWriter rowOutput;
-    private final StringRedBlackTree dictionary =
-        new StringRedBlackTree(INITIAL_DICTIONARY_SIZE);
+    private final StringDictionary dictionary;
     private final DynamicIntArray rows = new DynamicIntArray();
+    private final Text batchValue = new Text();
     private final PositionedOutputStream directStreamOutput;
     private final IntegerWriter directLengthOutput;
     private final List<OrcProto.RowIndexEntry> savedRowIndex =
@@ -1004,7 +1378,11 @@ private static class StringTreeWriter extends TreeWriter {
     // If the number of keys in a dictionary is greater than this fraction of
     //the total number of non-null rows, turn off dictionary encoding
     private final float dictionaryKeySizeThreshold;
+    // The number of values in each stripe after which the dictionary is
+    // checked, or 0 to check it only when the stripe is written
+    private final int dictionarySampleRows;
     private boolean useDictionaryEncoding = true;
+    private boolean doneDictionaryCheck = false;
     private boolean isDirectV2 = true;
 
     StringTreeWriter(int columnId,
@@ -1013,6 +1391,13 @@ private static class StringTreeWriter extends TreeWriter {
                      boolean nullable) throws IOException {
       super(columnId, inspector, writer, nullable);
       this.isDirectV2 = isNewWriteFormat(writer);
+      if ("rbtree".equalsIgnoreCase(writer.getConfiguration().get(
+          HiveConf.ConfVars.HIVE_ORC_DICTIONARY_IMPL.varname,
+          HiveConf.ConfVars.HIVE_ORC_DICTIONARY_IMPL.defaultStrVal))) {
+        dictionary = new StringRedBlackTree(INITIAL_DICTIONARY_SIZE);
+      } else {
+        dictionary = new StringHashDictionary(INITIAL_DICTIONARY_SIZE);
+      }
       stringOutput = writer.createStream(id,
           OrcProto.Stream.Kind.DICTIONARY_DATA);
       lengthOutput = createIntegerWriter(writer.createStream(id,
@@ -1029,6 +1414,9 @@ private static class StringTreeWriter extends TreeWriter {
         HiveConf.ConfVars.HIVE_ORC_DICTIONARY_KEY_SIZE_THRESHOLD.varname,
         HiveConf.ConfVars.HIVE_ORC_DICTIONARY_KEY_SIZE_THRESHOLD.
           defaultFloatVal);
+      dictionarySampleRows = writer.getConfiguration().getInt(
+        HiveConf.ConfVars.HIVE_ORC_DICTIONARY_SAMPLE_ROWS.varname,
+        HiveConf.ConfVars.HIVE_ORC_DICTIONARY_SAMPLE_ROWS.defaultIntVal);
     }
 
     /**
@@ -1041,36 +1429,120 @@ Text getTextValue(Object obj) {
       return ((StringObjectInspector) inspector).getPrimitiveWritableObject(obj);
     }
 
+    /**
+     * Method to retrieve the text value of a row of a column vector, which
+     * can be overridden by subclasses. The returned value is reused.
+     * @param vector the column vector
+     * @param row the index of the value in the column vector
+     * @return Text text value of the row
+     */
+    Text getTextValue(BytesColumnVector vector, int row) {
+      batchValue.set(vector.vector[row], vector.start[row],
+          vector.length[row]);
+      return batchValue;
+    }
+
     @Override
     void write(Object obj) throws IOException {
       super.write(obj);
       if (obj != null) {
         Text val = getTextValue(obj);
-        rows.add(dictionary.add(val));
+        addValues(val, 1);
         indexStatistics.updateString(val);
+        if (bloomFilter != null) {
+          bloomFilter.addBytes(val.getBytes(), 0, val.getLength());
+        }
       }
     }
 
     @Override
-    void writeStripe(OrcProto.StripeFooter.Builder builder,
-                     int requiredIndexEntries) throws IOException {
-      // Set the flag indicating whether or not to use dictionary encoding
-      // based on whether or not the fraction of distinct keys over number of
-      // non-null rows is less than the configured threshold
+    void writeBatch(ColumnVector vector, int[] selected, int offset,
+                    int length) throws IOException {
+      super.writeBatch(vector, selected, offset, length);
+      BytesColumnVector vec = (BytesColumnVector) vector;
+      if (vector.isRepeating) {
+        if (isPresent(vector, 0)) {
+          Text val = getTextValue(vec, 0);
+          addValues(val, length);
+          for(int i = 0; i < length; ++i) {
+            indexStatistics.updateString(val);
+          }
+          if (bloomFilter != null) {
+            bloomFilter.addBytes(val.getBytes(), 0, val.getLength());
+          }
+        }
+      } else {
+        for(int i = 0; i < length; ++i) {
+          int row = getRow(selected, offset + i);
+          if (isPresent(vector, row)) {
+            Text val = getTextValue(vec, row);
+            addValues(val, 1);
+            indexStatistics.updateString(val);
+            if (bloomFilter != null) {
+              bloomFilter.addBytes(val.getBytes(), 0, val.getLength());
+            }
+          }
+        }
+      }
+    }
+
+    /**
+     * Add a value to the column the given number of times. Until the
+     * dictionary has been checked, the values are kept in the dictionary;
+     * once direct encoding has been chosen for the stripe, they are written
+     * straight to the streams.
+     */
+    private void addValues(Text val, int count) throws IOException {
+      if (useDictionaryEncoding) {
+        int id = dictionary.add(val);
+        for(int i = 0; i < count; ++i) {
+          rows.add(id);
+        }
+        if (!doneDictionaryCheck && dictionarySampleRows > 0 &&
+            rows.size() >= dictionarySampleRows) {
+          checkDictionaryEncoding();
+        }
+      } else {
+        for(int i = 0; i < count; ++i) {
+          directStreamOutput.write(val.getBytes(), 0, val.getLength());
+          directLengthOutput.write(val.getLength());
+        }
+      }
+    }
+
+    /**
+     * Set the flag indicating whether or not to use dictionary encoding for
+     * the rest of the stripe, based on whether or not the fraction of distinct
+     * keys over number of non-null rows so far is less than the configured
+     * threshold. If not, the buffered values are written directly and the
+     * dictionary is released.
+     */
+    private void checkDictionaryEncoding() throws IOException {
+      doneDictionaryCheck = true;
       useDictionaryEncoding =
         (!isDirectV2) || (rows.size() > 0 &&
                           (float)(dictionary.size()) / rows.size() <=
                             dictionaryKeySizeThreshold);
+      if (!useDictionaryEncoding) {
+        flushDictionary();
+      }
+    }
+
+    /**
+     * Write the buffered values, and the dictionary if it is used, and
+     * finalize the saved row index entries with the positions of the values.
+     */
+    private void flushDictionary() throws IOException {
       final int[] dumpOrder = new int[dictionary.size()];
 
       if (useDictionaryEncoding) {
-        // Write the dictionary by traversing the red-black tree writing out
-        // the bytes and lengths; and creating the map from the original order
-        // to the final sorted order.
-        dictionary.visit(new StringRedBlackTree.Visitor() {
+        // Write the dictionary by visiting the keys in sorted order writing
+        // out the bytes and lengths; and creating the map from the original
+        // order to the final sorted order.
+        dictionary.visit(new StringDictionary.Visitor() {
           private int currentId = 0;
           @Override
-          public void visit(StringRedBlackTree.VisitorContext context
+          public void visit(StringDictionary.VisitorContext context
                            ) throws IOException {
             context.writeBytes(stringOutput);
             lengthOutput.write(context.getLength());
@@ -1103,6 +1575,13 @@ public void visit(StringRedBlackTree.VisitorContext context
             }
             rowIndex.addEntry(base.build());
           }
+          // the entry of the current row group gets the positions of its
+          // first value, after the ones recorded when it was started
+          if (!useDictionaryEncoding && rowIndexEntry == savedRowIndex.size() &&
+              i == rowIndexValueCount.get(rowIndexEntry)) {
+            directStreamOutput.getPosition(rowIndexPosition);
+            directLengthOutput.getPosition(rowIndexPosition);
+          }
         }
         if (i != length) {
           if (useDictionaryEncoding) {
@@ -1114,6 +1593,24 @@ public void visit(StringRedBlackTree.VisitorContext context
           }
         }
       }
+      if (!useDictionaryEncoding) {
+        // the rest of the stripe is written directly
+        dictionary.clear();
+        rows.clear();
+        savedRowIndex.clear();
+        rowIndexValueCount.clear();
+      }
+    }
+
+    @Override
+    void writeStripe(OrcProto.StripeFooter.Builder builder,
+                     int requiredIndexEntries) throws IOException {
+      if (!doneDictionaryCheck) {
+        checkDictionaryEncoding();
+      }
+      if (useDictionaryEncoding) {
+        flushDictionary();
+      }
       // we need to build the rowindex before calling super, since it
       // writes it out.
       super.writeStripe(builder, requiredIndexEntries);
@@ -1127,6 +1624,8 @@ public void visit(StringRedBlackTree.VisitorContext context
       rows.clear();
       savedRowIndex.clear();
       rowIndexValueCount.clear();
+      useDictionaryEncoding = true;
+      doneDictionaryCheck = false;
       recordPosition(rowIndexPosition);
       rowIndexValueCount.add(0L);
     }
@@ -1162,16 +1661,31 @@ OrcProto.ColumnEncoding getEncoding() {
      */
     @Override
     void createRowIndexEntry() throws IOException {
+      if (!useDictionaryEncoding) {
+        // the values are written directly, so the positions are known
+        super.createRowIndexEntry();
+        return;
+      }
       getStripeStatistics().merge(indexStatistics);
       OrcProto.RowIndexEntry.Builder rowIndexEntry = getRowIndexEntry();
       rowIndexEntry.setStatistics(indexStatistics.serialize());
       indexStatistics.reset();
       savedRowIndex.add(rowIndexEntry.build());
       rowIndexEntry.clear();
+      writeBloomFilterEntry();
       recordPosition(rowIndexPosition);
       rowIndexValueCount.add(Long.valueOf(rows.size()));
     }
 
+    @Override
+    void recordPosition(PositionRecorder recorder) throws IOException {
+      super.recordPosition(recorder);
+      if (!useDictionaryEncoding) {
+        directStreamOutput.getPosition(recorder);
+        directLengthOutput.getPosition(recorder);
+      }
+    }
+
     @Override
     long estimateMemory() {
       return rows.getSizeInBytes() + dictionary.getSizeInBytes();
@@ -1182,12 +1696,16 @@ long estimateMemory() {
    * Under the covers, char is written to ORC the same way as string.
    */
   private static class CharTreeWriter extends StringTreeWriter {
+    private final int maxLength;
+    private final HiveCharWritable charValue = new HiveCharWritable();
 
     CharTreeWriter(int columnId,
         ObjectInspector inspector,
         StreamFactory writer,
         boolean nullable) throws IOException {
       super(columnId, inspector, writer, nullable);
+      maxLength = ((CharTypeInfo) ((PrimitiveObjectInspector) inspector)
+          .getTypeInfo()).getLength();
     }
 
     /**
@@ -1198,18 +1716,31 @@ Text getTextValue(Object obj) {
       return (((HiveCharObjectInspector) inspector)
           .getPrimitiveWritableObject(obj)).getTextValue();
     }
+
+    /**
+     * Override base class implementation to pad the vector's char values.
+     */
+    @Override
+    Text getTextValue(BytesColumnVector vector, int row) {
+      charValue.set(super.getTextValue(vector, row).toString(), maxLength);
+      return charValue.getTextValue();
+    }
   }
 
   /**
    * Under the covers, varchar is written to ORC the same way as string.
    */
   private static class VarcharTreeWriter extends StringTreeWriter {
+    private final int maxLength;
+    private final HiveVarcharWritable varcharValue = new HiveVarcharWritable();
 
     VarcharTreeWriter(int columnId,
         ObjectInspector inspector,
         StreamFactory writer,
         boolean nullable) throws IOException {
       super(columnId, inspector, writer, nullable);
+      maxLength = ((VarcharTypeInfo) ((PrimitiveObjectInspector) inspector)
+          .getTypeInfo()).getLength();
     }
 
     /**
@@ -1220,6 +1751,21 @@ Text getTextValue(Object obj) {
       return (((HiveVarcharObjectInspector) inspector)
           .getPrimitiveWritableObject(obj)).getTextValue();
     }
+
+    /**
+     * Override base class implementation to truncate the vector's varchar
+     * values. A value can only be too long if it has more bytes than the
+     * maximum number of characters.
+     */
+    @Override
+    Text getTextValue(BytesColumnVector vector, int row) {
+      Text val = super.getTextValue(vector, row);
+      if (val.getLength() <= maxLength) {
+        return val;
+      }
+      varcharValue.set(val.toString(), maxLength);
+      return varcharValue.getTextValue();
+    }
   }
 
   private static class BinaryTreeWriter extends TreeWriter {
@@ -1262,6 +1808,22 @@ void write(Object obj) throws IOException {
       }
     }
 
+    @Override
+    void writeBatch(ColumnVector vector, int[] selected, int offset,
+                    int length) throws IOException {
+      super.writeBatch(vector, selected, offset, length);
+      BytesColumnVector vec = (BytesColumnVector) vector;
+      for(int i = 0; i < length; ++i) {
+        int row = vector.isRepeating ? 0 : getRow(selected, offset + i);
+        if (isPresent(vector, row)) {
+          stream.write(vec.vector[row], vec.start[row], vec.length[row]);
+          this.length.write(vec.length[row]);
+          indexStatistics.updateBinary(vec.vector[row], vec.start[row],
+              vec.length[row]);
+        }
+      }
+    }
+
     @Override
     void writeStripe(OrcProto.StripeFooter.Builder builder,
                      int requiredIndexEntries) throws IOException {
@@ -1287,6 +1849,7 @@ private static class TimestampTreeWriter extends TreeWriter {
     private final IntegerWriter seconds;
     private final IntegerWriter nanos;
     private final boolean isDirectV2;
+    private final Timestamp batchValue = new Timestamp(0);
 
     TimestampTreeWriter(int columnId,
                      ObjectInspector inspector,
@@ -1323,6 +1886,23 @@ void write(Object obj) throws IOException {
       }
     }
 
+    @Override
+    void writeBatch(ColumnVector vector, int[] selected, int offset,
+                    int length) throws IOException {
+      super.writeBatch(vector, selected, offset, length);
+      // vectorized timestamps are nanoseconds since the epoch
+      long[] values = ((LongColumnVector) vector).vector;
+      for(int i = 0; i < length; ++i) {
+        int row = vector.isRepeating ? 0 : getRow(selected, offset + i);
+        if (isPresent(vector, row)) {
+          TimestampUtils.assignTimeInNanoSec(values[row], batchValue);
+          seconds.write((batchValue.getTime() / MILLIS_PER_SECOND) -
+              BASE_TIMESTAMP);
+          nanos.write(formatNanos(batchValue.getNanos()));
+        }
+      }
+    }
+
     @Override
     void writeStripe(OrcProto.StripeFooter.Builder builder,
                      int requiredIndexEntries) throws IOException {
@@ -1359,6 +1939,7 @@ void recordPosition(PositionRecorder recorder) throws IOException {
   private static class DateTreeWriter extends TreeWriter {
     private final IntegerWriter writer;
     private final boolean isDirectV2;
+    private final DateWritable batchValue = new DateWritable();
 
     DateTreeWriter(int columnId,
                    ObjectInspector inspector,
@@ -1383,6 +1964,22 @@ void write(Object obj) throws IOException {
       }
     }
 
+    @Override
+    void writeBatch(ColumnVector vector, int[] selected, int offset,
+                    int length) throws IOException {
+      super.writeBatch(vector, selected, offset, length);
+      // vectorized dates are days since the epoch
+      long[] values = ((LongColumnVector) vector).vector;
+      for(int i = 0; i < length; ++i) {
+        int row = vector.isRepeating ? 0 : getRow(selected, offset + i);
+        if (isPresent(vector, row)) {
+          batchValue.set((int) values[row]);
+          indexStatistics.updateDate(batchValue);
+          writer.write(batchValue.getDays());
+        }
+      }
+    }
+
     @Override
     void writeStripe(OrcProto.StripeFooter.Builder builder,
                      int requiredIndexEntries) throws IOException {
@@ -1451,6 +2048,26 @@ void write(Object obj) throws IOException {
       }
     }
 
+    @Override
+    void writeBatch(ColumnVector vector, int[] selected, int offset,
+                    int length) throws IOException {
+      super.writeBatch(vector, selected, offset, length);
+      Decimal128[] values = ((DecimalColumnVector) vector).vector;
+      for(int i = 0; i < length; ++i) {
+        int row = vector.isRepeating ? 0 : getRow(selected, offset + i);
+        if (isPresent(vector, row)) {
+          HiveDecimal decimal = HiveDecimal.create(values[row].toBigDecimal());
+          if (decimal == null) {
+            continue;
+          }
+          SerializationUtils.writeBigInteger(valueStream,
+              decimal.unscaledValue());
+          scaleStream.write(decimal.scale());
+          indexStatistics.updateDecimal(decimal);
+        }
+      }
+    }
+
     @Override
     void writeStripe(OrcProto.StripeFooter.Builder builder,
                      int requiredIndexEntries) throws IOException {
@@ -1499,6 +2116,37 @@ void write(Object obj) throws IOException {
       }
     }
 
+    /**
+     * Write the rows of a batch, whose projected columns are the fields of
+     * this struct. Only the root struct is written from a batch, so it is
+     * never null.
+     * @param batch the batch holding the rows
+     * @param offset the first (selected) row to write
+     * @param length the number of rows to write
+     * @throws IOException
+     */
+    void writeRootBatch(VectorizedRowBatch batch, int offset,
+                        int length) throws IOException {
+      if (batch.projectionSize != childrenWriters.length) {
+        throw new IllegalArgumentException("Batch has " +
+            batch.projectionSize + " columns, but the schema has " +
+            childrenWriters.length);
+      }
+      indexStatistics.increment(length);
+      int[] selected = batch.selectedInUse ? batch.selected : null;
+      for(int i = 0; i < childrenWriters.length; ++i) {
+        TreeWriter writer = childrenWriters[i];
+        if (writer.inspector.getCategory() !=
+            ObjectInspector.Category.PRIMITIVE) {
+          throw new UnsupportedOperationException("Can't write column " +
+              fields.get(i).getFieldName() + " of type " +
+              writer.inspector.getTypeName() + " from a batch");
+        }
+        writer.writeBatch(batch.cols[batch.projectedColumns[i]], selected,
+            offset, length);
+      }
+    }
+
     @Override
     void writeStripe(OrcProto.StripeFooter.Builder builder,
                      int requiredIndexEntries) throws IOException {
@@ -2166,6 +2814,37 @@ public void addRow(Object row) throws IOException {
     memoryManager.addedRow();
   }
 
+  @Override
+  public void addRowBatch(VectorizedRowBatch batch) throws IOException {
+    if (!(treeWriter instanceof StructTreeWriter)) {
+      throw new UnsupportedOperationException("Can't write a batch to " +
+          treeWriter.inspector.getTypeName());
+    }
+    StructTreeWriter writer = (StructTreeWriter) treeWriter;
+    synchronized (this) {
+      if (buildIndex) {
+        // split the batch at the row group boundaries, so that the index
+        // entries are at the same rows as when the rows are added one by one
+        int posn = 0;
+        while (posn < batch.size) {
+          int chunkSize = Math.min(batch.size - posn,
+              rowIndexStride - rowsInIndex);
+          writer.writeRootBatch(batch, posn, chunkSize);
+          posn += chunkSize;
+          rowsInIndex += chunkSize;
+          rowsInStripe += chunkSize;
+          if (rowsInIndex >= rowIndexStride) {
+            createRowIndexEntry();
+          }
+        }
+      } else {
+        writer.writeRootBatch(batch, 0, batch.size);
+        rowsInStripe += batch.size;
+      }
+    }
+    memoryManager.addedRows(batch.size);
+  }
+
   @Override
   public void close() throws IOException {
     if (callback != null) {
@@ -0,0 +1,578 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hive.ql.io.parquet.read;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hive.ql.exec.Utilities;
+import org.apache.hadoop.hive.ql.exec.vector.BytesColumnVector;
+import org.apache.hadoop.hive.ql.exec.vector.ColumnVector;
+import org.apache.hadoop.hive.ql.exec.vector.DoubleColumnVector;
+import org.apache.hadoop.hive.ql.exec.vector.LongColumnVector;
+import org.apache.hadoop.hive.ql.exec.vector.TimestampUtils;
+import org.apache.hadoop.hive.ql.exec.vector.VectorizedRowBatch;
+import org.apache.hadoop.hive.ql.exec.vector.VectorizedRowBatchCtx;
+import org.apache.hadoop.hive.ql.io.parquet.ProjectionPusher;
+import org.apache.hadoop.hive.ql.io.parquet.timestamp.NanoTime;
+import org.apache.hadoop.hive.ql.io.parquet.timestamp.NanoTimeUtils;
+import org.apache.hadoop.hive.ql.io.sarg.SearchArgument;
+import org.apache.hadoop.hive.ql.metadata.HiveException;
+import org.apache.hadoop.hive.ql.plan.TableScanDesc;
+import org.apache.hadoop.hive.serde2.ColumnProjectionUtils;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.PrimitiveObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.PrimitiveObjectInspector.PrimitiveCategory;
+import org.apache.hadoop.hive.serde2.objectinspector.StructField;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.mapred.FileSplit;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.RecordReader;
+
+import parquet.column.ColumnDescriptor;
+import parquet.column.ColumnReader;
+import parquet.column.Dictionary;
+import parquet.column.impl.ColumnReadStoreImpl;
+import parquet.column.page.PageReadStore;
+import parquet.hadoop.ParquetFileReader;
+import parquet.hadoop.metadata.BlockMetaData;
+import parquet.hadoop.metadata.ParquetMetadata;
+import parquet.io.api.Binary;
+import parquet.io.api.Converter;
+import parquet.io.api.GroupConverter;
+import parquet.io.api.PrimitiveConverter;
+import parquet.schema.MessageType;
+import parquet.schema.PrimitiveType.PrimitiveTypeName;
+import parquet.schema.Type;
+import parquet.schema.Type.Repetition;
+
+/**
+ *
+ * Reads the row groups of a Parquet split column by column straight into the
+ * column vectors of a VectorizedRowBatch, instead of assembling an
+ * ArrayWritable for every record and assigning it to the batch.
+ *
+ * Only flat schemas of primitive columns are read this way; {@link #create}
+ * returns null for anything else, so that the caller can fall back to the row
+ * by row reader. Dictionary encoded column chunks are decoded once: the
+ * values of integer and floating point dictionaries are looked up by id, and
+ * string vectors reference the bytes of binary dictionaries without copying
+ * them. Row groups are eliminated with the pushed down predicate before any
+ * of their pages are read.
+ *
+ */
+public class ColumnarParquetRecordReader
+    implements RecordReader<NullWritable, VectorizedRowBatch> {
+  private static final Log LOG = LogFactory.getLog(ColumnarParquetRecordReader.class);
+
+  private final VectorizedRowBatchCtx rbCtx;
+  private final ParquetFileReader reader;
+  private final MessageType requestedSchema;
+  private final List<ColumnDescriptor> columns;
+  private final VectorConverter[] converters;
+  private final GroupConverter recordConverter;
+  // the batch column of each requested column
+  private final int[] batchColumns;
+  // the projected batch columns that are not in the file
+  private final int[] missingColumns;
+  private final long totalRowCount;
+  private final long splitLength;
+
+  private ColumnReader[] columnReaders;
+  private long rowsRead = 0;
+  private long rowGroupRowCount = 0;
+  private long rowGroupRowsRead = 0;
+  private boolean addPartitionCols = true;
+
+  private ColumnarParquetRecordReader(final VectorizedRowBatchCtx rbCtx,
+      final JobConf conf, final FileSplit split, final List<BlockMetaData> blocks,
+      final MessageType requestedSchema, final List<VectorConverter> converters,
+      final List<Integer> batchColumns, final List<Integer> missingColumns)
+          throws IOException {
+    this.rbCtx = rbCtx;
+    this.requestedSchema = requestedSchema;
+    this.columns = requestedSchema.getColumns();
+    this.converters = converters.toArray(new VectorConverter[converters.size()]);
+    this.recordConverter = new BatchConverter(this.converters);
+    this.batchColumns = toArray(batchColumns);
+    this.missingColumns = toArray(missingColumns);
+    this.splitLength = split.getLength();
+    long rowCount = 0;
+    for (final BlockMetaData block : blocks) {
+      rowCount += block.getRowCount();
+    }
+    this.totalRowCount = rowCount;
+    if (blocks.isEmpty()) {
+      reader = null;
+    } else {
+      reader = new ParquetFileReader(conf, split.getPath(), blocks, columns);
+    }
+  }
+
+  /**
+   * Create a reader for the split, if its columns can be read into vectors
+   * directly.
+   *
+   * @param split the split
+   * @param conf the job configuration
+   * @param pusher used to find the predicate pushed down for the split
+   * @return the reader or null if the split has to be read row by row
+   * @throws IOException
+   */
+  public static ColumnarParquetRecordReader create(final FileSplit split,
+      final JobConf conf, final ProjectionPusher pusher) throws IOException {
+    final Path path = split.getPath();
+    final VectorizedRowBatchCtx rbCtx = new VectorizedRowBatchCtx();
+    try {
+      rbCtx.init(conf, split);
+    } catch (Exception e) {
+      throw new IOException(e);
+    }
+    final JobConf cloneJob = pusher.pushProjectionsAndFilters(conf, path.getParent());
+    final ParquetMetadata footer = ParquetFileReader.readFooter(cloneJob, path);
+    final MessageType fileSchema = footer.getFileMetaData().getSchema();
+    final boolean indexAccess =
+        cloneJob.getBoolean(DataWritableReadSupport.PARQUET_COLUMN_INDEX_ACCESS, false);
+
+    // the column chunk index of each top level primitive column of the file
+    final Map<String, Integer> chunkIndexes = new HashMap<String, Integer>();
+    final List<ColumnDescriptor> fileColumns = fileSchema.getColumns();
+    for (int i = 0; i < fileColumns.size(); i++) {
+      final String[] columnPath = fileColumns.get(i).getPath();
+      if (columnPath.length == 1) {
+        chunkIndexes.put(columnPath[0], i);
+      }
+    }
+
+    final List<? extends StructField> fields = rbCtx.getRawRowOI().getAllStructFieldRefs();
+    final Map<String, Integer> columnIndexes = new HashMap<String, Integer>();
+    for (int i = 0; i < fields.size(); i++) {
+      final String fileColumn = getFileColumn(fileSchema, fields.get(i).getFieldName(), i,
+          indexAccess);
+      if (fileColumn != null && chunkIndexes.containsKey(fileColumn)) {
+        columnIndexes.put(fields.get(i).getFieldName(), chunkIndexes.get(fileColumn));
+      }
+    }
+
+    final List<Type> requestedTypes = new ArrayList<Type>();
+    final List<VectorConverter> converters = new ArrayList<VectorConverter>();
+    final List<Integer> batchColumns = new ArrayList<Integer>();
+    final List<Integer> missingColumns = new ArrayList<Integer>();
+    for (final int column : ColumnProjectionUtils.getReadColumnIDs(conf)) {
+      if (column >= fields.size()) {
+        continue;
+      }
+      final StructField field = fields.get(column);
+      final ObjectInspector inspector = field.getFieldObjectInspector();
+      if (inspector.getCategory() != ObjectInspector.Category.PRIMITIVE) {
+        return null;
+      }
+      final String fileColumn = getFileColumn(fileSchema, field.getFieldName(), column,
+          indexAccess);
+      if (fileColumn == null) {
+        // below allows schema evolution
+        missingColumns.add(column);
+        continue;
+      }
+      final Type type = fileSchema.getType(fileColumn);
+      if (!type.isPrimitive() || type.isRepetition(Repetition.REPEATED)) {
+        return null;
+      }
+      final VectorConverter converter = createConverter(
+          ((PrimitiveObjectInspector) inspector).getPrimitiveCategory(),
+          type.asPrimitiveType().getPrimitiveTypeName());
+      if (converter == null) {
+        LOG.info("Reading " + path + " row by row, because column " + field.getFieldName()
+            + " of type " + inspector.getTypeName() + " is stored as " + type);
+        return null;
+      }
+      requestedTypes.add(type);
+      converters.add(converter);
+      batchColumns.add(column);
+    }
+
+    final List<BlockMetaData> blocks = new ArrayList<BlockMetaData>();
+    final long splitStart = split.getStart();
+    final long splitLength = split.getLength();
+    for (final BlockMetaData block : footer.getBlocks()) {
+      final long firstDataPage = block.getColumns().get(0).getFirstDataPageOffset();
+      if (firstDataPage >= splitStart && firstDataPage < splitStart + splitLength) {
+        blocks.add(block);
+      }
+    }
+    final String filterExpr = cloneJob.get(TableScanDesc.FILTER_EXPR_CONF_STR);
+    if (filterExpr != null && !blocks.isEmpty()) {
+      final SearchArgument sarg =
+          SearchArgument.FACTORY.create(Utilities.deserializeExpression(filterExpr));
+      final ParquetRowGroupFilter filter = new ParquetRowGroupFilter(sarg, columnIndexes);
+      final int numBlocks = blocks.size();
+      for (int i = blocks.size() - 1; i >= 0; i--) {
+        if (!filter.isNeeded(blocks.get(i))) {
+          blocks.remove(i);
+        }
+      }
+      if (LOG.isDebugEnabled()) {
+        LOG.debug("Eliminated " + (numBlocks - blocks.size()) + " of " + numBlocks
+            + " row groups of " + path + " with " + sarg);
+      }
+    }
+
+    return new ColumnarParquetRecordReader(rbCtx, cloneJob, split, blocks,
+        new MessageType(fileSchema.getName(), requestedTypes), converters, batchColumns,
+        missingColumns);
+  }
+
+  /**
+   * @return the name of the file column of a table column or null if the file
+   *         does not have it
+   */
+  private static String getFileColumn(final MessageType fileSchema, final String name,
+      final int index, final boolean indexAccess) {
+    if (indexAccess) {
+      return index < fileSchema.getFieldCount() ? fileSchema.getFieldName(index) : null;
+    }
+    return fileSchema.containsField(name) ? name : null;
+  }
+
+  /**
+   * @return the converter of a column or null if the column's values can't be
+   *         read into the vector of its Hive type
+   */
+  private static VectorConverter createConverter(final PrimitiveCategory category,
+      final PrimitiveTypeName type) {
+    switch (category) {
+    case BOOLEAN:
+      return type == PrimitiveTypeName.BOOLEAN ? new LongConverter(type) : null;
+    case BYTE:
+    case SHORT:
+    case INT:
+      return type == PrimitiveTypeName.INT32 ? new LongConverter(type) : null;
+    case LONG:
+      return type == PrimitiveTypeName.INT32 || type == PrimitiveTypeName.INT64 ?
+          new LongConverter(type) : null;
+    case FLOAT:
+      return type == PrimitiveTypeName.FLOAT ? new DoubleConverter(type) : null;
+    case DOUBLE:
+      return type == PrimitiveTypeName.FLOAT || type == PrimitiveTypeName.DOUBLE ?
+          new DoubleConverter(type) : null;
+    case STRING:
+      return type == PrimitiveTypeName.BINARY ? new BytesConverter() : null;
+    case TIMESTAMP:
+      return type == PrimitiveTypeName.INT96 ? new TimestampConverter(type) : null;
+    default:
+      return null;
+    }
+  }
+
+  private static int[] toArray(final List<Integer> list) {
+    final int[] result = new int[list.size()];
+    for (int i = 0; i < result.length; i++) {
+      result[i] = list.get(i);
+    }
+    return result;
+  }
+
+  @Override
+  public boolean next(final NullWritable key, final VectorizedRowBatch batch)
+      throws IOException {
+    if (rowsRead >= totalRowCount) {
+      return false;
+    }
+    // the partition columns are constant for the split, see VectorizedOrcInputFormat
+    if (addPartitionCols) {
+      try {
+        rbCtx.addPartitionColsToBatch(batch);
+      } catch (HiveException e) {
+        throw new IOException(e);
+      }
+      addPartitionCols = false;
+    }
+    if (rowGroupRowsRead == rowGroupRowCount) {
+      readNextRowGroup();
+    }
+    final int size = (int) Math.min(batch.getMaxSize(), rowGroupRowCount - rowGroupRowsRead);
+    for (int i = 0; i < converters.length; i++) {
+      readColumn(columnReaders[i], columns.get(i).getMaxDefinitionLevel(), converters[i],
+          batch.cols[batchColumns[i]], size);
+    }
+    for (final int column : missingColumns) {
+      final ColumnVector vector = batch.cols[column];
+      vector.noNulls = false;
+      vector.isNull[0] = true;
+      vector.isRepeating = true;
+    }
+    batch.selectedInUse = false;
+    batch.size = size;
+    rowGroupRowsRead += size;
+    rowsRead += size;
+    return true;
+  }
+
+  private void readNextRowGroup() throws IOException {
+    final PageReadStore pages = reader.readNextRowGroup();
+    if (pages == null) {
+      throw new IOException("Expected " + totalRowCount + " rows, but only found "
+          + rowsRead);
+    }
+    final ColumnReadStoreImpl store =
+        new ColumnReadStoreImpl(pages, recordConverter, requestedSchema);
+    columnReaders = new ColumnReader[columns.size()];
+    for (int i = 0; i < columnReaders.length; i++) {
+      columnReaders[i] = store.getColumnReader(columns.get(i));
+    }
+    rowGroupRowCount = pages.getRowCount();
+    rowGroupRowsRead = 0;
+  }
+
+  /**
+   * Read the next values of a column into a vector. A value is null if its
+   * definition level is below the maximum, which is 1 for optional columns and
+   * 0 for required ones.
+   */
+  private static void readColumn(final ColumnReader columnReader,
+      final int maxDefinitionLevel, final VectorConverter converter,
+      final ColumnVector vector, final int size) {
+    vector.reset();
+    converter.setVector(vector);
+    for (int row = 0; row < size; row++) {
+      if (columnReader.getCurrentDefinitionLevel() == maxDefinitionLevel) {
+        converter.row = row;
+        columnReader.writeCurrentValueToConverter();
+      } else {
+        vector.noNulls = false;
+        vector.isNull[row] = true;
+      }
+      columnReader.consume();
+    }
+  }
+
+  @Override
+  public NullWritable createKey() {
+    return NullWritable.get();
+  }
+
+  @Override
+  public VectorizedRowBatch createValue() {
+    try {
+      return rbCtx.createVectorizedRowBatch();
+    } catch (HiveException e) {
+      throw new RuntimeException("Error creating a batch", e);
+    }
+  }
+
+  @Override
+  public long getPos() throws IOException {
+    return (long) (splitLength * getProgress());
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (reader != null) {
+      reader.close();
+    }
+  }
+
+  @Override
+  public float getProgress() throws IOException {
+    return totalRowCount == 0 ? 1f : (float) rowsRead / totalRowCount;
+  }
+
+  /**
+   * The record converter of the flat requested schema.
+   */
+  private static class BatchConverter extends GroupConverter {
+    private final VectorConverter[] converters;
+
+    BatchConverter(final VectorConverter[] converters) {
+      this.converters = converters;
+    }
+
+    @Override
+    public Converter getConverter(final int fieldIndex) {
+      return converters[fieldIndex];
+    }
+
+    @Override
+    public void start() {
+    }
+
+    @Override
+    public void end() {
+    }
+  }
+
+  /**
+   * Writes the values of a column into the current row of a vector.
+   */
+  abstract static class VectorConverter extends PrimitiveConverter {
+    int row;
+
+    abstract void setVector(ColumnVector vector);
+
+    @Override
+    public boolean hasDictionarySupport() {
+      return true;
+    }
+  }
+
+  static class LongConverter extends VectorConverter {
+    protected final PrimitiveTypeName type;
+    protected long[] vector;
+    private long[] dictionary;
+
+    LongConverter(final PrimitiveTypeName type) {
+      this.type = type;
+    }
+
+    @Override
+    void setVector(final ColumnVector vector) {
+      this.vector = ((LongColumnVector) vector).vector;
+    }
+
+    @Override
+    public void setDictionary(final Dictionary dictionary) {
+      this.dictionary = new long[dictionary.getMaxId() + 1];
+      for (int id = 0; id < this.dictionary.length; id++) {
+        this.dictionary[id] = decode(dictionary, id);
+      }
+    }
+
+    long decode(final Dictionary dictionary, final int id) {
+      return type == PrimitiveTypeName.INT64 ?
+          dictionary.decodeToLong(id) : dictionary.decodeToInt(id);
+    }
+
+    @Override
+    public void addValueFromDictionary(final int dictionaryId) {
+      vector[row] = dictionary[dictionaryId];
+    }
+
+    @Override
+    public void addBoolean(final boolean value) {
+      vector[row] = value ? 1 : 0;
+    }
+
+    @Override
+    public void addInt(final int value) {
+      vector[row] = value;
+    }
+
+    @Override
+    public void addLong(final long value) {
+      vector[row] = value;
+    }
+  }
+
+  /**
+   * Timestamps are stored as INT96 julian days and nanoseconds of the day, and
+   * vectorized as nanoseconds since the epoch.
+   */
+  static class TimestampConverter extends LongConverter {
+
+    TimestampConverter(final PrimitiveTypeName type) {
+      super(type);
+    }
+
+    @Override
+    long decode(final Dictionary dictionary, final int id) {
+      return toNanos(dictionary.decodeToBinary(id));
+    }
+
+    @Override
+    public void addBinary(final Binary value) {
+      vector[row] = toNanos(value);
+    }
+
+    private static long toNanos(final Binary value) {
+      return TimestampUtils.getTimeNanoSec(
+          NanoTimeUtils.getTimestamp(NanoTime.fromBinary(value)));
+    }
+  }
+
+  static class DoubleConverter extends VectorConverter {
+    private final PrimitiveTypeName type;
+    private double[] vector;
+    private double[] dictionary;
+
+    DoubleConverter(final PrimitiveTypeName type) {
+      this.type = type;
+    }
+
+    @Override
+    void setVector(final ColumnVector vector) {
+      this.vector = ((DoubleColumnVector) vector).vector;
+    }
+
+    @Override
+    public void setDictionary(final Dictionary dictionary) {
+      this.dictionary = new double[dictionary.getMaxId() + 1];
+      for (int id = 0; id < this.dictionary.length; id++) {
+        this.dictionary[id] = type == PrimitiveTypeName.FLOAT ?
+            dictionary.decodeToFloat(id) : dictionary.decodeToDouble(id);
+      }
+    }
+
+    @Override
+    public void addValueFromDictionary(final int dictionaryId) {
+      vector[row] = dictionary[dictionaryId];
+    }
+
+    @Override
+    public void addFloat(final float value) {
+      vector[row] = value;
+    }
+
+    @Override
+    public void addDouble(final double value) {
+      vector[row] = value;
+    }
+  }
+
+  static class BytesConverter extends VectorConverter {
+    private BytesColumnVector vector;
+    private byte[][] dictionary;
+
+    @Override
+    void setVector(final ColumnVector vector) {
+      this.vector = (BytesColumnVector) vector;
+      this.vector.initBuffer();
+    }
+
+    @Override
+    public void setDictionary(final Dictionary dictionary) {
+      this.dictionary = new byte[dictionary.getMaxId() + 1][];
+      for (int id = 0; id < this.dictionary.length; id++) {
+        this.dictionary[id] = dictionary.decodeToBinary(id).getBytes();
+      }
+    }
+
+    @Override
+    public void addValueFromDictionary(final int dictionaryId) {
+      final byte[] value = dictionary[dictionaryId];
+      vector.setRef(row, value, 0, value.length);
+    }
+
+    @Override
+    public void addBinary(final Binary value) {
+      final byte[] bytes = value.getBytes();
+      vector.setVal(row, bytes, 0, bytes.length);
+    }
+  }
+}
@@ -0,0 +1,207 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hive.ql.io.parquet.read;
+
+import java.util.List;
+import java.util.Map;
+
+import org.apache.hadoop.hive.ql.io.sarg.PredicateLeaf;
+import org.apache.hadoop.hive.ql.io.sarg.SearchArgument;
+import org.apache.hadoop.hive.ql.io.sarg.SearchArgument.TruthValue;
+
+import parquet.column.statistics.DoubleStatistics;
+import parquet.column.statistics.FloatStatistics;
+import parquet.column.statistics.IntStatistics;
+import parquet.column.statistics.LongStatistics;
+import parquet.column.statistics.Statistics;
+import parquet.hadoop.metadata.BlockMetaData;
+
+/**
+ *
+ * Eliminates the row groups of a Parquet file whose column statistics show
+ * that none of their rows can satisfy the pushed down predicate.
+ *
+ * Only the minimum and maximum of integer and floating point columns are
+ * used. The binary statistics of older Parquet writers are not ordered the way
+ * Hive compares strings, so string predicates never eliminate a row group.
+ *
+ */
+public class ParquetRowGroupFilter {
+
+  private final SearchArgument sarg;
+  private final List<PredicateLeaf> leaves;
+  // the index of the column chunk of each leaf or -1 if it is not in the file
+  private final int[] leafColumns;
+
+  /**
+   * @param sarg the pushed down predicate
+   * @param columnIndexes the index of the column chunk of each primitive
+   *        top level column of the file, by Hive column name
+   */
+  public ParquetRowGroupFilter(final SearchArgument sarg,
+      final Map<String, Integer> columnIndexes) {
+    this.sarg = sarg;
+    this.leaves = sarg.getLeaves();
+    this.leafColumns = new int[leaves.size()];
+    for (int i = 0; i < leafColumns.length; i++) {
+      final Integer index = columnIndexes.get(leaves.get(i).getColumnName());
+      leafColumns[i] = index == null ? -1 : index;
+    }
+  }
+
+  /**
+   * @param block the row group
+   * @return false if no row of the row group can satisfy the predicate
+   */
+  public boolean isNeeded(final BlockMetaData block) {
+    final TruthValue[] values = new TruthValue[leaves.size()];
+    for (int i = 0; i < values.length; i++) {
+      if (leafColumns[i] < 0) {
+        // partition columns and columns missing from the file
+        values[i] = TruthValue.YES_NO_NULL;
+      } else {
+        values[i] = evaluate(leaves.get(i),
+            block.getColumns().get(leafColumns[i]).getStatistics(),
+            block.getRowCount());
+      }
+    }
+    return sarg.evaluate(values).isNeeded();
+  }
+
+  /**
+   * Evaluate a predicate with respect to the statistics of a column chunk.
+   *
+   * @param leaf the predicate
+   * @param stats the statistics of the column chunk
+   * @param rowCount the number of rows in the row group
+   * @return the set of truth values that the predicate may have for the rows
+   */
+  static TruthValue evaluate(final PredicateLeaf leaf, final Statistics stats,
+      final long rowCount) {
+    if (stats == null) {
+      return TruthValue.YES_NO_NULL;
+    }
+    if (rowCount > 0 && stats.getNumNulls() == rowCount) {
+      return leaf.getOperator() == PredicateLeaf.Operator.IS_NULL ?
+          TruthValue.YES : TruthValue.NULL;
+    }
+    if (stats.isEmpty()) {
+      return TruthValue.YES_NO_NULL;
+    }
+    final Comparable<?> min;
+    final Comparable<?> max;
+    if (stats instanceof IntStatistics) {
+      min = Long.valueOf(((IntStatistics) stats).getMin());
+      max = Long.valueOf(((IntStatistics) stats).getMax());
+    } else if (stats instanceof LongStatistics) {
+      min = ((LongStatistics) stats).getMin();
+      max = ((LongStatistics) stats).getMax();
+    } else if (stats instanceof FloatStatistics) {
+      min = Double.valueOf(((FloatStatistics) stats).getMin());
+      max = Double.valueOf(((FloatStatistics) stats).getMax());
+    } else if (stats instanceof DoubleStatistics) {
+      min = ((DoubleStatistics) stats).getMin();
+      max = ((DoubleStatistics) stats).getMax();
+    } else {
+      return TruthValue.YES_NO_NULL;
+    }
+    if (min instanceof Double
+        && (((Double) min).isNaN() || ((Double) max).isNaN())) {
+      return TruthValue.YES_NO_NULL;
+    }
+
+    switch (leaf.getOperator()) {
+    case EQUALS:
+    case NULL_SAFE_EQUALS: {
+      final Object literal = leaf.getLiteral();
+      if (!isComparable(literal, min)) {
+        return TruthValue.YES_NO_NULL;
+      }
+      final TruthValue no = leaf.getOperator() == PredicateLeaf.Operator.EQUALS ?
+          TruthValue.NO_NULL : TruthValue.NO;
+      if (compare(literal, min) < 0 || compare(literal, max) > 0) {
+        return no;
+      } else if (compare(literal, min) == 0 && compare(literal, max) == 0) {
+        return leaf.getOperator() == PredicateLeaf.Operator.EQUALS ?
+            TruthValue.YES_NULL : TruthValue.YES_NO;
+      }
+      return leaf.getOperator() == PredicateLeaf.Operator.EQUALS ?
+          TruthValue.YES_NO_NULL : TruthValue.YES_NO;
+    }
+    case LESS_THAN: {
+      final Object literal = leaf.getLiteral();
+      if (!isComparable(literal, min)) {
+        return TruthValue.YES_NO_NULL;
+      }
+      if (compare(max, literal) < 0) {
+        return TruthValue.YES_NULL;
+      } else if (compare(literal, min) <= 0) {
+        return TruthValue.NO_NULL;
+      }
+      return TruthValue.YES_NO_NULL;
+    }
+    case LESS_THAN_EQUALS: {
+      final Object literal = leaf.getLiteral();
+      if (!isComparable(literal, min)) {
+        return TruthValue.YES_NO_NULL;
+      }
+      if (compare(max, literal) <= 0) {
+        return TruthValue.YES_NULL;
+      } else if (compare(literal, min) < 0) {
+        return TruthValue.NO_NULL;
+      }
+      return TruthValue.YES_NO_NULL;
+    }
+    case IN:
+      for (final Object literal : leaf.getLiteralList()) {
+        if (!isComparable(literal, min)
+            || (compare(literal, min) >= 0 && compare(literal, max) <= 0)) {
+          return TruthValue.YES_NO_NULL;
+        }
+      }
+      return TruthValue.NO_NULL;
+    case BETWEEN: {
+      final List<Object> literals = leaf.getLiteralList();
+      final Object lower = literals.get(0);
+      final Object upper = literals.get(1);
+      if (!isComparable(lower, min) || !isComparable(upper, min)) {
+        return TruthValue.YES_NO_NULL;
+      }
+      if (compare(upper, min) < 0 || compare(lower, max) > 0) {
+        return TruthValue.NO_NULL;
+      } else if (compare(lower, min) <= 0 && compare(max, upper) <= 0) {
+        return TruthValue.YES_NULL;
+      }
+      return TruthValue.YES_NO_NULL;
+    }
+    case IS_NULL:
+      return TruthValue.YES_NO;
+    default:
+      return TruthValue.YES_NO_NULL;
+    }
+  }
+
+  /**
+   * Only literals of the same type as the statistics are compared, so that no
+   * row group is eliminated because of a lossy conversion.
+   */
+  private static boolean isComparable(final Object literal, final Object statsObj) {
+    return literal != null && literal.getClass() == statsObj.getClass();
+  }
+
+  @SuppressWarnings("unchecked")
+  private static int compare(final Object left, final Object right) {
+    return ((Comparable<Object>) left).compareTo(right);
+  }
+}
@@ -40,6 +40,11 @@
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -55,6 +60,7 @@
 import org.apache.hadoop.hive.common.classification.InterfaceStability.Unstable;
 import org.apache.hadoop.hive.conf.HiveConf;
 import org.apache.hadoop.hive.conf.HiveConf.ConfVars;
+import org.apache.hadoop.hive.metastore.CachingMetaStoreClient;
 import org.apache.hadoop.hive.metastore.HiveMetaException;
 import org.apache.hadoop.hive.metastore.HiveMetaHook;
 import org.apache.hadoop.hive.metastore.HiveMetaHookLoader;
@@ -109,6 +115,7 @@
 import org.apache.thrift.TException;
 
 import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 /**
  * This class has functions that implement meta data/DDL operations using calls
@@ -1209,7 +1216,6 @@ public void loadPartition(Path loadPath, String tableName,
       boolean inheritTableSpecs, boolean isSkewedStoreAsSubdir,
       boolean isSrcLocal) throws HiveException {
     Table tbl = getTable(tableName);
-    Path tblDataLocationPath =  tbl.getDataLocation();
     try {
       /**
        * Move files before creating the partition since down stream processes
@@ -1224,31 +1230,7 @@ public void loadPartition(Path loadPath, String tableName,
         oldPartPath = oldPart.getDataLocation();
       }
 
-      Path newPartPath = null;
-
-      if (inheritTableSpecs) {
-        Path partPath = new Path(tbl.getDataLocation(),
-            Warehouse.makePartPath(partSpec));
-        newPartPath = new Path(tblDataLocationPath.toUri().getScheme(), tblDataLocationPath.toUri().getAuthority(),
-            partPath.toUri().getPath());
-
-        if(oldPart != null) {
-          /*
-           * If we are moving the partition across filesystem boundaries
-           * inherit from the table properties. Otherwise (same filesystem) use the
-           * original partition location.
-           *
-           * See: HIVE-1707 and HIVE-2117 for background
-           */
-          FileSystem oldPartPathFS = oldPartPath.getFileSystem(getConf());
-          FileSystem loadPathFS = loadPath.getFileSystem(getConf());
-          if (oldPartPathFS.equals(loadPathFS)) {
-            newPartPath = oldPartPath;
-          }
-        }
-      } else {
-        newPartPath = oldPartPath;
-      }
+      Path newPartPath = getNewPartPath(tbl, partSpec, oldPartPath, loadPath, inheritTableSpecs);
 
       if (replace) {
         Hive.replaceFiles(loadPath, newPartPath, oldPartPath, getConf(),
@@ -1289,6 +1271,47 @@ public void loadPartition(Path loadPath, String tableName,
 
   }
 
+  /**
+   * Get the location the files of a partition are moved to when it is loaded.
+   *
+   * @param tbl
+   *          the partition's table
+   * @param partSpec
+   *          partition keys and values
+   * @param oldPartPath
+   *          location of the partition if it exists already, otherwise null
+   * @param loadPath
+   *          directory containing the files to load
+   * @param inheritTableSpecs
+   *          if true, the location is derived from the table location
+   */
+  private Path getNewPartPath(Table tbl, Map<String, String> partSpec, Path oldPartPath,
+      Path loadPath, boolean inheritTableSpecs) throws IOException, MetaException {
+    if (!inheritTableSpecs) {
+      return oldPartPath;
+    }
+    Path tblDataLocationPath = tbl.getDataLocation();
+    Path partPath = new Path(tblDataLocationPath, Warehouse.makePartPath(partSpec));
+    Path newPartPath = new Path(tblDataLocationPath.toUri().getScheme(),
+        tblDataLocationPath.toUri().getAuthority(), partPath.toUri().getPath());
+
+    if (oldPartPath != null) {
+      /*
+       * If we are moving the partition across filesystem boundaries
+       * inherit from the table properties. Otherwise (same filesystem) use the
+       * original partition location.
+       *
+       * See: HIVE-1707 and HIVE-2117 for background
+       */
+      FileSystem oldPartPathFS = oldPartPath.getFileSystem(getConf());
+      FileSystem loadPathFS = loadPath.getFileSystem(getConf());
+      if (oldPartPathFS.equals(loadPathFS)) {
+        newPartPath = oldPartPath;
+      }
+    }
+    return newPartPath;
+  }
+
   /**
  * Walk through sub-directory tree to construct list bucketing location map.
  *
@@ -1428,11 +1451,8 @@ public ArrayList<LinkedHashMap<String, String>> loadDynamicPartitions(Path loadP
       }
 
       // for each dynamically created DP directory, construct a full partition spec
-      // and load the partition based on that
-      Iterator<Path> iter = validPartitions.iterator();
-      while (iter.hasNext()) {
-        // get the dynamically created directory
-        Path partPath = iter.next();
+      List<Path> partPaths = new ArrayList<Path>(validPartitions);
+      for (Path partPath : partPaths) {
         assert fs.getFileStatus(partPath).isDir():
           "partitions " + partPath + " is not a directory !";
 
@@ -1440,18 +1460,207 @@ public ArrayList<LinkedHashMap<String, String>> loadDynamicPartitions(Path loadP
         LinkedHashMap<String, String> fullPartSpec = new LinkedHashMap<String, String>(partSpec);
         Warehouse.makeSpecFromName(fullPartSpec, partPath);
         fullPartSpecs.add(fullPartSpec);
+      }
 
-        // finally load the partition -- move the file to the final table address
-        loadPartition(partPath, tableName, fullPartSpec, replace, holdDDLTime, true,
-            listBucketingEnabled, false);
-        LOG.info("New loading path = " + partPath + " with partSpec " + fullPartSpec);
+      if (listBucketingEnabled) {
+        // the list bucketing location map is built from the moved files, so
+        // load these partitions one at a time
+        for (int i = 0; i < partPaths.size(); i++) {
+          loadPartition(partPaths.get(i), tableName, fullPartSpecs.get(i), replace, holdDDLTime,
+              true, listBucketingEnabled, false);
+          LOG.info("New loading path = " + partPaths.get(i) + " with partSpec "
+              + fullPartSpecs.get(i));
+        }
+      } else {
+        loadPartitionsInParallel(getTable(tableName), partPaths, fullPartSpecs, replace,
+            holdDDLTime);
       }
       return fullPartSpecs;
     } catch (IOException e) {
       throw new HiveException(e);
+    } catch (MetaException e) {
+      throw new HiveException(e);
     }
   }
 
+  /**
+   * Load dynamic partitions. The files of the partitions are moved by
+   * hive.load.dynamic.partitions.thread threads. Then the partitions are
+   * created or altered with one batch of metastore calls. A partition whose
+   * files could not be moved is not touched in the metastore, and all the
+   * failed partitions are reported together once the others are loaded.
+   *
+   * @param tbl
+   *          table to be loaded
+   * @param partPaths
+   *          directories containing the files of each partition
+   * @param partSpecs
+   *          full partition specifications, in the order of partPaths
+   * @param replace
+   *          if true - replace files in the partitions, otherwise add files
+   * @param holdDDLTime
+   *          if true, the metastore is not updated
+   */
+  private void loadPartitionsInParallel(Table tbl, List<Path> partPaths,
+      List<LinkedHashMap<String, String>> partSpecs, final boolean replace,
+      boolean holdDDLTime) throws HiveException, IOException, MetaException {
+    int numParts = partPaths.size();
+    if (numParts == 0) {
+      return;
+    }
+
+    // look up the partitions that exist already in batches, rather than one call each
+    List<Partition> oldParts = getPartitionsBySpecs(tbl, partSpecs);
+
+    Path[] oldPartPaths = new Path[numParts];
+    Path[] newPartPaths = new Path[numParts];
+    for (int i = 0; i < numParts; i++) {
+      Partition oldPart = oldParts.get(i);
+      oldPartPaths[i] = oldPart == null ? null : oldPart.getDataLocation();
+      newPartPaths[i] = getNewPartPath(tbl, partSpecs.get(i), oldPartPaths[i],
+          partPaths.get(i), true);
+    }
+
+    Map<Map<String, String>, Throwable> failures =
+        new LinkedHashMap<Map<String, String>, Throwable>();
+    List<Integer> moved = movePartitionFiles(tbl, partPaths, partSpecs, oldPartPaths,
+        newPartPaths, replace, failures);
+
+    if (!holdDDLTime) {
+      List<org.apache.hadoop.hive.metastore.api.Partition> newParts =
+          new ArrayList<org.apache.hadoop.hive.metastore.api.Partition>();
+      List<Partition> alteredParts = new ArrayList<Partition>();
+      for (int i : moved) {
+        Partition oldPart = oldParts.get(i);
+        if (oldPart == null) {
+          newParts.add(Partition.createMetaPartitionObject(tbl, partSpecs.get(i),
+              newPartPaths[i]));
+        } else {
+          org.apache.hadoop.hive.metastore.api.Partition tpart = oldPart.getTPartition();
+          inheritTableSpecs(tbl, tpart);
+          tpart.getSd().setLocation(newPartPaths[i].toString());
+          clearPartitionStats(tpart);
+          alteredParts.add(oldPart);
+        }
+      }
+      try {
+        if (!newParts.isEmpty()) {
+          getMSC().add_partitions(newParts);
+        }
+        if (!alteredParts.isEmpty()) {
+          alterPartitions(tbl.getDbName() + "." + tbl.getTableName(), alteredParts);
+        }
+      } catch (Exception e) {
+        // a batch fails as a whole, so redo it one partition at a time to
+        // find the partitions that fail
+        LOG.warn("Failed to update the metastore for " + moved.size()
+            + " dynamic partitions in one batch, retrying them one at a time", e);
+        for (int i : moved) {
+          try {
+            getPartition(tbl, partSpecs.get(i), true, newPartPaths[i].toString(), true);
+          } catch (HiveException pe) {
+            failures.put(partSpecs.get(i), pe);
+          }
+        }
+      }
+    }
+
+    for (int i : moved) {
+      if (!failures.containsKey(partSpecs.get(i))) {
+        LOG.info("New loading path = " + partPaths.get(i) + " with partSpec " + partSpecs.get(i));
+      }
+    }
+    if (!failures.isEmpty()) {
+      throw new HiveException(describeLoadFailures(tbl, numParts, failures),
+          failures.values().iterator().next());
+    }
+  }
+
+  /**
+   * Move the files of dynamic partitions on a bounded thread pool.
+   *
+   * @return the indexes of the partitions whose files were moved; the others
+   *         are added to failures
+   */
+  private List<Integer> movePartitionFiles(Table tbl, List<Path> partPaths,
+      List<LinkedHashMap<String, String>> partSpecs, final Path[] oldPartPaths,
+      final Path[] newPartPaths, final boolean replace,
+      Map<Map<String, String>, Throwable> failures) throws HiveException, IOException {
+    int numParts = partPaths.size();
+    int numThreads = Math.max(1, Math.min(numParts,
+        conf.getIntVar(ConfVars.HIVE_LOAD_DYNAMIC_PARTITIONS_THREAD_COUNT)));
+    final HiveConf moveConf = conf;
+    final FileSystem tblFs = tbl.getDataLocation().getFileSystem(moveConf);
+    // the file moves may look up the session, for example to get the user
+    final SessionState parentSession = SessionState.get();
+
+    ExecutorService pool = Executors.newFixedThreadPool(numThreads,
+        new ThreadFactoryBuilder().setDaemon(true)
+            .setNameFormat("load-dynamic-partitions-%d").build());
+    List<Integer> moved = new ArrayList<Integer>(numParts);
+    try {
+      List<Future<Void>> moves = new ArrayList<Future<Void>>(numParts);
+      for (int i = 0; i < numParts; i++) {
+        final Path srcPath = partPaths.get(i);
+        final int index = i;
+        moves.add(pool.submit(new Callable<Void>() {
+          @Override
+          public Void call() throws Exception {
+            if (parentSession != null) {
+              SessionState.setCurrentSessionState(parentSession);
+            }
+            try {
+              if (replace) {
+                replaceFiles(srcPath, newPartPaths[index], oldPartPaths[index], moveConf, false);
+              } else {
+                copyFiles(moveConf, srcPath, newPartPaths[index], tblFs, false);
+              }
+            } finally {
+              SessionState.detachSession();
+            }
+            return null;
+          }
+        }));
+      }
+      for (int i = 0; i < numParts; i++) {
+        try {
+          moves.get(i).get();
+          moved.add(i);
+        } catch (ExecutionException e) {
+          LOG.error("Failed to move " + partPaths.get(i) + " to " + newPartPaths[i]
+              + " for partition " + partSpecs.get(i), e.getCause());
+          failures.put(partSpecs.get(i), e.getCause());
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new HiveException("Interrupted while loading the dynamic partitions of "
+          + tbl.getCompleteName(), e);
+    } finally {
+      pool.shutdownNow();
+    }
+    return moved;
+  }
+
+  private static final int MAX_REPORTED_LOAD_FAILURES = 20;
+
+  private static String describeLoadFailures(Table tbl, int numParts,
+      Map<Map<String, String>, Throwable> failures) {
+    StringBuilder msg = new StringBuilder("Failed to load ").append(failures.size())
+        .append(" of ").append(numParts).append(" dynamic partitions of ")
+        .append(tbl.getCompleteName()).append(':');
+    int reported = 0;
+    for (Map.Entry<Map<String, String>, Throwable> failure : failures.entrySet()) {
+      if (reported++ == MAX_REPORTED_LOAD_FAILURES) {
+        msg.append("\n  ... and ").append(failures.size() - MAX_REPORTED_LOAD_FAILURES)
+            .append(" more, see the log for the others");
+        break;
+      }
+      msg.append("\n  ").append(failure.getKey()).append(": ").append(failure.getValue());
+    }
+    return msg.toString();
+  }
+
   /**
    * Load a directory into a Hive Table. - Alters existing content of table with
    * the contents of loadPath. - If table does not exist - an exception is
@@ -1655,14 +1864,7 @@ public Partition getPartition(Table tbl, Map<String, String> partSpec,
           LOG.debug("altering partition for table " + tbl.getTableName()
                     + " with partition spec : " + partSpec);
           if (inheritTableSpecs) {
-            tpart.getSd().setOutputFormat(tbl.getTTable().getSd().getOutputFormat());
-            tpart.getSd().setInputFormat(tbl.getTTable().getSd().getInputFormat());
-            tpart.getSd().getSerdeInfo().setSerializationLib(tbl.getSerializationLib());
-            tpart.getSd().getSerdeInfo().setParameters(
-                tbl.getTTable().getSd().getSerdeInfo().getParameters());
-            tpart.getSd().setBucketCols(tbl.getBucketCols());
-            tpart.getSd().setNumBuckets(tbl.getNumBuckets());
-            tpart.getSd().setSortCols(tbl.getSortCols());
+            inheritTableSpecs(tbl, tpart);
           }
           if (partPath == null || partPath.trim().equals("")) {
             throw new HiveException("new partition path should not be null or empty.");
@@ -1686,6 +1888,18 @@ public Partition getPartition(Table tbl, Map<String, String> partSpec,
     return new Partition(tbl, tpart);
   }
 
+  private static void inheritTableSpecs(Table tbl,
+      org.apache.hadoop.hive.metastore.api.Partition tpart) {
+    tpart.getSd().setOutputFormat(tbl.getTTable().getSd().getOutputFormat());
+    tpart.getSd().setInputFormat(tbl.getTTable().getSd().getInputFormat());
+    tpart.getSd().getSerdeInfo().setSerializationLib(tbl.getSerializationLib());
+    tpart.getSd().getSerdeInfo().setParameters(
+        tbl.getTTable().getSd().getSerdeInfo().getParameters());
+    tpart.getSd().setBucketCols(tbl.getBucketCols());
+    tpart.getSd().setNumBuckets(tbl.getNumBuckets());
+    tpart.getSd().setSortCols(tbl.getSortCols());
+  }
+
   public boolean dropPartition(String tblName, List<String> part_vals, boolean deleteData)
       throws HiveException {
     String[] names = Utilities.getDbTableName(tblName);
@@ -1897,6 +2111,42 @@ public List<Partition> getPartitionsByNames(Table tbl,
     return partitions;
   }
 
+  /**
+   * Get the partitions of the table for a list of full partition specifications, with the
+   * batched calls of {@link #getPartitionsByNames(Table, List)} rather than one call each.
+   *
+   * @param tbl
+   *          object for which partition is needed. Must be partitioned.
+   * @param partSpecs
+   *          full partition specifications
+   * @return the partitions in the order of partSpecs, null for the ones that don't exist
+   * @throws HiveException
+   */
+  public List<Partition> getPartitionsBySpecs(Table tbl,
+      List<? extends Map<String, String>> partSpecs) throws HiveException {
+    List<String> partNames = new ArrayList<String>(partSpecs.size());
+    try {
+      for (Map<String, String> partSpec : partSpecs) {
+        List<String> pvals = new ArrayList<String>();
+        for (FieldSchema field : tbl.getPartCols()) {
+          pvals.add(partSpec.get(field.getName()));
+        }
+        partNames.add(Warehouse.makePartName(tbl.getPartCols(), pvals));
+      }
+    } catch (MetaException e) {
+      throw new HiveException(e);
+    }
+    Map<String, Partition> partsByName = new HashMap<String, Partition>();
+    for (Partition part : getPartitionsByNames(tbl, partNames)) {
+      partsByName.put(part.getName(), part);
+    }
+    List<Partition> partitions = new ArrayList<Partition>(partNames.size());
+    for (String partName : partNames) {
+      partitions.add(partsByName.get(partName));
+    }
+    return partitions;
+  }
+
   /**
    * Get all partitions of the table that matches the list of given partition names.
    *
@@ -2486,8 +2736,12 @@ public HiveMetaHook getHook(
           }
         }
       };
-    return RetryingMetaStoreClient.getProxy(conf, hookLoader,
+    IMetaStoreClient client = RetryingMetaStoreClient.getProxy(conf, hookLoader,
         SessionHiveMetaStoreClient.class.getName());
+    if (HiveConf.getBoolVar(conf, ConfVars.METASTORE_CLIENT_CACHE_ENABLED)) {
+      client = CachingMetaStoreClient.getProxy(conf, client);
+    }
+    return client;
   }
 
   /**
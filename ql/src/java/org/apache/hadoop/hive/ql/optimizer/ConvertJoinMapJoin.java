@@ -27,20 +27,27 @@
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.hive.conf.HiveConf;
+import org.apache.hadoop.hive.ql.exec.FilterOperator;
 import org.apache.hadoop.hive.ql.exec.GroupByOperator;
 import org.apache.hadoop.hive.ql.exec.JoinOperator;
 import org.apache.hadoop.hive.ql.exec.MapJoinOperator;
 import org.apache.hadoop.hive.ql.exec.MuxOperator;
 import org.apache.hadoop.hive.ql.exec.Operator;
 import org.apache.hadoop.hive.ql.exec.ReduceSinkOperator;
+import org.apache.hadoop.hive.ql.exec.SelectOperator;
+import org.apache.hadoop.hive.ql.exec.TableScanOperator;
 import org.apache.hadoop.hive.ql.lib.Node;
 import org.apache.hadoop.hive.ql.lib.NodeProcessor;
 import org.apache.hadoop.hive.ql.lib.NodeProcessorCtx;
+import org.apache.hadoop.hive.ql.metadata.Table;
 import org.apache.hadoop.hive.ql.parse.OptimizeTezProcContext;
 import org.apache.hadoop.hive.ql.parse.ParseContext;
 import org.apache.hadoop.hive.ql.parse.SemanticException;
 import org.apache.hadoop.hive.ql.plan.ExprNodeColumnDesc;
 import org.apache.hadoop.hive.ql.plan.ExprNodeDesc;
+import org.apache.hadoop.hive.ql.plan.ExprNodeDescUtils;
+import org.apache.hadoop.hive.ql.plan.JoinCondDesc;
+import org.apache.hadoop.hive.ql.plan.JoinDesc;
 import org.apache.hadoop.hive.ql.plan.MapJoinDesc;
 import org.apache.hadoop.hive.ql.plan.OpTraits;
 import org.apache.hadoop.hive.ql.plan.OperatorDesc;
@@ -256,12 +263,55 @@ private boolean checkConvertJoinBucketMapJoin(JoinOperator joinOp,
   }
 
   public int mapJoinConversionPos(JoinOperator joinOp, OptimizeTezProcContext context, 
-      int buckets) {
-    Set<Integer> bigTableCandidateSet = MapJoinProcessor.
-      getBigTableCandidates(joinOp.getConf().getConds());
-
+      int buckets) throws SemanticException {
     long maxSize = context.conf.getLongVar(
         HiveConf.ConfVars.HIVECONVERTJOINNOCONDITIONALTASKTHRESHOLD);
+    int bigTablePosition = mapJoinConversionPos(joinOp, context, buckets, maxSize);
+    if (bigTablePosition < 0 && joinOp.getParentOperators().size() == 2
+        && context.conf.getBoolVar(HiveConf.ConfVars.HIVEMAPJOINUSEOPTIMIZEDTABLE)
+        && context.conf.getBoolVar(HiveConf.ConfVars.HIVEUSEHYBRIDGRACEHASHJOIN)) {
+      // With a single small table, hybrid grace hash join spills the partitions of the
+      // small table that don't fit in memory, so the small table can be bigger; but only
+      // if the hashtable loader is going to build a hybrid table for it.
+      long hybridMaxSize = (long) (maxSize * context.conf.getFloatVar(
+          HiveConf.ConfVars.HIVEHYBRIDGRACEHASHJOINSIZEFACTOR));
+      bigTablePosition = mapJoinConversionPos(joinOp, context, buckets, hybridMaxSize);
+      if (bigTablePosition >= 0
+          && !canSpillSmallTable(joinOp, bigTablePosition == 0 ? 1 : 0)) {
+        LOG.info("Small table is over the map join size but cannot be spilled");
+        bigTablePosition = -1;
+      }
+    }
+    return bigTablePosition;
+  }
+
+  /**
+   * Whether the tez HashTableLoader builds a spillable HybridHashTableContainer for the small
+   * table: that needs the small table values not to be taken from the key (see the value
+   * index in MapJoinProcessor.convertJoinOpMapJoinOp). The keys and values of tez map joins
+   * always use BinarySortableSerDe and LazyBinarySerDe, which the container supports.
+   */
+  static boolean canSpillSmallTable(JoinOperator joinOp, int smallTablePosition)
+      throws SemanticException {
+    Operator<? extends OperatorDesc> parentOp = joinOp.getParentOperators().get(smallTablePosition);
+    if (!(parentOp instanceof ReduceSinkOperator)) {
+      return false;
+    }
+    List<ExprNodeDesc> keyCols = ((ReduceSinkOperator) parentOp).getConf().getKeyCols();
+    List<ExprNodeDesc> valueCols = ExprNodeDescUtils.backtrack(
+        joinOp.getConf().getExprs().get((byte) smallTablePosition), joinOp, parentOp);
+    for (ExprNodeDesc valueCol : valueCols) {
+      if (ExprNodeDescUtils.indexOf(valueCol, keyCols) >= 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private int mapJoinConversionPos(JoinOperator joinOp, OptimizeTezProcContext context,
+      int buckets, long maxSize) {
+    Set<Integer> bigTableCandidateSet = MapJoinProcessor.
+      getBigTableCandidates(joinOp.getConf().getConds());
 
     int bigTablePosition = -1;
 
@@ -378,6 +428,64 @@ public MapJoinOperator convertJoinMapJoin(JoinOperator joinOp, OptimizeTezProcCo
       }
     }
 
+    if (context.conf.getBoolVar(HiveConf.ConfVars.TEZ_DYNAMIC_PARTITION_PRUNING)
+        && canPruneBigTablePartitions(mapJoinOp, bigTablePosition, parseContext)) {
+      LOG.info("Big table splits without a match will be skipped for " + mapJoinOp);
+      mapJoinOp.getConf().setBigTablePartitionPruning(true);
+    }
     return mapJoinOp;
   }
+
+  /**
+   * Checks whether the map join can stop reading a big table split after a row without a match:
+   * the join must be an inner or left semi join on a single key that is a partition column of
+   * the big table, and the rows must go from the table scan to the join through filters and
+   * selects only, so that skipping them does not affect anything else.
+   */
+  static boolean canPruneBigTablePartitions(MapJoinOperator mapJoinOp, int bigTablePosition,
+      ParseContext parseContext) throws SemanticException {
+    MapJoinDesc desc = mapJoinOp.getConf();
+    JoinCondDesc[] conds = desc.getConds();
+    if (conds.length != 1 || (conds[0].getType() != JoinDesc.INNER_JOIN
+        && conds[0].getType() != JoinDesc.LEFT_SEMI_JOIN)) {
+      return false;
+    }
+    List<ExprNodeDesc> keys = desc.getKeys().get((byte) bigTablePosition);
+    if (keys == null || keys.size() != 1) {
+      return false;
+    }
+
+    Operator<? extends OperatorDesc> parent = mapJoinOp.getParentOperators().get(bigTablePosition);
+    Operator<? extends OperatorDesc> op = parent;
+    while (!(op instanceof TableScanOperator)) {
+      if (!(op instanceof FilterOperator || op instanceof SelectOperator)
+          || op.getParentOperators().size() != 1) {
+        return false;
+      }
+      if (op.getChildOperators().size() != 1) {
+        return false;
+      }
+      op = op.getParentOperators().get(0);
+    }
+    if (op.getChildOperators().size() != 1) {
+      return false;
+    }
+    TableScanOperator tableScan = (TableScanOperator) op;
+    Table table = parseContext.getTopToTable().get(tableScan);
+    if (table == null || !table.isPartitioned()) {
+      return false;
+    }
+
+    // The key is evaluated on the output of the parent.
+    ExprNodeDesc key = keys.get(0);
+    if (key instanceof ExprNodeColumnDesc && parent.getColumnExprMap() != null) {
+      key = parent.getColumnExprMap().get(((ExprNodeColumnDesc) key).getColumn());
+      if (key == null) {
+        return false;
+      }
+    }
+    key = ExprNodeDescUtils.backtrack(key, parent, tableScan);
+    return key instanceof ExprNodeColumnDesc
+        && table.isPartitionKey(((ExprNodeColumnDesc) key).getColumn());
+  }
 }
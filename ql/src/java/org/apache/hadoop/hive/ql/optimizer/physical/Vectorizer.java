@@ -26,6 +26,7 @@
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Properties;
 import java.util.Set;
 import java.util.Stack;
 import java.util.regex.Pattern;
@@ -37,9 +38,15 @@
 import org.apache.hadoop.hive.ql.exec.mr.MapRedTask;
 import org.apache.hadoop.hive.ql.exec.tez.TezTask;
 import org.apache.hadoop.hive.ql.exec.vector.VectorExpressionDescriptor;
+import org.apache.hadoop.hive.ql.exec.vector.VectorPTFOperator;
 import org.apache.hadoop.hive.ql.exec.vector.VectorizationContext;
 import org.apache.hadoop.hive.ql.exec.vector.VectorizationContextRegion;
+import org.apache.hadoop.hive.ql.exec.vector.VectorizedBinarySortableDeserializer;
 import org.apache.hadoop.hive.ql.exec.vector.VectorizedInputFormatInterface;
+import org.apache.hadoop.hive.ql.exec.vector.mapjoin.VectorMapJoinLongOperator;
+import org.apache.hadoop.hive.ql.exec.vector.mapjoin.VectorMapJoinMultiKeyOperator;
+import org.apache.hadoop.hive.ql.exec.vector.mapjoin.VectorMapJoinStringOperator;
+import org.apache.hadoop.hive.ql.io.VectorizedTextInputFormat;
 import org.apache.hadoop.hive.ql.lib.DefaultGraphWalker;
 import org.apache.hadoop.hive.ql.lib.DefaultRuleDispatcher;
 import org.apache.hadoop.hive.ql.lib.Dispatcher;
@@ -53,21 +60,36 @@
 import org.apache.hadoop.hive.ql.lib.TaskGraphWalker;
 import org.apache.hadoop.hive.ql.metadata.HiveException;
 import org.apache.hadoop.hive.ql.metadata.VirtualColumn;
+import org.apache.hadoop.hive.ql.parse.WindowingSpec.Direction;
 import org.apache.hadoop.hive.ql.parse.SemanticException;
+import org.apache.hadoop.hive.ql.parse.WindowingSpec.BoundarySpec;
 import org.apache.hadoop.hive.ql.plan.AbstractOperatorDesc;
 import org.apache.hadoop.hive.ql.plan.AggregationDesc;
 import org.apache.hadoop.hive.ql.plan.BaseWork;
 import org.apache.hadoop.hive.ql.plan.ExprNodeColumnDesc;
+import org.apache.hadoop.hive.ql.plan.ExprNodeConstantDesc;
 import org.apache.hadoop.hive.ql.plan.ExprNodeDesc;
 import org.apache.hadoop.hive.ql.plan.ExprNodeGenericFuncDesc;
+import org.apache.hadoop.hive.ql.plan.GroupByDesc;
+import org.apache.hadoop.hive.ql.plan.JoinCondDesc;
+import org.apache.hadoop.hive.ql.plan.JoinDesc;
 import org.apache.hadoop.hive.ql.plan.MapJoinDesc;
 import org.apache.hadoop.hive.ql.plan.MapWork;
 import org.apache.hadoop.hive.ql.plan.OperatorDesc;
+import org.apache.hadoop.hive.ql.plan.PTFDesc;
 import org.apache.hadoop.hive.ql.plan.PartitionDesc;
+import org.apache.hadoop.hive.ql.plan.ReduceWork;
 import org.apache.hadoop.hive.ql.plan.SMBJoinDesc;
+import org.apache.hadoop.hive.ql.plan.TableDesc;
 import org.apache.hadoop.hive.ql.plan.TableScanDesc;
 import org.apache.hadoop.hive.ql.plan.TezWork;
 import org.apache.hadoop.hive.ql.plan.api.OperatorType;
+import org.apache.hadoop.hive.ql.plan.ptf.CurrentRowDef;
+import org.apache.hadoop.hive.ql.plan.ptf.PTFExpressionDef;
+import org.apache.hadoop.hive.ql.plan.ptf.PTFQueryInputDef;
+import org.apache.hadoop.hive.ql.plan.ptf.WindowFrameDef;
+import org.apache.hadoop.hive.ql.plan.ptf.WindowFunctionDef;
+import org.apache.hadoop.hive.ql.plan.ptf.WindowTableFunctionDef;
 import org.apache.hadoop.hive.ql.udf.UDFAcos;
 import org.apache.hadoop.hive.ql.udf.UDFAsin;
 import org.apache.hadoop.hive.ql.udf.UDFAtan;
@@ -107,6 +129,20 @@
 import org.apache.hadoop.hive.ql.udf.UDFWeekOfYear;
 import org.apache.hadoop.hive.ql.udf.UDFYear;
 import org.apache.hadoop.hive.ql.udf.generic.*;
+import org.apache.hadoop.hive.serde.serdeConstants;
+import org.apache.hadoop.hive.serde2.Deserializer;
+import org.apache.hadoop.hive.serde2.SerDeUtils;
+import org.apache.hadoop.hive.serde2.binarysortable.BinarySortableSerDe;
+import org.apache.hadoop.hive.serde2.lazy.LazySimpleSerDe;
+import org.apache.hadoop.hive.serde2.lazybinary.LazyBinarySerDe;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.StructField;
+import org.apache.hadoop.hive.serde2.objectinspector.StructObjectInspector;
+import org.apache.hadoop.hive.serde2.typeinfo.PrimitiveTypeInfo;
+import org.apache.hadoop.hive.serde2.typeinfo.TypeInfo;
+import org.apache.hadoop.hive.serde2.typeinfo.TypeInfoUtils;
+import org.apache.hadoop.mapred.TextInputFormat;
+import org.apache.hadoop.util.ReflectionUtils;
 
 public class Vectorizer implements PhysicalPlanResolver {
 
@@ -119,6 +155,9 @@ public class Vectorizer implements PhysicalPlanResolver {
 
   Set<String> supportedAggregationUdfs = new HashSet<String>();
 
+  // Aggregates whose partial results can be merged by a vectorized reduce-side group by
+  Set<String> supportedReduceMergeAggregationUdfs = new HashSet<String>();
+
   private PhysicalContext physicalContext = null;;
 
   public Vectorizer() {
@@ -252,6 +291,12 @@ public Vectorizer() {
     supportedAggregationUdfs.add("stddev");
     supportedAggregationUdfs.add("stddev_pop");
     supportedAggregationUdfs.add("stddev_samp");
+    supportedAggregationUdfs.add("approx_count_distinct");
+
+    supportedReduceMergeAggregationUdfs.add("min");
+    supportedReduceMergeAggregationUdfs.add("max");
+    supportedReduceMergeAggregationUdfs.add("count");
+    supportedReduceMergeAggregationUdfs.add("sum");
   }
 
   class VectorizationDispatcher implements Dispatcher {
@@ -270,6 +315,12 @@ public Object dispatch(Node nd, Stack<Node> stack, Object... nodeOutputs)
         for (BaseWork w: work.getAllWork()) {
           if (w instanceof MapWork) {
             convertMapWork((MapWork)w);
+          } else if (w instanceof ReduceWork) {
+            // Only the tez reduce processor knows how to feed batches to the reducer.
+            if (HiveConf.getBoolVar(physicalContext.getConf(),
+                HiveConf.ConfVars.HIVE_VECTORIZATION_REDUCE_ENABLED)) {
+              convertReduceWork((ReduceWork)w);
+            }
           }
         }
       }
@@ -290,7 +341,8 @@ private boolean validateMapWork(MapWork mapWork) throws SemanticException {
         PartitionDesc pd = mapWork.getPathToPartitionInfo().get(path);
         List<Class<?>> interfaceList =
             Arrays.asList(pd.getInputFileFormatClass().getInterfaces());
-        if (!interfaceList.contains(VectorizedInputFormatInterface.class)) {
+        if (!interfaceList.contains(VectorizedInputFormatInterface.class)
+            && !canReadTextVectorized(pd)) {
           LOG.info("Input format: " + pd.getInputFileFormatClassName()
               + ", doesn't provide vectorized input");
           return false;
@@ -319,9 +371,33 @@ private boolean validateMapWork(MapWork mapWork) throws SemanticException {
       return true;
     }
 
+    /**
+     * Delimited text read with LazySimpleSerDe can be vectorized by substituting
+     * VectorizedTextInputFormat for TextInputFormat. Header and footer lines are
+     * skipped by the record reader wrapper row by row, so those tables can't.
+     */
+    private boolean canReadTextVectorized(PartitionDesc pd) {
+      if (!HiveConf.getBoolVar(physicalContext.getConf(),
+          HiveConf.ConfVars.HIVE_VECTORIZATION_TEXT_ENABLED)) {
+        return false;
+      }
+      if (pd.getInputFileFormatClass() != TextInputFormat.class
+          || !LazySimpleSerDe.class.getName().equals(pd.getDeserializerClassName())) {
+        return false;
+      }
+      Properties props = pd.getTableDesc().getProperties();
+      return "0".equals(props.getProperty(serdeConstants.HEADER_COUNT, "0").trim())
+          && "0".equals(props.getProperty(serdeConstants.FOOTER_COUNT, "0").trim());
+    }
+
     private void vectorizeMapWork(MapWork mapWork) throws SemanticException {
       LOG.info("Vectorizing task...");
       mapWork.setVectorMode(true);
+      for (PartitionDesc pd : mapWork.getPathToPartitionInfo().values()) {
+        if (pd.getInputFileFormatClass() == TextInputFormat.class) {
+          pd.setInputFileFormatClass(VectorizedTextInputFormat.class);
+        }
+      }
       Map<Rule, NodeProcessor> opRules = new LinkedHashMap<Rule, NodeProcessor>();
       VectorizationNodeProcessor vnp = new VectorizationNodeProcessor(mapWork);
       opRules.put(new RuleRegExp("R1", TableScanOperator.getOperatorName() + ".*" +
@@ -348,6 +424,175 @@ private void vectorizeMapWork(MapWork mapWork) throws SemanticException {
 
       return;
     }
+
+    private void convertReduceWork(ReduceWork reduceWork) throws SemanticException {
+      List<String> reduceColumnNames = new ArrayList<String>();
+      List<TypeInfo> reduceTypeInfos = new ArrayList<TypeInfo>();
+      boolean ret = validateReduceWork(reduceWork, reduceColumnNames, reduceTypeInfos);
+      if (ret) {
+        vectorizeReduceWork(reduceWork, reduceColumnNames);
+      }
+    }
+
+    /**
+     * Collects the names and types of the reduce-side row, as exposed by the
+     * tez ReduceRecordProcessor in vector mode (KEY.x columns followed by VALUE.x
+     * columns). Returns false if the key or value is not a flat struct.
+     */
+    private boolean getReduceColumns(ReduceWork reduceWork, List<String> reduceColumnNames,
+        List<TypeInfo> reduceTypeInfos) {
+      try {
+        TableDesc keyTableDesc = reduceWork.getKeyDesc();
+        Deserializer keyDeserializer = ReflectionUtils.newInstance(
+            keyTableDesc.getDeserializerClass(), null);
+        SerDeUtils.initializeSerDe(keyDeserializer, null, keyTableDesc.getProperties(), null);
+        ObjectInspector keyObjectInspector = keyDeserializer.getObjectInspector();
+        if (keyObjectInspector == null ||
+            keyObjectInspector.getCategory() != ObjectInspector.Category.STRUCT) {
+          return false;
+        }
+        for (StructField field :
+            ((StructObjectInspector) keyObjectInspector).getAllStructFieldRefs()) {
+          reduceColumnNames.add(Utilities.ReduceField.KEY.toString() + "." +
+              field.getFieldName());
+          reduceTypeInfos.add(TypeInfoUtils.getTypeInfoFromTypeString(
+              field.getFieldObjectInspector().getTypeName()));
+        }
+
+        TableDesc valueTableDesc = reduceWork.getTagToValueDesc().get(0);
+        Deserializer valueDeserializer = ReflectionUtils.newInstance(
+            valueTableDesc.getDeserializerClass(), null);
+        SerDeUtils.initializeSerDe(valueDeserializer, null, valueTableDesc.getProperties(), null);
+        ObjectInspector valueObjectInspector = valueDeserializer.getObjectInspector();
+        if (valueObjectInspector == null ||
+            valueObjectInspector.getCategory() != ObjectInspector.Category.STRUCT) {
+          return false;
+        }
+        for (StructField field :
+            ((StructObjectInspector) valueObjectInspector).getAllStructFieldRefs()) {
+          reduceColumnNames.add(Utilities.ReduceField.VALUE.toString() + "." +
+              field.getFieldName());
+          reduceTypeInfos.add(TypeInfoUtils.getTypeInfoFromTypeString(
+              field.getFieldObjectInspector().getTypeName()));
+        }
+      } catch (Exception e) {
+        LOG.info("Could not determine the reduce input columns", e);
+        return false;
+      }
+      return true;
+    }
+
+    private boolean validateReduceWork(ReduceWork reduceWork, List<String> reduceColumnNames,
+        List<TypeInfo> reduceTypeInfos) throws SemanticException {
+      // Validate input to ReduceWork.
+      if (reduceWork.getNeedsTagging() || reduceWork.getTagToValueDesc().size() != 1) {
+        LOG.info("Cannot vectorize reduce work with multiple inputs");
+        return false;
+      }
+      if (!getReduceColumns(reduceWork, reduceColumnNames, reduceTypeInfos)) {
+        return false;
+      }
+      for (TypeInfo typeInfo : reduceTypeInfos) {
+        if (!validateDataType(typeInfo.getTypeName())) {
+          LOG.info("Cannot vectorize reduce input column of type " + typeInfo.getTypeName());
+          return false;
+        }
+      }
+      // Now check the reduce operator tree.
+      return validateReduceWorkOperator(reduceWork.getReducer());
+    }
+
+    /**
+     * Validates the reduce-side operator tree. Operators below a group by or a
+     * windowing PTF are not checked, since those vectorized operators emit rows.
+     */
+    private boolean validateReduceWorkOperator(Operator<? extends OperatorDesc> op) {
+      boolean ret;
+      switch (op.getType()) {
+        case GROUPBY:
+          ret = validateGroupByOperator((GroupByOperator) op, true);
+          break;
+        case EXTRACT:
+          ret = validateExtractOperator((ExtractOperator) op);
+          break;
+        case PTF:
+          ret = validatePTFOperator((PTFOperator) op);
+          break;
+        case FILTER:
+        case SELECT:
+        case FILESINK:
+        case LIMIT:
+          ret = validateOperator(op);
+          break;
+        default:
+          ret = false;
+          break;
+      }
+      if (!ret) {
+        LOG.info("Reduce operator: " + op.getName() + " could not be vectorized.");
+        return false;
+      }
+      if (!emitsRows(op) && op.getChildOperators() != null) {
+        for (Operator<? extends OperatorDesc> child : op.getChildOperators()) {
+          if (!validateReduceWorkOperator(child)) {
+            return false;
+          }
+        }
+      }
+      return true;
+    }
+
+    private void vectorizeReduceWork(ReduceWork reduceWork, List<String> reduceColumnNames)
+        throws SemanticException {
+      LOG.info("Vectorizing ReduceWork...");
+      reduceWork.setVectorMode(true);
+
+      Map<String, Integer> cmap = new HashMap<String, Integer>();
+      for (int i = 0; i < reduceColumnNames.size(); i++) {
+        cmap.put(reduceColumnNames.get(i), i);
+      }
+      VectorizationContext vContext = new VectorizationContext(cmap, reduceColumnNames.size());
+      vContext.setFileKey("_REDUCE_SHUFFLE_");
+
+      try {
+        Operator<? extends OperatorDesc> vectorReducer =
+            vectorizeReduceWorkOperator(reduceWork.getReducer(), vContext);
+        reduceWork.setReducer(vectorReducer);
+      } catch (HiveException e) {
+        throw new SemanticException(e);
+      }
+
+      Map<Integer, String> columnVectorTypes = vContext.getOutputColumnTypeMap();
+      reduceWork.setScratchColumnVectorTypes(columnVectorTypes);
+
+      if (LOG.isDebugEnabled()) {
+        LOG.debug(String.format("reduce vectorTypes: %s", columnVectorTypes.toString()));
+      }
+    }
+
+    private Operator<? extends OperatorDesc> vectorizeReduceWorkOperator(
+        Operator<? extends OperatorDesc> op, VectorizationContext vContext)
+            throws HiveException {
+      Operator<? extends OperatorDesc> vectorOp = vectorizeOperator(op, vContext);
+      if (emitsRows(op) || vectorOp.getChildOperators() == null) {
+        // the vectorized group by and PTF emit rows, the operators below them stay as they are
+        return vectorOp;
+      }
+      VectorizationContext vChildContext = vContext;
+      if (vectorOp instanceof VectorizationContextRegion) {
+        vChildContext = ((VectorizationContextRegion) vectorOp).getOuputVectorizationContext();
+      }
+      List<Operator<? extends OperatorDesc>> children =
+          new ArrayList<Operator<? extends OperatorDesc>>(vectorOp.getChildOperators());
+      for (Operator<? extends OperatorDesc> child : children) {
+        vectorizeReduceWorkOperator(child, vChildContext);
+      }
+      return vectorOp;
+    }
+
+    private boolean emitsRows(Operator<? extends OperatorDesc> op) {
+      return op.getType() == OperatorType.GROUPBY || op.getType() == OperatorType.PTF;
+    }
   }
 
   class ValidationNodeProcessor implements NodeProcessor {
@@ -530,7 +775,7 @@ boolean validateOperator(Operator<? extends OperatorDesc> op) {
         }
         break;
       case GROUPBY:
-        ret = validateGroupByOperator((GroupByOperator) op);
+        ret = validateGroupByOperator((GroupByOperator) op, false);
         break;
       case FILTER:
         ret = validateFilterOperator((FilterOperator) op);
@@ -581,6 +826,107 @@ private boolean validateMapJoinDesc(MapJoinDesc desc) {
         validateExprNodeDesc(valueExprs);
   }
 
+  /**
+   * Picks the native vectorized map join operator for a join, or returns null if the join
+   * has to go through the row-mode VectorMapJoinOperator. The native operators only handle
+   * two-way joins against the memory-optimized hash table (Tez only) that keep or drop
+   * big table rows, with primitive keys and small table values.
+   */
+  private Class<? extends Operator<?>> getNativeMapJoinClass(MapJoinDesc desc) {
+    HiveConf hiveConf = physicalContext.getConf();
+    if (!HiveConf.getBoolVar(hiveConf, HiveConf.ConfVars.HIVE_VECTORIZATION_MAPJOIN_NATIVE_ENABLED)
+        || !HiveConf.getBoolVar(hiveConf, HiveConf.ConfVars.HIVEMAPJOINUSEOPTIMIZEDTABLE)
+        || !HiveConf.getVar(hiveConf, HiveConf.ConfVars.HIVE_EXECUTION_ENGINE).equals("tez")) {
+      return null;
+    }
+    if (desc.getConds().length != 1 || desc.getTagOrder().length != 2) {
+      return null;
+    }
+    byte posBigTable = (byte) desc.getPosBigTable();
+    byte posSmallTable = (byte) (posBigTable == 0 ? 1 : 0);
+    JoinCondDesc cond = desc.getConds()[0];
+    switch (cond.getType()) {
+    case JoinDesc.INNER_JOIN:
+    case JoinDesc.LEFT_SEMI_JOIN:
+      break;
+    case JoinDesc.LEFT_OUTER_JOIN:
+      if (cond.getLeft() != posBigTable) {
+        return null;
+      }
+      break;
+    case JoinDesc.RIGHT_OUTER_JOIN:
+      if (cond.getRight() != posBigTable) {
+        return null;
+      }
+      break;
+    default:
+      return null;
+    }
+
+    // Big table filters are applied to the whole batch, which is only right when
+    // unmatched big table rows are dropped anyway.
+    List<ExprNodeDesc> bigTableFilters = desc.getFilters().get(posBigTable);
+    List<ExprNodeDesc> smallTableFilters = desc.getFilters().get(posSmallTable);
+    if ((!desc.getNoOuterJoin() && bigTableFilters != null && !bigTableFilters.isEmpty())
+        || (smallTableFilters != null && !smallTableFilters.isEmpty())) {
+      return null;
+    }
+    if (desc.getNullSafes() != null) {
+      for (boolean isNullSafe : desc.getNullSafes()) {
+        if (isNullSafe) {
+          return null;
+        }
+      }
+    }
+    if (desc.getValueIndex(posSmallTable) != null) {
+      return null;
+    }
+
+    // The hash table must hold BinarySortableSerDe keys and LazyBinarySerDe values.
+    TableDesc keyTableDesc = desc.getKeyTblDesc();
+    TableDesc valueTableDesc = desc.getNoOuterJoin()
+        ? desc.getValueTblDescs().get(posSmallTable)
+        : desc.getValueFilteredTblDescs().get(posSmallTable);
+    if (keyTableDesc.getDeserializerClass() != BinarySortableSerDe.class
+        || valueTableDesc.getDeserializerClass() != LazyBinarySerDe.class) {
+      return null;
+    }
+    List<TypeInfo> keyTypes = getColumnTypes(keyTableDesc);
+    List<TypeInfo> valueTypes = getColumnTypes(valueTableDesc);
+    if (keyTypes.isEmpty()
+        || keyTypes.size() != desc.getKeys().get(posBigTable).size()
+        || !VectorizedBinarySortableDeserializer.isSupported(keyTypes)
+        || !VectorizedBinarySortableDeserializer.isSupported(valueTypes)
+        || valueTypes.size() != desc.getExprs().get(posSmallTable).size()) {
+      return null;
+    }
+
+    if (keyTypes.size() == 1) {
+      switch (((PrimitiveTypeInfo) keyTypes.get(0)).getPrimitiveCategory()) {
+      case BOOLEAN:
+      case BYTE:
+      case SHORT:
+      case INT:
+      case LONG:
+      case DATE:
+        return VectorMapJoinLongOperator.class;
+      case STRING:
+        return VectorMapJoinStringOperator.class;
+      default:
+        break;
+      }
+    }
+    return VectorMapJoinMultiKeyOperator.class;
+  }
+
+  private static List<TypeInfo> getColumnTypes(TableDesc tableDesc) {
+    String columnTypes = tableDesc.getProperties().getProperty(serdeConstants.LIST_COLUMN_TYPES);
+    if (columnTypes == null || columnTypes.length() == 0) {
+      return new ArrayList<TypeInfo>();
+    }
+    return TypeInfoUtils.getTypeInfosFromTypeString(columnTypes);
+  }
+
   private boolean validateReduceSinkOperator(ReduceSinkOperator op) {
     List<ExprNodeDesc> keyDescs = op.getConf().getKeyCols();
     List<ExprNodeDesc> partitionDescs = op.getConf().getPartitionCols();
@@ -605,16 +951,106 @@ private boolean validateFilterOperator(FilterOperator op) {
     return validateExprNodeDesc(desc, VectorExpressionDescriptor.Mode.FILTER);
   }
 
-  private boolean validateGroupByOperator(GroupByOperator op) {
-    if (op.getConf().isGroupingSetsPresent()) {
-      LOG.warn("Grouping sets not supported in vector mode");
+  private boolean validateGroupByOperator(GroupByOperator op, boolean isReduce) {
+    GroupByDesc desc = op.getConf();
+    if (desc.isGroupingSetsPresent() &&
+        (isReduce || desc.getMode() != GroupByDesc.Mode.HASH)) {
+      // The grouping sets are only expanded by the map-side hash aggregation.
+      LOG.info("Grouping sets only supported by map-side hash aggregation in vector mode");
+      return false;
+    }
+    if (isReduce && desc.getMode() != GroupByDesc.Mode.MERGEPARTIAL) {
+      // Only merging of sorted partial aggregates is supported on the reduce side.
+      LOG.info("Reduce-side group by mode " + desc.getMode() + " not supported in vector mode");
       return false;
     }
-    boolean ret = validateExprNodeDesc(op.getConf().getKeys());
+    boolean ret = validateExprNodeDesc(desc.getKeys());
     if (!ret) {
       return false;
     }
-    return validateAggregationDesc(op.getConf().getAggregators());
+    return validateAggregationDesc(desc.getAggregators(), isReduce);
+  }
+
+  private boolean validateExtractOperator(ExtractOperator op) {
+    // Only the extraction of the whole reduce value is a projection of the batch.
+    ExprNodeDesc col = op.getConf().getCol();
+    return col instanceof ExprNodeColumnDesc &&
+        ((ExprNodeColumnDesc) col).getColumn().equals(Utilities.ReduceField.VALUE.toString());
+  }
+
+  private boolean validatePTFOperator(PTFOperator op) {
+    PTFDesc desc = op.getConf();
+    if (desc.isMapSide() || !(desc.getFuncDef() instanceof WindowTableFunctionDef)) {
+      LOG.info("Only reduce-side windowing is supported in vector mode");
+      return false;
+    }
+    WindowTableFunctionDef def = (WindowTableFunctionDef) desc.getFuncDef();
+    if (!(def.getInput() instanceof PTFQueryInputDef) || def.getRankLimit() != -1) {
+      LOG.info("Chained PTFs and rank limits are not supported in vector mode");
+      return false;
+    }
+    for (PTFExpressionDef expr : def.getPartition().getExpressions()) {
+      if (!(expr.getExprNode() instanceof ExprNodeConstantDesc) &&
+          !validateWindowingKey(expr.getExprNode())) {
+        return false;
+      }
+    }
+    if (def.getOrder() != null) {
+      for (PTFExpressionDef expr : def.getOrder().getExpressions()) {
+        if (!validateWindowingKey(expr.getExprNode())) {
+          return false;
+        }
+      }
+    }
+    for (WindowFunctionDef wFnDef : def.getWindowFunctions()) {
+      if (!validateWindowFunction(wFnDef)) {
+        LOG.info("Window function " + wFnDef.getName() + " not supported in vector mode");
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private boolean validateWindowingKey(ExprNodeDesc desc) {
+    if (!(desc instanceof ExprNodeColumnDesc)) {
+      return false;
+    }
+    String type = desc.getTypeString();
+    return VectorizationContext.isIntFamily(type) || VectorizationContext.isFloatFamily(type) ||
+        VectorizationContext.isStringFamily(type) || VectorizationContext.isDatetimeFamily(type);
+  }
+
+  private boolean validateWindowFunction(WindowFunctionDef wFnDef) {
+    VectorPTFOperator.WindowFunction function = VectorPTFOperator.WindowFunction.get(
+        wFnDef.getName());
+    if (function == null || wFnDef.isDistinct()) {
+      return false;
+    }
+    if (function.isRanking()) {
+      // The ranking functions are computed from the order columns.
+      return true;
+    }
+    // Only frames from the start of the partition to the current row (ROWS) or
+    // to its last peer (RANGE) can be computed without looking ahead.
+    WindowFrameDef frame = wFnDef.getWindowFrame();
+    if (frame == null || !(frame.getEnd() instanceof CurrentRowDef) ||
+        frame.getStart().getDirection() != Direction.PRECEDING ||
+        frame.getStart().getAmt() != BoundarySpec.UNBOUNDED_AMOUNT) {
+      return false;
+    }
+    if (wFnDef.isStar()) {
+      return function == VectorPTFOperator.WindowFunction.COUNT;
+    }
+    if (wFnDef.getArgs() == null || wFnDef.getArgs().size() != 1) {
+      return false;
+    }
+    ExprNodeDesc arg = wFnDef.getArgs().get(0).getExprNode();
+    if (!(arg instanceof ExprNodeColumnDesc)) {
+      return false;
+    }
+    String type = arg.getTypeString();
+    return (VectorizationContext.isIntFamily(type) && !type.equalsIgnoreCase("boolean")) ||
+        VectorizationContext.isFloatFamily(type);
   }
 
   private boolean validateExprNodeDesc(List<ExprNodeDesc> descs) {
@@ -631,9 +1067,9 @@ private boolean validateExprNodeDesc(List<ExprNodeDesc> descs, VectorExpressionD
     return true;
   }
 
-  private boolean validateAggregationDesc(List<AggregationDesc> descs) {
+  private boolean validateAggregationDesc(List<AggregationDesc> descs, boolean isReduce) {
     for (AggregationDesc d : descs) {
-      boolean ret = validateAggregationDesc(d);
+      boolean ret = validateAggregationDesc(d, isReduce);
       if (!ret) {
         return false;
       }
@@ -714,8 +1150,19 @@ private boolean validateGenericUdf(ExprNodeGenericFuncDesc genericUDFExpr) {
     }
   }
 
-  private boolean validateAggregationDesc(AggregationDesc aggDesc) {
-    if (!supportedAggregationUdfs.contains(aggDesc.getGenericUDAFName().toLowerCase())) {
+  private boolean validateAggregationDesc(AggregationDesc aggDesc, boolean isReduce) {
+    String udafName = aggDesc.getGenericUDAFName().toLowerCase();
+    if (!supportedAggregationUdfs.contains(udafName)) {
+      return false;
+    }
+    if (isReduce && (aggDesc.getDistinct() ||
+        !supportedReduceMergeAggregationUdfs.contains(udafName))) {
+      // The partial results of the other aggregates are structs.
+      return false;
+    }
+    if (udafName.equals("approx_count_distinct") &&
+        aggDesc.getParameters().get(0).getTypeString().toLowerCase().startsWith("decimal")) {
+      // Vectorized decimals cannot be hashed the same way as in row mode.
       return false;
     }
     if (aggDesc.getParameters() != null) {
@@ -751,12 +1198,25 @@ Operator<? extends OperatorDesc> vectorizeOperator(Operator<? extends OperatorDe
 
     switch (op.getType()) {
       case MAPJOIN:
+        Class<? extends Operator<?>> nativeClass = null;
+        if (op instanceof MapJoinOperator) {
+          nativeClass = getNativeMapJoinClass(((MapJoinOperator) op).getConf());
+        }
+        if (nativeClass != null) {
+          LOG.info("Using native vectorized map join " + nativeClass.getSimpleName());
+          vectorOp = OperatorFactory.getVectorOperator(nativeClass, op.getConf(), vContext);
+        } else {
+          vectorOp = OperatorFactory.getVectorOperator(op.getConf(), vContext);
+        }
+        break;
       case GROUPBY:
       case FILTER:
       case SELECT:
       case FILESINK:
       case REDUCESINK:
       case LIMIT:
+      case EXTRACT:
+      case PTF:
         vectorOp = OperatorFactory.getVectorOperator(op.getConf(), vContext);
         break;
       default:
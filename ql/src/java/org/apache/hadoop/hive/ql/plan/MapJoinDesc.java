@@ -54,6 +54,10 @@ public class MapJoinDesc extends JoinDesc implements Serializable {
   // for tez. used to remember which type of a Bucket Map Join this is.
   private boolean customBucketMapJoin;
 
+  // for tez. the single join key is a partition column of the big table scan, so the rest of
+  // a big table split can be skipped once a row of it has no match.
+  private boolean bigTablePartitionPruning;
+
   // table alias (small) --> input file name (big) --> target file names (small)
   private Map<String, Map<String, List<String>>> aliasBucketFileNameMapping;
   private Map<String, Integer> bigTableBucketNumMapping;
@@ -87,6 +91,7 @@ public MapJoinDesc(MapJoinDesc clone) {
     this.dumpFilePrefix = clone.dumpFilePrefix;
     this.parentToInput = clone.parentToInput;
     this.customBucketMapJoin = clone.customBucketMapJoin;
+    this.bigTablePartitionPruning = clone.bigTablePartitionPruning;
   }
 
   public MapJoinDesc(final Map<Byte, List<ExprNodeDesc>> keys,
@@ -291,6 +296,14 @@ public void setBucketMapJoin(boolean isBucketMapJoin) {
     this.isBucketMapJoin = isBucketMapJoin;
   }
 
+  public boolean isBigTablePartitionPruning() {
+    return bigTablePartitionPruning;
+  }
+
+  public void setBigTablePartitionPruning(boolean bigTablePartitionPruning) {
+    this.bigTablePartitionPruning = bigTablePartitionPruning;
+  }
+
   public void setHashTableMemoryUsage(float hashtableMemoryUsage) {
     this.hashtableMemoryUsage = hashtableMemoryUsage;
   }
@@ -84,6 +84,9 @@ public ReduceWork(String name) {
   // for auto reduce parallelism - max reducers requested
   private int maxReduceTasks;
 
+  // types of the scratch columns used by the vectorized reduce operator tree
+  private Map<Integer, String> scratchColumnVectorTypes = null;
+
   /**
    * If the plan has a reducer and correspondingly a reduce-sink, then store the TableDesc pointing
    * to keySerializeInfo of the ReduceSink
@@ -198,4 +201,16 @@ public int getMaxReduceTasks() {
   public void setMaxReduceTasks(int maxReduceTasks) {
     this.maxReduceTasks = maxReduceTasks;
   }
+
+  public Map<Integer, String> getScratchColumnVectorTypes() {
+    return scratchColumnVectorTypes;
+  }
+
+  public void setScratchColumnVectorTypes(Map<Integer, String> scratchColumnVectorTypes) {
+    this.scratchColumnVectorTypes = scratchColumnVectorTypes;
+  }
+
+  public boolean getVectorMode() {
+    return vectorMode;
+  }
 }
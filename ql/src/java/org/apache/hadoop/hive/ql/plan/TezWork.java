@@ -28,6 +28,7 @@
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.commons.lang3.tuple.ImmutablePair;
 import org.apache.commons.lang3.tuple.Pair;
@@ -48,7 +49,7 @@ public class TezWork extends AbstractOperatorDesc {
 
   private static transient final Log LOG = LogFactory.getLog(TezWork.class);
 
-  private static int counter;
+  private static final AtomicInteger counter = new AtomicInteger();
   private final String name;
   private final Set<BaseWork> roots = new HashSet<BaseWork>();
   private final Set<BaseWork> leaves = new HashSet<BaseWork>();
@@ -58,7 +59,7 @@ public class TezWork extends AbstractOperatorDesc {
       new HashMap<Pair<BaseWork, BaseWork>, TezEdgeProperty>();
 
   public TezWork(String name) {
-    this.name = name + ":" + (++counter);
+    this.name = name + ":" + counter.incrementAndGet();
   }
 
   @Explain(displayName = "DagName")
@@ -184,6 +184,12 @@ public class SessionState {
 
   private final String userName;
 
+  /**
+   * Held while a query of this session is compiled. The compilation of a query
+   * changes the session, for example its command type, lineage and conf.
+   */
+  private final Object compileLock = new Object();
+
   /**
    *  scratch path to use for all non-local (ie. hdfs) file system tmp folders
    *  @return Path for Scratch path for the current session
@@ -1113,6 +1119,10 @@ public String getUserName() {
     return userName;
   }
 
+  public Object getCompileLock() {
+    return compileLock;
+  }
+
   /**
    * If authorization mode is v2, then pass it through authorizer so that it can apply
    * any security configuration changes.
@@ -0,0 +1,258 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hive.ql.udf.generic;
+
+import org.apache.hadoop.hive.ql.exec.Description;
+import org.apache.hadoop.hive.ql.exec.UDFArgumentTypeException;
+import org.apache.hadoop.hive.ql.exec.vector.TimestampUtils;
+import org.apache.hadoop.hive.ql.metadata.HiveException;
+import org.apache.hadoop.hive.ql.parse.SemanticException;
+import org.apache.hadoop.hive.ql.util.JavaDataModel;
+import org.apache.hadoop.hive.serde2.objectinspector.ConstantObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorUtils;
+import org.apache.hadoop.hive.serde2.objectinspector.PrimitiveObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.BinaryObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.BooleanObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.DateObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorUtils;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.StringObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.TimestampObjectInspector;
+import org.apache.hadoop.io.BytesWritable;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+
+/**
+ * Estimates the number of distinct values with a HyperLogLog sketch. The
+ * partial aggregation is the serialized sketch, so the map side only ships a
+ * fixed size state per group instead of the distinct values themselves.
+ *
+ * The values are hashed the same way as in the vectorized implementation,
+ * VectorUDAFApproxCountDistinct, so partial sketches of either can be merged.
+ */
+@Description(name = "approx_count_distinct",
+    value = "_FUNC_(expr[, p]) - Returns an estimate of the number of distinct non-NULL "
+          + "values of expr",
+    extended = "The estimate is computed with a HyperLogLog sketch of 2^p registers, where p "
+          + "is a constant between " + HyperLogLog.MIN_PRECISION + " and "
+          + HyperLogLog.MAX_PRECISION + " (default " + HyperLogLog.DEFAULT_PRECISION + "). "
+          + "The relative standard error is about 1.04 / sqrt(2^p).\n"
+          + "Example:\n"
+          + "> SELECT approx_count_distinct(userid, 14) FROM visits;")
+public class GenericUDAFApproxCountDistinct extends AbstractGenericUDAFResolver {
+
+  @Override
+  public GenericUDAFEvaluator getEvaluator(GenericUDAFParameterInfo info)
+      throws SemanticException {
+    ObjectInspector[] parameters = info.getParameterObjectInspectors();
+    if (parameters.length != 1 && parameters.length != 2) {
+      throw new UDFArgumentTypeException(parameters.length - 1,
+          "Please specify one or two arguments.");
+    }
+    if (info.isDistinct() || info.isAllColumns()) {
+      throw new UDFArgumentTypeException(0,
+          "DISTINCT and * are not supported by approx_count_distinct.");
+    }
+    if (parameters[0].getCategory() != ObjectInspector.Category.PRIMITIVE) {
+      throw new UDFArgumentTypeException(0,
+          "Only primitive type arguments are accepted but "
+          + parameters[0].getTypeName() + " was passed as parameter 1.");
+    }
+    if (parameters.length == 2) {
+      if (parameters[1].getCategory() != ObjectInspector.Category.PRIMITIVE
+          || !ObjectInspectorUtils.isConstantObjectInspector(parameters[1])) {
+        throw new UDFArgumentTypeException(1,
+            "The second argument must be a constant integer, but "
+            + parameters[1].getTypeName() + " was passed instead.");
+      }
+      switch (((PrimitiveObjectInspector) parameters[1]).getPrimitiveCategory()) {
+      case BYTE:
+      case SHORT:
+      case INT:
+      case LONG:
+        break;
+      default:
+        throw new UDFArgumentTypeException(1,
+            "The second argument must be a constant integer, but "
+            + parameters[1].getTypeName() + " was passed instead.");
+      }
+      int precision = getPrecision(parameters[1]);
+      if (precision < HyperLogLog.MIN_PRECISION || precision > HyperLogLog.MAX_PRECISION) {
+        throw new UDFArgumentTypeException(1,
+            "The precision must be between " + HyperLogLog.MIN_PRECISION + " and "
+            + HyperLogLog.MAX_PRECISION + ", but " + precision + " was passed instead.");
+      }
+    }
+    return new GenericUDAFApproxCountDistinctEvaluator();
+  }
+
+  static int getPrecision(ObjectInspector precisionOI) {
+    return PrimitiveObjectInspectorUtils.getInt(
+        ((ConstantObjectInspector) precisionOI).getWritableConstantValue(),
+        (PrimitiveObjectInspector) precisionOI);
+  }
+
+  /**
+   * GenericUDAFApproxCountDistinctEvaluator.
+   *
+   */
+  public static class GenericUDAFApproxCountDistinctEvaluator extends GenericUDAFEvaluator {
+
+    // For PARTIAL1 and COMPLETE
+    private PrimitiveObjectInspector inputOI;
+    private int precision;
+
+    // For PARTIAL2 and FINAL
+    private BinaryObjectInspector partialOI;
+
+    private BytesWritable partialResult;
+    private LongWritable result;
+    private final Text text = new Text();
+
+    @Override
+    public ObjectInspector init(Mode m, ObjectInspector[] parameters) throws HiveException {
+      super.init(m, parameters);
+      if (m == Mode.PARTIAL1 || m == Mode.COMPLETE) {
+        inputOI = (PrimitiveObjectInspector) parameters[0];
+        precision = parameters.length > 1 ?
+            getPrecision(parameters[1]) : HyperLogLog.DEFAULT_PRECISION;
+      } else {
+        partialOI = (BinaryObjectInspector) parameters[0];
+      }
+      if (m == Mode.PARTIAL1 || m == Mode.PARTIAL2) {
+        partialResult = new BytesWritable();
+        return PrimitiveObjectInspectorFactory.writableBinaryObjectInspector;
+      }
+      result = new LongWritable(0);
+      return PrimitiveObjectInspectorFactory.writableLongObjectInspector;
+    }
+
+    /** class for storing the sketch, which is allocated with the first value. */
+    @AggregationType(estimable = true)
+    static class HyperLogLogAgg extends AbstractAggregationBuffer {
+      HyperLogLog sketch;
+      @Override
+      public int estimate() {
+        JavaDataModel model = JavaDataModel.get();
+        if (sketch == null) {
+          return model.object();
+        }
+        return model.object() * 2 + model.primitive1()
+            + model.lengthForByteArrayOfSize(sketch.getNumRegisters());
+      }
+    }
+
+    @Override
+    public AggregationBuffer getNewAggregationBuffer() throws HiveException {
+      HyperLogLogAgg buffer = new HyperLogLogAgg();
+      reset(buffer);
+      return buffer;
+    }
+
+    @Override
+    public void reset(AggregationBuffer agg) throws HiveException {
+      HyperLogLogAgg myagg = (HyperLogLogAgg) agg;
+      if (myagg.sketch != null) {
+        myagg.sketch.reset();
+      }
+    }
+
+    @Override
+    public void iterate(AggregationBuffer agg, Object[] parameters) throws HiveException {
+      Object p = parameters[0];
+      if (p == null) {
+        return;
+      }
+      HyperLogLogAgg myagg = (HyperLogLogAgg) agg;
+      if (myagg.sketch == null) {
+        myagg.sketch = new HyperLogLog(precision);
+      }
+      HyperLogLog sketch = myagg.sketch;
+      switch (inputOI.getPrimitiveCategory()) {
+      case BOOLEAN:
+        sketch.addLong(((BooleanObjectInspector) inputOI).get(p) ? 1 : 0);
+        break;
+      case BYTE:
+      case SHORT:
+      case INT:
+      case LONG:
+        sketch.addLong(PrimitiveObjectInspectorUtils.getLong(p, inputOI));
+        break;
+      case DATE:
+        sketch.addLong(((DateObjectInspector) inputOI).getPrimitiveWritableObject(p).getDays());
+        break;
+      case TIMESTAMP:
+        // Vectorized timestamps are nanoseconds since the epoch.
+        sketch.addLong(TimestampUtils.getTimeNanoSec(
+            ((TimestampObjectInspector) inputOI).getPrimitiveJavaObject(p)));
+        break;
+      case FLOAT:
+      case DOUBLE:
+        sketch.addDouble(PrimitiveObjectInspectorUtils.getDouble(p, inputOI));
+        break;
+      case STRING:
+        Text t = ((StringObjectInspector) inputOI).getPrimitiveWritableObject(p);
+        sketch.addBytes(t.getBytes(), 0, t.getLength());
+        break;
+      case BINARY:
+        BytesWritable b = ((BinaryObjectInspector) inputOI).getPrimitiveWritableObject(p);
+        sketch.addBytes(b.getBytes(), 0, b.getLength());
+        break;
+      default:
+        text.set(PrimitiveObjectInspectorUtils.getString(p, inputOI));
+        sketch.addBytes(text.getBytes(), 0, text.getLength());
+        break;
+      }
+    }
+
+    @Override
+    public void merge(AggregationBuffer agg, Object partial) throws HiveException {
+      if (partial == null) {
+        return;
+      }
+      BytesWritable bytes = partialOI.getPrimitiveWritableObject(partial);
+      HyperLogLogAgg myagg = (HyperLogLogAgg) agg;
+      try {
+        if (myagg.sketch == null) {
+          myagg.sketch = HyperLogLog.forSerialized(bytes.getBytes(), 0, bytes.getLength());
+        }
+        myagg.sketch.merge(bytes.getBytes(), 0, bytes.getLength());
+      } catch (IllegalArgumentException e) {
+        throw new HiveException(e);
+      }
+    }
+
+    @Override
+    public Object terminatePartial(AggregationBuffer agg) throws HiveException {
+      HyperLogLogAgg myagg = (HyperLogLogAgg) agg;
+      if (myagg.sketch == null) {
+        return null;
+      }
+      myagg.sketch.serialize(partialResult);
+      return partialResult;
+    }
+
+    @Override
+    public Object terminate(AggregationBuffer agg) throws HiveException {
+      HyperLogLogAgg myagg = (HyperLogLogAgg) agg;
+      result.set(myagg.sketch == null ? 0 : myagg.sketch.count());
+      return result;
+    }
+  }
+}
@@ -79,8 +79,14 @@ public ObjectInspector init(Mode m, ObjectInspector[] parameters)
     }
 
     /** class for storing the current max value */
+    @AggregationType(estimable = true)
     static class MaxAgg extends AbstractAggregationBuffer {
       Object o;
+      @Override
+      public int estimate() {
+        JavaDataModel model = JavaDataModel.get();
+        return model.object() + model.ref() + model.lengthForPrimitiveObject(o);
+      }
     }
 
     @Override
@@ -0,0 +1,208 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hive.ql.udf.generic;
+
+import java.util.Arrays;
+
+import org.apache.hadoop.io.BytesWritable;
+
+/**
+ * HyperLogLog sketch for estimating the number of distinct values, after
+ * Flajolet et al., "HyperLogLog: the analysis of a near-optimal cardinality
+ * estimation algorithm". The sketch keeps 2^precision one byte registers; the
+ * relative standard error of the estimate is about 1.04 / sqrt(2^precision).
+ *
+ * Values are hashed to 64 bits, so no large range correction is needed. Two
+ * sketches of the same precision merge by taking the register-wise maximum,
+ * which is what makes the partial aggregates of approx_count_distinct
+ * combinable across mappers and reducers. The serialized form is the precision
+ * byte followed by the registers.
+ */
+public class HyperLogLog {
+
+  public static final int MIN_PRECISION = 4;
+  public static final int MAX_PRECISION = 16;
+  public static final int DEFAULT_PRECISION = 12;
+
+  private static final long SEED = 0xe17a1465L;
+  private static final long M = 0xc6a4a7935bd1e995L;
+  private static final int R = 47;
+
+  private final int precision;
+  private final byte[] registers;
+
+  public HyperLogLog(int precision) {
+    if (precision < MIN_PRECISION || precision > MAX_PRECISION) {
+      throw new IllegalArgumentException("HyperLogLog precision must be between "
+          + MIN_PRECISION + " and " + MAX_PRECISION + ", but was " + precision);
+    }
+    this.precision = precision;
+    this.registers = new byte[1 << precision];
+  }
+
+  /**
+   * Creates an empty sketch with the precision of a serialized sketch.
+   */
+  public static HyperLogLog forSerialized(byte[] bytes, int start, int length) {
+    if (length < 1) {
+      throw new IllegalArgumentException("Empty HyperLogLog sketch");
+    }
+    return new HyperLogLog(bytes[start]);
+  }
+
+  public int getPrecision() {
+    return precision;
+  }
+
+  public int getNumRegisters() {
+    return registers.length;
+  }
+
+  public void reset() {
+    Arrays.fill(registers, (byte) 0);
+  }
+
+  public void addLong(long v) {
+    addHash(fmix64(v * M));
+  }
+
+  public void addDouble(double v) {
+    // -0.0 and 0.0 are the same value
+    addLong(v == 0.0d ? 0L : Double.doubleToLongBits(v));
+  }
+
+  public void addBytes(byte[] bytes, int start, int length) {
+    addHash(hashBytes(bytes, start, length));
+  }
+
+  private void addHash(long hash) {
+    // The top bits pick the register, the position of the first one bit in the
+    // rest is the observed run of zeros.
+    int index = (int) (hash >>> (Long.SIZE - precision));
+    long w = (hash << precision) | (1L << (precision - 1));
+    byte rank = (byte) (Long.numberOfLeadingZeros(w) + 1);
+    if (rank > registers[index]) {
+      registers[index] = rank;
+    }
+  }
+
+  public void merge(HyperLogLog other) {
+    if (other.precision != precision) {
+      throw new IllegalArgumentException("Cannot merge HyperLogLog sketches of precision "
+          + other.precision + " and " + precision);
+    }
+    mergeRegisters(other.registers, 0);
+  }
+
+  public void merge(byte[] bytes, int start, int length) {
+    if (length != registers.length + 1 || bytes[start] != precision) {
+      throw new IllegalArgumentException("Cannot merge a serialized HyperLogLog sketch of "
+          + length + " bytes into a sketch of precision " + precision);
+    }
+    mergeRegisters(bytes, start + 1);
+  }
+
+  private void mergeRegisters(byte[] other, int offset) {
+    for (int i = 0; i < registers.length; i++) {
+      if (other[offset + i] > registers[i]) {
+        registers[i] = other[offset + i];
+      }
+    }
+  }
+
+  public void serialize(BytesWritable out) {
+    out.setSize(registers.length + 1);
+    byte[] bytes = out.getBytes();
+    bytes[0] = (byte) precision;
+    System.arraycopy(registers, 0, bytes, 1, registers.length);
+  }
+
+  public long count() {
+    int m = registers.length;
+    double sum = 0;
+    int zeros = 0;
+    for (int i = 0; i < m; i++) {
+      sum += Math.scalb(1.0d, -registers[i]);
+      if (registers[i] == 0) {
+        zeros++;
+      }
+    }
+    double estimate = alpha(m) * m * m / sum;
+    if (estimate <= 2.5d * m && zeros != 0) {
+      // Small range correction: linear counting on the empty registers.
+      estimate = m * Math.log((double) m / zeros);
+    }
+    return Math.round(estimate);
+  }
+
+  private static double alpha(int m) {
+    switch (m) {
+    case 16:
+      return 0.673d;
+    case 32:
+      return 0.697d;
+    case 64:
+      return 0.709d;
+    default:
+      return 0.7213d / (1.0d + 1.079d / m);
+    }
+  }
+
+  private static long fmix64(long k) {
+    k ^= k >>> 33;
+    k *= 0xff51afd7ed558ccdL;
+    k ^= k >>> 33;
+    k *= 0xc4ceb9fe1a85ec53L;
+    k ^= k >>> 33;
+    return k;
+  }
+
+  /**
+   * 64 bit MurmurHash2 of a byte range.
+   */
+  static long hashBytes(byte[] bytes, int start, int length) {
+    long h = SEED ^ (length * M);
+    int end = start + (length & ~7);
+    for (int i = start; i < end; i += 8) {
+      long k = (bytes[i] & 0xffL)
+          | (bytes[i + 1] & 0xffL) << 8
+          | (bytes[i + 2] & 0xffL) << 16
+          | (bytes[i + 3] & 0xffL) << 24
+          | (bytes[i + 4] & 0xffL) << 32
+          | (bytes[i + 5] & 0xffL) << 40
+          | (bytes[i + 6] & 0xffL) << 48
+          | (bytes[i + 7] & 0xffL) << 56;
+      k *= M;
+      k ^= k >>> R;
+      k *= M;
+      h ^= k;
+      h *= M;
+    }
+    int tail = length & 7;
+    if (tail != 0) {
+      for (int i = tail - 1; i >= 0; i--) {
+        h ^= (bytes[end + i] & 0xffL) << (8 * i);
+      }
+      h *= M;
+    }
+    h ^= h >>> R;
+    h *= M;
+    h ^= h >>> R;
+    return h;
+  }
+}
@@ -187,6 +187,20 @@ public int lengthFor(NumDistinctValueEstimator estimator) {
     return length;
   }
 
+  // a primitive value copied to a standard java object
+  public int lengthForPrimitiveObject(Object o) {
+    if (o == null) {
+      return 0;
+    }
+    if (o instanceof String) {
+      return lengthFor((String) o);
+    }
+    if (o instanceof byte[]) {
+      return lengthForByteArrayOfSize(((byte[]) o).length);
+    }
+    return object() + primitive2();
+  }
+
   public int lengthForRandom() {
     // boolean + double + AtomicLong
     return object() + primitive1() + primitive2() + object() + primitive2();
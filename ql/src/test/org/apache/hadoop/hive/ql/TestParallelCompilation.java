@@ -0,0 +1,159 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.hive.ql;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import junit.framework.Assert;
+
+import org.apache.hadoop.hive.conf.HiveConf;
+import org.apache.hadoop.hive.ql.processors.CommandProcessorResponse;
+import org.apache.hadoop.hive.ql.session.SessionState;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Compiles queries of several sessions at the same time.
+ */
+public class TestParallelCompilation {
+
+  private static final int SESSIONS = 4;
+  private static final int QUERIES = 20;
+
+  /**
+   * Creates a text table for each session, whose columns have types with parameters and whose
+   * strings are escaped with a different character, so that the sessions fill the caches of
+   * the lazy object inspectors at the same time.
+   */
+  @BeforeClass
+  public static void createTables() throws Exception {
+    HiveConf conf = new HiveConf(Driver.class);
+    SessionState.start(conf);
+    Driver driver = new Driver(conf);
+    for (int i = 0; i < SESSIONS; i++) {
+      runQuery(driver, "drop table if exists parallel_select_" + i);
+      runQuery(driver, "create table parallel_select_" + i + " (key string, c char(" + (i + 1)
+          + "), v varchar(" + (i + 10) + "), d decimal(" + (i + 10) + "," + i + "),"
+          + " m map<string,int>, s struct<a:int,b:string>)"
+          + " row format delimited fields terminated by ',' escaped by '" + (char) ('a' + i)
+          + "' stored as textfile");
+    }
+    driver.close();
+  }
+
+  @AfterClass
+  public static void dropTables() throws Exception {
+    HiveConf conf = new HiveConf(Driver.class);
+    SessionState.start(conf);
+    Driver driver = new Driver(conf);
+    for (int i = 0; i < SESSIONS; i++) {
+      runQuery(driver, "drop table if exists parallel_select_" + i);
+    }
+    driver.close();
+  }
+
+  private static void runQuery(Driver driver, String query) throws Exception {
+    CommandProcessorResponse response = driver.run(query);
+    Assert.assertEquals(response.getErrorMessage(), 0, response.getResponseCode());
+  }
+
+  @Test
+  public void testSessionsCompileInParallel() throws Exception {
+    ExecutorService pool = Executors.newFixedThreadPool(SESSIONS);
+    try {
+      List<Future<Integer>> sessions = new ArrayList<Future<Integer>>();
+      for (int i = 0; i < SESSIONS; i++) {
+        final int session = i;
+        sessions.add(pool.submit(new Callable<Integer>() {
+          @Override
+          public Integer call() throws Exception {
+            HiveConf conf = new HiveConf(Driver.class);
+            conf.setBoolVar(HiveConf.ConfVars.HIVE_DRIVER_PARALLEL_COMPILATION, true);
+            SessionState.start(conf);
+            int compiled = 0;
+            for (int q = 0; q < QUERIES; q++) {
+              Driver driver = new Driver(conf);
+              driver.init();
+              String query = "create table t_" + session + "_" + q
+                  + " (d decimal(" + (q + 1) + "), v varchar(" + (session + 1) + "))";
+              CommandProcessorResponse response = driver.compileAndRespond(query);
+              Assert.assertEquals(response.getErrorMessage(), 0, response.getResponseCode());
+              Assert.assertEquals(query, driver.getPlan().getQueryString());
+              driver.close();
+              compiled++;
+            }
+            return compiled;
+          }
+        }));
+      }
+      for (Future<Integer> session : sessions) {
+        Assert.assertEquals(QUERIES, session.get().intValue());
+      }
+    } finally {
+      pool.shutdownNow();
+    }
+  }
+
+  @Test
+  public void testSelectsCompileInParallel() throws Exception {
+    ExecutorService pool = Executors.newFixedThreadPool(SESSIONS);
+    try {
+      List<Future<Integer>> sessions = new ArrayList<Future<Integer>>();
+      for (int i = 0; i < SESSIONS; i++) {
+        final int session = i;
+        sessions.add(pool.submit(new Callable<Integer>() {
+          @Override
+          public Integer call() throws Exception {
+            HiveConf conf = new HiveConf(Driver.class);
+            conf.setBoolVar(HiveConf.ConfVars.HIVE_DRIVER_PARALLEL_COMPILATION, true);
+            SessionState.start(conf);
+            int compiled = 0;
+            for (int q = 0; q < QUERIES; q++) {
+              Driver driver = new Driver(conf);
+              driver.init();
+              // the sessions select from each others' tables too
+              String table = "parallel_select_" + (session + q) % SESSIONS;
+              String query = "select key, c, v, d, m['k'], s.b, count(*)"
+                  + " from " + table + " where key > '" + q + "'"
+                  + " group by key, c, v, d, m['k'], s.b";
+              CommandProcessorResponse response = driver.compileAndRespond(query);
+              Assert.assertEquals(response.getErrorMessage(), 0, response.getResponseCode());
+              Assert.assertEquals(query, driver.getPlan().getQueryString());
+              Assert.assertEquals(7, driver.getSchema().getFieldSchemasSize());
+              driver.close();
+              compiled++;
+            }
+            return compiled;
+          }
+        }));
+      }
+      for (Future<Integer> session : sessions) {
+        Assert.assertEquals(QUERIES, session.get().intValue());
+      }
+    } finally {
+      pool.shutdownNow();
+    }
+  }
+}
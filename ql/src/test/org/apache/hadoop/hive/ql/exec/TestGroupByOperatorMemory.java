@@ -0,0 +1,184 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.hive.ql.exec;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.hadoop.hive.conf.HiveConf;
+import org.apache.hadoop.hive.ql.metadata.HiveException;
+import org.apache.hadoop.hive.ql.plan.AggregationDesc;
+import org.apache.hadoop.hive.ql.plan.CollectDesc;
+import org.apache.hadoop.hive.ql.plan.ExprNodeColumnDesc;
+import org.apache.hadoop.hive.ql.plan.ExprNodeDesc;
+import org.apache.hadoop.hive.ql.plan.GroupByDesc;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDAFCount;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDAFEvaluator;
+import org.apache.hadoop.hive.ql.util.JavaDataModel;
+import org.apache.hadoop.hive.serde2.objectinspector.InspectableObject;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.objectinspector.PrimitiveObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorUtils;
+import org.apache.hadoop.hive.serde2.typeinfo.TypeInfo;
+import org.apache.hadoop.hive.serde2.typeinfo.TypeInfoFactory;
+import org.apache.hadoop.io.Text;
+import org.junit.Test;
+
+/**
+ * Tests the memory accounting of the row mode hash aggregation.
+ */
+public class TestGroupByOperatorMemory {
+
+  private static final long MEMORY_BUDGET = 100000;
+
+  /**
+   * Keeps the last string it is given. Its buffer is not estimable, so its
+   * size is found by reflection on its string field.
+   */
+  public static class LastStringEvaluator extends GenericUDAFEvaluator {
+    private PrimitiveObjectInspector inputOI;
+
+    public static class LastStringAgg implements AggregationBuffer {
+      public String value;
+    }
+
+    @Override
+    public ObjectInspector init(Mode m, ObjectInspector[] parameters) throws HiveException {
+      super.init(m, parameters);
+      inputOI = (PrimitiveObjectInspector) parameters[0];
+      return PrimitiveObjectInspectorFactory.writableStringObjectInspector;
+    }
+
+    @Override
+    public AggregationBuffer getNewAggregationBuffer() throws HiveException {
+      return new LastStringAgg();
+    }
+
+    @Override
+    public void reset(AggregationBuffer agg) throws HiveException {
+      ((LastStringAgg) agg).value = null;
+    }
+
+    @Override
+    public void iterate(AggregationBuffer agg, Object[] parameters) throws HiveException {
+      merge(agg, parameters[0]);
+    }
+
+    @Override
+    public Object terminatePartial(AggregationBuffer agg) throws HiveException {
+      return terminate(agg);
+    }
+
+    @Override
+    public void merge(AggregationBuffer agg, Object partial) throws HiveException {
+      if (partial != null) {
+        ((LastStringAgg) agg).value = PrimitiveObjectInspectorUtils.getString(partial, inputOI);
+      }
+    }
+
+    @Override
+    public Object terminate(AggregationBuffer agg) throws HiveException {
+      String value = ((LastStringAgg) agg).value;
+      return value == null ? null : new Text(value);
+    }
+  }
+
+  private static ExprNodeDesc column(TypeInfo type, String name) {
+    return new ExprNodeColumnDesc(type, name, "", false);
+  }
+
+  private static int countRows(CollectOperator collect) {
+    InspectableObject io = new InspectableObject();
+    int rows = 0;
+    for (collect.retrieve(io); io.o != null; collect.retrieve(io)) {
+      rows++;
+    }
+    return rows;
+  }
+
+  /**
+   * Adds a new group per row, and checks that the hash table is flushed when
+   * the memory accounted for its entries reaches the budget.
+   * @param entrySize the memory accounted for each entry
+   */
+  private void checkFlushAtBudget(AggregationDesc aggr, long entrySize) throws HiveException {
+    ArrayList<ExprNodeDesc> keys = new ArrayList<ExprNodeDesc>();
+    keys.add(column(TypeInfoFactory.longTypeInfo, "key"));
+    ArrayList<AggregationDesc> aggrs = new ArrayList<AggregationDesc>();
+    aggrs.add(aggr);
+    GroupByDesc desc = new GroupByDesc(GroupByDesc.Mode.HASH,
+        new ArrayList<String>(Arrays.asList("_col0", "_col1")), keys, aggrs,
+        false, 0.5f, 0.9f, null, false, 0, false);
+
+    GroupByOperator gbo = (GroupByOperator) OperatorFactory.get(desc);
+    gbo.setMemoryBudget(MEMORY_BUDGET);
+    CollectOperator collect = (CollectOperator) OperatorFactory.getAndMakeChild(
+        new CollectDesc(Integer.MAX_VALUE), gbo);
+    List<ObjectInspector> ois = new ArrayList<ObjectInspector>();
+    ois.add(PrimitiveObjectInspectorFactory.javaLongObjectInspector);
+    ois.add(PrimitiveObjectInspectorFactory.javaStringObjectInspector);
+    gbo.initialize(new HiveConf(), new ObjectInspector[] {
+        ObjectInspectorFactory.getStandardStructObjectInspector(
+            Arrays.asList("key", "value"), ois)});
+
+    long fixedSize = gbo.fixedRowSize;
+    String value = "0123456789";
+    int rows = (int) ((MEMORY_BUDGET + fixedSize + entrySize - 1) / (fixedSize + entrySize));
+    for (int i = 1; i < rows; i++) {
+      gbo.processOp(Arrays.asList((long) i, value), 0);
+      assertEquals(i * (fixedSize + entrySize), gbo.getHashTblMemory());
+      assertEquals(0, countRows(collect));
+    }
+
+    // the entry that reaches the budget flushes 10% of the hash table
+    gbo.processOp(Arrays.asList((long) rows, value), 0);
+    int flushed = (rows + 9) / 10;
+    assertEquals(flushed, countRows(collect));
+    assertEquals((rows - flushed) * (fixedSize + entrySize), gbo.getHashTblMemory());
+
+    gbo.close(false);
+    assertEquals(rows - flushed, countRows(collect));
+  }
+
+  @Test
+  public void testFlushAtBudget() throws HiveException {
+    ArrayList<ExprNodeDesc> params = new ArrayList<ExprNodeDesc>();
+    params.add(column(TypeInfoFactory.longTypeInfo, "key"));
+    AggregationDesc count = new AggregationDesc("count",
+        new GenericUDAFCount.GenericUDAFCountEvaluator(), params, false,
+        GenericUDAFEvaluator.Mode.PARTIAL1);
+    // count reports the size of its buffer
+    checkFlushAtBudget(count, JavaDataModel.PRIMITIVES2);
+  }
+
+  @Test
+  public void testFlushAtBudgetWithSampledAggregation() throws HiveException {
+    ArrayList<ExprNodeDesc> params = new ArrayList<ExprNodeDesc>();
+    params.add(column(TypeInfoFactory.stringTypeInfo, "value"));
+    AggregationDesc last = new AggregationDesc("last", new LastStringEvaluator(),
+        params, false, GenericUDAFEvaluator.Mode.PARTIAL1);
+    // every entry is accounted at the length of the sampled strings
+    checkFlushAtBudget(last, 10);
+  }
+}
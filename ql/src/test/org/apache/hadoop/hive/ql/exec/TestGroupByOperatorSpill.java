@@ -0,0 +1,207 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.hive.ql.exec;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.hadoop.hive.conf.HiveConf;
+import org.apache.hadoop.hive.ql.metadata.HiveException;
+import org.apache.hadoop.hive.ql.plan.AggregationDesc;
+import org.apache.hadoop.hive.ql.plan.CollectDesc;
+import org.apache.hadoop.hive.ql.plan.ExprNodeColumnDesc;
+import org.apache.hadoop.hive.ql.plan.ExprNodeConstantDesc;
+import org.apache.hadoop.hive.ql.plan.ExprNodeDesc;
+import org.apache.hadoop.hive.ql.plan.GroupByDesc;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDAFCount;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDAFEvaluator;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDAFSum;
+import org.apache.hadoop.hive.serde2.objectinspector.InspectableObject;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.typeinfo.TypeInfoFactory;
+import org.apache.hadoop.io.LongWritable;
+import org.junit.Test;
+
+/**
+ * Tests the row mode hash aggregation when it spills its hash table to disk.
+ */
+public class TestGroupByOperatorSpill {
+
+  // a few dozen entries of the hash table fit in this budget
+  private static final long MEMORY_BUDGET = 10000;
+
+  private static ExprNodeDesc column(String name) {
+    return new ExprNodeColumnDesc(TypeInfoFactory.longTypeInfo, name, "", false);
+  }
+
+  private static ArrayList<AggregationDesc> sumAndCount(GenericUDAFEvaluator.Mode mode,
+      String sumColumn, String countColumn) {
+    ArrayList<AggregationDesc> aggrs = new ArrayList<AggregationDesc>();
+    aggrs.add(new AggregationDesc("sum", new GenericUDAFSum.GenericUDAFSumLong(),
+        new ArrayList<ExprNodeDesc>(Arrays.asList(column(sumColumn))), false, mode));
+    aggrs.add(new AggregationDesc("count", new GenericUDAFCount.GenericUDAFCountEvaluator(),
+        new ArrayList<ExprNodeDesc>(Arrays.asList(column(countColumn))), false, mode));
+    return aggrs;
+  }
+
+  private static ObjectInspector rowInspector(String... columns) {
+    List<ObjectInspector> ois = new ArrayList<ObjectInspector>();
+    for (int i = 0; i < columns.length; i++) {
+      ois.add(PrimitiveObjectInspectorFactory.javaLongObjectInspector);
+    }
+    return ObjectInspectorFactory.getStandardStructObjectInspector(
+        Arrays.asList(columns), ois);
+  }
+
+  private static HiveConf spillConf() {
+    HiveConf hconf = new HiveConf();
+    HiveConf.setBoolVar(hconf, HiveConf.ConfVars.HIVE_GROUPBY_SPILL_ENABLED, true);
+    HiveConf.setIntVar(hconf, HiveConf.ConfVars.HIVE_GROUPBY_SPILL_MAX_RUNS, 4);
+    return hconf;
+  }
+
+  private static String groupKey(Object... keys) {
+    return Arrays.toString(keys);
+  }
+
+  /**
+   * Runs the rows through the group by, and checks that every group is
+   * forwarded once, at close, with the expected sum and count.
+   */
+  private void checkSpill(GroupByDesc desc, HiveConf hconf, ObjectInspector rowOI,
+      List<Object[]> rows, Map<String, long[]> expected) throws HiveException {
+    GroupByOperator gbo = (GroupByOperator) OperatorFactory.get(desc);
+    gbo.setMemoryBudget(MEMORY_BUDGET);
+    CollectOperator collect = (CollectOperator) OperatorFactory.getAndMakeChild(
+        new CollectDesc(Integer.MAX_VALUE), gbo);
+    gbo.initialize(hconf, new ObjectInspector[] {rowOI});
+    assertNotNull(gbo.hashSpill);
+
+    for (Object[] row : rows) {
+      gbo.processOp(Arrays.asList(row), 0);
+    }
+
+    // the hash table was spilled rather than flushed
+    assertTrue(gbo.hashSpill.hasSpilled());
+    InspectableObject io = new InspectableObject();
+    collect.retrieve(io);
+    assertNull(io.o);
+
+    gbo.close(false);
+
+    int numKeys = desc.getKeys().size();
+    Map<String, long[]> actual = new HashMap<String, long[]>();
+    for (collect.retrieve(io); io.o != null; collect.retrieve(io)) {
+      List<?> row = (List<?>) io.o;
+      Object[] keys = new Object[numKeys];
+      for (int i = 0; i < numKeys; i++) {
+        keys[i] = row.get(i) == null ? null : row.get(i).toString();
+      }
+      long[] aggrs = new long[] {((LongWritable) row.get(numKeys)).get(),
+          ((LongWritable) row.get(numKeys + 1)).get()};
+      assertNull("group " + groupKey(keys) + " forwarded twice",
+          actual.put(groupKey(keys), aggrs));
+    }
+
+    assertEquals(expected.size(), actual.size());
+    for (Map.Entry<String, long[]> entry : expected.entrySet()) {
+      long[] aggrs = actual.get(entry.getKey());
+      assertNotNull("group " + entry.getKey() + " missing", aggrs);
+      assertEquals("sum of " + entry.getKey(), entry.getValue()[0], aggrs[0]);
+      assertEquals("count of " + entry.getKey(), entry.getValue()[1], aggrs[1]);
+    }
+  }
+
+  @Test
+  public void testPartialSpill() throws HiveException {
+    // 5000 keys, each seen three times
+    final int keys = 5000;
+    List<Object[]> rows = new ArrayList<Object[]>();
+    Map<String, long[]> expected = new HashMap<String, long[]>();
+    for (long i = 0; i < 3 * keys; i++) {
+      long key = i % keys;
+      rows.add(new Object[] {key, i});
+      long[] aggrs = expected.get(groupKey(String.valueOf(key)));
+      if (aggrs == null) {
+        aggrs = new long[2];
+        expected.put(groupKey(String.valueOf(key)), aggrs);
+      }
+      aggrs[0] += i;
+      aggrs[1]++;
+    }
+
+    GroupByDesc desc = new GroupByDesc(GroupByDesc.Mode.HASH,
+        new ArrayList<String>(Arrays.asList("_col0", "_col1", "_col2")),
+        new ArrayList<ExprNodeDesc>(Arrays.asList(column("key"))),
+        sumAndCount(GenericUDAFEvaluator.Mode.PARTIAL1, "value", "value"),
+        false, 0.5f, 0.9f, null, false, 0, false);
+
+    checkSpill(desc, spillConf(), rowInspector("key", "value"), rows, expected);
+  }
+
+  @Test
+  public void testFinalGroupingSetsSpill() throws HiveException {
+    // grouping sets (a, b), (a) and (): bit 0 is a and bit 1 is b
+    List<Integer> groupingSets = Arrays.asList(3, 1, 0);
+    List<Object[]> rows = new ArrayList<Object[]>();
+    Map<String, long[]> expected = new HashMap<String, long[]>();
+    for (long i = 0; i < 6300; i++) {
+      long a = i % 70;
+      long b = i % 300;
+      // the partial sum and count of a map side aggregation
+      rows.add(new Object[] {a, b, i, 2L});
+      for (int set : groupingSets) {
+        String key = groupKey((set & 1) != 0 ? String.valueOf(a) : null,
+            (set & 2) != 0 ? String.valueOf(b) : null, String.valueOf(set));
+        long[] aggrs = expected.get(key);
+        if (aggrs == null) {
+          aggrs = new long[2];
+          expected.put(key, aggrs);
+        }
+        aggrs[0] += i;
+        aggrs[1] += 2;
+      }
+    }
+
+    GroupByDesc desc = new GroupByDesc(GroupByDesc.Mode.FINAL,
+        new ArrayList<String>(Arrays.asList("_col0", "_col1", "_col2", "_col3", "_col4")),
+        new ArrayList<ExprNodeDesc>(Arrays.asList(column("a"), column("b"),
+            new ExprNodeConstantDesc("0"))),
+        sumAndCount(GenericUDAFEvaluator.Mode.FINAL, "psum", "pcount"),
+        false, 0.5f, 0.9f, groupingSets, true, 2, false);
+
+    // Every row adds new groups, so a hash table of partial aggregations
+    // would give up hashing after 100 rows. This one keeps final
+    // aggregations and must not.
+    HiveConf hconf = spillConf();
+    HiveConf.setIntVar(hconf, HiveConf.ConfVars.HIVEGROUPBYMAPINTERVAL, 100);
+
+    checkSpill(desc, hconf, rowInspector("a", "b", "psum", "pcount"), rows, expected);
+  }
+}
@@ -119,6 +119,28 @@ public void testExpand() throws Exception {
     assertEquals(1 << 18, map.getCapacity());
   }
 
+  @Test
+  public void testKeyFilter() throws Exception {
+    BytesBytesMultiHashMap map = new BytesBytesMultiHashMap(CAPACITY, LOAD_FACTOR, WB_SIZE);
+    UniqueKeysKvSource kv = new UniqueKeysKvSource();
+    for (int i = 0; i < 1000; ++i) {
+      map.put(kv);
+    }
+    assertTrue(map.buildKeyFilter() > 0);
+    // The filter never rules out keys that are there.
+    for (int i = 0; i < kv.keys.size(); ++i) {
+      verifyResults(map, kv.keys.get(i), kv.values.get(i));
+    }
+    List<WriteBuffers.ByteSegmentRef> results = new ArrayList<WriteBuffers.ByteSegmentRef>(0);
+    byte[] key = new byte[] { 1, 2, 3, 4, 5, 6, 7, 8, 9, 10 };
+    for (int i = 0; i < 1000; ++i) {
+      key[0] = (byte)i;
+      key[1] = (byte)(i >> 8);
+      map.getValueRefs(key, key.length, results);
+      assertTrue(results.isEmpty());
+    }
+  }
+
   private void verifyResults(BytesBytesMultiHashMap map, byte[] key, byte[]... values) {
     List<WriteBuffers.ByteSegmentRef> results = new ArrayList<WriteBuffers.ByteSegmentRef>(0);
     byte state = map.getValueRefs(key, key.length, results);
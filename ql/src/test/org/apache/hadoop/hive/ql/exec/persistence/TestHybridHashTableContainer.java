@@ -0,0 +1,224 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.hive.ql.exec.persistence;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+
+import org.apache.hadoop.hive.conf.HiveConf;
+import org.apache.hadoop.hive.ql.exec.ExprNodeEvaluator;
+import org.apache.hadoop.hive.ql.exec.ExprNodeEvaluatorFactory;
+import org.apache.hadoop.hive.ql.metadata.HiveException;
+import org.apache.hadoop.hive.ql.plan.ExprNodeColumnDesc;
+import org.apache.hadoop.hive.serde.serdeConstants;
+import org.apache.hadoop.hive.serde2.SerDe;
+import org.apache.hadoop.hive.serde2.SerDeException;
+import org.apache.hadoop.hive.serde2.SerDeUtils;
+import org.apache.hadoop.hive.serde2.WriteBuffers;
+import org.apache.hadoop.hive.serde2.binarysortable.BinarySortableSerDe;
+import org.apache.hadoop.hive.serde2.lazybinary.LazyBinarySerDe;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorUtils;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.typeinfo.TypeInfoFactory;
+import org.apache.hadoop.io.BytesWritable;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.Text;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class TestHybridHashTableContainer {
+  private static final int KEY_COUNT = 200;
+
+  @Test
+  public void testSpillAndJoinSpilledRows() throws Exception {
+    HybridHashTableContainer container = createContainer(4, KEY_COUNT * 20, KEY_COUNT, 1);
+    assertTrue(container.hasSpilledPartitions());
+    Set<Integer> spilled = join(container, KEY_COUNT, 1);
+    assertFalse(spilled.isEmpty());
+    assertTrue(spilled.size() < KEY_COUNT + 1);
+    container.clear();
+  }
+
+  @Test
+  public void testRepartitionSpilledPartition() throws Exception {
+    // Each of the spilled partitions is several times the memory, so they are partitioned
+    // again when they are loaded, and some of their rows are spilled again.
+    int keyCount = KEY_COUNT * 5;
+    HybridHashTableContainer container = createContainer(4, 4000, keyCount, 1);
+    assertTrue(container.hasSpilledPartitions());
+    Set<Integer> spilled = join(container, keyCount, 1);
+    assertTrue(spilled.size() > keyCount / 2);
+    container.clear();
+  }
+
+  @Test
+  public void testSpilledKeyTooBig() throws Exception {
+    // All the rows have the same key, so repartitioning cannot make them fit.
+    HybridHashTableContainer container = createContainer(4, 2000, 1, 500);
+    assertTrue(container.hasSpilledPartitions());
+    try {
+      join(container, 1, 500);
+      fail("Expected the spilled partition not to fit");
+    } catch (HiveException e) {
+      assertTrue(e.getMessage(), e.getMessage().contains("does not fit"));
+    }
+    container.clear();
+  }
+
+  @Test
+  public void testDirectAccess() throws Exception {
+    HybridHashTableContainer container = createContainer(4, 1L << 30, KEY_COUNT, 1);
+    assertFalse(container.hasSpilledPartitions());
+    assertTrue(container.hasLongKeys());
+    List<WriteBuffers.ByteSegmentRef> refs = new ArrayList<WriteBuffers.ByteSegmentRef>();
+    for (int i = 0; i <= KEY_COUNT; ++i) {
+      container.getValueRefs(i, refs);
+      assertEquals(i < KEY_COUNT ? 1 : 0, refs.size());
+      if (i < KEY_COUNT) {
+        container.populateValue(refs.get(0));
+        assertNotNull(refs.get(0).getBytes());
+        assertTrue(refs.get(0).getLength() > 0);
+      }
+      // The serialized key finds the same partition.
+      BytesWritable key = serialize(createKeySerde(), new IntWritable(i));
+      container.getValueRefs(key.getBytes(), key.getLength(), refs);
+      assertEquals(i < KEY_COUNT ? 1 : 0, refs.size());
+    }
+    container.clear();
+  }
+
+  private static SerDe createKeySerde() throws SerDeException {
+    SerDe keySerde = new BinarySortableSerDe();
+    Properties keyProps = new Properties();
+    keyProps.put(serdeConstants.LIST_COLUMNS, "k");
+    keyProps.put(serdeConstants.LIST_COLUMN_TYPES, "int");
+    SerDeUtils.initializeSerDe(keySerde, null, keyProps, null);
+    return keySerde;
+  }
+
+  private static SerDe createValueSerde() throws SerDeException {
+    SerDe valueSerde = new LazyBinarySerDe();
+    Properties valueProps = new Properties();
+    valueProps.put(serdeConstants.LIST_COLUMNS, "v");
+    valueProps.put(serdeConstants.LIST_COLUMN_TYPES, "string");
+    SerDeUtils.initializeSerDe(valueSerde, null, valueProps, null);
+    return valueSerde;
+  }
+
+  /**
+   * Creates a sealed container with the given number of int keys, and rows per key; the value
+   * of each row is "v" + key + "_" + row.
+   */
+  private static HybridHashTableContainer createContainer(int numPartitions, long memory,
+      int keyCount, int rowsPerKey) throws Exception {
+    SerDe keySerde = createKeySerde(), valueSerde = createValueSerde();
+    MapJoinObjectSerDeContext keyCtx = new MapJoinObjectSerDeContext(keySerde, false),
+        valueCtx = new MapJoinObjectSerDeContext(valueSerde, false);
+    HiveConf conf = new HiveConf();
+    HiveConf.setIntVar(conf, HiveConf.ConfVars.HIVEHYBRIDGRACEHASHJOINNUMPARTITIONS,
+        numPartitions);
+    HybridHashTableContainer container =
+        new HybridHashTableContainer(conf, keyCtx, valueCtx, memory);
+    for (int i = 0; i < keyCount; ++i) {
+      for (int j = 0; j < rowsPerKey; ++j) {
+        container.putRow(keyCtx, serialize(keySerde, new IntWritable(i)),
+            valueCtx, serialize(valueSerde, new Text("v" + i + "_" + j)));
+      }
+    }
+    container.seal();
+    return container;
+  }
+
+  /**
+   * Probes every key of the container and one that is not in it, spilling the big table rows
+   * of the spilled partitions, then joins the spilled rows; checks that every key gets its
+   * rows once.
+   * @return The keys whose rows were spilled.
+   */
+  private static Set<Integer> join(HybridHashTableContainer container, int keyCount,
+      int rowsPerKey) throws Exception {
+    ObjectInspector rowOi = ObjectInspectorFactory.getStandardStructObjectInspector(
+        Arrays.asList("k"), Arrays.<ObjectInspector>asList(
+            PrimitiveObjectInspectorFactory.writableIntObjectInspector));
+    ExprNodeEvaluator keyEval = ExprNodeEvaluatorFactory.get(
+        new ExprNodeColumnDesc(TypeInfoFactory.intTypeInfo, "k", "t", false));
+    keyEval.initialize(rowOi);
+    List<ExprNodeEvaluator> keyFields = Arrays.asList(keyEval);
+    List<ObjectInspector> keyOis = Arrays.<ObjectInspector>asList(
+        PrimitiveObjectInspectorFactory.writableIntObjectInspector);
+
+    HybridHashTableContainer.HybridGetAdaptor getter =
+        (HybridHashTableContainer.HybridGetAdaptor)container.createGetter(null);
+    Set<Integer> spilled = new HashSet<Integer>();
+    for (int i = 0; i <= keyCount; ++i) {
+      List<Object> row = new ArrayList<Object>();
+      row.add(new IntWritable(i));
+      getter.setFromRow(row, keyFields, keyOis);
+      if (getter.isCurrentKeySpilled()) {
+        spilled.add(i);
+        getter.spillCurrentRow(row, keyOis);
+      } else {
+        checkRows(getter.getCurrentRows(), i, keyCount, rowsPerKey);
+      }
+    }
+
+    Set<Integer> joined = new HashSet<Integer>();
+    while (getter.nextSpilledRow()) {
+      int key = ((IntWritable)getter.getSpilledRowValue().get(0)).get();
+      assertTrue(spilled.contains(key));
+      assertTrue(joined.add(key));
+      checkRows(getter.getCurrentRows(), key, keyCount, rowsPerKey);
+    }
+    assertEquals(spilled, joined);
+    return spilled;
+  }
+
+  private static void checkRows(MapJoinRowContainer rows, int key, int keyCount,
+      int rowsPerKey) throws Exception {
+    if (key >= keyCount) {
+      assertNull(rows);
+      return;
+    }
+    assertEquals(rowsPerKey, rows.rowCount());
+    Set<String> values = new HashSet<String>();
+    AbstractRowContainer.RowIterator<List<Object>> iter = rows.rowIter();
+    for (List<Object> row = iter.first(); row != null; row = iter.next()) {
+      values.add(row.get(0).toString());
+    }
+    for (int j = 0; j < rowsPerKey; ++j) {
+      assertTrue(values.contains("v" + key + "_" + j));
+    }
+  }
+
+  private static BytesWritable serialize(SerDe serde, Object field) throws SerDeException {
+    ObjectInspector oi = ObjectInspectorUtils.getStandardObjectInspector(
+        serde.getObjectInspector(), ObjectInspectorUtils.ObjectInspectorCopyOption.WRITABLE);
+    BytesWritable bw = (BytesWritable) serde.serialize(Arrays.asList(field), oi);
+    // The serdes reuse their output buffer
+    BytesWritable copy = new BytesWritable();
+    copy.set(bw);
+    return copy;
+  }
+}
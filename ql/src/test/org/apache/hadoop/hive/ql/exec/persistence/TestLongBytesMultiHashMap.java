@@ -0,0 +1,263 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.hive.ql.exec.persistence;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+
+import org.apache.hadoop.hive.conf.HiveConf;
+import org.apache.hadoop.hive.serde.serdeConstants;
+import org.apache.hadoop.hive.serde2.ByteStream.RandomAccessOutput;
+import org.apache.hadoop.hive.serde2.SerDe;
+import org.apache.hadoop.hive.serde2.SerDeException;
+import org.apache.hadoop.hive.serde2.SerDeUtils;
+import org.apache.hadoop.hive.serde2.WriteBuffers;
+import org.apache.hadoop.hive.serde2.binarysortable.BinarySortableSerDe;
+import org.apache.hadoop.hive.serde2.lazybinary.LazyBinarySerDe;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorUtils;
+import org.apache.hadoop.io.BytesWritable;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.Text;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class TestLongBytesMultiHashMap {
+  private static final float LOAD_FACTOR = 0.75f;
+  private static final int CAPACITY = 8;
+  private static final int WB_SIZE = 128; // Make sure we cross some buffer boundaries...
+
+  @Test
+  public void testCapacityValidation() {
+    LongBytesMultiHashMap map = new LongBytesMultiHashMap(CAPACITY, LOAD_FACTOR, WB_SIZE);
+    assertEquals(CAPACITY, map.getCapacity());
+    map = new LongBytesMultiHashMap(9, LOAD_FACTOR, WB_SIZE);
+    assertEquals(16, map.getCapacity());
+  }
+
+  @Test
+  public void testPutGetMultiple() throws Exception {
+    LongBytesMultiHashMap map = new LongBytesMultiHashMap(CAPACITY, LOAD_FACTOR, WB_SIZE);
+    RandomValueSource kv = new RandomValueSource(0, 100);
+    List<byte[]> values = new ArrayList<byte[]>();
+    for (int i = 0; i < 4; ++i) {
+      map.put(Long.MIN_VALUE, kv);
+      values.add(kv.getLastValue());
+      verifyResults(map, Long.MIN_VALUE, values.toArray(new byte[values.size()][]));
+    }
+    assertEquals(1, map.size());
+  }
+
+  @Test
+  public void testGetNonExistent() throws Exception {
+    LongBytesMultiHashMap map = new LongBytesMultiHashMap(CAPACITY, LOAD_FACTOR, WB_SIZE);
+    RandomValueSource kv = new RandomValueSource(1, 100);
+    map.put(1, kv);
+    List<WriteBuffers.ByteSegmentRef> results = new ArrayList<WriteBuffers.ByteSegmentRef>(0);
+    map.getValueRefs(2, results);
+    assertTrue(results.isEmpty());
+    map.getValueRefs(0, results);
+    assertTrue(results.isEmpty());
+    map.getNullKeyValueRefs(results);
+    assertTrue(results.isEmpty());
+  }
+
+  @Test
+  public void testNullKey() throws Exception {
+    LongBytesMultiHashMap map = new LongBytesMultiHashMap(CAPACITY, LOAD_FACTOR, WB_SIZE);
+    RandomValueSource kv = new RandomValueSource(0, 10);
+    map.put(0, kv);
+    byte[] zeroValue = kv.getLastValue();
+    map.putNullKey(kv);
+    byte[] nullValue1 = kv.getLastValue();
+    map.putNullKey(kv);
+    byte[] nullValue2 = kv.getLastValue();
+    List<WriteBuffers.ByteSegmentRef> results = new ArrayList<WriteBuffers.ByteSegmentRef>(0);
+    assertEquals(2, map.getNullKeyValueRefs(results));
+    verifyResults(map, results, nullValue1, nullValue2);
+    verifyResults(map, 0, zeroValue);
+  }
+
+  @Test
+  public void testPutWithFullMap() throws Exception {
+    // Make sure the map does not expand; should be able to find space.
+    LongBytesMultiHashMap map = new LongBytesMultiHashMap(CAPACITY, 1f, WB_SIZE);
+    RandomValueSource kv = new RandomValueSource(0, 10);
+    for (int i = 0; i < CAPACITY; ++i) {
+      map.put(i * 465623573L, kv);
+    }
+    for (int i = 0; i < CAPACITY; ++i) {
+      verifyResults(map, i * 465623573L, kv.values.get(i));
+    }
+    assertEquals(CAPACITY, map.getCapacity());
+    // Get of non-existent key should terminate..
+    List<WriteBuffers.ByteSegmentRef> results = new ArrayList<WriteBuffers.ByteSegmentRef>(0);
+    map.getValueRefs(-1, results);
+    assertTrue(results.isEmpty());
+  }
+
+  @Test
+  public void testExpand() throws Exception {
+    // Start with capacity 1; make sure we expand on every put.
+    LongBytesMultiHashMap map = new LongBytesMultiHashMap(1, 0.0000001f, WB_SIZE);
+    RandomValueSource kv = new RandomValueSource(0, 10);
+    for (int i = 0; i < 18; ++i) {
+      map.put(i, kv);
+      for (int j = 0; j <= i; ++j) {
+        verifyResults(map, j, kv.values.get(j));
+      }
+    }
+    assertEquals(1 << 18, map.getCapacity());
+  }
+
+  @Test
+  public void testKeyFilter() throws Exception {
+    LongBytesMultiHashMap map = new LongBytesMultiHashMap(CAPACITY, LOAD_FACTOR, WB_SIZE);
+    RandomValueSource kv = new RandomValueSource(0, 10);
+    for (int i = 0; i < 1000; ++i) {
+      map.put(i * 2, kv);
+    }
+    assertTrue(map.buildKeyFilter() > 0);
+    List<WriteBuffers.ByteSegmentRef> results = new ArrayList<WriteBuffers.ByteSegmentRef>(0);
+    for (int i = 0; i < 1000; ++i) {
+      // The filter never rules out keys that are there.
+      verifyResults(map, i * 2, kv.values.get(i));
+      map.getValueRefs(i * 2 + 1, results);
+      assertTrue(results.isEmpty());
+    }
+  }
+
+  @Test
+  public void testContainerWithLongKeys() throws Exception {
+    SerDe keySerde = new BinarySortableSerDe();
+    Properties keyProps = new Properties();
+    keyProps.put(serdeConstants.LIST_COLUMNS, "k");
+    keyProps.put(serdeConstants.LIST_COLUMN_TYPES, "int");
+    keyProps.put(serdeConstants.SERIALIZATION_SORT_ORDER, "-");
+    SerDeUtils.initializeSerDe(keySerde, null, keyProps, null);
+    SerDe valueSerde = new LazyBinarySerDe();
+    Properties valueProps = new Properties();
+    valueProps.put(serdeConstants.LIST_COLUMNS, "v");
+    valueProps.put(serdeConstants.LIST_COLUMN_TYPES, "string");
+    SerDeUtils.initializeSerDe(valueSerde, null, valueProps, null);
+    MapJoinObjectSerDeContext keyCtx = new MapJoinObjectSerDeContext(keySerde, false),
+        valueCtx = new MapJoinObjectSerDeContext(valueSerde, false);
+
+    MapJoinBytesTableContainer container =
+        new MapJoinBytesTableContainer(new HiveConf(), keyCtx, valueCtx);
+    assertTrue(container.hasLongKeys());
+    Object[] keys = new Object[] { new IntWritable(-5), new IntWritable(Integer.MAX_VALUE),
+        new IntWritable(-5), null };
+    for (int i = 0; i < keys.length; ++i) {
+      container.putRow(keyCtx, serialize(keySerde, keys[i]),
+          valueCtx, serialize(valueSerde, new Text("v" + i)));
+    }
+    container.seal();
+
+    List<WriteBuffers.ByteSegmentRef> results = new ArrayList<WriteBuffers.ByteSegmentRef>(0);
+    container.getValueRefs(-5L, results);
+    assertEquals(2, results.size());
+    container.getValueRefs(Integer.MAX_VALUE, results);
+    assertEquals(1, results.size());
+    container.getValueRefs(5L, results);
+    assertTrue(results.isEmpty());
+    // Serialized keys are decoded
+    BytesWritable key = serialize(keySerde, new IntWritable(-5));
+    container.getValueRefs(key.getBytes(), key.getLength(), results);
+    assertEquals(2, results.size());
+    key = serialize(keySerde, null);
+    container.getValueRefs(key.getBytes(), key.getLength(), results);
+    assertEquals(1, results.size());
+  }
+
+  private static BytesWritable serialize(SerDe serde, Object field) throws SerDeException {
+    ObjectInspector oi = ObjectInspectorUtils.getStandardObjectInspector(
+        serde.getObjectInspector(), ObjectInspectorUtils.ObjectInspectorCopyOption.WRITABLE);
+    BytesWritable bw = (BytesWritable) serde.serialize(Arrays.asList(field), oi);
+    // The serdes reuse their output buffer
+    BytesWritable copy = new BytesWritable();
+    copy.set(bw);
+    return copy;
+  }
+
+  private void verifyResults(LongBytesMultiHashMap map, long key, byte[]... values) {
+    List<WriteBuffers.ByteSegmentRef> results = new ArrayList<WriteBuffers.ByteSegmentRef>(0);
+    byte state = map.getValueRefs(key, results);
+    assertEquals(state, results.size());
+    verifyResults(map, results, values);
+  }
+
+  private void verifyResults(LongBytesMultiHashMap map,
+      List<WriteBuffers.ByteSegmentRef> results, byte[]... values) {
+    assertEquals(values.length, results.size());
+    HashSet<ByteBuffer> hs = new HashSet<ByteBuffer>();
+    for (int i = 0; i < results.size(); ++i) {
+      WriteBuffers.ByteSegmentRef result = results.get(i);
+      map.populateValue(result);
+      hs.add(result.copy());
+    }
+    for (int i = 0; i < values.length; ++i) {
+      assertTrue(hs.contains(ByteBuffer.wrap(values[i])));
+    }
+  }
+
+  private static class RandomValueSource implements BytesBytesMultiHashMap.KvSource {
+    private int minLength, maxLength;
+    private final Random rdm = new Random(43);
+    public List<byte[]> values = new ArrayList<byte[]>();
+
+    public RandomValueSource(int minLength, int maxLength) {
+      this.minLength = minLength;
+      this.maxLength = maxLength;
+    }
+
+    public byte[] getLastValue() {
+      return values.get(values.size() - 1);
+    }
+
+    @Override
+    public void writeKey(RandomAccessOutput dest) throws SerDeException {
+      fail("Keys are not written");
+    }
+
+    @Override
+    public void writeValue(RandomAccessOutput dest) throws SerDeException {
+      byte[] bytes = new byte[minLength + rdm.nextInt(maxLength - minLength + 1)];
+      rdm.nextBytes(bytes);
+      try {
+        dest.write(bytes);
+      } catch (IOException e) {
+        e.printStackTrace();
+        fail("Thrown " + e.getMessage());
+      }
+      values.add(bytes);
+    }
+
+    @Override
+    public byte updateStateByte(Byte previousValue) {
+      return (byte)(previousValue == null ? 1 : previousValue + 1);
+    }
+  }
+}
@@ -0,0 +1,89 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hive.ql.exec.tez;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import org.apache.hadoop.hive.ql.exec.GroupByOperator;
+import org.apache.hadoop.hive.ql.exec.Operator;
+import org.apache.hadoop.hive.ql.exec.OperatorFactory;
+import org.apache.hadoop.hive.ql.plan.AggregationDesc;
+import org.apache.hadoop.hive.ql.plan.ExprNodeDesc;
+import org.apache.hadoop.hive.ql.plan.ForwardDesc;
+import org.apache.hadoop.hive.ql.plan.GroupByDesc;
+import org.apache.tez.runtime.api.TezProcessorContext;
+import org.junit.Test;
+
+public class TestRecordProcessor {
+
+  private static RecordProcessor newProcessor(long taskMemory) {
+    RecordProcessor processor = new RecordProcessor() {
+      @Override
+      void run() {
+      }
+
+      @Override
+      void close() {
+      }
+    };
+    processor.processorContext = mock(TezProcessorContext.class);
+    when(processor.processorContext.getTotalMemoryAvailableToTask()).thenReturn(taskMemory);
+    return processor;
+  }
+
+  private static GroupByOperator groupBy(GroupByDesc.Mode mode, float memoryUsage,
+      boolean groupingSetsPresent, Operator<?> parent) {
+    GroupByDesc desc = new GroupByDesc(mode, new ArrayList<String>(),
+        new ArrayList<ExprNodeDesc>(), new ArrayList<AggregationDesc>(), false,
+        memoryUsage, 0.9f, groupingSetsPresent ? Arrays.asList(1, 0) : null,
+        groupingSetsPresent, 0, false);
+    return (GroupByOperator) OperatorFactory.getAndMakeChild(desc, parent);
+  }
+
+  @Test
+  public void testAllocateGroupByMemory() {
+    Operator<ForwardDesc> root = OperatorFactory.get(ForwardDesc.class);
+    GroupByOperator hash = groupBy(GroupByDesc.Mode.HASH, 0.5f, false, root);
+    GroupByOperator mergePartial = groupBy(GroupByDesc.Mode.MERGEPARTIAL, 0.5f, false, root);
+    // the hash table of grouping sets below a hash group by
+    GroupByOperator groupingSets = groupBy(GroupByDesc.Mode.FINAL, 0.25f, true, hash);
+
+    newProcessor(1 << 30).allocateGroupByMemory(root);
+
+    // the two hash tables share the task memory, each getting its share of half
+    assertEquals((1 << 30) / 4, hash.getMemoryBudget());
+    assertEquals((1 << 30) / 8, groupingSets.getMemoryBudget());
+    // a sort based group by keeps no hash table
+    assertEquals(0, mergePartial.getMemoryBudget());
+  }
+
+  @Test
+  public void testNoGroupBy() {
+    Operator<ForwardDesc> root = OperatorFactory.get(ForwardDesc.class);
+    GroupByOperator mergePartial = groupBy(GroupByDesc.Mode.MERGEPARTIAL, 0.5f, false, root);
+
+    newProcessor(1 << 30).allocateGroupByMemory(root);
+
+    assertEquals(0, mergePartial.getMemoryBudget());
+  }
+}
@@ -0,0 +1,191 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.hive.ql.exec.vector;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hive.ql.exec.Utilities;
+import org.apache.hadoop.hive.ql.io.DefaultHivePartitioner;
+import org.apache.hadoop.hive.ql.io.orc.OrcFile;
+import org.apache.hadoop.hive.ql.io.orc.OrcInputFormat;
+import org.apache.hadoop.hive.ql.io.orc.OrcOutputFormat;
+import org.apache.hadoop.hive.ql.io.orc.OrcSerde;
+import org.apache.hadoop.hive.ql.io.orc.OrcStruct;
+import org.apache.hadoop.hive.ql.io.orc.Reader;
+import org.apache.hadoop.hive.ql.io.orc.RecordReader;
+import org.apache.hadoop.hive.ql.plan.ExprNodeColumnDesc;
+import org.apache.hadoop.hive.ql.plan.ExprNodeDesc;
+import org.apache.hadoop.hive.ql.plan.FileSinkDesc;
+import org.apache.hadoop.hive.ql.plan.TableDesc;
+import org.apache.hadoop.hive.serde.serdeConstants;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.typeinfo.TypeInfoFactory;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.mapred.JobConf;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestName;
+
+/**
+ * Tests the vectorized file sink writing the buckets of an ORC table.
+ */
+public class TestVectorFileSinkOperator {
+
+  Path workDir = new Path(System.getProperty("test.tmp.dir",
+      "target" + File.separator + "test" + File.separator + "tmp"));
+
+  JobConf conf;
+  FileSystem fs;
+  Path outDir;
+
+  @Rule
+  public TestName testCaseName = new TestName();
+
+  @Before
+  public void openFileSystem() throws Exception {
+    conf = new JobConf();
+    conf.setPartitionerClass(DefaultHivePartitioner.class);
+    fs = FileSystem.getLocal(conf);
+    Path testDir = new Path(workDir,
+        "TestVectorFileSinkOperator." + testCaseName.getMethodName());
+    fs.delete(testDir, true);
+    outDir = new Path(testDir, "out");
+    // the job creates the directory the tasks commit their files to
+    fs.mkdirs(Utilities.toTempPath(outDir));
+  }
+
+  /**
+   * Creates the file sink of a reducer writing a table bucketed on its first
+   * column.
+   */
+  private VectorFileSinkOperator createFileSink(int reducer, int numFiles, int totalFiles)
+      throws Exception {
+    Properties props = new Properties();
+    props.setProperty(serdeConstants.LIST_COLUMNS, "key,value");
+    props.setProperty(serdeConstants.LIST_COLUMN_TYPES, "bigint:bigint");
+    props.setProperty(serdeConstants.SERIALIZATION_LIB, OrcSerde.class.getName());
+    TableDesc tableDesc = new TableDesc(OrcInputFormat.class, OrcOutputFormat.class, props);
+    ArrayList<ExprNodeDesc> partitionCols = new ArrayList<ExprNodeDesc>();
+    partitionCols.add(new ExprNodeColumnDesc(TypeInfoFactory.longTypeInfo, "_col0", "", false));
+    FileSinkDesc desc = new FileSinkDesc(outDir, tableDesc, false, 0, totalFiles > numFiles,
+        false, numFiles, totalFiles, partitionCols, null);
+
+    conf.set("mapred.task.id", "attempt_200707121733_0003_r_00000" + reducer + "_0");
+    List<ObjectInspector> ois = new ArrayList<ObjectInspector>();
+    ois.add(PrimitiveObjectInspectorFactory.writableLongObjectInspector);
+    ois.add(PrimitiveObjectInspectorFactory.writableLongObjectInspector);
+    VectorFileSinkOperator fso = new VectorFileSinkOperator(null, desc);
+    fso.initialize(conf, new ObjectInspector[] {
+        ObjectInspectorFactory.getStandardStructObjectInspector(
+            Arrays.asList("_col0", "_col1"), ois)});
+    return fso;
+  }
+
+  /**
+   * Writes the keys in batches of 100 rows, with the key times 10 as value.
+   */
+  private void writeRows(VectorFileSinkOperator fso, List<Long> keys) throws Exception {
+    VectorizedRowBatch batch = new VectorizedRowBatch(2);
+    LongColumnVector keyColumn = new LongColumnVector();
+    LongColumnVector valueColumn = new LongColumnVector();
+    batch.cols[0] = keyColumn;
+    batch.cols[1] = valueColumn;
+    for (long key : keys) {
+      keyColumn.vector[batch.size] = key;
+      valueColumn.vector[batch.size] = key * 10;
+      if (++batch.size == 100) {
+        fso.processOp(batch, 0);
+        batch.reset();
+      }
+    }
+    if (batch.size > 0) {
+      fso.processOp(batch, 0);
+    }
+    fso.close(false);
+  }
+
+  /**
+   * Reads the keys of the file a bucket was written to, and checks the values.
+   */
+  private List<Long> readBucket(int bucket) throws Exception {
+    Path path = new Path(Utilities.toTempPath(outDir), String.format("%06d_0", bucket));
+    Reader reader = OrcFile.createReader(path, OrcFile.readerOptions(conf).filesystem(fs));
+    RecordReader rows = reader.rows();
+    List<Long> keys = new ArrayList<Long>();
+    Object row = null;
+    while (rows.hasNext()) {
+      row = rows.next(row);
+      long key = ((LongWritable) ((OrcStruct) row).getFieldValue(0)).get();
+      assertEquals(key * 10, ((LongWritable) ((OrcStruct) row).getFieldValue(1)).get());
+      keys.add(key);
+    }
+    rows.close();
+    return keys;
+  }
+
+  @Test
+  public void testBucketBatches() throws Exception {
+    // one reducer per bucket: reducer 2 writes bucket 2 of 4
+    VectorFileSinkOperator fso = createFileSink(2, 1, 1);
+    assertTrue(fso.writeBatches);
+
+    List<Long> keys = new ArrayList<Long>();
+    for (long key = 2; key < 4000; key += 4) {
+      keys.add(key);
+    }
+    writeRows(fso, keys);
+
+    // the batches were handed to the ORC writer
+    assertTrue(fso.writeBatches);
+    assertEquals(keys, readBucket(2));
+  }
+
+  @Test
+  public void testMultiFileSpray() throws Exception {
+    // two reducers for four buckets: reducer 1 writes buckets 1 and 3
+    VectorFileSinkOperator fso = createFileSink(1, 2, 4);
+    assertFalse(fso.writeBatches);
+
+    // the keys of both buckets are mixed in every batch
+    List<Long> keys = new ArrayList<Long>();
+    List<Long> bucket1 = new ArrayList<Long>();
+    List<Long> bucket3 = new ArrayList<Long>();
+    for (long key = 1; key < 4000; key += 2) {
+      keys.add(key);
+      (key % 4 == 1 ? bucket1 : bucket3).add(key);
+    }
+    writeRows(fso, keys);
+
+    assertEquals(bucket1, readBucket(1));
+    assertEquals(bucket3, readBucket(3));
+  }
+}
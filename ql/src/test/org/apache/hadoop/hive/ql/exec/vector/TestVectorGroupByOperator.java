@@ -40,6 +40,7 @@
 
 import org.apache.hadoop.hive.common.type.Decimal128;
 import org.apache.hadoop.hive.common.type.HiveDecimal;
+import org.apache.hadoop.hive.conf.HiveConf;
 import org.apache.hadoop.hive.ql.exec.vector.util.FakeCaptureOutputOperator;
 import org.apache.hadoop.hive.ql.exec.vector.util.FakeVectorRowBatchFromConcat;
 import org.apache.hadoop.hive.ql.exec.vector.util.FakeVectorRowBatchFromLongIterables;
@@ -48,13 +49,19 @@
 import org.apache.hadoop.hive.ql.metadata.HiveException;
 import org.apache.hadoop.hive.ql.plan.AggregationDesc;
 import org.apache.hadoop.hive.ql.plan.ExprNodeColumnDesc;
+import org.apache.hadoop.hive.ql.plan.ExprNodeConstantDesc;
 import org.apache.hadoop.hive.ql.plan.ExprNodeDesc;
 import org.apache.hadoop.hive.ql.plan.GroupByDesc;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDAFApproxCountDistinct;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDAFEvaluator;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDAFSum;
 import org.apache.hadoop.hive.serde2.io.ByteWritable;
 import org.apache.hadoop.hive.serde2.io.DoubleWritable;
 import org.apache.hadoop.hive.serde2.io.HiveDecimalWritable;
 import org.apache.hadoop.hive.serde2.io.ShortWritable;
 import org.apache.hadoop.hive.serde2.io.TimestampWritable;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
 import org.apache.hadoop.hive.serde2.typeinfo.TypeInfo;
 import org.apache.hadoop.hive.serde2.typeinfo.TypeInfoFactory;
 import org.apache.hadoop.io.BooleanWritable;
@@ -246,6 +253,105 @@ public void remove() {
     assertTrue(0 < outputRowCount);
   }
 
+  @Test
+  public void testMemoryBudgetFlush() throws HiveException {
+
+    Map<String, Integer> mapColumnNames = new HashMap<String, Integer>();
+    mapColumnNames.put("Key", 0);
+    mapColumnNames.put("Value", 1);
+    VectorizationContext ctx = new VectorizationContext(mapColumnNames, 2);
+
+    GroupByDesc desc = buildKeyGroupByDesc (ctx, "max",
+        "Value", TypeInfoFactory.longTypeInfo,
+        "Key", TypeInfoFactory.longTypeInfo);
+
+    // The budget replaces the heap threshold, so the flush does not depend on
+    // what else is on the heap.
+    VectorGroupByOperator vgo = new VectorGroupByOperator(ctx, desc);
+    vgo.setMemoryBudget(100 * 1024);
+
+    FakeCaptureOutputOperator out = FakeCaptureOutputOperator.addCaptureOutputChild(vgo);
+    vgo.initialize(null, null);
+
+    this.outputRowCount = 0;
+    out.setOutputInspector(new FakeCaptureOutputOperator.OutputInspector() {
+      @Override
+      public void inspectRow(Object row, int tag) throws HiveException {
+        ++outputRowCount;
+      }
+    });
+
+    List<Long> keys = new ArrayList<Long>();
+    for (long i = 0; i < 100 * 1024; ++i) {
+      keys.add(i);
+    }
+
+    long countRowsProduced = 0;
+    for (VectorizedRowBatch unit: new FakeVectorRowBatchFromLongIterables(100, keys, keys)) {
+      countRowsProduced += 100;
+      vgo.processOp(unit,  0);
+      if (0 < outputRowCount) {
+        break;
+      }
+      // Each distinct key takes more than 16 bytes of the budget.
+      assertTrue(countRowsProduced < 100*1024/16);
+    }
+
+    assertTrue(0 < outputRowCount);
+  }
+
+  @Test
+  public void testHashAggregationSpill() throws HiveException {
+    final int keys = 10000;
+    List<Long> keyValues = new ArrayList<Long>();
+    List<Long> values = new ArrayList<Long>();
+    for (long i = 0; i < 3 * keys; ++i) {
+      keyValues.add(i % keys);
+      values.add(1L);
+    }
+
+    Map<String, Integer> mapColumnNames = new HashMap<String, Integer>();
+    mapColumnNames.put("Key", 0);
+    mapColumnNames.put("Value", 1);
+    VectorizationContext ctx = new VectorizationContext(mapColumnNames, 2);
+
+    GroupByDesc desc = buildKeyGroupByDesc (ctx, "sum",
+        "Value", TypeInfoFactory.longTypeInfo,
+        "Key", TypeInfoFactory.longTypeInfo);
+    AggregationDesc agg = desc.getAggregators().get(0);
+    agg.setMode(GenericUDAFEvaluator.Mode.PARTIAL1);
+    agg.setGenericUDAFEvaluator(new GenericUDAFSum.GenericUDAFSumLong());
+
+    // Spill every 1000 keys, and merge the runs every 4 spills.
+    HiveConf hconf = new HiveConf();
+    HiveConf.setBoolVar(hconf, HiveConf.ConfVars.HIVE_GROUPBY_SPILL_ENABLED, true);
+    HiveConf.setIntVar(hconf, HiveConf.ConfVars.HIVE_GROUPBY_SPILL_MAX_RUNS, 4);
+    HiveConf.setIntVar(hconf, HiveConf.ConfVars.HIVE_VECTORIZATION_GROUPBY_MAXENTRIES, 1000);
+
+    VectorGroupByOperator vgo = new VectorGroupByOperator(ctx, desc);
+    FakeCaptureOutputOperator out = FakeCaptureOutputOperator.addCaptureOutputChild(vgo);
+    vgo.initialize(hconf, null);
+
+    // Every key is forwarded once, with the sum of all its rows.
+    final Set<Long> keysSeen = new HashSet<Long>();
+    out.setOutputInspector(new FakeCaptureOutputOperator.OutputInspector() {
+      @Override
+      public void inspectRow(Object row, int tag) throws HiveException {
+        Object[] fields = (Object[]) row;
+        assertTrue(keysSeen.add(((LongWritable) fields[0]).get()));
+        assertEquals(3L, ((LongWritable) fields[1]).get());
+      }
+    });
+
+    for (VectorizedRowBatch unit: new FakeVectorRowBatchFromLongIterables(
+        100, keyValues, values)) {
+      vgo.processOp(unit,  0);
+    }
+    vgo.close(false);
+
+    assertEquals(keys, keysSeen.size());
+  }
+
   @Test
   public void testMultiKeyIntStringInt() throws HiveException {
     testMultiKey(
@@ -354,6 +460,71 @@ public void testMultiKeyDoubleShortString() throws HiveException {
   }
 
 
+  @Test
+  public void testRollupGroupingSets() throws HiveException {
+    Map<String, Integer> mapColumnNames = new HashMap<String, Integer>();
+    mapColumnNames.put("a", 0);
+    mapColumnNames.put("b", 1);
+    mapColumnNames.put("value", 2);
+    VectorizationContext ctx = new VectorizationContext(mapColumnNames, 3);
+
+    // group by a, b with rollup: the grouping sets are (a, b), (a) and ()
+    GroupByDesc desc = buildGroupByDescType(ctx, "sum", "value", TypeInfoFactory.doubleTypeInfo);
+    ArrayList<ExprNodeDesc> keys = new ArrayList<ExprNodeDesc>();
+    keys.add(buildColumnDesc(ctx, "a", TypeInfoFactory.stringTypeInfo));
+    keys.add(buildColumnDesc(ctx, "b", TypeInfoFactory.intTypeInfo));
+    keys.add(new ExprNodeConstantDesc("0"));
+    desc.setKeys(keys);
+    desc.getOutputColumnNames().add("_col1");
+    desc.getOutputColumnNames().add("_col2");
+    desc.getOutputColumnNames().add("_col3");
+    desc.setGroupingSetsPresent(true);
+    desc.setGroupingSetPosition(2);
+    desc.setListGroupingSets(Arrays.asList(3, 1, 0));
+
+    VectorGroupByOperator vgo = new VectorGroupByOperator(ctx, desc);
+    FakeCaptureOutputOperator out = FakeCaptureOutputOperator.addCaptureOutputChild(vgo);
+    vgo.initialize(null, null);
+
+    final Map<List<Object>, Double> results = new HashMap<List<Object>, Double>();
+    out.setOutputInspector(new FakeCaptureOutputOperator.OutputInspector() {
+      @Override
+      public void inspectRow(Object row, int tag) throws HiveException {
+        Object[] fields = (Object[]) row;
+        List<Object> key = Arrays.asList(
+            fields[0] == null ? null : fields[0].toString(),
+            fields[1] == null ? null : (Object) ((IntWritable) fields[1]).get(),
+            fields[2].toString());
+        assertFalse(results.containsKey(key));
+        results.put(key, ((DoubleWritable) fields[3]).get());
+      }
+    });
+
+    // The last column is the scratch column of the grouping set key.
+    FakeVectorRowBatchFromObjectIterables data = new FakeVectorRowBatchFromObjectIterables(
+        2,
+        new String[] {"string", "int", "double", "string"},
+        Arrays.asList(new Object[]{"A", "A", "B", null}),
+        Arrays.asList(new Object[]{  1,   2,   1,    1}),
+        Arrays.asList(new Object[]{1.0, 2.0, 4.0,  8.0}),
+        Arrays.asList(new Object[]{ "",  "",  "",   ""}));
+    for (VectorizedRowBatch unit : data) {
+      vgo.processOp(unit, 0);
+    }
+    vgo.close(false);
+
+    Map<List<Object>, Double> expected = new HashMap<List<Object>, Double>();
+    expected.put(Arrays.<Object>asList("A", 1, "3"), 1.0);
+    expected.put(Arrays.<Object>asList("A", 2, "3"), 2.0);
+    expected.put(Arrays.<Object>asList("B", 1, "3"), 4.0);
+    expected.put(Arrays.<Object>asList(null, 1, "3"), 8.0);
+    expected.put(Arrays.<Object>asList("A", null, "1"), 3.0);
+    expected.put(Arrays.<Object>asList("B", null, "1"), 4.0);
+    expected.put(Arrays.<Object>asList(null, null, "1"), 8.0);
+    expected.put(Arrays.<Object>asList(null, null, "0"), 15.0);
+    assertEquals(expected, results);
+  }
+
   @Test
   public void testDoubleValueTypeSum() throws HiveException {
     testKeyTypeAggregate(
@@ -1204,6 +1375,75 @@ public void testCountLongSimple () throws HiveException {
         4L);
   }
 
+  @Test
+  public void testApproxCountDistinctLongSimple () throws HiveException {
+    testAggregateLongAggregate(
+        "approx_count_distinct",
+        2,
+        Arrays.asList(new Long[]{13L,5L,null,7L,5L,13L,19L}),
+        4L);
+    testAggregateLongAggregate(
+        "approx_count_distinct",
+        2,
+        Arrays.asList(new Long[]{null,null}),
+        0L);
+  }
+
+  @SuppressWarnings("unchecked")
+  @Test
+  public void testApproxCountDistinctLongRepeat () throws HiveException {
+    testAggregateLongIterable ("approx_count_distinct",
+        new FakeVectorRowBatchFromConcat(
+            new FakeVectorRowBatchFromRepeats(
+                new Long[] {19L}, 10, 2),
+            new FakeVectorRowBatchFromLongIterables(
+                3,
+                Arrays.asList(new Long[]{13L, 19L, 23L, 29L}))),
+         4L);
+  }
+
+  @SuppressWarnings("unchecked")
+  @Test
+  public void testApproxCountDistinctLongMatchesRowMode () throws HiveException {
+    final int distinct = 100000;
+    List<Long> values = new ArrayList<Long>();
+    for (long i = 0; i < 2 * distinct; ++i) {
+      values.add(i % distinct);
+    }
+
+    Map<String, Integer> mapColumnNames = new HashMap<String, Integer>();
+    mapColumnNames.put("A", 0);
+    VectorizationContext ctx = new VectorizationContext(mapColumnNames, 1);
+    GroupByDesc desc = buildGroupByDescType(ctx, "approx_count_distinct", "A",
+        TypeInfoFactory.longTypeInfo);
+    VectorGroupByOperator vgo = new VectorGroupByOperator(ctx, desc);
+    FakeCaptureOutputOperator out = FakeCaptureOutputOperator.addCaptureOutputChild(vgo);
+    vgo.initialize(null, null);
+    for (VectorizedRowBatch unit: new FakeVectorRowBatchFromLongIterables(1024, values)) {
+      vgo.processOp(unit,  0);
+    }
+    vgo.close(false);
+
+    List<Object> outBatchList = out.getCapturedRows();
+    assertEquals(1, outBatchList.size());
+    long estimate = ((LongWritable) ((Object[]) outBatchList.get(0))[0]).get();
+    // The relative standard error with the default 4096 registers is about 1.6%.
+    assertEquals(distinct, estimate, distinct * 0.05);
+
+    // The row mode evaluator hashes the values the same way.
+    GenericUDAFEvaluator eval =
+        new GenericUDAFApproxCountDistinct.GenericUDAFApproxCountDistinctEvaluator();
+    eval.init(GenericUDAFEvaluator.Mode.COMPLETE, new ObjectInspector[] {
+        PrimitiveObjectInspectorFactory.writableLongObjectInspector});
+    GenericUDAFEvaluator.AggregationBuffer agg = eval.getNewAggregationBuffer();
+    LongWritable value = new LongWritable();
+    for (Long v : values) {
+      value.set(v);
+      eval.iterate(agg, new Object[] {value});
+    }
+    assertEquals(estimate, ((LongWritable) eval.terminate(agg)).get());
+  }
+
   @Test
   public void testCountLongEmpty () throws HiveException {
     testAggregateLongAggregate(
@@ -2175,6 +2415,7 @@ void validateVariance(String key, double expected, long cnt, double sum, double
       {"stddev", StdValidator.class},
       {"stddev_pop", StdValidator.class},
       {"stddev_samp", StdSampValidator.class},
+      {"approx_count_distinct", ValueValidator.class},
   };
 
   public static Validator getValidator(String aggregate) throws HiveException {
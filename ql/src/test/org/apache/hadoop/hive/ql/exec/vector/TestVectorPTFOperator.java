@@ -0,0 +1,276 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.hive.ql.exec.vector;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.hadoop.hive.conf.HiveConf;
+import org.apache.hadoop.hive.ql.Driver;
+import org.apache.hadoop.hive.ql.exec.CollectOperator;
+import org.apache.hadoop.hive.ql.exec.ExtractOperator;
+import org.apache.hadoop.hive.ql.exec.Operator;
+import org.apache.hadoop.hive.ql.exec.OperatorFactory;
+import org.apache.hadoop.hive.ql.exec.PTFOperator;
+import org.apache.hadoop.hive.ql.exec.ReduceSinkOperator;
+import org.apache.hadoop.hive.ql.exec.Task;
+import org.apache.hadoop.hive.ql.exec.mr.MapRedTask;
+import org.apache.hadoop.hive.ql.plan.CollectDesc;
+import org.apache.hadoop.hive.ql.plan.ExprNodeColumnDesc;
+import org.apache.hadoop.hive.ql.plan.ExprNodeDesc;
+import org.apache.hadoop.hive.ql.plan.ExtractDesc;
+import org.apache.hadoop.hive.ql.plan.MapredWork;
+import org.apache.hadoop.hive.ql.plan.OperatorDesc;
+import org.apache.hadoop.hive.ql.plan.PTFDesc;
+import org.apache.hadoop.hive.ql.plan.ReduceSinkDesc;
+import org.apache.hadoop.hive.ql.processors.CommandProcessorResponse;
+import org.apache.hadoop.hive.ql.session.SessionState;
+import org.apache.hadoop.hive.serde2.objectinspector.InspectableObject;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorUtils;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorUtils.ObjectInspectorCopyOption;
+import org.apache.hadoop.hive.serde2.objectinspector.StructObjectInspector;
+import org.apache.hadoop.hive.serde2.typeinfo.TypeInfoUtils;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.DoubleWritable;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Compares the vectorized windowing operators with the row mode PTF operator. The plan of
+ * a windowing query is compiled, and the rows the reducer would receive are fed to the
+ * PTF operator of the plan and, in batches, to the vectorized extract and PTF operators.
+ */
+public class TestVectorPTFOperator {
+
+  private static final String TABLE = "vector_ptf_input";
+
+  // The sizes of the partitions, several of which span batches.
+  private static final int[] PARTITION_SIZES = {1, 3, 12, 30, 2, 25};
+  private static final int BATCH_SIZE = 8;
+
+  private static HiveConf conf;
+  private static Driver driver;
+
+  @BeforeClass
+  public static void createTable() throws Exception {
+    conf = new HiveConf(Driver.class);
+    conf.setVar(HiveConf.ConfVars.HIVE_EXECUTION_ENGINE, "mr");
+    SessionState.start(conf);
+    driver = new Driver(conf);
+    runQuery("drop table if exists " + TABLE);
+    runQuery("create table " + TABLE + " (p string, o int, l bigint, d double)");
+  }
+
+  @AfterClass
+  public static void dropTable() throws Exception {
+    runQuery("drop table if exists " + TABLE);
+    driver.close();
+  }
+
+  private static void runQuery(String query) throws Exception {
+    CommandProcessorResponse response = driver.run(query);
+    assertEquals(response.getErrorMessage(), 0, response.getResponseCode());
+  }
+
+  @Test
+  public void testRowsFrames() throws Exception {
+    String rows = " over (partition by p order by o"
+        + " rows between unbounded preceding and current row)";
+    compareWithRowMode("row_number() over (partition by p order by o), count(*)" + rows
+        + ", count(l)" + rows + ", sum(l)" + rows + ", sum(d)" + rows + ", min(l)" + rows
+        + ", max(d)" + rows + ", avg(l)" + rows + ", avg(d)" + rows);
+  }
+
+  @Test
+  public void testRangeFrames() throws Exception {
+    String range = " over (partition by p order by o"
+        + " range between unbounded preceding and current row)";
+    compareWithRowMode("count(*)" + range + ", count(d)" + range + ", sum(l)" + range
+        + ", min(d)" + range + ", max(l)" + range + ", avg(d)" + range);
+  }
+
+  @Test
+  public void testDefaultFrames() throws Exception {
+    // With an order by and no window frame, the aggregates use a RANGE frame that ends
+    // at the last peer of the row.
+    String window = " over (partition by p order by o)";
+    compareWithRowMode("rank()" + window + ", dense_rank()" + window + ", row_number()"
+        + window + ", count(*)" + window + ", sum(l)" + window + ", max(d)" + window
+        + ", avg(l)" + window);
+  }
+
+  @Test
+  public void testRowsAndRangeFrames() throws Exception {
+    // The rows of a group of peers are held back for the RANGE frames, the ROWS frames
+    // still see each row on its own.
+    compareWithRowMode("sum(l) over (partition by p order by o"
+        + " rows between unbounded preceding and current row),"
+        + " sum(l) over (partition by p order by o"
+        + " range between unbounded preceding and current row),"
+        + " row_number() over (partition by p order by o),"
+        + " min(d) over (partition by p order by o rows unbounded preceding)");
+  }
+
+  private void compareWithRowMode(String windowing) throws Exception {
+    String query = "select p, o, l, d, " + windowing + " from " + TABLE;
+    assertEquals(driver.getErrorMsg(), 0, driver.compile(query));
+    MapRedTask task = null;
+    for (Task<?> rootTask : driver.getPlan().getRootTasks()) {
+      if (rootTask instanceof MapRedTask) {
+        task = (MapRedTask) rootTask;
+      }
+    }
+    MapredWork work = task.getWork();
+    ReduceSinkOperator rs = findReduceSink(
+        work.getMapWork().getAliasToWork().values().iterator().next());
+    Operator<? extends OperatorDesc> reducer = work.getReduceWork().getReducer();
+    assertTrue(reducer instanceof ExtractOperator);
+    assertTrue(reducer.getChildOperators().get(0) instanceof PTFOperator);
+    ExtractDesc extractDesc = (ExtractDesc) reducer.getConf();
+    PTFDesc ptfDesc = (PTFDesc) reducer.getChildOperators().get(0).getConf();
+
+    // The reducer receives the keys followed by the values of the reduce sink.
+    ReduceSinkDesc rsDesc = rs.getConf();
+    List<String> fieldNames = new ArrayList<String>();
+    List<ExprNodeDesc> fieldExprs = new ArrayList<ExprNodeDesc>();
+    for (int i = 0; i < rsDesc.getKeyCols().size(); i++) {
+      fieldNames.add("KEY." + rsDesc.getOutputKeyColumnNames().get(i));
+      fieldExprs.add(rsDesc.getKeyCols().get(i));
+    }
+    int numKeys = fieldNames.size();
+    for (int i = 0; i < rsDesc.getValueCols().size(); i++) {
+      fieldNames.add("VALUE." + rsDesc.getOutputValueColumnNames().get(i));
+      fieldExprs.add(rsDesc.getValueCols().get(i));
+    }
+    List<ObjectInspector> fieldOIs = new ArrayList<ObjectInspector>();
+    for (ExprNodeDesc expr : fieldExprs) {
+      fieldOIs.add(TypeInfoUtils.getStandardWritableObjectInspectorFromTypeInfo(
+          expr.getTypeInfo()));
+    }
+    StructObjectInspector reduceOI =
+        ObjectInspectorFactory.getStandardStructObjectInspector(fieldNames, fieldOIs);
+    StructObjectInspector valueOI = ObjectInspectorFactory.getStandardStructObjectInspector(
+        rsDesc.getOutputValueColumnNames(), fieldOIs.subList(numKeys, fieldOIs.size()));
+
+    List<List<Object>> rows = new ArrayList<List<Object>>();
+    int row = 0;
+    for (int partition = 0; partition < PARTITION_SIZES.length; partition++) {
+      for (int i = 0; i < PARTITION_SIZES[partition]; i++) {
+        List<Object> reduceRow = new ArrayList<Object>();
+        for (ExprNodeDesc expr : fieldExprs) {
+          reduceRow.add(value(((ExprNodeColumnDesc) expr).getColumn(), partition, i, row));
+        }
+        rows.add(reduceRow);
+        row++;
+      }
+    }
+
+    // Row mode: the PTF operator gets the values of each row.
+    PTFOperator rowPTF = (PTFOperator) OperatorFactory.get(ptfDesc);
+    CollectOperator rowCollect = (CollectOperator) OperatorFactory.getAndMakeChild(
+        new CollectDesc(Integer.MAX_VALUE), rowPTF);
+    rowPTF.initialize(conf, new ObjectInspector[] {valueOI});
+    for (List<Object> reduceRow : rows) {
+      rowPTF.processOp(reduceRow.subList(numKeys, reduceRow.size()), 0);
+    }
+    rowPTF.close(false);
+    List<Object> expected = collect(rowCollect);
+
+    // Vector mode: the extract operator gets batches of whole rows.
+    Map<String, Integer> columnMap = new HashMap<String, Integer>();
+    for (int i = 0; i < fieldNames.size(); i++) {
+      columnMap.put(fieldNames.get(i), i);
+    }
+    VectorizationContext vContext = new VectorizationContext(columnMap, fieldNames.size());
+    VectorExtractOperator vectorExtract = new VectorExtractOperator(vContext, extractDesc);
+    VectorPTFOperator vectorPTF = new VectorPTFOperator(
+        vectorExtract.getOuputVectorizationContext(), ptfDesc);
+    OperatorFactory.makeChild(vectorExtract, vectorPTF);
+    CollectOperator vectorCollect = (CollectOperator) OperatorFactory.getAndMakeChild(
+        new CollectDesc(Integer.MAX_VALUE), vectorPTF);
+    vectorExtract.initialize(conf, new ObjectInspector[] {reduceOI});
+    for (int start = 0; start < rows.size(); start += BATCH_SIZE) {
+      VectorizedRowBatch batch = VectorizedBatchUtil.constructVectorizedRowBatch(reduceOI);
+      DataOutputBuffer buffer = new DataOutputBuffer();
+      int end = Math.min(start + BATCH_SIZE, rows.size());
+      for (int r = start; r < end; r++) {
+        VectorizedBatchUtil.addRowToBatch(rows.get(r), reduceOI, r - start, batch, buffer);
+      }
+      batch.size = end - start;
+      vectorExtract.processOp(batch, 0);
+    }
+    vectorExtract.close(false);
+    List<Object> actual = collect(vectorCollect);
+
+    assertEquals(rows.size(), expected.size());
+    assertEquals(expected.size(), actual.size());
+    for (int i = 0; i < expected.size(); i++) {
+      assertEquals("row " + i + " of " + query, expected.get(i), actual.get(i));
+    }
+  }
+
+  private static ReduceSinkOperator findReduceSink(Operator<? extends OperatorDesc> op) {
+    while (!(op instanceof ReduceSinkOperator)) {
+      op = op.getChildOperators().get(0);
+    }
+    return (ReduceSinkOperator) op;
+  }
+
+  /**
+   * The value of a column of the table in the i-th row of a partition. The order column
+   * is null in the first row of every other partition and has groups of three peers, the
+   * aggregated columns have nulls at different rows.
+   */
+  private static Object value(String column, int partition, int i, int row) {
+    if (column.equals("p")) {
+      return new Text("p" + partition);
+    } else if (column.equals("o")) {
+      return i == 0 && partition % 2 == 1 ? null : new IntWritable(i / 3);
+    } else if (column.equals("l")) {
+      return row % 5 == 2 ? null : new LongWritable((row * 7) % 11 - 3);
+    } else if (column.equals("d")) {
+      return row % 4 == 1 ? null : new DoubleWritable((row % 9) * 0.5);
+    }
+    return null;
+  }
+
+  private static List<Object> collect(CollectOperator collect) {
+    List<Object> rows = new ArrayList<Object>();
+    InspectableObject io = new InspectableObject();
+    while (true) {
+      collect.retrieve(io);
+      if (io.o == null) {
+        return rows;
+      }
+      rows.add(ObjectInspectorUtils.copyToStandardObject(io.o, io.oi,
+          ObjectInspectorCopyOption.JAVA));
+    }
+  }
+}
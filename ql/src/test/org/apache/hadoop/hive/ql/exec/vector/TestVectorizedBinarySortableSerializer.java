@@ -0,0 +1,172 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.hive.ql.exec.vector;
+
+import java.util.Arrays;
+import java.util.Properties;
+
+import junit.framework.Assert;
+
+import org.apache.hadoop.hive.serde.serdeConstants;
+import org.apache.hadoop.hive.serde2.ByteStream.Output;
+import org.apache.hadoop.hive.serde2.binarysortable.BinarySortableSerDe;
+import org.apache.hadoop.hive.serde2.io.DoubleWritable;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.PrimitiveObjectInspector.PrimitiveCategory;
+import org.apache.hadoop.hive.serde2.typeinfo.TypeInfo;
+import org.apache.hadoop.hive.serde2.typeinfo.TypeInfoFactory;
+import org.apache.hadoop.hive.serde2.typeinfo.TypeInfoUtils;
+import org.apache.hadoop.io.BytesWritable;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+import org.junit.Test;
+
+/**
+ * Tests that batch rows serialize to the same bytes as BinarySortableSerDe produces,
+ * which the native vectorized map join relies on to probe the hash table.
+ */
+public class TestVectorizedBinarySortableSerializer {
+
+  private static final String COLUMNS = "a,b,c,d";
+  private static final String COLUMN_TYPES = "int,bigint,double,string";
+
+  private static final Object[][] ROWS = {
+    {new IntWritable(-7), new LongWritable(Long.MAX_VALUE), new DoubleWritable(-1.5),
+        new Text("plain")},
+    {null, new LongWritable(-3L), null, new Text("esc\u0000\u0001aped")},
+    {new IntWritable(42), null, new DoubleWritable(2.25), null},
+  };
+
+  private static Properties getProperties(String sortOrder) {
+    Properties props = new Properties();
+    props.setProperty(serdeConstants.LIST_COLUMNS, COLUMNS);
+    props.setProperty(serdeConstants.LIST_COLUMN_TYPES, COLUMN_TYPES);
+    props.setProperty(serdeConstants.SERIALIZATION_SORT_ORDER, sortOrder);
+    return props;
+  }
+
+  private static VectorizedRowBatch makeBatch() {
+    VectorizedRowBatch batch = new VectorizedRowBatch(4);
+    LongColumnVector a = new LongColumnVector();
+    LongColumnVector b = new LongColumnVector();
+    DoubleColumnVector c = new DoubleColumnVector();
+    BytesColumnVector d = new BytesColumnVector();
+    d.initBuffer();
+    for (int r = 0; r < ROWS.length; r++) {
+      Object[] row = ROWS[r];
+      if (row[0] == null) {
+        a.noNulls = false;
+        a.isNull[r] = true;
+      } else {
+        a.vector[r] = ((IntWritable) row[0]).get();
+      }
+      if (row[1] == null) {
+        b.noNulls = false;
+        b.isNull[r] = true;
+      } else {
+        b.vector[r] = ((LongWritable) row[1]).get();
+      }
+      if (row[2] == null) {
+        c.noNulls = false;
+        c.isNull[r] = true;
+      } else {
+        c.vector[r] = ((DoubleWritable) row[2]).get();
+      }
+      if (row[3] == null) {
+        d.noNulls = false;
+        d.isNull[r] = true;
+      } else {
+        Text t = (Text) row[3];
+        d.setVal(r, t.getBytes(), 0, t.getLength());
+      }
+    }
+    batch.cols[0] = a;
+    batch.cols[1] = b;
+    batch.cols[2] = c;
+    batch.cols[3] = d;
+    batch.size = ROWS.length;
+    return batch;
+  }
+
+  private static byte[] serializeRow(BinarySortableSerDe serde, Object[] row) throws Exception {
+    TypeInfo rowTypeInfo = TypeInfoFactory.getStructTypeInfo(Arrays.asList(COLUMNS.split(",")),
+        TypeInfoUtils.getTypeInfosFromTypeString(COLUMN_TYPES));
+    ObjectInspector rowOI =
+        TypeInfoUtils.getStandardWritableObjectInspectorFromTypeInfo(rowTypeInfo);
+    BytesWritable bw = (BytesWritable) serde.serialize(Arrays.asList(row), rowOI);
+    return Arrays.copyOf(bw.getBytes(), bw.getLength());
+  }
+
+  private void testSerialize(String sortOrder) throws Exception {
+    Properties props = getProperties(sortOrder);
+    BinarySortableSerDe serde = new BinarySortableSerDe();
+    serde.initialize(null, props);
+    VectorizedBinarySortableSerializer serializer =
+        VectorizedBinarySortableSerializer.create(props);
+    Assert.assertNotNull(serializer);
+
+    VectorizedRowBatch batch = makeBatch();
+    Output output = new Output();
+    for (int r = 0; r < ROWS.length; r++) {
+      output.reset();
+      serializer.serialize(output, batch, new int[] {0, 1, 2, 3}, r);
+      byte[] expected = serializeRow(serde, ROWS[r]);
+      Assert.assertTrue("row " + r, Arrays.equals(expected,
+          Arrays.copyOf(output.getData(), output.getLength())));
+    }
+  }
+
+  @Test
+  public void testSerializeAscending() throws Exception {
+    testSerialize("++++");
+  }
+
+  @Test
+  public void testSerializeDescending() throws Exception {
+    testSerialize("-+-+");
+  }
+
+  @Test
+  public void testSerializeLong() throws Exception {
+    Properties props = new Properties();
+    props.setProperty(serdeConstants.LIST_COLUMNS, "a,b");
+    props.setProperty(serdeConstants.LIST_COLUMN_TYPES, "int,bigint");
+    props.setProperty(serdeConstants.SERIALIZATION_SORT_ORDER, "+-");
+    BinarySortableSerDe serde = new BinarySortableSerDe();
+    serde.initialize(null, props);
+    TypeInfo rowTypeInfo = TypeInfoFactory.getStructTypeInfo(Arrays.asList("a", "b"),
+        TypeInfoUtils.getTypeInfosFromTypeString("int,bigint"));
+    ObjectInspector rowOI =
+        TypeInfoUtils.getStandardWritableObjectInspectorFromTypeInfo(rowTypeInfo);
+
+    long[] values = {0, -1, 1, Integer.MIN_VALUE, Integer.MAX_VALUE};
+    byte[] dest = new byte[18];
+    for (long v : values) {
+      BytesWritable bw = (BytesWritable) serde.serialize(Arrays.asList(
+          new IntWritable((int) v), new LongWritable(v)), rowOI);
+      int length = VectorizedBinarySortableSerializer.serializeLong(
+          dest, 0, v, PrimitiveCategory.INT, false);
+      length += VectorizedBinarySortableSerializer.serializeLong(
+          dest, length, v, PrimitiveCategory.LONG, true);
+      Assert.assertTrue("value " + v, Arrays.equals(
+          Arrays.copyOf(bw.getBytes(), bw.getLength()), Arrays.copyOf(dest, length)));
+    }
+  }
+}
@@ -0,0 +1,183 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.hive.ql.exec.vector;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+
+import junit.framework.Assert;
+
+import org.apache.hadoop.hive.serde.serdeConstants;
+import org.apache.hadoop.hive.serde2.AbstractSerDe;
+import org.apache.hadoop.hive.serde2.binarysortable.BinarySortableSerDe;
+import org.apache.hadoop.hive.serde2.io.DoubleWritable;
+import org.apache.hadoop.hive.serde2.lazybinary.LazyBinarySerDe;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.typeinfo.TypeInfo;
+import org.apache.hadoop.hive.serde2.typeinfo.TypeInfoFactory;
+import org.apache.hadoop.hive.serde2.typeinfo.TypeInfoUtils;
+import org.apache.hadoop.io.BytesWritable;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+import org.junit.Test;
+
+/**
+ * Tests deserialization of shuffled reduce keys and values straight into a
+ * VectorizedRowBatch.
+ */
+public class TestVectorizedShuffleDeserializers {
+
+  private static final String COLUMNS = "a,b,c,d";
+  private static final String COLUMN_TYPES = "int,bigint,double,string";
+
+  private static Properties getProperties(String sortOrder) {
+    Properties props = new Properties();
+    props.setProperty(serdeConstants.LIST_COLUMNS, COLUMNS);
+    props.setProperty(serdeConstants.LIST_COLUMN_TYPES, COLUMN_TYPES);
+    if (sortOrder != null) {
+      props.setProperty(serdeConstants.SERIALIZATION_SORT_ORDER, sortOrder);
+    }
+    return props;
+  }
+
+  private static List<Object[]> getRows() {
+    List<Object[]> rows = new ArrayList<Object[]>();
+    rows.add(new Object[] {new IntWritable(-7), new LongWritable(Long.MAX_VALUE),
+        new DoubleWritable(-1.5), new Text("plain")});
+    rows.add(new Object[] {null, new LongWritable(-3L), null, new Text("esc\u0000\u0001aped")});
+    rows.add(new Object[] {new IntWritable(42), null, new DoubleWritable(2.25), null});
+    return rows;
+  }
+
+  private static VectorizedRowBatch makeBatch() {
+    VectorizedRowBatch batch = new VectorizedRowBatch(4);
+    batch.cols[0] = new LongColumnVector();
+    batch.cols[1] = new LongColumnVector();
+    batch.cols[2] = new DoubleColumnVector();
+    batch.cols[3] = new BytesColumnVector();
+    ((BytesColumnVector) batch.cols[3]).initBuffer();
+    return batch;
+  }
+
+  private static BytesWritable serialize(AbstractSerDe serde, Object[] row) throws Exception {
+    TypeInfo rowTypeInfo = TypeInfoFactory.getStructTypeInfo(Arrays.asList(COLUMNS.split(",")),
+        TypeInfoUtils.getTypeInfosFromTypeString(COLUMN_TYPES));
+    ObjectInspector rowOI =
+        TypeInfoUtils.getStandardWritableObjectInspectorFromTypeInfo(rowTypeInfo);
+    BytesWritable bw = (BytesWritable) serde.serialize(Arrays.asList(row), rowOI);
+    // the serdes reuse their output buffer
+    BytesWritable copy = new BytesWritable();
+    copy.set(bw);
+    return copy;
+  }
+
+  private static void verify(VectorizedRowBatch batch, List<Object[]> rows) {
+    for (int r = 0; r < rows.size(); r++) {
+      Object[] row = rows.get(r);
+      LongColumnVector a = (LongColumnVector) batch.cols[0];
+      LongColumnVector b = (LongColumnVector) batch.cols[1];
+      DoubleColumnVector c = (DoubleColumnVector) batch.cols[2];
+      BytesColumnVector d = (BytesColumnVector) batch.cols[3];
+      if (row[0] == null) {
+        Assert.assertTrue(a.isNull[r]);
+      } else {
+        Assert.assertFalse(a.isNull[r]);
+        Assert.assertEquals(((IntWritable) row[0]).get(), a.vector[r]);
+      }
+      if (row[1] == null) {
+        Assert.assertTrue(b.isNull[r]);
+      } else {
+        Assert.assertFalse(b.isNull[r]);
+        Assert.assertEquals(((LongWritable) row[1]).get(), b.vector[r]);
+      }
+      if (row[2] == null) {
+        Assert.assertTrue(c.isNull[r]);
+      } else {
+        Assert.assertFalse(c.isNull[r]);
+        Assert.assertEquals(((DoubleWritable) row[2]).get(), c.vector[r]);
+      }
+      if (row[3] == null) {
+        Assert.assertTrue(d.isNull[r]);
+      } else {
+        Assert.assertFalse(d.isNull[r]);
+        Text expected = (Text) row[3];
+        Text actual = new Text();
+        actual.set(d.vector[r], d.start[r], d.length[r]);
+        Assert.assertEquals(expected, actual);
+      }
+    }
+  }
+
+  private void testBinarySortable(String sortOrder) throws Exception {
+    Properties props = getProperties(sortOrder);
+    BinarySortableSerDe serde = new BinarySortableSerDe();
+    serde.initialize(null, props);
+    VectorizedBinarySortableDeserializer deserializer =
+        VectorizedBinarySortableDeserializer.create(props);
+    Assert.assertNotNull(deserializer);
+
+    VectorizedRowBatch batch = makeBatch();
+    List<Object[]> rows = getRows();
+    for (int r = 0; r < rows.size(); r++) {
+      BytesWritable bw = serialize(serde, rows.get(r));
+      deserializer.deserialize(bw.getBytes(), 0, bw.getLength(), batch, 0, r);
+    }
+    verify(batch, rows);
+  }
+
+  @Test
+  public void testBinarySortableAscending() throws Exception {
+    testBinarySortable("++++");
+  }
+
+  @Test
+  public void testBinarySortableDescending() throws Exception {
+    testBinarySortable("-+-+");
+  }
+
+  @Test
+  public void testLazyBinary() throws Exception {
+    Properties props = getProperties(null);
+    LazyBinarySerDe serde = new LazyBinarySerDe();
+    serde.initialize(null, props);
+    VectorizedLazyBinaryDeserializer deserializer =
+        VectorizedLazyBinaryDeserializer.create(props);
+    Assert.assertNotNull(deserializer);
+
+    VectorizedRowBatch batch = makeBatch();
+    List<Object[]> rows = getRows();
+    for (int r = 0; r < rows.size(); r++) {
+      BytesWritable bw = serialize(serde, rows.get(r));
+      deserializer.deserialize(bw.getBytes(), 0, bw.getLength(), batch, 0, r);
+    }
+    verify(batch, rows);
+  }
+
+  @Test
+  public void testUnsupportedTypes() {
+    Properties props = new Properties();
+    props.setProperty(serdeConstants.LIST_COLUMNS, "a,b");
+    props.setProperty(serdeConstants.LIST_COLUMN_TYPES, "int,array<int>");
+    Assert.assertNull(VectorizedBinarySortableDeserializer.create(props));
+    Assert.assertNull(VectorizedLazyBinaryDeserializer.create(props));
+  }
+}
@@ -0,0 +1,120 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.hive.ql.io;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.mapred.JobConf;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests skipping the rest of a split through the IOContext, as the map join does for the
+ * partitions of the big table without a match.
+ */
+public class TestHiveContextAwareRecordReader {
+
+  /**
+   * Returns the rows 0 to rowCount - 1 of each split.
+   */
+  private static class CountingRecordReader
+      extends HiveContextAwareRecordReader<NullWritable, IntWritable> {
+    private final int rowCount;
+    private int row;
+
+    CountingRecordReader(int rowCount) throws IOException {
+      super(null, new JobConf());
+      this.rowCount = rowCount;
+    }
+
+    void startSplit(String path) {
+      row = 0;
+      initIOContext(0, false, new Path(path));
+    }
+
+    @Override
+    public boolean doNext(NullWritable key, IntWritable value) throws IOException {
+      if (row == rowCount) {
+        return false;
+      }
+      value.set(row++);
+      return true;
+    }
+
+    @Override
+    public void doClose() throws IOException {
+    }
+
+    @Override
+    public NullWritable createKey() {
+      return NullWritable.get();
+    }
+
+    @Override
+    public IntWritable createValue() {
+      return new IntWritable();
+    }
+
+    @Override
+    public long getPos() throws IOException {
+      return row;
+    }
+  }
+
+  @Before
+  @After
+  public void resetIOContext() {
+    IOContext.clear();
+  }
+
+  @Test
+  public void testSkipRemainingRows() throws Exception {
+    CountingRecordReader reader = new CountingRecordReader(10);
+    IntWritable value = reader.createValue();
+
+    reader.startSplit("/tmp/t/ds=1/000000_0");
+    assertFalse(IOContext.get().shouldSkipRemainingRows());
+    assertTrue(reader.next(reader.createKey(), value));
+    assertEquals(0, value.get());
+
+    // The first row has no match, the rest of the split is skipped.
+    IOContext.get().setSkipRemainingRows(true);
+    assertFalse(reader.next(reader.createKey(), value));
+    assertFalse(reader.next(reader.createKey(), value));
+    assertEquals(1, reader.getPos());
+
+    // The next split is read from the start.
+    reader.startSplit("/tmp/t/ds=2/000000_0");
+    assertFalse(IOContext.get().shouldSkipRemainingRows());
+    int rows = 0;
+    while (reader.next(reader.createKey(), value)) {
+      assertEquals(rows++, value.get());
+    }
+    assertEquals(10, rows);
+    reader.close();
+  }
+}
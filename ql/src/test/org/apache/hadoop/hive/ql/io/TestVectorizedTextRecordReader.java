@@ -0,0 +1,154 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.hive.ql.io;
+
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import org.apache.hadoop.hive.ql.exec.vector.BytesColumnVector;
+import org.apache.hadoop.hive.ql.exec.vector.DecimalColumnVector;
+import org.apache.hadoop.hive.ql.exec.vector.LongColumnVector;
+
+public class TestVectorizedTextRecordReader extends TestCase {
+
+  private static final byte[] NULL_SEQUENCE = "\\N".getBytes();
+
+  private static double parseDouble(String value) {
+    byte[] bytes = ("|" + value + "|").getBytes();
+    return VectorizedTextRecordReader.parseDouble(bytes, 1, bytes.length - 2);
+  }
+
+  private static void assertSameDouble(String value) {
+    Double expected = null;
+    Double actual = null;
+    try {
+      expected = Double.parseDouble(value);
+    } catch (NumberFormatException e) {
+      // expected stays null
+    }
+    try {
+      actual = parseDouble(value);
+    } catch (NumberFormatException e) {
+      // actual stays null
+    }
+    if (expected == null) {
+      assertNull(value, actual);
+    } else {
+      assertNotNull(value, actual);
+      assertEquals(value, Double.doubleToLongBits(expected), Double.doubleToLongBits(actual));
+    }
+  }
+
+  public void testParseDouble() throws Exception {
+    String[] values = {"0", "-0", "1.5", ".5", "5.", "+7", "00012.3400", "1e5", "1E-5",
+        "-1.25e+3", "0.1", "123456789012345", "1234567890123456", "9007199254740993",
+        "0.000000000000000000001", "1e22", "1e23", "1.7976931348623157e308", "4.9e-324",
+        " 1", "1 ", "NaN", "-Infinity", "1d", "1e", "1e+", ".", "-", "", "1.2.3", "abc"};
+    for (String value : values) {
+      assertSameDouble(value);
+    }
+    Random random = new Random(42);
+    for (int i = 0; i < 100000; i++) {
+      StringBuilder value = new StringBuilder();
+      if (random.nextBoolean()) {
+        value.append('-');
+      }
+      int digits = random.nextInt(18);
+      for (int d = 0; d < digits; d++) {
+        value.append((char) ('0' + random.nextInt(10)));
+      }
+      if (random.nextBoolean()) {
+        value.append('.');
+        digits = random.nextInt(18);
+        for (int d = 0; d < digits; d++) {
+          value.append((char) ('0' + random.nextInt(10)));
+        }
+      }
+      if (random.nextInt(4) == 0) {
+        value.append('e').append(random.nextInt(60) - 30);
+      }
+      assertSameDouble(value.toString());
+    }
+  }
+
+  public void testIntReader() throws Exception {
+    byte[] bytes = "12|\\N|x|-7||2147483648".getBytes();
+    int[] starts = {0, 3, 6, 8, 11, 12};
+    int[] lengths = {2, 2, 1, 2, 0, 10};
+    LongColumnVector vector = new LongColumnVector();
+    new VectorizedTextRecordReader.IntReader().read(vector, bytes, starts, lengths,
+        NULL_SEQUENCE, 6);
+    assertFalse(vector.noNulls);
+    assertEquals(12, vector.vector[0]);
+    assertTrue(vector.isNull[1]);
+    assertTrue(vector.isNull[2]);
+    assertEquals(-7, vector.vector[3]);
+    assertTrue(vector.isNull[4]);
+    assertTrue(vector.isNull[5]);
+    assertFalse(vector.isNull[0]);
+    assertFalse(vector.isNull[3]);
+  }
+
+  public void testBooleanReader() throws Exception {
+    byte[] bytes = "true|FaLsE|1|yes".getBytes();
+    int[] starts = {0, 5, 11, 13};
+    int[] lengths = {4, 5, 1, 3};
+    LongColumnVector vector = new LongColumnVector();
+    new VectorizedTextRecordReader.BooleanReader(false).read(vector, bytes, starts, lengths,
+        NULL_SEQUENCE, 4);
+    assertEquals(1, vector.vector[0]);
+    assertEquals(0, vector.vector[1]);
+    assertTrue(vector.isNull[2]);
+    assertTrue(vector.isNull[3]);
+
+    vector = new LongColumnVector();
+    new VectorizedTextRecordReader.BooleanReader(true).read(vector, bytes, starts, lengths,
+        NULL_SEQUENCE, 4);
+    assertEquals(1, vector.vector[2]);
+    assertTrue(vector.isNull[3]);
+  }
+
+  public void testStringReader() throws Exception {
+    byte[] bytes = "abc||\\N".getBytes();
+    int[] starts = {0, 4, 5, 7};
+    int[] lengths = {3, 0, 2, -1};
+    BytesColumnVector vector = new BytesColumnVector();
+    new VectorizedTextRecordReader.StringReader().read(vector, bytes, starts, lengths,
+        NULL_SEQUENCE, 4);
+    assertEquals("abc", new String(vector.vector[0], vector.start[0], vector.length[0]));
+    assertFalse(vector.isNull[1]);
+    assertEquals(0, vector.length[1]);
+    assertTrue(vector.isNull[2]);
+    assertTrue(vector.isNull[3]);
+  }
+
+  public void testDecimalReader() throws Exception {
+    byte[] bytes = "1.25|123456|x".getBytes();
+    int[] starts = {0, 5, 12};
+    int[] lengths = {4, 6, 1};
+    DecimalColumnVector vector = new DecimalColumnVector(5, 2);
+    new VectorizedTextRecordReader.DecimalReader().read(vector, bytes, starts, lengths,
+        NULL_SEQUENCE, 3);
+    assertEquals("1.25", vector.vector[0].toFormalString());
+    // 123456 does not fit into decimal(5,2)
+    assertTrue(vector.isNull[1]);
+    assertTrue(vector.isNull[2]);
+  }
+}
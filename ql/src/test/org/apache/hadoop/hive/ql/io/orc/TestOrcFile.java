@@ -38,6 +38,7 @@
 import java.util.Random;
 
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.hive.common.type.HiveDecimal;
@@ -1803,4 +1804,285 @@ public void testPredicatePushdown() throws Exception {
     assertTrue(!rows.hasNext());
     assertEquals(3500, rows.getRowNumber());
   }
+
+  @Test
+  public void testBloomFilterPredicatePushdown() throws Exception {
+    ObjectInspector inspector;
+    synchronized (TestOrcFile.class) {
+      inspector = ObjectInspectorFactory.getReflectionObjectInspector
+          (InnerStruct.class,
+              ObjectInspectorFactory.ObjectInspectorOptions.JAVA);
+    }
+    Writer writer = OrcFile.createWriter(testFilePath,
+        OrcFile.writerOptions(conf)
+            .fileSystem(fs)
+            .inspector(inspector)
+            .stripeSize(400000L)
+            .compress(CompressionKind.ZLIB)
+            .bufferSize(500)
+            .rowIndexStride(1000)
+            .bloomFilterColumns("int1,string1"));
+    // spread the values, so that every row group has about the same min and
+    // max
+    for(int i=0; i < 3500; ++i) {
+      int value = (i * 1009) % 3500;
+      writer.addRow(new InnerStruct(value, Integer.toHexString(value)));
+    }
+    writer.close();
+    Reader reader = OrcFile.createReader(testFilePath,
+        OrcFile.readerOptions(conf).filesystem(fs));
+
+    // 1009 is row 1 of the file
+    SearchArgument sarg = SearchArgument.FACTORY.newBuilder()
+        .startAnd()
+          .equals("int1", 1009)
+        .end()
+        .build();
+    RecordReader rows = reader.rowsOptions(new Reader.Options()
+        .range(0L, Long.MAX_VALUE)
+        .include(new boolean[]{true, true, true})
+        .searchArgument(sarg, new String[]{null, "int1", "string1"}));
+    int count = 0;
+    OrcStruct row = null;
+    while (rows.hasNext()) {
+      row = (OrcStruct) rows.next(row);
+      count += 1;
+    }
+    rows.close();
+    // only the first row group is read, although the min and max of all
+    // of them include the value
+    assertEquals(1000, count);
+
+    // 0x7e5 is 2021, which is row 3169 in the last row group
+    sarg = SearchArgument.FACTORY.newBuilder()
+        .startAnd()
+          .in("string1", "7e5", "not there")
+        .end()
+        .build();
+    rows = reader.rowsOptions(new Reader.Options()
+        .range(0L, Long.MAX_VALUE)
+        .include(new boolean[]{true, true, true})
+        .searchArgument(sarg, new String[]{null, "int1", "string1"}));
+    assertEquals(3000L, rows.getRowNumber());
+    boolean found = false;
+    count = 0;
+    while (rows.hasNext()) {
+      row = (OrcStruct) rows.next(row);
+      count += 1;
+      found |= "7e5".equals(row.getFieldValue(1).toString());
+    }
+    rows.close();
+    assertTrue(found);
+    assertEquals(500, count);
+  }
+
+  @Test
+  public void testBloomFilterIndex() throws Exception {
+    ObjectInspector inspector;
+    synchronized (TestOrcFile.class) {
+      inspector = ObjectInspectorFactory.getReflectionObjectInspector
+          (InnerStruct.class,
+              ObjectInspectorFactory.ObjectInspectorOptions.JAVA);
+    }
+    Writer writer = OrcFile.createWriter(testFilePath,
+        OrcFile.writerOptions(conf)
+            .fileSystem(fs)
+            .inspector(inspector)
+            .stripeSize(100000L)
+            .compress(CompressionKind.ZLIB)
+            .bufferSize(500)
+            .rowIndexStride(1000)
+            .bloomFilterColumns("int1,string1")
+            .bloomFilterFpp(0.05));
+    for(int i=0; i < 3500; ++i) {
+      writer.addRow(new InnerStruct(i * 7, Integer.toHexString(i * 7)));
+    }
+    writer.close();
+
+    Reader reader = OrcFile.createReader(testFilePath,
+        OrcFile.readerOptions(conf).filesystem(fs));
+    RecordReaderImpl rows = (RecordReaderImpl) reader.rows();
+    CompressionCodec codec = WriterImpl.createCodec(reader.getCompression());
+    FSDataInputStream file = fs.open(testFilePath);
+    long rowStart = 0;
+    int numStreams = 0;
+    for (StripeInformation stripe : reader.getStripes()) {
+      long offset = stripe.getOffset();
+      int rowGroups = (int) ((stripe.getNumberOfRows() + 999) / 1000);
+      for (OrcProto.Stream stream :
+          rows.readStripeFooter(stripe).getStreamsList()) {
+        if (stream.getKind() == OrcProto.Stream.Kind.BLOOM_FILTER) {
+          numStreams += 1;
+          byte[] buffer = new byte[(int) stream.getLength()];
+          file.readFully(offset, buffer);
+          OrcProto.BloomFilterIndex index =
+              OrcProto.BloomFilterIndex.parseFrom(InStream.create("bloom_filter",
+                  new ByteBuffer[] {ByteBuffer.wrap(buffer)}, new long[]{0},
+                  buffer.length, codec, reader.getCompressionSize()));
+          // one bloom filter per row group, holding the values of its rows
+          assertEquals(rowGroups, index.getBloomFilterCount());
+          for (int group = 0; group < rowGroups; ++group) {
+            BloomFilter expected = new BloomFilter(1000, 0.05);
+            long first = rowStart + group * 1000;
+            long last = Math.min(first + 1000,
+                rowStart + stripe.getNumberOfRows());
+            for (long row = first; row < last; ++row) {
+              if (stream.getColumn() == 1) {
+                expected.addLong(row * 7);
+              } else {
+                Text text = new Text(Long.toHexString(row * 7));
+                expected.addBytes(text.getBytes(), 0, text.getLength());
+              }
+            }
+            assertEquals(expected.serialize(), index.getBloomFilter(group));
+            BloomFilter actual =
+                BloomFilter.deserialize(index.getBloomFilter(group));
+            assertEquals(expected.getNumHashFunctions(),
+                actual.getNumHashFunctions());
+            assertEquals(expected.getBitSize(), actual.getBitSize());
+            if (stream.getColumn() == 1) {
+              assertTrue(actual.testLong(first * 7));
+            }
+          }
+        }
+        offset += stream.getLength();
+      }
+      rowStart += stripe.getNumberOfRows();
+    }
+    file.close();
+    rows.close();
+    assertEquals(3500, rowStart);
+    // int1 and string1 have bloom filters in every stripe
+    assertEquals(2 * reader.getStripes().size(), numStreams);
+  }
+
+  @Test
+  public void testMetadataCache() throws Exception {
+    ObjectInspector inspector;
+    synchronized (TestOrcFile.class) {
+      inspector = ObjectInspectorFactory.getReflectionObjectInspector
+          (InnerStruct.class,
+              ObjectInspectorFactory.ObjectInspectorOptions.JAVA);
+    }
+    Writer writer = OrcFile.createWriter(testFilePath,
+        OrcFile.writerOptions(conf)
+            .fileSystem(fs)
+            .inspector(inspector)
+            .compress(CompressionKind.ZLIB)
+            .bufferSize(1000));
+    for(int i=0; i < 1000; ++i) {
+      writer.addRow(new InnerStruct(i, Integer.toHexString(i)));
+    }
+    writer.close();
+    OrcFileMetadataCache cache = OrcFileMetadataCache.getInstance(conf);
+    assertNotNull(cache);
+    cache.invalidateAll();
+    long hits = cache.getStats().hitCount();
+
+    // the first reader parses the footer and the second one gets it from
+    // the cache
+    for(int i=0; i < 2; ++i) {
+      Reader reader = OrcFile.createReader(testFilePath,
+          OrcFile.readerOptions(conf).filesystem(fs)
+              .fileStatus(fs.getFileStatus(testFilePath)));
+      assertEquals(1000, reader.getNumberOfRows());
+      assertEquals(CompressionKind.ZLIB, reader.getCompression());
+      assertEquals(1000, reader.getCompressionSize());
+      assertEquals(3, reader.getMetadata().getStripeStatistics().get(0)
+          .getColumnStatistics().length);
+      RecordReader rows = reader.rows(null);
+      OrcStruct row = null;
+      int count = 0;
+      while (rows.hasNext()) {
+        row = (OrcStruct) rows.next(row);
+        assertEquals(count, ((IntWritable) row.getFieldValue(0)).get());
+        count += 1;
+      }
+      rows.close();
+      assertEquals(1000, count);
+      assertEquals(hits + i, cache.getStats().hitCount());
+    }
+    assertEquals(1, cache.getEntryCount());
+
+    // a reader without the file status doesn't use the cache
+    OrcFile.createReader(testFilePath,
+        OrcFile.readerOptions(conf).filesystem(fs));
+    assertEquals(hits + 1, cache.getStats().hitCount());
+  }
+
+  @Test
+  public void testReadAhead() throws Exception {
+    ObjectInspector inspector;
+    synchronized (TestOrcFile.class) {
+      inspector = ObjectInspectorFactory.getReflectionObjectInspector
+          (InnerStruct.class,
+              ObjectInspectorFactory.ObjectInspectorOptions.JAVA);
+    }
+    Writer writer = OrcFile.createWriter(testFilePath,
+        OrcFile.writerOptions(conf)
+            .fileSystem(fs)
+            .inspector(inspector)
+            .stripeSize(5000)
+            .compress(CompressionKind.ZLIB)
+            .bufferSize(1000)
+            .rowIndexStride(1000));
+    for(int i=0; i < 40000; ++i) {
+      writer.addRow(new InnerStruct(i, Integer.toHexString(i)));
+    }
+    writer.close();
+    conf.setBoolean(HiveConf.ConfVars.HIVE_ORC_READ_AHEAD.varname, true);
+    Reader reader = OrcFile.createReader(testFilePath,
+        OrcFile.readerOptions(conf).filesystem(fs));
+    assertTrue(reader.getStripes().size() > 2);
+
+    // read all of the columns
+    RecordReader rows = reader.rows(null);
+    OrcStruct row = null;
+    int count = 0;
+    while (rows.hasNext()) {
+      row = (OrcStruct) rows.next(row);
+      assertEquals(count, ((IntWritable) row.getFieldValue(0)).get());
+      assertEquals(Integer.toHexString(count),
+          row.getFieldValue(1).toString());
+      count += 1;
+    }
+    assertEquals(40000, count);
+
+    // seek back to the middle of a stripe that wasn't read ahead
+    rows.seekToRow(12345);
+    row = (OrcStruct) rows.next(row);
+    assertEquals(12345, ((IntWritable) row.getFieldValue(0)).get());
+    rows.close();
+
+    // read only the string column
+    rows = reader.rows(new boolean[]{true, false, true});
+    count = 0;
+    while (rows.hasNext()) {
+      row = (OrcStruct) rows.next(row);
+      assertEquals(Integer.toHexString(count),
+          row.getFieldValue(1).toString());
+      count += 1;
+    }
+    rows.close();
+    assertEquals(40000, count);
+
+    // the row groups are picked from the index that was read ahead
+    SearchArgument sarg = SearchArgument.FACTORY.newBuilder()
+        .startAnd()
+          .lessThan("int1", 3500)
+        .end()
+        .build();
+    rows = reader.rowsOptions(new Reader.Options()
+        .range(0L, Long.MAX_VALUE)
+        .include(new boolean[]{true, true, true})
+        .searchArgument(sarg, new String[]{null, "int1", "string1"}));
+    count = 0;
+    while (rows.hasNext()) {
+      row = (OrcStruct) rows.next(row);
+      assertEquals(count, ((IntWritable) row.getFieldValue(0)).get());
+      count += 1;
+    }
+    rows.close();
+    assertEquals(4000, count);
+  }
 }
@@ -569,6 +569,49 @@ public void testIn() throws Exception {
         RecordReaderImpl.evaluatePredicate(createIntStats(12L, 18L), pred));
   }
 
+  @Test
+  public void testBloomFilter() throws Exception {
+    BloomFilter intFilter = new BloomFilter(1000, 0.05);
+    BloomFilter stringFilter = new BloomFilter(1000, 0.05);
+    for (long i = 100; i < 200; i += 2) {
+      intFilter.addLong(i);
+      byte[] bytes = Long.toString(i).getBytes("UTF-8");
+      stringFilter.addBytes(bytes, 0, bytes.length);
+    }
+    PredicateLeaf pred = TestSearchArgumentImpl.createPredicateLeaf
+        (PredicateLeaf.Operator.EQUALS, PredicateLeaf.Type.INTEGER,
+            "x", 150L, null);
+    assertEquals(TruthValue.YES_NO_NULL, RecordReaderImpl.evaluatePredicate(
+        createIntStats(100L, 198L), pred, intFilter));
+    pred = TestSearchArgumentImpl.createPredicateLeaf
+        (PredicateLeaf.Operator.EQUALS, PredicateLeaf.Type.INTEGER,
+            "x", 151L, null);
+    assertEquals(TruthValue.NO_NULL, RecordReaderImpl.evaluatePredicate(
+        createIntStats(100L, 198L), pred, intFilter));
+    // without the bloom filter, only the range is checked
+    assertEquals(TruthValue.YES_NO_NULL, RecordReaderImpl.evaluatePredicate(
+        createIntStats(100L, 198L), pred));
+
+    List<Object> args = new ArrayList<Object>();
+    args.add("151");
+    args.add("153");
+    pred = TestSearchArgumentImpl.createPredicateLeaf
+        (PredicateLeaf.Operator.IN, PredicateLeaf.Type.STRING,
+            "x", null, args);
+    assertEquals(TruthValue.NO_NULL, RecordReaderImpl.evaluatePredicate(
+        createStringStats("100", "198"), pred, stringFilter));
+    args.add("152");
+    assertEquals(TruthValue.YES_NO_NULL, RecordReaderImpl.evaluatePredicate(
+        createStringStats("100", "198"), pred, stringFilter));
+
+    // other operators don't use the bloom filter
+    pred = TestSearchArgumentImpl.createPredicateLeaf
+        (PredicateLeaf.Operator.LESS_THAN, PredicateLeaf.Type.INTEGER,
+            "x", 151L, null);
+    assertEquals(TruthValue.YES_NO_NULL, RecordReaderImpl.evaluatePredicate(
+        createIntStats(100L, 198L), pred, intFilter));
+  }
+
   @Test
   public void testBetween() throws Exception {
     List<Object> args = new ArrayList<Object>();
@@ -649,6 +692,20 @@ public void testMergeDiskRanges() throws Exception {
     assertThat(list, is(diskRanges(0, 400)));
   }
 
+  @Test
+  public void testMergeDiskRangesWithGap() throws Exception {
+    List<RecordReaderImpl.DiskRange> list =
+        diskRanges(100, 200, 300, 400, 500, 600);
+    RecordReaderImpl.mergeDiskRanges(list, 99);
+    assertThat(list, is(diskRanges(100, 200, 300, 400, 500, 600)));
+    list = diskRanges(100, 200, 300, 400, 500, 600);
+    RecordReaderImpl.mergeDiskRanges(list, 100);
+    assertThat(list, is(diskRanges(100, 600)));
+    list = diskRanges(0, 100, 150, 200, 1000, 1100, 1120, 1200);
+    RecordReaderImpl.mergeDiskRanges(list, 50);
+    assertThat(list, is(diskRanges(0, 200, 1000, 1200)));
+  }
+
   @Test
   public void testGetIndexPosition() throws Exception {
     assertEquals(0, RecordReaderImpl.getIndexPosition
@@ -0,0 +1,211 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hive.ql.io.orc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hive.conf.HiveConf;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorFactory;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestName;
+
+public class TestStringDictionary {
+
+  public static class Row {
+    String str;
+
+    Row(String str) {
+      this.str = str;
+    }
+  }
+
+  Path workDir = new Path(System.getProperty("test.tmp.dir",
+      "target" + File.separator + "test" + File.separator + "tmp"));
+
+  Configuration conf;
+  FileSystem fs;
+  Path testFilePath;
+
+  @Rule
+  public TestName testCaseName = new TestName();
+
+  @Before
+  public void openFileSystem() throws Exception {
+    conf = new Configuration();
+    fs = FileSystem.getLocal(conf);
+    testFilePath = new Path(workDir, "TestStringDictionary." +
+        testCaseName.getMethodName() + ".orc");
+    fs.delete(testFilePath, false);
+  }
+
+  private Writer createWriter(long stripeSize, int rowIndexStride) throws Exception {
+    ObjectInspector inspector;
+    synchronized (TestStringDictionary.class) {
+      inspector = ObjectInspectorFactory.getReflectionObjectInspector(Row.class,
+          ObjectInspectorFactory.ObjectInspectorOptions.JAVA);
+    }
+    return OrcFile.createWriter(testFilePath,
+        OrcFile.writerOptions(conf)
+            .inspector(inspector)
+            .compress(CompressionKind.NONE)
+            .stripeSize(stripeSize)
+            .bufferSize(10000)
+            .rowIndexStride(rowIndexStride));
+  }
+
+  private List<OrcProto.ColumnEncoding.Kind> getEncodings(Reader reader) throws Exception {
+    List<OrcProto.ColumnEncoding.Kind> result =
+        new ArrayList<OrcProto.ColumnEncoding.Kind>();
+    RecordReaderImpl rows = (RecordReaderImpl) reader.rows();
+    for (StripeInformation stripe : reader.getStripes()) {
+      result.add(rows.readStripeFooter(stripe).getColumns(1).getKind());
+    }
+    rows.close();
+    return result;
+  }
+
+  private static String getString(Object row) {
+    Object value = ((OrcStruct) row).getFieldValue(0);
+    return value == null ? null : value.toString();
+  }
+
+  private static String value(int row) {
+    // a null every 7 rows and a distinct value for all others
+    return row % 7 == 3 ? null : "value-" + row;
+  }
+
+  @Test
+  public void testDirectAfterSample() throws Exception {
+    conf.setInt(HiveConf.ConfVars.HIVE_ORC_DICTIONARY_SAMPLE_ROWS.varname, 2500);
+    Writer writer = createWriter(100000000, 1000);
+    for (int i = 0; i < 20000; i++) {
+      String value = value(i);
+      writer.addRow(new Row(value));
+    }
+    writer.close();
+
+    Reader reader = OrcFile.createReader(testFilePath,
+        OrcFile.readerOptions(conf).filesystem(fs));
+    assertEquals(20000, reader.getNumberOfRows());
+    for (OrcProto.ColumnEncoding.Kind kind : getEncodings(reader)) {
+      assertEquals(OrcProto.ColumnEncoding.Kind.DIRECT_V2, kind);
+    }
+    RecordReader rows = reader.rows();
+    Object row = null;
+    for (int i = 0; i < 20000; i++) {
+      row = rows.next(row);
+      assertEquals(value(i), getString(row));
+    }
+    assertFalse(rows.hasNext());
+
+    // the row groups before and after the switch to direct encoding
+    for (int i : new int[]{0, 999, 1000, 2499, 2500, 2999, 3000, 19999}) {
+      rows.seekToRow(i);
+      row = rows.next(null);
+      assertEquals(value(i), getString(row));
+    }
+    rows.close();
+  }
+
+  @Test
+  public void testDecisionPerStripe() throws Exception {
+    conf.setInt(HiveConf.ConfVars.HIVE_ORC_DICTIONARY_SAMPLE_ROWS.varname, 1000);
+    // the writer checks its memory every 5000 rows, so every stripe has
+    // 5000 rows
+    Writer writer = createWriter(1000, 1000);
+    for (int i = 0; i < 20000; i++) {
+      // distinct values in the odd stripes, 10 values in the even ones
+      writer.addRow(new Row((i / 5000) % 2 == 1 ? "distinct-" + i : "same-" + i % 10));
+    }
+    writer.close();
+
+    Reader reader = OrcFile.createReader(testFilePath,
+        OrcFile.readerOptions(conf).filesystem(fs));
+    List<OrcProto.ColumnEncoding.Kind> encodings = getEncodings(reader);
+    assertEquals(4, encodings.size());
+    assertEquals(OrcProto.ColumnEncoding.Kind.DICTIONARY_V2, encodings.get(0));
+    assertEquals(OrcProto.ColumnEncoding.Kind.DIRECT_V2, encodings.get(1));
+    assertEquals(OrcProto.ColumnEncoding.Kind.DICTIONARY_V2, encodings.get(2));
+    assertEquals(OrcProto.ColumnEncoding.Kind.DIRECT_V2, encodings.get(3));
+    RecordReader rows = reader.rows();
+    Object row = null;
+    for (int i = 0; i < 20000; i++) {
+      row = rows.next(row);
+      assertEquals((i / 5000) % 2 == 1 ? "distinct-" + i : "same-" + i % 10, getString(row));
+    }
+    rows.close();
+  }
+
+  @Test
+  public void testCheckAtStripeEnd() throws Exception {
+    // without sampling the whole stripe decides, as the keys repeat later
+    conf.setInt(HiveConf.ConfVars.HIVE_ORC_DICTIONARY_SAMPLE_ROWS.varname, 0);
+    Writer writer = createWriter(100000000, 1000);
+    for (int i = 0; i < 20000; i++) {
+      writer.addRow(new Row("key-" + i % 5000));
+    }
+    writer.close();
+
+    Reader reader = OrcFile.createReader(testFilePath,
+        OrcFile.readerOptions(conf).filesystem(fs));
+    List<OrcProto.ColumnEncoding.Kind> encodings = getEncodings(reader);
+    assertEquals(1, encodings.size());
+    assertEquals(OrcProto.ColumnEncoding.Kind.DICTIONARY_V2, encodings.get(0));
+    RecordReader rows = reader.rows();
+    Object row = null;
+    for (int i = 0; i < 20000; i++) {
+      row = rows.next(row);
+      assertEquals("key-" + i % 5000, getString(row));
+    }
+    rows.close();
+  }
+
+  @Test
+  public void testRedBlackTreeDictionary() throws Exception {
+    conf.set(HiveConf.ConfVars.HIVE_ORC_DICTIONARY_IMPL.varname, "rbtree");
+    Writer writer = createWriter(100000000, 1000);
+    for (int i = 0; i < 20000; i++) {
+      writer.addRow(new Row("key-" + i % 500));
+    }
+    writer.close();
+
+    Reader reader = OrcFile.createReader(testFilePath,
+        OrcFile.readerOptions(conf).filesystem(fs));
+    List<OrcProto.ColumnEncoding.Kind> encodings = getEncodings(reader);
+    assertEquals(1, encodings.size());
+    assertEquals(OrcProto.ColumnEncoding.Kind.DICTIONARY_V2, encodings.get(0));
+    RecordReader rows = reader.rows();
+    Object row = null;
+    for (int i = 0; i < 20000; i++) {
+      row = rows.next(row);
+      assertEquals("key-" + i % 500, getString(row));
+    }
+    rows.close();
+  }
+}
@@ -0,0 +1,139 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.hive.ql.io.orc;
+
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.Text;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Random;
+
+import static junit.framework.Assert.assertEquals;
+
+/**
+ * Test the hash table dictionary with string keys.
+ */
+public class TestStringHashDictionary {
+
+  private static class MyVisitor implements StringDictionary.Visitor {
+    private final String[] words;
+    private final int[] order;
+    private final DataOutputBuffer buffer = new DataOutputBuffer();
+    int current = 0;
+
+    MyVisitor(String[] args, int[] order) {
+      words = args;
+      this.order = order;
+    }
+
+    @Override
+    public void visit(StringDictionary.VisitorContext context
+                     ) throws IOException {
+      String word = context.getText().toString();
+      assertEquals("in word " + current, words[current], word);
+      assertEquals("in word " + current, order[current],
+        context.getOriginalPosition());
+      buffer.reset();
+      context.writeBytes(buffer);
+      assertEquals(word, new String(buffer.getData(),0,buffer.getLength()));
+      current += 1;
+    }
+  }
+
+  void checkContents(StringDictionary dictionary, int[] order,
+                     String... params
+                    ) throws IOException {
+    MyVisitor visitor = new MyVisitor(params, order);
+    dictionary.visit(visitor);
+    assertEquals(params.length, visitor.current);
+  }
+
+  @Test
+  public void test1() throws Exception {
+    StringHashDictionary dictionary = new StringHashDictionary(5);
+    assertEquals(0, dictionary.getSizeInBytes());
+    assertEquals(0, dictionary.add("owen"));
+    assertEquals(1, dictionary.add("ashutosh"));
+    assertEquals(0, dictionary.add("owen"));
+    assertEquals(2, dictionary.add("alan"));
+    assertEquals(2, dictionary.add("alan"));
+    assertEquals(1, dictionary.add("ashutosh"));
+    assertEquals(3, dictionary.add("greg"));
+    assertEquals(4, dictionary.add("eric"));
+    assertEquals(5, dictionary.add("arun"));
+    assertEquals(6, dictionary.size());
+    assertEquals(6, dictionary.add("eric14"));
+    assertEquals(7, dictionary.add("o"));
+    assertEquals(8, dictionary.add("ziggy"));
+    assertEquals(9, dictionary.add("z"));
+    checkContents(dictionary, new int[]{2,5,1,4,6,3,7,0,9,8},
+      "alan", "arun", "ashutosh", "eric", "eric14", "greg",
+      "o", "owen", "z", "ziggy");
+    assertEquals(3, dictionary.add("greg"));
+    assertEquals(41, dictionary.getCharacterSize());
+    Text text = new Text();
+    dictionary.getText(text, 5);
+    assertEquals("arun", text.toString());
+    dictionary.clear();
+    assertEquals(0, dictionary.size());
+    assertEquals(0, dictionary.getSizeInBytes());
+    assertEquals(0, dictionary.getCharacterSize());
+    assertEquals(0, dictionary.add("zak"));
+    checkContents(dictionary, new int[]{0}, "zak");
+  }
+
+  @Test
+  public void testEmpty() throws Exception {
+    StringHashDictionary dictionary = new StringHashDictionary(10);
+    checkContents(dictionary, new int[0]);
+    assertEquals(0, dictionary.add(""));
+    assertEquals(1, dictionary.add("a"));
+    assertEquals(0, dictionary.add(new Text()));
+    checkContents(dictionary, new int[]{0, 1}, "", "a");
+  }
+
+  /**
+   * Compare with the red-black tree for enough keys to grow the table and
+   * exercise the quick sort.
+   */
+  @Test
+  public void testSameAsRedBlackTree() throws Exception {
+    StringHashDictionary dictionary = new StringHashDictionary(16);
+    StringRedBlackTree tree = new StringRedBlackTree(16);
+    Random random = new Random(42);
+    for (int i = 0; i < 20000; ++i) {
+      String key = Integer.toString(random.nextInt(5000), 2 + random.nextInt(35));
+      assertEquals(key, tree.add(key), dictionary.add(key));
+    }
+    assertEquals(tree.size(), dictionary.size());
+    final String[] words = new String[tree.size()];
+    final int[] order = new int[tree.size()];
+    tree.visit(new StringDictionary.Visitor() {
+      private int current = 0;
+
+      @Override
+      public void visit(StringDictionary.VisitorContext context) {
+        words[current] = context.getText().toString();
+        order[current++] = context.getOriginalPosition();
+      }
+    });
+    checkContents(dictionary, order, words);
+  }
+}
@@ -22,7 +22,9 @@
 import java.sql.Date;
 import java.sql.Timestamp;
 import java.util.Calendar;
+import java.util.HashSet;
 import java.util.Random;
+import java.util.Set;
 
 import junit.framework.Assert;
 
@@ -131,6 +133,80 @@ public void createFile() throws Exception {
     checkVectorizedReader();
   }
 
+  @Test
+  public void writeBatches() throws Exception {
+    createFile();
+    ObjectInspector inspector;
+    synchronized (TestVectorizedORCReader.class) {
+      inspector = ObjectInspectorFactory.getReflectionObjectInspector
+          (MyRecord.class, ObjectInspectorFactory.ObjectInspectorOptions.JAVA);
+    }
+    Path batchFilePath = new Path("TestVectorizedORCReader.testBatches.orc");
+    fs.delete(batchFilePath, false);
+
+    // copy the file a batch at a time, dropping the first row of every other
+    // batch through the batch's selection
+    Reader reader = OrcFile.createReader(testFilePath,
+        OrcFile.readerOptions(conf));
+    RecordReaderImpl vrr = (RecordReaderImpl) reader.rows();
+    Writer writer = OrcFile.createWriter(fs, batchFilePath, conf, inspector,
+        100000, CompressionKind.ZLIB, 10000, 10000);
+    Set<Long> dropped = new HashSet<Long>();
+    VectorizedRowBatch batch = null;
+    long rowNumber = 0;
+    int batchNumber = 0;
+    while (vrr.hasNext()) {
+      batch = vrr.nextBatch(batch);
+      int size = batch.size;
+      if (batchNumber++ % 2 == 1) {
+        for (int i = 1; i < size; i++) {
+          batch.selected[i - 1] = i;
+        }
+        batch.selectedInUse = true;
+        batch.size = size - 1;
+        dropped.add(rowNumber);
+      }
+      writer.addRowBatch(batch);
+      batch.selectedInUse = false;
+      rowNumber += size;
+    }
+    writer.close();
+
+    Reader batchReader = OrcFile.createReader(batchFilePath,
+        OrcFile.readerOptions(conf));
+    Assert.assertEquals(reader.getNumberOfRows() - dropped.size(),
+        batchReader.getNumberOfRows());
+    RecordReader rr = reader.rows();
+    RecordReader brr = batchReader.rows();
+    OrcStruct row = null;
+    OrcStruct batchRow = null;
+    rowNumber = 0;
+    while (rr.hasNext()) {
+      row = (OrcStruct) rr.next(row);
+      if (dropped.contains(rowNumber++)) {
+        continue;
+      }
+      Assert.assertEquals(true, brr.hasNext());
+      batchRow = (OrcStruct) brr.next(batchRow);
+      for (int j = 0; j < row.getNumFields(); j++) {
+        Assert.assertEquals(row.getFieldValue(j), batchRow.getFieldValue(j));
+      }
+    }
+    Assert.assertEquals(false, brr.hasNext());
+    rr.close();
+    brr.close();
+
+    // the statistics only cover the rows that were written
+    long numRows = batchReader.getNumberOfRows();
+    Assert.assertEquals(numRows,
+        batchReader.getStatistics()[0].getNumberOfValues());
+    Assert.assertEquals(200 * numRows,
+        ((IntegerColumnStatistics) batchReader.getStatistics()[4]).getSum());
+    Assert.assertEquals(
+        ((IntegerColumnStatistics) reader.getStatistics()[3]).getMaximum(),
+        ((IntegerColumnStatistics) batchReader.getStatistics()[3]).getMaximum());
+  }
+
   private void checkVectorizedReader() throws Exception {
 
     Reader vreader = OrcFile.createReader(testFilePath,
@@ -0,0 +1,424 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hive.ql.io.parquet.read;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.LocalFileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hive.ql.exec.Utilities;
+import org.apache.hadoop.hive.ql.exec.mr.ExecMapper;
+import org.apache.hadoop.hive.ql.exec.vector.BytesColumnVector;
+import org.apache.hadoop.hive.ql.exec.vector.ColumnVector;
+import org.apache.hadoop.hive.ql.exec.vector.DoubleColumnVector;
+import org.apache.hadoop.hive.ql.exec.vector.LongColumnVector;
+import org.apache.hadoop.hive.ql.exec.vector.TimestampUtils;
+import org.apache.hadoop.hive.ql.exec.vector.VectorizedRowBatch;
+import org.apache.hadoop.hive.ql.io.parquet.MapredParquetInputFormat;
+import org.apache.hadoop.hive.ql.io.parquet.MapredParquetOutputFormat;
+import org.apache.hadoop.hive.ql.io.parquet.ProjectionPusher;
+import org.apache.hadoop.hive.ql.io.parquet.serde.ParquetHiveSerDe;
+import org.apache.hadoop.hive.ql.io.parquet.timestamp.NanoTimeUtils;
+import org.apache.hadoop.hive.ql.plan.MapWork;
+import org.apache.hadoop.hive.ql.plan.PartitionDesc;
+import org.apache.hadoop.hive.ql.plan.TableDesc;
+import org.apache.hadoop.hive.serde.serdeConstants;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.mapred.FileSplit;
+import org.apache.hadoop.mapred.JobConf;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestName;
+
+import parquet.column.Encoding;
+import parquet.hadoop.ParquetFileReader;
+import parquet.hadoop.ParquetWriter;
+import parquet.hadoop.api.WriteSupport;
+import parquet.hadoop.metadata.BlockMetaData;
+import parquet.hadoop.metadata.ColumnChunkMetaData;
+import parquet.hadoop.metadata.CompressionCodecName;
+import parquet.hadoop.metadata.ParquetMetadata;
+import parquet.io.api.Binary;
+import parquet.io.api.RecordConsumer;
+import parquet.schema.MessageType;
+import parquet.schema.MessageTypeParser;
+
+/**
+ * Tests the vectorized reader of Parquet files by writing files and reading
+ * them back split by split.
+ */
+public class TestColumnarParquetRecordReader {
+
+  private static final MessageType FILE_SCHEMA = MessageTypeParser.parseMessageType(
+      "message test {\n"
+      + "  required int32 id;\n"
+      + "  optional int32 small;\n"
+      + "  optional float ratio;\n"
+      + "  required double amount;\n"
+      + "  optional binary name (UTF8);\n"
+      + "  optional int96 ts;\n"
+      + "}");
+
+  // the table reads the int32 and float columns into wider types, and has a
+  // column the files were written without
+  private static final String TABLE_COLUMNS = "id,small,ratio,amount,name,ts,extra";
+  private static final String TABLE_COLUMN_TYPES =
+      "int:bigint:double:double:string:timestamp:string";
+  private static final int MISSING_COLUMN = 6;
+
+  private static final Timestamp BASE_TIME = Timestamp.valueOf("2014-06-01 12:00:00");
+
+  Path workDir = new Path(System.getProperty("test.tmp.dir",
+      "target" + File.separator + "test" + File.separator + "tmp"));
+
+  JobConf conf;
+  LocalFileSystem fs;
+  Path tableDir;
+  // the names repeat every so many rows, until the row they are all distinct from
+  int names;
+  int distinctNamesFrom = Integer.MAX_VALUE;
+
+  @Rule
+  public TestName testCaseName = new TestName();
+
+  /**
+   * Writes rows of the file schema, leaving out their null values.
+   */
+  private static class RowWriteSupport extends WriteSupport<Object[]> {
+    private RecordConsumer recordConsumer;
+
+    @Override
+    public WriteContext init(Configuration configuration) {
+      return new WriteContext(FILE_SCHEMA, new HashMap<String, String>());
+    }
+
+    @Override
+    public void prepareForWrite(RecordConsumer recordConsumer) {
+      this.recordConsumer = recordConsumer;
+    }
+
+    @Override
+    public void write(Object[] row) {
+      recordConsumer.startMessage();
+      for (int i = 0; i < row.length; i++) {
+        Object value = row[i];
+        if (value == null) {
+          continue;
+        }
+        String field = FILE_SCHEMA.getFieldName(i);
+        recordConsumer.startField(field, i);
+        if (value instanceof Integer) {
+          recordConsumer.addInteger((Integer) value);
+        } else if (value instanceof Float) {
+          recordConsumer.addFloat((Float) value);
+        } else if (value instanceof Double) {
+          recordConsumer.addDouble((Double) value);
+        } else if (value instanceof String) {
+          recordConsumer.addBinary(Binary.fromString((String) value));
+        } else {
+          recordConsumer.addBinary(NanoTimeUtils.getNanoTime((Timestamp) value).toBinary());
+        }
+        recordConsumer.endField(field, i);
+      }
+      recordConsumer.endMessage();
+    }
+  }
+
+  @Before
+  public void openFileSystem() throws Exception {
+    Utilities.clearWorkMap();
+    conf = new JobConf();
+    fs = FileSystem.getLocal(conf);
+    Path testDir = fs.makeQualified(new Path(workDir,
+        "TestColumnarParquetRecordReader." + testCaseName.getMethodName()));
+    fs.delete(testDir, true);
+    tableDir = new Path(testDir, "tbl");
+    fs.mkdirs(tableDir);
+
+    conf.set("hive.exec.plan", testDir.toString());
+    conf.set("mapred.job.tracker", "local");
+    conf.set("mapred.mapper.class", ExecMapper.class.getName());
+    conf.set("mapred.input.dir", tableDir.toString());
+    conf.set("hive.io.file.readcolumn.ids", "0,1,2,3,4,5,6");
+
+    Properties tblProps = new Properties();
+    tblProps.put("name", "tbl");
+    tblProps.put(serdeConstants.SERIALIZATION_LIB, ParquetHiveSerDe.class.getName());
+    tblProps.put(serdeConstants.LIST_COLUMNS, TABLE_COLUMNS);
+    tblProps.put(serdeConstants.LIST_COLUMN_TYPES, TABLE_COLUMN_TYPES);
+    TableDesc tbl = new TableDesc(MapredParquetInputFormat.class,
+        MapredParquetOutputFormat.class, tblProps);
+    PartitionDesc part = new PartitionDesc(tbl, new LinkedHashMap<String, String>());
+
+    MapWork mapWork = new MapWork();
+    mapWork.setVectorMode(true);
+    LinkedHashMap<String, PartitionDesc> partMap = new LinkedHashMap<String, PartitionDesc>();
+    partMap.put(tableDir.toString(), part);
+    mapWork.setPathToPartitionInfo(partMap);
+    mapWork.setScratchColumnMap(new HashMap<String, Map<String, Integer>>());
+    mapWork.setScratchColumnVectorTypes(new HashMap<String, Map<Integer, String>>());
+
+    FSDataOutputStream planStream = fs.getRaw().create(new Path(testDir, "map.xml"));
+    Utilities.serializePlan(mapWork, planStream, conf);
+    planStream.close();
+  }
+
+  /**
+   * @return the values of a row in the types they are written with
+   */
+  private Object[] createRow(int i) {
+    Timestamp ts = null;
+    if (i % 11 != 0) {
+      ts = new Timestamp(BASE_TIME.getTime() + i * 1000L);
+      ts.setNanos(i * 1000 + 7);
+    }
+    return new Object[] {
+        i,
+        i % 7 == 0 ? null : i % 10,
+        i % 5 == 0 ? null : i / 4f,
+        i * 1.5,
+        i % 3 == 0 ? null : "name" + (i < distinctNamesFrom ? i % names : i),
+        ts};
+  }
+
+  /**
+   * @return the value of a row in its column vector, which holds longs for
+   *         ints and timestamps and doubles for floats
+   */
+  private static Object toVectorValue(Object value) {
+    if (value instanceof Integer) {
+      return ((Integer) value).longValue();
+    } else if (value instanceof Float) {
+      return ((Float) value).doubleValue();
+    } else if (value instanceof Timestamp) {
+      return TimestampUtils.getTimeNanoSec((Timestamp) value);
+    }
+    return value;
+  }
+
+  private Path writeFile(int rows, int blockSize, boolean enableDictionary,
+      int dictionaryPageSize) throws Exception {
+    Path path = new Path(tableDir, "000000_0");
+    ParquetWriter<Object[]> writer = new ParquetWriter<Object[]>(path, new RowWriteSupport(),
+        CompressionCodecName.UNCOMPRESSED, blockSize, 1024, dictionaryPageSize,
+        enableDictionary, false);
+    for (int i = 0; i < rows; i++) {
+      writer.write(createRow(i));
+    }
+    writer.close();
+    return path;
+  }
+
+  private static void assertValue(String column, ColumnVector vector, int row,
+      Object expected) throws Exception {
+    if (vector.isRepeating) {
+      row = 0;
+    }
+    if (expected == null) {
+      assertFalse(column + " has no nulls", vector.noNulls);
+      assertTrue(column + " is null", vector.isNull[row]);
+      return;
+    }
+    assertTrue(column + " is not null", vector.noNulls || !vector.isNull[row]);
+    if (vector instanceof LongColumnVector) {
+      assertEquals(column, expected, ((LongColumnVector) vector).vector[row]);
+    } else if (vector instanceof DoubleColumnVector) {
+      assertEquals(column, expected, ((DoubleColumnVector) vector).vector[row]);
+    } else {
+      BytesColumnVector bytes = (BytesColumnVector) vector;
+      assertEquals(column, expected, new String(bytes.vector[row], bytes.start[row],
+          bytes.length[row], "UTF-8"));
+    }
+  }
+
+  /**
+   * Reads a split and checks every value of its rows.
+   * @return the ids of the rows read
+   */
+  private List<Integer> readSplit(FileSplit split) throws Exception {
+    ColumnarParquetRecordReader reader =
+        ColumnarParquetRecordReader.create(split, conf, new ProjectionPusher());
+    assertNotNull(reader);
+    NullWritable key = reader.createKey();
+    VectorizedRowBatch batch = reader.createValue();
+    String[] columns = TABLE_COLUMNS.split(",");
+    List<Integer> ids = new ArrayList<Integer>();
+    while (reader.next(key, batch)) {
+      assertTrue(batch.size > 0);
+      assertFalse(batch.selectedInUse);
+      // the required columns have no nulls
+      assertTrue(batch.cols[0].noNulls);
+      assertTrue(batch.cols[3].noNulls);
+      ColumnVector missing = batch.cols[MISSING_COLUMN];
+      assertTrue(missing.isRepeating);
+      assertFalse(missing.noNulls);
+      assertTrue(missing.isNull[0]);
+      for (int row = 0; row < batch.size; row++) {
+        int id = (int) ((LongColumnVector) batch.cols[0]).vector[row];
+        Object[] expected = createRow(id);
+        for (int column = 0; column < expected.length; column++) {
+          assertValue(columns[column] + " of row " + id, batch.cols[column], row,
+              toVectorValue(expected[column]));
+        }
+        ids.add(id);
+      }
+    }
+    reader.close();
+    return ids;
+  }
+
+  private void checkFile(Path path, int rows) throws Exception {
+    long length = fs.getFileStatus(path).getLen();
+    List<Integer> ids = readSplit(new FileSplit(path, 0, length, (String[]) null));
+    assertEquals(rows, ids.size());
+    for (int i = 0; i < rows; i++) {
+      assertEquals(i, (int) ids.get(i));
+    }
+  }
+
+  private ColumnChunkMetaData getColumnChunk(ParquetMetadata footer, String column) {
+    for (ColumnChunkMetaData chunk : footer.getBlocks().get(0).getColumns()) {
+      if (chunk.getPath().toDotString().equals(column)) {
+        return chunk;
+      }
+    }
+    throw new AssertionError("no column chunk of " + column);
+  }
+
+  @Test
+  public void testDictionaryPages() throws Exception {
+    names = 20;
+    // one row group of a few batches, the last one not full
+    Path path = writeFile(5000, 128 * 1024 * 1024, true, 64 * 1024);
+
+    ParquetMetadata footer = ParquetFileReader.readFooter(conf, path);
+    assertEquals(1, footer.getBlocks().size());
+    assertTrue(getColumnChunk(footer, "small").getEncodings()
+        .contains(Encoding.PLAIN_DICTIONARY));
+    assertTrue(getColumnChunk(footer, "name").getEncodings()
+        .contains(Encoding.PLAIN_DICTIONARY));
+
+    checkFile(path, 5000);
+  }
+
+  @Test
+  public void testPlainPages() throws Exception {
+    names = 20;
+    Path path = writeFile(5000, 128 * 1024 * 1024, false, 64 * 1024);
+
+    ParquetMetadata footer = ParquetFileReader.readFooter(conf, path);
+    assertFalse(getColumnChunk(footer, "small").getEncodings()
+        .contains(Encoding.PLAIN_DICTIONARY));
+    assertFalse(getColumnChunk(footer, "name").getEncodings()
+        .contains(Encoding.PLAIN_DICTIONARY));
+
+    checkFile(path, 5000);
+  }
+
+  @Test
+  public void testDictionaryFallback() throws Exception {
+    // the dictionary of the names outgrows its page once they are distinct,
+    // so the writer falls back to plain pages in the middle of the column chunk
+    names = 20;
+    distinctNamesFrom = 4000;
+    Path path = writeFile(8000, 128 * 1024 * 1024, true, 1024);
+
+    ParquetMetadata footer = ParquetFileReader.readFooter(conf, path);
+    ColumnChunkMetaData name = getColumnChunk(footer, "name");
+    assertTrue(name.getEncodings().contains(Encoding.PLAIN_DICTIONARY));
+    assertTrue(name.getEncodings().contains(Encoding.PLAIN));
+
+    checkFile(path, 8000);
+  }
+
+  @Test
+  public void testRowGroupsAndSplits() throws Exception {
+    names = 20;
+    final int rows = 20000;
+    Path path = writeFile(rows, 16 * 1024, true, 1024);
+    ParquetMetadata footer = ParquetFileReader.readFooter(conf, path);
+    List<BlockMetaData> blocks = footer.getBlocks();
+    assertTrue(blocks.size() > 2);
+
+    checkFile(path, rows);
+
+    // split the file halfway between the starts of its row groups; every row
+    // group is read by the split holding its start
+    List<Long> boundaries = new ArrayList<Long>();
+    boundaries.add(0L);
+    for (int i = 1; i < blocks.size(); i++) {
+      boundaries.add((blocks.get(i - 1).getColumns().get(0).getFirstDataPageOffset()
+          + blocks.get(i).getColumns().get(0).getFirstDataPageOffset()) / 2);
+    }
+    boundaries.add(fs.getFileStatus(path).getLen());
+
+    List<Integer> ids = new ArrayList<Integer>();
+    for (int i = 0; i + 1 < boundaries.size(); i++) {
+      long start = boundaries.get(i);
+      FileSplit split = new FileSplit(path, start, boundaries.get(i + 1) - start,
+          (String[]) null);
+      List<Integer> splitIds = readSplit(split);
+      assertEquals("rows of split " + i, blocks.get(i).getRowCount(), splitIds.size());
+      ids.addAll(splitIds);
+    }
+    assertEquals(rows, ids.size());
+    for (int i = 0; i < rows; i++) {
+      assertEquals(i, (int) ids.get(i));
+    }
+
+    // a split without the start of a row group reads nothing
+    long start = blocks.get(1).getColumns().get(0).getFirstDataPageOffset() + 1;
+    assertTrue(readSplit(new FileSplit(path, start, 10, (String[]) null)).isEmpty());
+  }
+
+  @Test
+  public void testMissingFileColumns() throws Exception {
+    names = 20;
+    Path path = writeFile(100, 128 * 1024 * 1024, true, 64 * 1024);
+    // only the id and the column the file does not have are read
+    conf.set("hive.io.file.readcolumn.ids", "0," + MISSING_COLUMN);
+
+    ColumnarParquetRecordReader reader = ColumnarParquetRecordReader.create(
+        new FileSplit(path, 0, fs.getFileStatus(path).getLen(), (String[]) null), conf,
+        new ProjectionPusher());
+    VectorizedRowBatch batch = reader.createValue();
+    assertTrue(reader.next(reader.createKey(), batch));
+    assertEquals(100, batch.size);
+    for (int row = 0; row < batch.size; row++) {
+      assertEquals(row, ((LongColumnVector) batch.cols[0]).vector[row]);
+    }
+    ColumnVector missing = batch.cols[MISSING_COLUMN];
+    assertTrue(missing.isRepeating);
+    assertFalse(missing.noNulls);
+    assertTrue(missing.isNull[0]);
+    assertFalse(reader.next(reader.createKey(), batch));
+    reader.close();
+  }
+}
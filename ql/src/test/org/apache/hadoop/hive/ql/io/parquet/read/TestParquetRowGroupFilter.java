@@ -0,0 +1,131 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hive.ql.io.parquet.read;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.hadoop.hive.ql.io.sarg.PredicateLeaf;
+import org.apache.hadoop.hive.ql.io.sarg.SearchArgument.TruthValue;
+import org.apache.hadoop.hive.ql.io.sarg.TestSearchArgumentImpl;
+import org.junit.Test;
+
+import parquet.column.statistics.BinaryStatistics;
+import parquet.column.statistics.DoubleStatistics;
+import parquet.column.statistics.IntStatistics;
+import parquet.column.statistics.Statistics;
+import parquet.io.api.Binary;
+
+public class TestParquetRowGroupFilter {
+
+  private static IntStatistics createIntStats(int min, int max) {
+    IntStatistics stats = new IntStatistics();
+    stats.updateStats(min);
+    stats.updateStats(max);
+    return stats;
+  }
+
+  private static DoubleStatistics createDoubleStats(double min, double max) {
+    DoubleStatistics stats = new DoubleStatistics();
+    stats.updateStats(min);
+    stats.updateStats(max);
+    return stats;
+  }
+
+  private static PredicateLeaf createLeaf(PredicateLeaf.Operator operator,
+      PredicateLeaf.Type type, Object literal) {
+    return TestSearchArgumentImpl.createPredicateLeaf(operator, type, "x", literal, null);
+  }
+
+  private static PredicateLeaf createListLeaf(PredicateLeaf.Operator operator,
+      PredicateLeaf.Type type, Object... literals) {
+    List<Object> literalList = new ArrayList<Object>();
+    for (Object literal : literals) {
+      literalList.add(literal);
+    }
+    return TestSearchArgumentImpl.createPredicateLeaf(operator, type, "x", null, literalList);
+  }
+
+  @Test
+  public void testIntStats() throws Exception {
+    Statistics stats = createIntStats(10, 100);
+    assertEquals(TruthValue.NO_NULL, ParquetRowGroupFilter.evaluate(
+        createLeaf(PredicateLeaf.Operator.EQUALS, PredicateLeaf.Type.INTEGER, 5L), stats, 10));
+    assertEquals(TruthValue.YES_NO_NULL, ParquetRowGroupFilter.evaluate(
+        createLeaf(PredicateLeaf.Operator.EQUALS, PredicateLeaf.Type.INTEGER, 15L), stats, 10));
+    assertEquals(TruthValue.NO, ParquetRowGroupFilter.evaluate(
+        createLeaf(PredicateLeaf.Operator.NULL_SAFE_EQUALS, PredicateLeaf.Type.INTEGER, 101L),
+        stats, 10));
+    assertEquals(TruthValue.NO_NULL, ParquetRowGroupFilter.evaluate(
+        createLeaf(PredicateLeaf.Operator.LESS_THAN, PredicateLeaf.Type.INTEGER, 10L), stats, 10));
+    assertEquals(TruthValue.YES_NULL, ParquetRowGroupFilter.evaluate(
+        createLeaf(PredicateLeaf.Operator.LESS_THAN_EQUALS, PredicateLeaf.Type.INTEGER, 100L),
+        stats, 10));
+    assertEquals(TruthValue.NO_NULL, ParquetRowGroupFilter.evaluate(
+        createListLeaf(PredicateLeaf.Operator.IN, PredicateLeaf.Type.INTEGER, 1L, 200L),
+        stats, 10));
+    assertEquals(TruthValue.YES_NO_NULL, ParquetRowGroupFilter.evaluate(
+        createListLeaf(PredicateLeaf.Operator.IN, PredicateLeaf.Type.INTEGER, 1L, 50L),
+        stats, 10));
+    assertEquals(TruthValue.NO_NULL, ParquetRowGroupFilter.evaluate(
+        createListLeaf(PredicateLeaf.Operator.BETWEEN, PredicateLeaf.Type.INTEGER, 101L, 200L),
+        stats, 10));
+    assertEquals(TruthValue.YES_NULL, ParquetRowGroupFilter.evaluate(
+        createListLeaf(PredicateLeaf.Operator.BETWEEN, PredicateLeaf.Type.INTEGER, 0L, 100L),
+        stats, 10));
+    // literals of another type never eliminate the row group
+    assertEquals(TruthValue.YES_NO_NULL, ParquetRowGroupFilter.evaluate(
+        createLeaf(PredicateLeaf.Operator.EQUALS, PredicateLeaf.Type.STRING, "5"), stats, 10));
+  }
+
+  @Test
+  public void testDoubleStats() throws Exception {
+    Statistics stats = createDoubleStats(-1.5, 2.5);
+    assertEquals(TruthValue.NO_NULL, ParquetRowGroupFilter.evaluate(
+        createLeaf(PredicateLeaf.Operator.EQUALS, PredicateLeaf.Type.FLOAT, 3.0), stats, 10));
+    assertEquals(TruthValue.YES_NO_NULL, ParquetRowGroupFilter.evaluate(
+        createLeaf(PredicateLeaf.Operator.LESS_THAN, PredicateLeaf.Type.FLOAT, 0.0), stats, 10));
+    assertEquals(TruthValue.YES_NULL, ParquetRowGroupFilter.evaluate(
+        createLeaf(PredicateLeaf.Operator.LESS_THAN, PredicateLeaf.Type.FLOAT, 3.0), stats, 10));
+    assertEquals(TruthValue.YES_NO_NULL, ParquetRowGroupFilter.evaluate(
+        createLeaf(PredicateLeaf.Operator.EQUALS, PredicateLeaf.Type.FLOAT, 3.0),
+        createDoubleStats(Double.NaN, 1.0), 10));
+  }
+
+  @Test
+  public void testNulls() throws Exception {
+    Statistics stats = new IntStatistics();
+    for (int i = 0; i < 10; i++) {
+      stats.incrementNumNulls();
+    }
+    assertEquals(TruthValue.YES, ParquetRowGroupFilter.evaluate(
+        createLeaf(PredicateLeaf.Operator.IS_NULL, PredicateLeaf.Type.INTEGER, null), stats, 10));
+    assertEquals(TruthValue.NULL, ParquetRowGroupFilter.evaluate(
+        createLeaf(PredicateLeaf.Operator.EQUALS, PredicateLeaf.Type.INTEGER, 5L), stats, 10));
+    assertEquals(TruthValue.YES_NO, ParquetRowGroupFilter.evaluate(
+        createLeaf(PredicateLeaf.Operator.IS_NULL, PredicateLeaf.Type.INTEGER, null),
+        createIntStats(1, 2), 10));
+  }
+
+  @Test
+  public void testBinaryStatsAreNotUsed() throws Exception {
+    BinaryStatistics stats = new BinaryStatistics();
+    stats.updateStats(Binary.fromString("a"));
+    stats.updateStats(Binary.fromString("b"));
+    assertEquals(TruthValue.YES_NO_NULL, ParquetRowGroupFilter.evaluate(
+        createLeaf(PredicateLeaf.Operator.EQUALS, PredicateLeaf.Type.STRING, "z"), stats, 10));
+  }
+}
@@ -22,13 +22,16 @@
 
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 
 import junit.framework.TestCase;
 
+import org.apache.hadoop.fs.FSDataOutputStream;
 import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.hive.conf.HiveConf;
 import org.apache.hadoop.hive.conf.HiveConf.ConfVars;
 import org.apache.hadoop.hive.metastore.MetaStoreUtils;
@@ -388,6 +391,75 @@ public void testPartition() throws Throwable {
     }
   }
 
+  /**
+   * Tests loading dynamic partitions when the files of one of them can't be moved: the others
+   * are loaded, and the error names the failed one.
+   */
+  public void testLoadDynamicPartitions() throws Throwable {
+    String tableName = "table_for_testloaddynamicpartitions";
+    int numParts = 10;
+    int failedPart = 3;
+    try {
+      hm.dropTable(MetaStoreUtils.DEFAULT_DATABASE_NAME, tableName);
+      LinkedList<String> cols = new LinkedList<String>();
+      cols.add("key");
+      cols.add("value");
+      LinkedList<String> partCols = new LinkedList<String>();
+      partCols.add("ds");
+      hm.createTable(tableName, cols, partCols, TextInputFormat.class,
+          HiveIgnoreKeyTextOutputFormat.class);
+      Table tbl = hm.getTable(MetaStoreUtils.DEFAULT_DATABASE_NAME, tableName);
+
+      List<LinkedHashMap<String, String>> partSpecs =
+          new ArrayList<LinkedHashMap<String, String>>();
+      for (int i = 0; i < numParts; i++) {
+        LinkedHashMap<String, String> partSpec = new LinkedHashMap<String, String>();
+        partSpec.put("ds", String.valueOf(i));
+        partSpecs.add(partSpec);
+      }
+      // the first partition exists already and is altered, the others are added
+      hm.createPartition(tbl, partSpecs.get(0));
+
+      FileSystem fs = tbl.getPath().getFileSystem(hiveConf);
+      Path loadPath = new Path(tbl.getPath().getParent(), tableName + "_load");
+      fs.delete(loadPath, true);
+      for (int i = 0; i < numParts; i++) {
+        FSDataOutputStream out = fs.create(new Path(loadPath, "ds=" + i + "/000000_0"));
+        out.writeBytes(i + "\tvalue\n");
+        out.close();
+      }
+      // a file where the directory of the partition should be fails its move
+      fs.create(new Path(tbl.getPath(), "ds=" + failedPart)).close();
+
+      try {
+        hm.loadDynamicPartitions(loadPath, tableName, new HashMap<String, String>(), false, 1,
+            false, false);
+        fail("The load of partition " + failedPart + " should fail");
+      } catch (HiveException e) {
+        assertTrue(e.getMessage(), e.getMessage().startsWith(
+            "Failed to load 1 of " + numParts + " dynamic partitions of default@" + tableName));
+        assertTrue(e.getMessage(), e.getMessage().contains(partSpecs.get(failedPart) + ": "));
+      }
+
+      List<Partition> parts = hm.getPartitionsBySpecs(tbl, partSpecs);
+      assertEquals(numParts, parts.size());
+      for (int i = 0; i < numParts; i++) {
+        if (i == failedPart) {
+          assertNull(parts.get(i));
+          continue;
+        }
+        assertEquals(partSpecs.get(i), parts.get(i).getSpec());
+        assertTrue(fs.exists(new Path(parts.get(i).getDataLocation(), "000000_0")));
+      }
+      fs.delete(loadPath, true);
+      hm.dropTable(MetaStoreUtils.DEFAULT_DATABASE_NAME, tableName);
+    } catch (Throwable e) {
+      System.err.println(StringUtils.stringifyException(e));
+      System.err.println("testLoadDynamicPartitions() failed");
+      throw e;
+    }
+  }
+
   /**
    * Tests creating a simple index on a simple table.
    *
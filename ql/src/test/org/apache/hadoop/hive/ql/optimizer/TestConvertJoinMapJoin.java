@@ -0,0 +1,217 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.hive.ql.optimizer;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.hadoop.hive.metastore.api.FieldSchema;
+import org.apache.hadoop.hive.ql.exec.JoinOperator;
+import org.apache.hadoop.hive.ql.exec.MapJoinOperator;
+import org.apache.hadoop.hive.ql.exec.Operator;
+import org.apache.hadoop.hive.ql.exec.OperatorFactory;
+import org.apache.hadoop.hive.ql.exec.TableScanOperator;
+import org.apache.hadoop.hive.ql.metadata.Table;
+import org.apache.hadoop.hive.ql.parse.ParseContext;
+import org.apache.hadoop.hive.ql.plan.ExprNodeColumnDesc;
+import org.apache.hadoop.hive.ql.plan.ExprNodeDesc;
+import org.apache.hadoop.hive.ql.plan.FilterDesc;
+import org.apache.hadoop.hive.ql.plan.JoinCondDesc;
+import org.apache.hadoop.hive.ql.plan.JoinDesc;
+import org.apache.hadoop.hive.ql.plan.MapJoinDesc;
+import org.apache.hadoop.hive.ql.plan.OperatorDesc;
+import org.apache.hadoop.hive.ql.plan.ReduceSinkDesc;
+import org.apache.hadoop.hive.ql.plan.SelectDesc;
+import org.apache.hadoop.hive.ql.plan.TableScanDesc;
+import org.apache.hadoop.hive.serde2.typeinfo.TypeInfoFactory;
+import org.junit.Test;
+
+public class TestConvertJoinMapJoin {
+
+  private static ExprNodeColumnDesc column(String name) {
+    return new ExprNodeColumnDesc(TypeInfoFactory.intTypeInfo, name, "t", false);
+  }
+
+  /**
+   * Creates a reduce sink with the key column "key", and the given value columns.
+   */
+  private static Operator<ReduceSinkDesc> reduceSink(String... values) {
+    ReduceSinkDesc desc = new ReduceSinkDesc();
+    desc.setKeyCols(new ArrayList<ExprNodeDesc>(Arrays.<ExprNodeDesc>asList(column("key"))));
+    ArrayList<ExprNodeDesc> valueCols = new ArrayList<ExprNodeDesc>();
+    Map<String, ExprNodeDesc> colExprMap = new HashMap<String, ExprNodeDesc>();
+    colExprMap.put("KEY.reducesinkkey0", column("key"));
+    for (int i = 0; i < values.length; i++) {
+      valueCols.add(column(values[i]));
+      colExprMap.put("VALUE._col" + i, column(values[i]));
+    }
+    desc.setValueCols(valueCols);
+    Operator<ReduceSinkDesc> rs = OperatorFactory.get(desc);
+    rs.setColumnExprMap(colExprMap);
+    return rs;
+  }
+
+  /**
+   * Creates a join of the reduce sinks, which outputs the given columns of each of them.
+   */
+  private static JoinOperator join(Operator<ReduceSinkDesc> left, List<String> leftColumns,
+      Operator<ReduceSinkDesc> right, List<String> rightColumns) {
+    Map<Byte, List<ExprNodeDesc>> exprs = new HashMap<Byte, List<ExprNodeDesc>>();
+    exprs.put((byte) 0, columns(leftColumns));
+    exprs.put((byte) 1, columns(rightColumns));
+    JoinOperator joinOp = (JoinOperator) OperatorFactory.get(
+        new JoinDesc(exprs, new ArrayList<String>()));
+    List<Operator<? extends OperatorDesc>> parents =
+        new ArrayList<Operator<? extends OperatorDesc>>();
+    parents.add(left);
+    parents.add(right);
+    joinOp.setParentOperators(parents);
+    return joinOp;
+  }
+
+  private static List<ExprNodeDesc> columns(List<String> names) {
+    List<ExprNodeDesc> result = new ArrayList<ExprNodeDesc>();
+    for (String name : names) {
+      result.add(column(name));
+    }
+    return result;
+  }
+
+  @Test
+  public void testCanSpillSmallTable() throws Exception {
+    // The small table (1) only outputs values.
+    JoinOperator joinOp = join(reduceSink("a"), Arrays.asList("VALUE._col0"),
+        reduceSink("b"), Arrays.asList("VALUE._col0"));
+    assertTrue(ConvertJoinMapJoin.canSpillSmallTable(joinOp, 1));
+
+    // The small table outputs its key, which the map join takes from the hashtable key.
+    joinOp = join(reduceSink("a"), Arrays.asList("VALUE._col0"),
+        reduceSink("b"), Arrays.asList("KEY.reducesinkkey0", "VALUE._col0"));
+    assertFalse(ConvertJoinMapJoin.canSpillSmallTable(joinOp, 1));
+
+    // Only the values of the small table matter.
+    joinOp = join(reduceSink("a"), Arrays.asList("KEY.reducesinkkey0"),
+        reduceSink("b"), Arrays.asList("VALUE._col0"));
+    assertTrue(ConvertJoinMapJoin.canSpillSmallTable(joinOp, 1));
+    assertFalse(ConvertJoinMapJoin.canSpillSmallTable(joinOp, 0));
+  }
+
+  /**
+   * Creates a scan of the table, followed by a filter and a select which outputs the columns
+   * "_col0" (ds) and "_col1" (key), and registers the scan in the parse context.
+   */
+  private static Operator<SelectDesc> scan(Table table, ParseContext parseContext) {
+    TableScanOperator tableScan =
+        (TableScanOperator) OperatorFactory.get(new TableScanDesc(table.getTableName()));
+    parseContext.getTopToTable().put(tableScan, table);
+    Operator<FilterDesc> filter =
+        OperatorFactory.getAndMakeChild(new FilterDesc(column("key"), false), tableScan);
+    Map<String, ExprNodeDesc> colExprMap = new HashMap<String, ExprNodeDesc>();
+    colExprMap.put("_col0", column("ds"));
+    colExprMap.put("_col1", column("key"));
+    Operator<SelectDesc> select = OperatorFactory.getAndMakeChild(
+        new SelectDesc(columns(Arrays.asList("ds", "key")), Arrays.asList("_col0", "_col1")),
+        filter);
+    select.setColumnExprMap(colExprMap);
+    return select;
+  }
+
+  /**
+   * Creates a map join of the big table (0) on the given keys with a reduce sink (1).
+   */
+  private static MapJoinOperator mapJoin(int joinType, Operator<? extends OperatorDesc> bigTable,
+      String... keys) {
+    MapJoinDesc desc = new MapJoinDesc();
+    Map<Byte, List<ExprNodeDesc>> keyExprs = new HashMap<Byte, List<ExprNodeDesc>>();
+    keyExprs.put((byte) 0, columns(Arrays.asList(keys)));
+    keyExprs.put((byte) 1, columns(Arrays.asList("KEY.reducesinkkey0")));
+    desc.setKeys(keyExprs);
+    desc.setConds(new JoinCondDesc[] {new JoinCondDesc(0, 1, joinType)});
+    return (MapJoinOperator) OperatorFactory.getAndMakeChild(desc, bigTable, reduceSink("b"));
+  }
+
+  private static Table table(boolean partitioned) {
+    Table table = new Table("default", "t");
+    if (partitioned) {
+      table.setPartCols(new ArrayList<FieldSchema>(
+          Arrays.asList(new FieldSchema("ds", "string", null))));
+    }
+    return table;
+  }
+
+  private static ParseContext parseContext() {
+    ParseContext parseContext = new ParseContext();
+    parseContext.setTopToTable(new HashMap<TableScanOperator, Table>());
+    return parseContext;
+  }
+
+  @Test
+  public void testCanPruneBigTablePartitions() throws Exception {
+    // An inner or left semi join on the partition column.
+    ParseContext parseContext = parseContext();
+    MapJoinOperator mapJoinOp = mapJoin(JoinDesc.INNER_JOIN,
+        scan(table(true), parseContext), "_col0");
+    assertTrue(ConvertJoinMapJoin.canPruneBigTablePartitions(mapJoinOp, 0, parseContext));
+    mapJoinOp = mapJoin(JoinDesc.LEFT_SEMI_JOIN, scan(table(true), parseContext), "_col0");
+    assertTrue(ConvertJoinMapJoin.canPruneBigTablePartitions(mapJoinOp, 0, parseContext));
+
+    // Rows of the big table without a match are still output by an outer join.
+    mapJoinOp = mapJoin(JoinDesc.LEFT_OUTER_JOIN, scan(table(true), parseContext), "_col0");
+    assertFalse(ConvertJoinMapJoin.canPruneBigTablePartitions(mapJoinOp, 0, parseContext));
+
+    // A key which is not a partition column, or not the only key, differs between the rows.
+    mapJoinOp = mapJoin(JoinDesc.INNER_JOIN, scan(table(true), parseContext), "_col1");
+    assertFalse(ConvertJoinMapJoin.canPruneBigTablePartitions(mapJoinOp, 0, parseContext));
+    mapJoinOp = mapJoin(JoinDesc.INNER_JOIN, scan(table(true), parseContext), "_col0", "_col1");
+    assertFalse(ConvertJoinMapJoin.canPruneBigTablePartitions(mapJoinOp, 0, parseContext));
+
+    // The table is not partitioned.
+    mapJoinOp = mapJoin(JoinDesc.INNER_JOIN, scan(table(false), parseContext), "_col0");
+    assertFalse(ConvertJoinMapJoin.canPruneBigTablePartitions(mapJoinOp, 0, parseContext));
+
+    // The position is the small table, which is not scanned.
+    mapJoinOp = mapJoin(JoinDesc.INNER_JOIN, scan(table(true), parseContext), "_col0");
+    assertFalse(ConvertJoinMapJoin.canPruneBigTablePartitions(mapJoinOp, 1, parseContext));
+  }
+
+  @Test
+  public void testCanPruneBigTablePartitionsWithOtherConsumers() throws Exception {
+    // Another operator reads the rows of the scan, which must not be skipped for it.
+    ParseContext parseContext = parseContext();
+    Operator<SelectDesc> select = scan(table(true), parseContext);
+    Operator<? extends OperatorDesc> tableScan =
+        select.getParentOperators().get(0).getParentOperators().get(0);
+    OperatorFactory.getAndMakeChild(new FilterDesc(column("key"), false), tableScan);
+    MapJoinOperator mapJoinOp = mapJoin(JoinDesc.INNER_JOIN, select, "_col0");
+    assertFalse(ConvertJoinMapJoin.canPruneBigTablePartitions(mapJoinOp, 0, parseContext));
+
+    // The same for the select before the join.
+    parseContext = parseContext();
+    select = scan(table(true), parseContext);
+    mapJoinOp = mapJoin(JoinDesc.INNER_JOIN, select, "_col0");
+    OperatorFactory.getAndMakeChild(new FilterDesc(column("_col1"), false), select);
+    assertFalse(ConvertJoinMapJoin.canPruneBigTablePartitions(mapJoinOp, 0, parseContext));
+  }
+}
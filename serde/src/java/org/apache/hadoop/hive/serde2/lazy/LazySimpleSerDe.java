@@ -171,6 +171,10 @@ public byte getEscapeChar() {
     public boolean[] getNeedsEscape() {
       return needsEscape;
     }
+
+    public boolean isExtendedBooleanLiteral() {
+      return extendedBooleanLiteral;
+    }
   }
 
   SerDeParameters serdeParams = null;
@@ -567,6 +571,13 @@ public static void serialize(ByteStream.Output out, Object obj,
         + objInspector.getCategory());
   }
 
+  /**
+   * Returns the parameters the SerDe was initialized with.
+   */
+  public SerDeParameters getSerdeParams() {
+    return serdeParams;
+  }
+
   /**
    * Returns the statistics after (de)serialization)
    */
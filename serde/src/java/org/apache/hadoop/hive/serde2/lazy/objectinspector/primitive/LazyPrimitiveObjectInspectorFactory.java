@@ -19,8 +19,7 @@
 package org.apache.hadoop.hive.serde2.lazy.objectinspector.primitive;
 
 import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.hadoop.hive.serde.serdeConstants;
 import org.apache.hadoop.hive.serde2.objectinspector.PrimitiveObjectInspector.PrimitiveCategory;
@@ -78,12 +77,13 @@ private LazyPrimitiveObjectInspectorFactory() {
     // prevent instantiation
   }
 
-  private static HashMap<ArrayList<Object>, LazyStringObjectInspector> cachedLazyStringObjectInspector =
-      new HashMap<ArrayList<Object>, LazyStringObjectInspector>();
+  private static ConcurrentHashMap<ArrayList<Object>, LazyStringObjectInspector>
+     cachedLazyStringObjectInspector =
+      new ConcurrentHashMap<ArrayList<Object>, LazyStringObjectInspector>();
 
-  private static Map<PrimitiveTypeInfo, AbstractPrimitiveLazyObjectInspector<?>>
+  private static ConcurrentHashMap<PrimitiveTypeInfo, AbstractPrimitiveLazyObjectInspector<?>>
      cachedPrimitiveLazyObjectInspectors =
-    new HashMap<PrimitiveTypeInfo, AbstractPrimitiveLazyObjectInspector<?>>();
+    new ConcurrentHashMap<PrimitiveTypeInfo, AbstractPrimitiveLazyObjectInspector<?>>();
   static {
     cachedPrimitiveLazyObjectInspectors.put(TypeInfoFactory.getPrimitiveTypeInfo(serdeConstants.BOOLEAN_TYPE_NAME),
         LAZY_BOOLEAN_OBJECT_INSPECTOR);
@@ -151,8 +151,9 @@ public static AbstractPrimitiveLazyObjectInspector<?> getLazyObjectInspector(
           "Primitve type " + typeInfo.getPrimitiveCategory() + " should not take parameters");
     }
 
-    cachedPrimitiveLazyObjectInspectors.put(typeInfo, poi);
-    return poi;
+    AbstractPrimitiveLazyObjectInspector<?> prev =
+      cachedPrimitiveLazyObjectInspectors.putIfAbsent(typeInfo, poi);
+    return prev == null ? poi : prev;
   }
 
   public static LazyStringObjectInspector getLazyStringObjectInspector(boolean escaped, byte escapeChar) {
@@ -163,7 +164,11 @@ public static LazyStringObjectInspector getLazyStringObjectInspector(boolean esc
         .get(signature);
     if (result == null) {
       result = new LazyStringObjectInspector(escaped, escapeChar);
-      cachedLazyStringObjectInspector.put(signature, result);
+      LazyStringObjectInspector prev =
+        cachedLazyStringObjectInspector.putIfAbsent(signature, result);
+      if (prev != null) {
+        result = prev;
+      }
     }
     return result;
   }
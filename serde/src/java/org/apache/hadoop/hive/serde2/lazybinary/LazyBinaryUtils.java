@@ -18,8 +18,8 @@
 package org.apache.hadoop.hive.serde2.lazybinary;
 
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -429,7 +429,8 @@ public static void writeDouble(RandomAccessOutput byteStream, double d) {
     byteStream.write((byte) (v));
   }
 
-  static HashMap<TypeInfo, ObjectInspector> cachedLazyBinaryObjectInspector = new HashMap<TypeInfo, ObjectInspector>();
+  static ConcurrentHashMap<TypeInfo, ObjectInspector> cachedLazyBinaryObjectInspector =
+      new ConcurrentHashMap<TypeInfo, ObjectInspector>();
 
   /**
    * Returns the lazy binary object inspector that can be used to inspect an
@@ -486,7 +487,12 @@ public static ObjectInspector getLazyBinaryObjectInspectorFromTypeInfo(
         result = null;
       }
       }
-      cachedLazyBinaryObjectInspector.put(typeInfo, result);
+      if (result != null) {
+        ObjectInspector prev = cachedLazyBinaryObjectInspector.putIfAbsent(typeInfo, result);
+        if (prev != null) {
+          result = prev;
+        }
+      }
     }
     return result;
   }
@@ -31,6 +31,19 @@
 import com.google.common.primitives.Ints;
 import com.google.common.primitives.Longs;
 import com.google.common.primitives.Shorts;
+import org.apache.hadoop.hive.serde2.SerDeUtils;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.PrimitiveObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.PrimitiveObjectInspector.PrimitiveCategory;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.BinaryObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.BooleanObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.ByteObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.DoubleObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.FloatObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.IntObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.LongObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.ShortObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.StringObjectInspector;
 import org.apache.hive.service.cli.thrift.TBinaryColumn;
 import org.apache.hive.service.cli.thrift.TBoolColumn;
 import org.apache.hive.service.cli.thrift.TByteColumn;
@@ -367,6 +380,86 @@ public void addValue(Type type, Object field) {
     size++;
   }
 
+  /**
+   * Add a field as it comes from the operator tree. Primitive fields of the
+   * column's type are copied into the column without boxing them, and the
+   * other fields are converted to their thrift payload first.
+   */
+  public void addValue(Type type, Object field, ObjectInspector fieldOI, int protocol) {
+    if (field != null && fieldOI.getCategory() == ObjectInspector.Category.PRIMITIVE) {
+      PrimitiveObjectInspector poi = (PrimitiveObjectInspector) fieldOI;
+      PrimitiveCategory category = poi.getPrimitiveCategory();
+      switch (type) {
+        case BOOLEAN_TYPE:
+          if (category == PrimitiveCategory.BOOLEAN) {
+            nulls.set(size, false);
+            boolVars()[size++] = ((BooleanObjectInspector) poi).get(field);
+            return;
+          }
+          break;
+        case TINYINT_TYPE:
+          if (category == PrimitiveCategory.BYTE) {
+            nulls.set(size, false);
+            byteVars()[size++] = ((ByteObjectInspector) poi).get(field);
+            return;
+          }
+          break;
+        case SMALLINT_TYPE:
+          if (category == PrimitiveCategory.SHORT) {
+            nulls.set(size, false);
+            shortVars()[size++] = ((ShortObjectInspector) poi).get(field);
+            return;
+          }
+          break;
+        case INT_TYPE:
+          if (category == PrimitiveCategory.INT) {
+            nulls.set(size, false);
+            intVars()[size++] = ((IntObjectInspector) poi).get(field);
+            return;
+          }
+          break;
+        case BIGINT_TYPE:
+          if (category == PrimitiveCategory.LONG) {
+            nulls.set(size, false);
+            longVars()[size++] = ((LongObjectInspector) poi).get(field);
+            return;
+          }
+          break;
+        case FLOAT_TYPE:
+          if (category == PrimitiveCategory.FLOAT) {
+            nulls.set(size, false);
+            doubleVars()[size++] = ((FloatObjectInspector) poi).get(field);
+            return;
+          }
+          break;
+        case DOUBLE_TYPE:
+          if (category == PrimitiveCategory.DOUBLE) {
+            nulls.set(size, false);
+            doubleVars()[size++] = ((DoubleObjectInspector) poi).get(field);
+            return;
+          }
+          break;
+        case STRING_TYPE:
+          if (category == PrimitiveCategory.STRING) {
+            nulls.set(size, false);
+            stringVars.add(((StringObjectInspector) poi).getPrimitiveJavaObject(field));
+            size++;
+            return;
+          }
+          break;
+        case BINARY_TYPE:
+          if (category == PrimitiveCategory.BINARY) {
+            nulls.set(size, false);
+            binaryVars.add(ByteBuffer.wrap(((BinaryObjectInspector) poi).getPrimitiveJavaObject(field)));
+            size++;
+            return;
+          }
+          break;
+      }
+    }
+    addValue(type, field == null ? null : SerDeUtils.toThriftPayload(field, fieldOI, protocol));
+  }
+
   private boolean[] boolVars() {
     if (boolVars.length == size) {
       boolean[] newVars = new boolean[size << 1];
@@ -22,6 +22,8 @@
 import java.util.Iterator;
 import java.util.List;
 
+import org.apache.hadoop.hive.serde2.objectinspector.StructField;
+import org.apache.hadoop.hive.serde2.objectinspector.StructObjectInspector;
 import org.apache.hive.service.cli.thrift.TColumn;
 import org.apache.hive.service.cli.thrift.TRow;
 import org.apache.hive.service.cli.thrift.TRowSet;
@@ -67,6 +69,23 @@ public ColumnBasedSet addRow(Object[] fields) {
     return this;
   }
 
+  /**
+   * Add a row as it comes from the operator tree, copying its fields straight
+   * into the columns.
+   * @param row the row
+   * @param rowOI the object inspector of the row
+   * @param protocol the protocol version of the client
+   */
+  public ColumnBasedSet addRow(Object row, StructObjectInspector rowOI, int protocol) {
+    List<? extends StructField> fields = rowOI.getAllStructFieldRefs();
+    for (int i = 0; i < fields.size(); i++) {
+      StructField field = fields.get(i);
+      columns.get(i).addValue(types[i], rowOI.getStructFieldData(row, field),
+          field.getFieldObjectInspector(), protocol);
+    }
+    return this;
+  }
+
   public List<Column> getColumns() {
     return columns;
   }
@@ -23,6 +23,7 @@
 import java.io.UnsupportedEncodingException;
 import java.security.PrivilegedExceptionAction;
 import java.sql.SQLException;
+import java.util.AbstractList;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
@@ -36,6 +37,7 @@
 import org.apache.hadoop.hive.ql.CommandNeedRetryException;
 import org.apache.hadoop.hive.ql.Driver;
 import org.apache.hadoop.hive.ql.exec.ExplainTask;
+import org.apache.hadoop.hive.ql.exec.ListSinkOperator;
 import org.apache.hadoop.hive.ql.exec.Task;
 import org.apache.hadoop.hive.ql.metadata.Hive;
 import org.apache.hadoop.hive.ql.metadata.HiveException;
@@ -53,6 +55,7 @@
 import org.apache.hadoop.hive.shims.ShimLoader;
 import org.apache.hadoop.io.BytesWritable;
 import org.apache.hadoop.security.UserGroupInformation;
+import org.apache.hive.service.cli.ColumnBasedSet;
 import org.apache.hive.service.cli.FetchOrientation;
 import org.apache.hive.service.cli.HiveSQLException;
 import org.apache.hive.service.cli.OperationState;
@@ -296,6 +299,12 @@ public RowSet getNextRowSet(FetchOrientation orientation, long maxRows) throws H
       }
       fetchStarted = true;
       driver.setMaxRows((int) maxRows);
+      if (driver.isFetchingTable() && rowSet instanceof ColumnBasedSet) {
+        // the fetch task copies the rows straight into the columns
+        driver.getResults(new ColumnCollector((ColumnBasedSet) rowSet,
+            getProtocolVersion().getValue()));
+        return rowSet;
+      }
       if (driver.getResults(convey)) {
         return decode(convey, rowSet);
       }
@@ -311,6 +320,36 @@ public RowSet getNextRowSet(FetchOrientation orientation, long maxRows) throws H
     }
   }
 
+  /**
+   * The results of a fetch task, collected into the columns of the row set
+   * without converting each row to an array of thrift payloads first.
+   */
+  private static class ColumnCollector extends AbstractList<Object>
+      implements ListSinkOperator.RowCollector {
+    private final ColumnBasedSet rowSet;
+    private final int protocol;
+
+    ColumnCollector(ColumnBasedSet rowSet, int protocol) {
+      this.rowSet = rowSet;
+      this.protocol = protocol;
+    }
+
+    @Override
+    public void collect(Object row, ObjectInspector rowOI) {
+      rowSet.addRow(row, (StructObjectInspector) rowOI, protocol);
+    }
+
+    @Override
+    public Object get(int index) {
+      return rowSet.fill(index, new Object[rowSet.numColumns()]);
+    }
+
+    @Override
+    public int size() {
+      return rowSet.numRows();
+    }
+  }
+
   private RowSet decode(List<Object> rows, RowSet rowSet) throws Exception {
     if (driver.isFetchingTable()) {
       return prepareFromRow(rows, rowSet);
@@ -22,6 +22,7 @@
 import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.hive.common.LogUtils;
 import org.apache.hadoop.hive.common.LogUtils.LogInitializationException;
+import org.apache.hadoop.hive.common.metrics.Metrics;
 import org.apache.hadoop.hive.conf.HiveConf;
 import org.apache.hadoop.hive.conf.HiveConf.ConfVars;
 import org.apache.hadoop.hive.ql.exec.tez.TezSessionPoolManager;
@@ -65,6 +66,16 @@ public synchronized void init(HiveConf hiveConf) {
     }
 
     addService(thriftCLIService);
+
+    if (hiveConf.getBoolVar(HiveConf.ConfVars.HIVE_SERVER2_METRICS_ENABLED)) {
+      try {
+        Metrics.init();
+      } catch (Exception e) {
+        // log exception, but ignore inability to start
+        LOG.error("Error in Metrics init: " + e.getClass().getName() + " "
+            + e.getMessage(), e);
+      }
+    }
     super.init(hiveConf);
   }
 
@@ -0,0 +1,101 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hive.service.cli;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+import junit.framework.Assert;
+
+import org.apache.hadoop.hive.serde2.SerDeUtils;
+import org.apache.hadoop.hive.serde2.io.DoubleWritable;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.objectinspector.StructField;
+import org.apache.hadoop.hive.serde2.objectinspector.StructObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hive.service.cli.thrift.TProtocolVersion;
+import org.junit.Test;
+
+public class TestColumnBasedSet {
+
+  private static final int PROTOCOL = TProtocolVersion.HIVE_CLI_SERVICE_PROTOCOL_V6.getValue();
+
+  @Test
+  public void testAddRowFromObjectInspector() throws Exception {
+    TableSchema schema = new TableSchema()
+        .addPrimitiveColumn("i", Type.INT_TYPE, null)
+        .addPrimitiveColumn("l", Type.BIGINT_TYPE, null)
+        .addPrimitiveColumn("d", Type.DOUBLE_TYPE, null)
+        .addStringColumn("s", null)
+        .addStringColumn("list", null);
+    List<String> names = Arrays.asList("i", "l", "d", "s", "list");
+    List<ObjectInspector> fieldOIs = new ArrayList<ObjectInspector>();
+    fieldOIs.add(PrimitiveObjectInspectorFactory.writableIntObjectInspector);
+    fieldOIs.add(PrimitiveObjectInspectorFactory.javaLongObjectInspector);
+    fieldOIs.add(PrimitiveObjectInspectorFactory.writableDoubleObjectInspector);
+    fieldOIs.add(PrimitiveObjectInspectorFactory.writableStringObjectInspector);
+    fieldOIs.add(ObjectInspectorFactory.getStandardListObjectInspector(
+        PrimitiveObjectInspectorFactory.writableIntObjectInspector));
+    StructObjectInspector rowOI =
+        ObjectInspectorFactory.getStandardStructObjectInspector(names, fieldOIs);
+
+    List<List<Object>> rows = new ArrayList<List<Object>>();
+    rows.add(Arrays.<Object>asList(new IntWritable(1), 2L, new DoubleWritable(3.5),
+        new Text("four"), Arrays.asList(new IntWritable(5), new IntWritable(6))));
+    rows.add(Arrays.<Object>asList(null, null, null, null, null));
+    rows.add(Arrays.<Object>asList(new IntWritable(-1), Long.MAX_VALUE,
+        new DoubleWritable(-0.5), new Text(""), new ArrayList<Object>()));
+
+    // the rows copied from the operator tree are the same as the converted rows
+    ColumnBasedSet direct = new ColumnBasedSet(schema);
+    ColumnBasedSet converted = new ColumnBasedSet(schema);
+    for (List<Object> row : rows) {
+      direct.addRow(row, rowOI, PROTOCOL);
+      converted.addRow(convert(row, rowOI));
+    }
+    Assert.assertEquals(rows.size(), direct.numRows());
+    Iterator<Object[]> expected = converted.iterator();
+    Iterator<Object[]> actual = direct.iterator();
+    while (expected.hasNext()) {
+      Assert.assertTrue(actual.hasNext());
+      Assert.assertEquals(Arrays.asList(expected.next()), Arrays.asList(actual.next()));
+    }
+    Assert.assertFalse(actual.hasNext());
+    Assert.assertEquals(Arrays.<Object>asList(1, 2L, 3.5, "four", "[5,6]"),
+        Arrays.asList(direct.fill(0, new Object[5])));
+    Assert.assertEquals(converted.toTRowSet(), direct.toTRowSet());
+  }
+
+  private static Object[] convert(List<Object> row, StructObjectInspector rowOI) {
+    List<? extends StructField> fields = rowOI.getAllStructFieldRefs();
+    Object[] result = new Object[fields.size()];
+    for (int i = 0; i < result.length; i++) {
+      Object field = rowOI.getStructFieldData(row, fields.get(i));
+      result[i] = field == null ? null :
+          SerDeUtils.toThriftPayload(field, fields.get(i).getFieldObjectInspector(), PROTOCOL);
+    }
+    return result;
+  }
+}